@@ -16,13 +16,19 @@
 
 package org.opencb.biodata.formats.drug.drugbank;
 
+import org.opencb.biodata.formats.drug.drugbank.v43jaxb.DrugType;
+import org.opencb.biodata.formats.io.XmlEntryReader;
+
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.function.Consumer;
 
 /**
  * Created by mbleda on 25/09/15.
@@ -30,6 +36,7 @@ import java.io.FileOutputStream;
 public class DrugBankParser {
 
     public final static String DRUGBANK_CONTEXT_v43 = "org.opencb.commons.biodata.drug.drugbank.v43jaxb";
+    public final static QName DRUG_v43 = new QName("http://www.drugbank.ca", "drug");
 
     public static void saveXMLInfo(Object obj, String filename) throws FileNotFoundException, JAXBException {
         JAXBContext jaxbContext;
@@ -50,4 +57,26 @@ public class DrugBankParser {
         obj =  unmarshaller.unmarshal(new File(filename));
         return obj;
     }
+
+    /**
+     * Creates a reader of the drugs of a DrugBank file, unmarshalling one drug at a time instead of the whole file.
+     *
+     * @param path          DrugBank XML file, optionally gzipped
+     * @param numThreads    Number of threads unmarshalling drugs
+     * @return              Drug reader
+     */
+    public static XmlEntryReader<DrugType> newDrugReader(Path path, int numThreads) {
+        return new XmlEntryReader<>(path, DRUG_v43, DrugType.class, numThreads);
+    }
+
+    /**
+     * Streams the drugs of a DrugBank file to the consumer, in file order.
+     *
+     * @param path          DrugBank XML file, optionally gzipped
+     * @param numThreads    Number of threads unmarshalling drugs
+     * @param consumer      Drug consumer
+     */
+    public static void parse(Path path, int numThreads, Consumer<DrugType> consumer) {
+        newDrugReader(path, numThreads).forEachEntry(consumer);
+    }
 }
@@ -36,6 +36,8 @@ import java.util.regex.Pattern;
 
 public class GtfReader implements AutoCloseable {
 
+    private static final Pattern KV_PATTERN = Pattern.compile("(\\S*)\\s\"(.*)\"");
+
     private BufferedReader bufferedReader;
     private File file;
 
@@ -51,32 +53,13 @@ public class GtfReader implements AutoCloseable {
     }
 
     public Gtf read() throws FileFormatException {
-        final Pattern kvpattern = Pattern.compile("(\\S*)\\s\"(.*)\"");
         try {
             String line = "";
             while ((line = bufferedReader.readLine()) != null && (line.trim().equals("") || line.startsWith("#"))) {
                 ;
             }
             if (line != null) {
-                String[] fields = line.split("\t");
-                Map<String, String> attributes = new HashMap<String, String>();
-                String[] attrFields = fields[8].split(";");
-                String k, v;
-                for (int i = 0; i < attrFields.length; i++) {
-                    final Matcher matcher = kvpattern.matcher(attrFields[i].trim());
-                    if (matcher.matches()) {
-                        k = matcher.group(1);
-                        v = matcher.group(2);
-                        if(attributes.containsKey(k)) {
-                            attributes.put(k, attributes.get(k)+","+v);
-                        } else {
-                            attributes.put(k, v);
-                        }
-                    } else {
-                        System.err.println("GTF attribute '" + attrFields[i] + "' size must be 2. At line:\n\t"+line);
-                    }
-                }
-                return new Gtf(fields[0], fields[1], fields[2], Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), fields[5], fields[6], fields[7], attributes);
+                return parseLine(line);
             } else {
                 return null;
             }
@@ -85,6 +68,34 @@ public class GtfReader implements AutoCloseable {
         }
     }
 
+    /**
+     * Parse a GTF line, not being a comment.
+     *
+     * @param line  GTF line
+     * @return      Gtf object
+     */
+    public static Gtf parseLine(String line) {
+        String[] fields = line.split("\t");
+        Map<String, String> attributes = new HashMap<String, String>();
+        String[] attrFields = fields[8].split(";");
+        String k, v;
+        for (int i = 0; i < attrFields.length; i++) {
+            final Matcher matcher = KV_PATTERN.matcher(attrFields[i].trim());
+            if (matcher.matches()) {
+                k = matcher.group(1);
+                v = matcher.group(2);
+                if(attributes.containsKey(k)) {
+                    attributes.put(k, attributes.get(k)+","+v);
+                } else {
+                    attributes.put(k, v);
+                }
+            } else {
+                System.err.println("GTF attribute '" + attrFields[i] + "' size must be 2. At line:\n\t"+line);
+            }
+        }
+        return new Gtf(fields[0], fields[1], fields[2], Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), fields[5], fields[6], fields[7], attributes);
+    }
+
     public List<Gtf> read(int numberLines) throws FileFormatException {
         List<Gtf> records = new ArrayList<Gtf>(numberLines);
         try {
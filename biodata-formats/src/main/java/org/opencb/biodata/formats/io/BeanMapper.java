@@ -0,0 +1,193 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.formats.io;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the fields of a line to a bean, calling a constructor with one argument per field.
+ *
+ * Each argument is parsed from its field as {@link BeanReader} always did, with the constructor of the argument class
+ * taking a String, but common types (String, boxed and primitive numbers, Boolean) are parsed directly, and the
+ * constructors are called through method handles. Mappers are built once per constructor and are thread safe.
+ *
+ * Created on 19/10/26.
+ */
+final class BeanMapper<T> {
+
+    private static final Map<Constructor<?>, BeanMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+    private static final String REGEX_META_CHARACTERS = ".$|()[{^?*+\\";
+
+    @FunctionalInterface
+    private interface FieldParser {
+        Object parse(String field) throws Throwable;
+    }
+
+    private final Constructor<T> constructor;
+    private final MethodHandle constructorHandle;
+    private final FieldParser[] parsers;
+    // Reflective error while building the mapper, as thrown by the original implementation for every line
+    private final NoSuchMethodException error;
+
+    private BeanMapper(Constructor<T> constructor) {
+        this.constructor = constructor;
+        Class<?>[] argsClass = constructor.getParameterTypes();
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflectConstructor(constructor)
+                    .asSpreader(Object[].class, argsClass.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            handle = null;
+        }
+        constructorHandle = handle;
+
+        parsers = new FieldParser[argsClass.length];
+        NoSuchMethodException error = null;
+        for (int i = 0; i < argsClass.length; i++) {
+            try {
+                parsers[i] = createParser(lookup, argsClass[i]);
+            } catch (NoSuchMethodException e) {
+                error = e;
+                break;
+            }
+        }
+        this.error = error;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> BeanMapper<T> get(Constructor<T> constructor) {
+        return (BeanMapper<T>) MAPPERS.computeIfAbsent(constructor, BeanMapper::new);
+    }
+
+    /**
+     * @param fields    Line fields, one per constructor argument
+     * @return          New bean
+     * @throws NoSuchMethodException        if an argument class can not be built from a String
+     * @throws InstantiationException       if the bean class is abstract
+     * @throws IllegalAccessException       if the constructor is not accessible
+     * @throws InvocationTargetException    if parsing a field or the constructor throws an exception
+     */
+    T map(String[] fields) throws NoSuchMethodException, InstantiationException, IllegalAccessException,
+            InvocationTargetException {
+        if (error != null) {
+            throw error;
+        }
+        if (fields.length > parsers.length) {
+            throw new ArrayIndexOutOfBoundsException(parsers.length);
+        }
+        Object[] args = new Object[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                args[i] = parsers[i].parse(fields[i]);
+            }
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+        if (constructorHandle == null || fields.length != parsers.length) {
+            // Let reflection report the error
+            return constructor.newInstance(args);
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            T bean = (T) constructorHandle.invokeExact(args);
+            return bean;
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    private static FieldParser createParser(MethodHandles.Lookup lookup, Class<?> argClass) throws NoSuchMethodException {
+        if (argClass == String.class) {
+            return field -> field;
+        } else if (argClass == Integer.class || argClass == int.class) {
+            return Integer::valueOf;
+        } else if (argClass == Long.class || argClass == long.class) {
+            return Long::valueOf;
+        } else if (argClass == Double.class || argClass == double.class) {
+            return Double::valueOf;
+        } else if (argClass == Float.class || argClass == float.class) {
+            return Float::valueOf;
+        } else if (argClass == Short.class || argClass == short.class) {
+            return Short::valueOf;
+        } else if (argClass == Byte.class || argClass == byte.class) {
+            return Byte::valueOf;
+        } else if (argClass == Boolean.class || argClass == boolean.class) {
+            return Boolean::valueOf;
+        }
+        Constructor<?> stringConstructor = argClass.getConstructor(String.class);
+        try {
+            MethodHandle handle = lookup.unreflectConstructor(stringConstructor)
+                    .asType(MethodType.methodType(Object.class, String.class));
+            return field -> handle.invokeExact(field);
+        } catch (IllegalAccessException e) {
+            return stringConstructor::newInstance;
+        }
+    }
+
+    /**
+     * Split a line as {@link String#split(String, int)} with a negative limit, without a regular expression if the
+     * separator is a single character.
+     *
+     * @param line      Line
+     * @param separator Separator regular expression
+     * @param pattern   Compiled separator, used if it is not a single character. May be null otherwise
+     * @return          Fields
+     */
+    static String[] split(String line, String separator, Pattern pattern) {
+        char c = literalChar(separator);
+        if (c == 0) {
+            return pattern.split(line, -1);
+        }
+        List<String> fields = new ArrayList<>(16);
+        int start = 0;
+        int end;
+        while ((end = line.indexOf(c, start)) >= 0) {
+            fields.add(line.substring(start, end));
+            start = end + 1;
+        }
+        fields.add(line.substring(start));
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * @return The character matched by the separator if it is a single literal character, as in
+     * {@link String#split(String, int)}, or 0 otherwise
+     */
+    static char literalChar(String separator) {
+        if (separator.length() == 1 && REGEX_META_CHARACTERS.indexOf(separator.charAt(0)) < 0) {
+            return separator.charAt(0);
+        }
+        if (separator.length() == 2 && separator.charAt(0) == '\\' && !Character.isLetterOrDigit(separator.charAt(1))) {
+            return separator.charAt(1);
+        }
+        return 0;
+    }
+}
@@ -25,12 +25,25 @@ import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 
+/**
+ * Reads beans from a text file with one bean per line, calling the bean constructor with the fields of the line.
+ *
+ * Lines are split without regular expressions if the separator is a single character, and fields are mapped with a
+ * {@link BeanMapper} built once per constructor. {@link #read(int)} can map lines in several threads, see
+ * {@link #setNumThreads(int)}.
+ */
 public class BeanReader<T> {
 
     private BufferedReader bufferedReader;
@@ -40,8 +53,16 @@ public class BeanReader<T> {
     private Constructor constructor;
 
     private String separator;
+    // Compiled separator, only if it is not a single character
+    private Pattern separatorPattern;
+    private BeanMapper<T> mapper;
     private String comment;
 
+    private int numThreads = 1;
+    private ExecutorService executor;
+    // Lines read from the file but not mapped yet, see readParallel
+    private final Deque<String> pendingLines = new ArrayDeque<>();
+
     private String commentLines;
 
 //    public BeanReader(String filename, Class<T> c) throws IOException, SecurityException, NoSuchMethodException {
@@ -54,7 +75,7 @@ public class BeanReader<T> {
 
     public BeanReader(Path path, Class<T> c, String separator) throws IOException, SecurityException, NoSuchMethodException {
         Files.exists(path);
-        this.separator = separator;
+        setSeparator(separator);
         this.comment = "#";
         this.commentLines = "";
         createConstructor(path, c);
@@ -104,7 +125,7 @@ public class BeanReader<T> {
 
     public T read() throws IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException, IOException {
         String line = "";
-        while ((line = bufferedReader.readLine()) != null && (line.trim().equals("") || line.startsWith(comment))) {
+        while ((line = readLine()) != null && (line.trim().equals("") || line.startsWith(comment))) {
             ;
         }
         return stringLineToObject(line);
@@ -115,17 +136,112 @@ public class BeanReader<T> {
     }
 
     public List<T> read(int number) throws IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException, IOException {
+        if (numThreads > 1) {
+            return readParallel(number);
+        }
         List<T> records = new ArrayList<T>(number);
         T t = null;
         int cont = 0;
         // read() method already avoids empty and commentLines
-        while ((t = read()) != null && cont < number) {
+        while (cont < number && (t = read()) != null) {
             records.add(t);
             cont++;
         }
         return records;
     }
 
+    private List<T> readParallel(int number) throws InstantiationException, IllegalAccessException, InvocationTargetException, IOException {
+        List<String> lines = new ArrayList<>(number);
+        String line;
+        while (lines.size() < number && (line = readLine()) != null) {
+            if (!line.trim().equals("") && !line.startsWith(comment)) {
+                lines.add(line);
+            }
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread thread = new Thread(r, "bean-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        int chunkSize = Math.max((lines.size() + numThreads - 1) / numThreads, 1);
+        List<Future<MappedChunk<T>>> futures = new ArrayList<>(numThreads);
+        for (int from = 0; from < lines.size(); from += chunkSize) {
+            List<String> chunk = lines.subList(from, Math.min(lines.size(), from + chunkSize));
+            futures.add(executor.submit(() -> {
+                MappedChunk<T> mappedChunk = new MappedChunk<>(chunk.size());
+                try {
+                    for (String chunkLine : chunk) {
+                        T t = stringLineToObject(chunkLine);
+                        mappedChunk.records.add(t);
+                        if (t == null) {
+                            break;
+                        }
+                    }
+                } catch (InstantiationException | IllegalAccessException | InvocationTargetException | RuntimeException e) {
+                    mappedChunk.error = e;
+                }
+                return mappedChunk;
+            }));
+        }
+
+        List<T> records = new ArrayList<>(lines.size());
+        try {
+            for (Future<MappedChunk<T>> future : futures) {
+                MappedChunk<T> mappedChunk = future.get();
+                for (T t : mappedChunk.records) {
+                    // As read(), stop at the first line that can not be mapped. The following lines are read again
+                    // by the next call
+                    if (t == null) {
+                        unreadLines(lines.subList(records.size() + 1, lines.size()));
+                        return records;
+                    }
+                    records.add(t);
+                }
+                if (mappedChunk.error != null) {
+                    unreadLines(lines.subList(records.size() + 1, lines.size()));
+                    throwMappingError(mappedChunk.error);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throwMappingError(e.getCause());
+        }
+        return records;
+    }
+
+    private void throwMappingError(Throwable cause) throws InstantiationException, IllegalAccessException, InvocationTargetException, IOException {
+        if (cause instanceof InstantiationException) {
+            throw (InstantiationException) cause;
+        } else if (cause instanceof IllegalAccessException) {
+            throw (IllegalAccessException) cause;
+        } else if (cause instanceof InvocationTargetException) {
+            throw (InvocationTargetException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else {
+            throw new IOException(cause);
+        }
+    }
+
+    private String readLine() throws IOException {
+        String line = pendingLines.pollFirst();
+        return line != null ? line : bufferedReader.readLine();
+    }
+
+    /**
+     * Push back lines already read from the file, so they are returned again by the next reads, before any other line.
+     */
+    private void unreadLines(List<String> lines) {
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            pendingLines.addFirst(lines.get(i));
+        }
+    }
+
     public List<T> readAll() throws IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException, IOException {
         List<T> records = new ArrayList<T>();
         T t = null;
@@ -150,7 +266,7 @@ public class BeanReader<T> {
         String line = null;
         T t = null;
         int cont = 0;
-        while ((line = bufferedReader.readLine()) != null) {
+        while ((line = readLine()) != null) {
             cont++;
             if (!line.startsWith(comment) && !line.trim().equals("")) {
                 try {
@@ -167,6 +283,10 @@ public class BeanReader<T> {
     }
 
     public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
         bufferedReader.close();
     }
 
@@ -177,17 +297,14 @@ public class BeanReader<T> {
             return null;
         }
         if (line != null) {
-            String[] fields = line.split(separator, -1);
-            Object[] obj = new Object[fields.length];
-            if (constructor != null && argsClass == null) {
-                argsClass = constructor.getParameterTypes();
+            String[] fields = BeanMapper.split(line, separator, separatorPattern);
+            BeanMapper<T> beanMapper = mapper;
+            if (beanMapper == null) {
+                beanMapper = BeanMapper.get((Constructor<T>) constructor);
+                mapper = beanMapper;
             }
             try {
-                for (int i = 0; i < fields.length; i++) {
-                    obj[i] = argsClass[i].getConstructor(String.class).newInstance(fields[i]);
-                }
-                //	return (T) constructor.newInstance((Object[])line.split(separator, -1));
-                return (T) constructor.newInstance(obj);
+                return beanMapper.map(fields);
             } catch (SecurityException e) {
                 e.printStackTrace();
             } catch (NoSuchMethodException e) {
@@ -197,6 +314,18 @@ public class BeanReader<T> {
         return null;
     }
 
+    /**
+     * Records mapped by one thread in {@link #readParallel(int)}, up to the first line that can not be mapped.
+     */
+    private static class MappedChunk<T> {
+        private final List<T> records;
+        private Exception error;
+
+        MappedChunk(int size) {
+            records = new ArrayList<>(size);
+        }
+    }
+
     private String getFirstLineUncommented(Path path) throws IOException {
         String line = "";
         StringBuilder commentLineBuilder = new StringBuilder();
@@ -219,7 +348,7 @@ public class BeanReader<T> {
 
     private T read(Pattern pat) throws IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException, IOException {
         String line = "";
-        while ((line = bufferedReader.readLine()) != null && (line.trim().equals("") || line.startsWith(comment) || !pat.matcher(line).matches())) {
+        while ((line = readLine()) != null && (line.trim().equals("") || line.startsWith(comment) || !pat.matcher(line).matches())) {
             ;
         }
         return stringLineToObject(line);
@@ -239,6 +368,7 @@ public class BeanReader<T> {
     @SuppressWarnings("rawtypes")
     public void setConstructor(Constructor constructor) {
         this.constructor = constructor;
+        this.mapper = null;
         if (constructor != null) {
             argsClass = constructor.getParameterTypes();
         }
@@ -250,6 +380,7 @@ public class BeanReader<T> {
      */
     public void setSeparator(String separator) {
         this.separator = separator;
+        this.separatorPattern = BeanMapper.literalChar(separator) == 0 ? Pattern.compile(separator) : null;
     }
 
     /**
@@ -259,6 +390,23 @@ public class BeanReader<T> {
         return separator;
     }
 
+    /**
+     * @return the number of threads mapping lines in {@link #read(int)}
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Map lines in several threads in {@link #read(int)}. Records are still returned in file order, and a line that can
+     * not be mapped ends the batch as in a serial read: the lines after it are returned by the next reads.
+     *
+     * @param numThreads the number of threads to set
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
     /**
      * @param comment the comment to set
      */
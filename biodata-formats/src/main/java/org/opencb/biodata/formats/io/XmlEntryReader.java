@@ -0,0 +1,263 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.formats.io;
+
+import com.google.common.base.Throwables;
+import org.opencb.commons.io.DataReader;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.*;
+import javax.xml.transform.stream.StreamSource;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the entries of a large XML document, unmarshalling one entry at a time with the generated JAXB classes,
+ * so the memory used does not depend on the size of the document.
+ *
+ * The document is walked with StAX, and each element with the given name (e.g. UniProt "entry") is unmarshalled into
+ * the given class. Entry elements are not searched inside other entries. If more than one thread is used, entries
+ * are copied while walking the document and unmarshalled in a pool of threads. Entries are always returned in
+ * document order.
+ *
+ * Files ending with ".gz" are decompressed.
+ *
+ * Created on 19/10/26.
+ */
+public class XmlEntryReader<T> implements DataReader<T> {
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final Path path;
+    private final QName entryName;
+    private final Class<T> entryClass;
+    private final int numThreads;
+
+    private InputStream inputStream;
+    private XMLStreamReader reader;
+    private XMLOutputFactory outputFactory;
+    private ThreadLocal<Unmarshaller> unmarshallers;
+    private ExecutorService executor;
+
+    public XmlEntryReader(Path path, QName entryName, Class<T> entryClass) {
+        this(path, entryName, entryClass, 1);
+    }
+
+    /**
+     * @param path          XML file, optionally gzipped
+     * @param entryName     Name of the entry elements
+     * @param entryClass    JAXB class of the entries. Its package must contain the JAXB ObjectFactory
+     * @param numThreads    Number of threads unmarshalling entries. If 1 or less, unmarshal in the calling thread
+     */
+    public XmlEntryReader(Path path, QName entryName, Class<T> entryClass, int numThreads) {
+        this.path = path;
+        this.entryName = entryName;
+        this.entryClass = entryClass;
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            JAXBContext context = JAXBContext.newInstance(entryClass.getPackage().getName());
+            // Unmarshallers are not thread safe
+            unmarshallers = ThreadLocal.withInitial(() -> {
+                try {
+                    return context.createUnmarshaller();
+                } catch (JAXBException e) {
+                    throw Throwables.propagate(e);
+                }
+            });
+
+            inputStream = new BufferedInputStream(Files.newInputStream(path));
+            if (path.toString().endsWith(".gz")) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            reader = inputFactory.createXMLStreamReader(inputStream);
+        } catch (IOException | JAXBException | XMLStreamException e) {
+            throw Throwables.propagate(e);
+        }
+
+        if (numThreads > 1) {
+            outputFactory = XMLOutputFactory.newInstance();
+            outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+            executor = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread thread = new Thread(r, "xml-entry-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw Throwables.propagate(e);
+        }
+        return true;
+    }
+
+    @Override
+    public List<T> read(int batchSize) {
+        List<T> batch = new ArrayList<>(batchSize);
+        try {
+            if (executor == null) {
+                while (batch.size() < batchSize && nextEntry()) {
+                    // Leaves the reader right after the end of the entry
+                    batch.add(unmarshallers.get().unmarshal(reader, entryClass).getValue());
+                }
+            } else {
+                List<Future<T>> futures = new ArrayList<>(batchSize);
+                while (futures.size() < batchSize && nextEntry()) {
+                    byte[] entry = copyEntry();
+                    futures.add(executor.submit(() -> unmarshallers.get()
+                            .unmarshal(new StreamSource(new ByteArrayInputStream(entry)), entryClass).getValue()));
+                }
+                for (Future<T> future : futures) {
+                    batch.add(future.get());
+                }
+            }
+        } catch (JAXBException | XMLStreamException e) {
+            throw Throwables.propagate(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        return batch;
+    }
+
+    /**
+     * Open the reader, hand every entry to the consumer, and close the reader.
+     *
+     * @param consumer  Entry consumer, called from the calling thread in document order
+     */
+    public void forEachEntry(Consumer<? super T> consumer) {
+        open();
+        try {
+            List<T> batch;
+            while (!(batch = read(DEFAULT_BATCH_SIZE)).isEmpty()) {
+                batch.forEach(consumer);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Move the reader to the start of the next entry.
+     *
+     * @return  false if there are no more entries
+     */
+    private boolean nextEntry() throws XMLStreamException {
+        while (true) {
+            int event = reader.getEventType();
+            if (event == XMLStreamConstants.START_ELEMENT && isEntry()) {
+                return true;
+            } else if (event == XMLStreamConstants.END_DOCUMENT || !reader.hasNext()) {
+                return false;
+            }
+            reader.next();
+        }
+    }
+
+    private boolean isEntry() {
+        String namespace = reader.getNamespaceURI();
+        return entryName.getLocalPart().equals(reader.getLocalName())
+                && entryName.getNamespaceURI().equals(namespace == null ? "" : namespace);
+    }
+
+    /**
+     * Copy the current entry into a standalone XML document, leaving the reader right after the end of the entry.
+     * Namespaces declared outside the entry are declared again as needed.
+     */
+    private byte[] copyEntry() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        int depth = 0;
+        do {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(),
+                            nullToEmpty(reader.getNamespaceURI()));
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String namespace = reader.getAttributeNamespace(i);
+                        if (namespace == null || namespace.isEmpty()) {
+                            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        } else {
+                            writer.writeAttribute(nullToEmpty(reader.getAttributePrefix(i)), namespace,
+                                    reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                default:
+                    // Comments and processing instructions are not needed to unmarshal
+                    break;
+            }
+            reader.next();
+        } while (depth > 0);
+        writer.writeEndDocument();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -16,13 +16,19 @@
 
 package org.opencb.biodata.formats.protein.uniprot;
 
+import org.opencb.biodata.formats.io.XmlEntryReader;
+import org.opencb.biodata.formats.protein.uniprot.v201504jaxb.Entry;
+
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.function.Consumer;
 
 /**
  * Created by imedina on 25/09/15.
@@ -30,6 +36,7 @@ import java.io.FileOutputStream;
 public class UniProtParser {
 
     public final static String UNIPROT_CONTEXT_v201504 = "org.opencb.biodata.formats.protein.uniprot.v201504jaxb";
+    public final static QName ENTRY_v201504 = new QName("http://uniprot.org/uniprot", "entry");
 
     public static void saveXMLInfo(Object obj, String filename) throws FileNotFoundException, JAXBException {
         JAXBContext jaxbContext;
@@ -65,4 +72,26 @@ public class UniProtParser {
         obj = unmarshaller.unmarshal(new File(filename));
         return obj;
     }
+
+    /**
+     * Creates a reader of the UniProt entries of a file, unmarshalling one entry at a time instead of the whole file.
+     *
+     * @param path          UniProt XML file, optionally gzipped
+     * @param numThreads    Number of threads unmarshalling entries
+     * @return              Entry reader
+     */
+    public static XmlEntryReader<Entry> newEntryReader(Path path, int numThreads) {
+        return new XmlEntryReader<>(path, ENTRY_v201504, Entry.class, numThreads);
+    }
+
+    /**
+     * Streams the UniProt entries of a file to the consumer, in file order.
+     *
+     * @param path          UniProt XML file, optionally gzipped
+     * @param numThreads    Number of threads unmarshalling entries
+     * @param consumer      Entry consumer
+     */
+    public static void parse(Path path, int numThreads, Consumer<Entry> consumer) {
+        newEntryReader(path, numThreads).forEachEntry(consumer);
+    }
 }
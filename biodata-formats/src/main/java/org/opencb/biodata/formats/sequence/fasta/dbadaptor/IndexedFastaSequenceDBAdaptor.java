@@ -0,0 +1,331 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.formats.sequence.fasta.dbadaptor;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.GZIIndex;
+import org.opencb.biodata.models.core.Region;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SequenceDBAdaptor over a local FASTA file indexed with "samtools faidx".
+ *
+ * Plain FASTA files are memory-mapped per contig. Files compressed with "bgzip" are accessed by block through their
+ * ".gzi" index. Decoded sequence is kept in fixed-size windows in a bounded LRU cache, so that close or repeated
+ * queries (e.g. reads from a sorted BAM or HGVS expressions from the same gene) do not touch the file again.
+ *
+ * Created on 19/10/26.
+ */
+public class IndexedFastaSequenceDBAdaptor extends SequenceDBAdaptor {
+
+    public static final int DEFAULT_WINDOW_SIZE = 16 * 1024;
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final Path fastaPath;
+    private final Path faiPath;
+    private final Path gziPath;
+    private final int windowSize;
+    private final int cacheSize;
+
+    private Map<String, FaiEntry> index;
+    private Map<Long, byte[]> cache;
+
+    // Plain FASTA
+    private FileChannel channel;
+    private Map<String, ByteBuffer> mappedContigs;
+
+    // BGZF FASTA
+    private BlockCompressedInputStream bgzfStream;
+    private GZIIndex gziIndex;
+
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+
+    public IndexedFastaSequenceDBAdaptor(Path fastaPath) {
+        this(fastaPath, DEFAULT_WINDOW_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param fastaPath  FASTA file. Accept formats: *.fa, *.fasta, *.fa.gz, *.fasta.gz (bgzip).
+     *                   Requires a *.fai index, and a *.gzi index for compressed files.
+     * @param windowSize Number of bases decoded and cached at once
+     * @param cacheSize  Maximum number of windows kept in the cache
+     */
+    public IndexedFastaSequenceDBAdaptor(Path fastaPath, int windowSize, int cacheSize) {
+        if (windowSize <= 0 || cacheSize <= 0) {
+            throw new IllegalArgumentException("Window size and cache size must be positive");
+        }
+        this.fastaPath = fastaPath;
+        this.faiPath = Paths.get(fastaPath.toString() + ".fai");
+        if (fastaPath.toString().endsWith(".gz")) {
+            this.gziPath = Paths.get(fastaPath.toString() + ".gzi");
+        } else {
+            this.gziPath = null;
+        }
+        this.windowSize = windowSize;
+        this.cacheSize = cacheSize;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (!Files.exists(faiPath)) {
+            throw new IOException("Fasta file '" + fastaPath + "' is not indexed. Missing file " + faiPath);
+        }
+        index = readFaiIndex(faiPath);
+        cache = new LinkedHashMap<Long, byte[]>(cacheSize + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        if (gziPath == null) {
+            channel = FileChannel.open(fastaPath, StandardOpenOption.READ);
+            mappedContigs = new HashMap<>();
+        } else {
+            if (!Files.exists(gziPath)) {
+                throw new IOException("Compressed fasta file '" + fastaPath + "' is not indexed. Missing file " + gziPath
+                        + ". Compress with 'bgzip -i'");
+            }
+            gziIndex = GZIIndex.loadIndex(gziPath);
+            bgzfStream = new BlockCompressedInputStream(fastaPath.toFile());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (bgzfStream != null) {
+            bgzfStream.close();
+            bgzfStream = null;
+        }
+        mappedContigs = null;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public String getSequence(Region region) throws IOException {
+        return getSequence(region.getChromosome(), region.getStart(), region.getEnd());
+    }
+
+    /**
+     * Species is determined by the FASTA file, so the parameter is ignored.
+     */
+    @Override
+    public String getSequence(Region region, String species) throws IOException {
+        return getSequence(region);
+    }
+
+    /**
+     * Fetch a region from the FASTA file.
+     *
+     * @param chromosome Contig name, as in the FASTA header
+     * @param start      First base, 1-based, inclusive
+     * @param end        Last base, 1-based, inclusive. Truncated to the contig length
+     * @return           Sequence of the region
+     * @throws IOException if the contig is not in the index or the file can not be read
+     */
+    public synchronized String getSequence(String chromosome, int start, int end) throws IOException {
+        FaiEntry entry = index.get(chromosome);
+        if (entry == null) {
+            throw new IOException("Contig '" + chromosome + "' not found in " + faiPath);
+        }
+        // To 0-based, end exclusive
+        long from = Math.max(start, 1) - 1L;
+        long to = Math.min(end, entry.length);
+        if (to <= from) {
+            return "";
+        }
+
+        byte[] sequence = new byte[(int) (to - from)];
+        long firstWindow = from / windowSize;
+        long lastWindow = (to - 1) / windowSize;
+        int offset = 0;
+        for (long window = firstWindow; window <= lastWindow; window++) {
+            byte[] bases = getWindow(entry, window);
+            long windowStart = window * windowSize;
+            int srcPos = (int) (Math.max(from, windowStart) - windowStart);
+            int length = (int) (Math.min(to, windowStart + bases.length) - windowStart) - srcPos;
+            System.arraycopy(bases, srcPos, sequence, offset, length);
+            offset += length;
+        }
+        return new String(sequence, StandardCharsets.US_ASCII);
+    }
+
+    public boolean containsContig(String chromosome) {
+        return index.containsKey(chromosome);
+    }
+
+    public long getContigLength(String chromosome) {
+        FaiEntry entry = index.get(chromosome);
+        return entry == null ? -1 : entry.length;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    private byte[] getWindow(FaiEntry entry, long window) throws IOException {
+        Long key = (((long) entry.id) << 32) | window;
+        byte[] bases = cache.get(key);
+        if (bases == null) {
+            cacheMisses++;
+            long windowStart = window * windowSize;
+            long windowEnd = Math.min(windowStart + windowSize, entry.length);
+            bases = readBases(entry, windowStart, windowEnd);
+            cache.put(key, bases);
+        } else {
+            cacheHits++;
+        }
+        return bases;
+    }
+
+    /**
+     * Read bases [from, to) (0-based) of the given contig, skipping line terminators.
+     */
+    private byte[] readBases(FaiEntry entry, long from, long to) throws IOException {
+        long rawStart = entry.basesOffset(from);
+        long rawEnd = entry.basesOffset(to - 1) + 1;
+        byte[] raw = new byte[(int) (rawEnd - rawStart)];
+
+        if (gziPath == null) {
+            ByteBuffer buffer = getMappedContig(entry);
+            if (buffer != null) {
+                buffer = buffer.duplicate();
+                buffer.position((int) (rawStart - entry.offset));
+                buffer.get(raw);
+            } else {
+                // Contig too large to be mapped in a single buffer
+                ByteBuffer wrap = ByteBuffer.wrap(raw);
+                long position = rawStart;
+                while (wrap.hasRemaining()) {
+                    int read = channel.read(wrap, position);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file reading " + fastaPath);
+                    }
+                    position += read;
+                }
+            }
+        } else {
+            bgzfStream.seek(gziIndex.getVirtualOffsetForSeek(rawStart));
+            int read = 0;
+            while (read < raw.length) {
+                int n = bgzfStream.read(raw, read, raw.length - read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of file reading " + fastaPath);
+                }
+                read += n;
+            }
+        }
+
+        byte[] bases = new byte[(int) (to - from)];
+        int i = 0;
+        for (byte b : raw) {
+            if (b != '\n' && b != '\r') {
+                bases[i++] = b;
+            }
+        }
+        if (i != bases.length) {
+            throw new IOException("Malformed fasta file " + fastaPath + ". Line lengths do not match the index for contig '"
+                    + entry.name + "'");
+        }
+        return bases;
+    }
+
+    private ByteBuffer getMappedContig(FaiEntry entry) throws IOException {
+        if (!mappedContigs.containsKey(entry.name)) {
+            long size = entry.basesOffset(entry.length - 1) + 1 - entry.offset;
+            MappedByteBuffer buffer = null;
+            if (size <= Integer.MAX_VALUE) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, size);
+            }
+            mappedContigs.put(entry.name, buffer);
+        }
+        return mappedContigs.get(entry.name);
+    }
+
+    private static Map<String, FaiEntry> readFaiIndex(Path faiPath) throws IOException {
+        Map<String, FaiEntry> index = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(faiPath)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 5) {
+                    throw new IOException("Malformed fasta index " + faiPath + " : " + line);
+                }
+                FaiEntry entry = new FaiEntry(index.size(), fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+                index.put(entry.name, entry);
+            }
+        }
+        return index;
+    }
+
+    private static class FaiEntry {
+        private final int id;
+        private final String name;
+        private final long length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineWidth;
+
+        FaiEntry(int id, String name, long length, long offset, int lineBases, int lineWidth) {
+            this.id = id;
+            this.name = name;
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /**
+         * Uncompressed file offset of the given 0-based position.
+         */
+        long basesOffset(long position) {
+            return offset + (position / lineBases) * lineWidth + position % lineBases;
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.formats.variant.annotation;
+
+import org.opencb.biodata.models.variant.annotation.ConsequenceTypeMappings;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.ProteinVariantAnnotation;
+import org.opencb.biodata.models.variant.avro.Score;
+import org.opencb.biodata.models.variant.avro.SequenceOntologyTerm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * View of one consequence (one transcript or feature) of a CSQ value.
+ *
+ * The view only keeps the position of the consequence in the CSQ value. Field boundaries are found the first time
+ * a field is read, and the predicates compare the fields in place, without creating any string. The
+ * {@link ConsequenceType} is only built when asked for.
+ *
+ * Created on 19/10/26.
+ */
+public class CsqConsequence {
+
+    private final CsqSchema schema;
+    private final String csq;
+    private final int start;
+    private final int end;
+
+    // Start and end of each field in the CSQ value. Fields missing at the end are empty
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+    private ConsequenceType consequenceType;
+
+    CsqConsequence(CsqSchema schema, String csq, int start, int end) {
+        this.schema = schema;
+        this.csq = csq;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param index Column position in the schema
+     * @return Field value, or null if the field is empty or "-"
+     */
+    public String get(int index) {
+        if (isEmpty(index)) {
+            return null;
+        }
+        return csq.substring(fieldStarts[index], fieldEnds[index]);
+    }
+
+    /**
+     * @param field Column name, case insensitive
+     * @return Field value, or null if the field is empty, "-" or not in the schema
+     */
+    public String get(String field) {
+        return get(schema.indexOf(field));
+    }
+
+    /**
+     * @param soName Sequence Ontology term name, ie. missense_variant
+     * @return true if the term is one of the consequences, separated by "&"
+     */
+    public boolean hasConsequenceType(String soName) {
+        if (isEmpty(schema.consequence)) {
+            return false;
+        }
+        int from = fieldStarts[schema.consequence];
+        int to = fieldEnds[schema.consequence];
+        while (from < to) {
+            int next = csq.indexOf('&', from);
+            if (next < 0 || next > to) {
+                next = to;
+            }
+            if (next - from == soName.length() && csq.regionMatches(from, soName, 0, soName.length())) {
+                return true;
+            }
+            from = next + 1;
+        }
+        return false;
+    }
+
+    /**
+     * @param gene Gene name or Ensembl gene ID
+     * @return true if the gene is the SYMBOL or the Gene of the consequence
+     */
+    public boolean isGene(String gene) {
+        return fieldEquals(schema.symbol, gene, false) || fieldEquals(schema.gene, gene, false);
+    }
+
+    /**
+     * @param biotype Biotype, ie. protein_coding
+     * @return true if the BIOTYPE of the consequence is the given one
+     */
+    public boolean isBiotype(String biotype) {
+        return fieldEquals(schema.biotype, biotype, false);
+    }
+
+    /**
+     * @param impact VEP impact, case insensitive: HIGH, MODERATE, LOW or MODIFIER
+     * @return true if the IMPACT of the consequence is the given one
+     */
+    public boolean isImpact(String impact) {
+        return fieldEquals(schema.impact, impact, true);
+    }
+
+    /**
+     * Decode the consequence. The result is built once and then returned on each call.
+     *
+     * @return Consequence type
+     */
+    public ConsequenceType toConsequenceType() {
+        if (consequenceType == null) {
+            consequenceType = decode();
+        }
+        return consequenceType;
+    }
+
+    /**
+     * @return Raw consequence, as in the CSQ value
+     */
+    @Override
+    public String toString() {
+        return csq.substring(start, end);
+    }
+
+    private ConsequenceType decode() {
+        ConsequenceType consequenceType = new ConsequenceType();
+        consequenceType.setGeneName(get(schema.symbol));
+        consequenceType.setEnsemblGeneId(get(schema.gene));
+        if (schema.featureType < 0 || fieldEquals(schema.featureType, "Transcript", true)) {
+            consequenceType.setEnsemblTranscriptId(get(schema.feature));
+        }
+        consequenceType.setBiotype(get(schema.biotype));
+        String strand = get(schema.strand);
+        if (strand != null) {
+            consequenceType.setStrand(strand.equals("1") ? "+" : "-");
+        }
+        consequenceType.setCdnaPosition(getPosition(schema.cdnaPosition));
+        consequenceType.setCdsPosition(getPosition(schema.cdsPosition));
+        consequenceType.setCodon(get(schema.codons));
+
+        Integer proteinPosition = getPosition(schema.proteinPosition);
+        String aminoAcids = get(schema.aminoAcids);
+        String sift = get(schema.sift);
+        String polyphen = get(schema.polyphen);
+        if (proteinPosition != null || aminoAcids != null || sift != null || polyphen != null) {
+            ProteinVariantAnnotation proteinVariantAnnotation = new ProteinVariantAnnotation();
+            proteinVariantAnnotation.setPosition(proteinPosition);
+            if (aminoAcids != null) {
+                int slash = aminoAcids.indexOf('/');
+                if (slash > 0) {
+                    proteinVariantAnnotation.setReference(aminoAcids.substring(0, slash));
+                    proteinVariantAnnotation.setAlternate(aminoAcids.substring(slash + 1));
+                }
+            }
+            if (sift != null || polyphen != null) {
+                List<Score> scores = new ArrayList<>(2);
+                addScore(scores, "Sift", sift);
+                addScore(scores, "Polyphen", polyphen);
+                proteinVariantAnnotation.setSubstitutionScores(scores);
+            }
+            consequenceType.setProteinVariantAnnotation(proteinVariantAnnotation);
+        }
+
+        List<SequenceOntologyTerm> terms = new ArrayList<>(2);
+        String consequences = get(schema.consequence);
+        if (consequences != null) {
+            for (String name : consequences.split("&")) {
+                terms.add(new SequenceOntologyTerm(ConsequenceTypeMappings.getSoAccessionString(name), name));
+            }
+        }
+        consequenceType.setSequenceOntologyTerms(terms);
+        return consequenceType;
+    }
+
+    /**
+     * Scores look like "tolerated(0.07)" or "possibly_damaging(0.859)".
+     */
+    private static void addScore(List<Score> scores, String source, String value) {
+        if (value == null) {
+            return;
+        }
+        int open = value.indexOf('(');
+        int close = value.indexOf(')', open);
+        if (open > 0 && close > open) {
+            scores.add(new Score(Double.valueOf(value.substring(open + 1, close)), source, value.substring(0, open)));
+        }
+    }
+
+    /**
+     * Positions look like "123", "123-124", "?-124" or "123/1500". Returns the first known position.
+     */
+    private Integer getPosition(int index) {
+        if (isEmpty(index)) {
+            return null;
+        }
+        int from = fieldStarts[index];
+        int to = fieldEnds[index];
+        int slash = csq.indexOf('/', from);
+        if (slash >= 0 && slash < to) {
+            to = slash;
+        }
+        int dash = csq.indexOf('-', from);
+        if (dash >= 0 && dash < to) {
+            Integer position = parseInt(from, dash);
+            return position != null ? position : parseInt(dash + 1, to);
+        }
+        return parseInt(from, to);
+    }
+
+    private Integer parseInt(int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = csq.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private boolean fieldEquals(int index, String value, boolean ignoreCase) {
+        if (index < 0 || value == null) {
+            return false;
+        }
+        splitFields();
+        int from = fieldStarts[index];
+        return fieldEnds[index] - from == value.length() && csq.regionMatches(ignoreCase, from, value, 0, value.length());
+    }
+
+    private boolean isEmpty(int index) {
+        if (index < 0) {
+            return true;
+        }
+        splitFields();
+        int from = fieldStarts[index];
+        int length = fieldEnds[index] - from;
+        return length == 0 || length == 1 && csq.charAt(from) == '-';
+    }
+
+    private void splitFields() {
+        if (fieldStarts != null) {
+            return;
+        }
+        int size = schema.size();
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        int from = start;
+        for (int i = 0; i < size; i++) {
+            int to = from > end ? -1 : csq.indexOf('|', from);
+            if (to < 0 || to > end) {
+                to = end;
+            }
+            starts[i] = Math.min(from, end);
+            ends[i] = to;
+            from = to + 1;
+        }
+        fieldStarts = starts;
+        fieldEnds = ends;
+    }
+}
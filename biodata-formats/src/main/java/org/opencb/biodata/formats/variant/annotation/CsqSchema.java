@@ -0,0 +1,175 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.formats.variant.annotation;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Columns of the VEP CSQ INFO field, compiled once per VCF header.
+ *
+ * Maps each column name to its position, so the CSQ value of every variant can be read without looking at the format
+ * again. Column names are case insensitive, like in VEP.
+ *
+ * Created on 19/10/26.
+ */
+public class CsqSchema {
+
+    public static final String CSQ = "CSQ";
+
+    private static final String FORMAT_PREFIX = "Format:";
+
+    private final List<String> fields;
+    private final Map<String, Integer> indexes;
+
+    // Columns read when decoding a ConsequenceType, or -1 if missing
+    final int allele;
+    final int consequence;
+    final int impact;
+    final int symbol;
+    final int gene;
+    final int featureType;
+    final int feature;
+    final int biotype;
+    final int cdnaPosition;
+    final int cdsPosition;
+    final int proteinPosition;
+    final int aminoAcids;
+    final int codons;
+    final int strand;
+    final int sift;
+    final int polyphen;
+    final int hgvsc;
+    final int hgvsp;
+
+    /**
+     * @param fields CSQ columns, ie. Allele, Consequence, IMPACT, SYMBOL, Gene, Feature_type, Feature, BIOTYPE...
+     */
+    public CsqSchema(List<String> fields) {
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+        this.indexes = new HashMap<>(fields.size() * 2);
+        for (int i = 0; i < fields.size(); i++) {
+            indexes.putIfAbsent(fields.get(i).trim().toLowerCase(), i);
+        }
+        allele = indexOf("Allele");
+        consequence = indexOf("Consequence");
+        impact = indexOf("IMPACT");
+        symbol = indexOf("SYMBOL");
+        gene = indexOf("Gene");
+        featureType = indexOf("Feature_type");
+        feature = indexOf("Feature");
+        biotype = indexOf("BIOTYPE");
+        cdnaPosition = indexOf("cDNA_position");
+        cdsPosition = indexOf("CDS_position");
+        proteinPosition = indexOf("Protein_position");
+        aminoAcids = indexOf("Amino_acids");
+        codons = indexOf("Codons");
+        strand = indexOf("STRAND");
+        sift = indexOf("SIFT");
+        polyphen = indexOf("PolyPhen");
+        hgvsc = indexOf("HGVSc");
+        hgvsp = indexOf("HGVSp");
+    }
+
+    /**
+     * Compile the schema from the description of the CSQ INFO header line, ie.
+     * "Consequence annotations from Ensembl VEP. Format: Allele|Consequence|IMPACT|SYMBOL|Gene|..."
+     *
+     * @param description Description of the CSQ header line, or just the list of columns separated by "|"
+     * @return CSQ schema
+     */
+    public static CsqSchema fromHeaderDescription(String description) {
+        String format = description.trim();
+        int formatStart = format.indexOf(FORMAT_PREFIX);
+        if (formatStart >= 0) {
+            format = format.substring(formatStart + FORMAT_PREFIX.length());
+        }
+        format = format.replace("\"", "").trim();
+        return new CsqSchema(Arrays.asList(format.split("\\|", -1)));
+    }
+
+    /**
+     * @param field Column name, case insensitive
+     * @return Position of the column, or -1 if the column is missing
+     */
+    public int indexOf(String field) {
+        Integer index = indexes.get(field.toLowerCase());
+        return index == null ? -1 : index;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public int size() {
+        return fields.size();
+    }
+
+    /**
+     * Split the CSQ value of a variant into one lazy view per transcript. Fields are not read until needed.
+     *
+     * @param csq CSQ value from the INFO column, with or without the "CSQ=" prefix
+     * @return Consequences, in the same order
+     */
+    public List<CsqConsequence> split(String csq) {
+        List<CsqConsequence> consequences = new ArrayList<>();
+        forEach(csq, consequence -> {
+            consequences.add(consequence);
+            return false;
+        });
+        return consequences;
+    }
+
+    /**
+     * Test the consequences of a variant, in order, until one matches. Use it to filter variants before decoding
+     * their annotation, ie. {@code schema.anyMatch(csq, c -> c.hasConsequenceType("missense_variant"))}.
+     *
+     * @param csq       CSQ value from the INFO column, with or without the "CSQ=" prefix
+     * @param predicate Predicate over the consequences
+     * @return true if any consequence matches the predicate
+     */
+    public boolean anyMatch(String csq, Predicate<CsqConsequence> predicate) {
+        return forEach(csq, predicate);
+    }
+
+    private boolean forEach(String csq, Predicate<CsqConsequence> predicate) {
+        if (csq == null) {
+            return false;
+        }
+        int start = csq.startsWith(CSQ + "=") ? CSQ.length() + 1 : 0;
+        int length = csq.length();
+        while (start < length) {
+            int end = csq.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start && predicate.test(new CsqConsequence(this, csq, start, end))) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.join("|", fields);
+    }
+}
@@ -19,16 +19,21 @@
 
 package org.opencb.biodata.formats.variant.annotation;
 
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by imedina on 20/10/15.
  */
 public class VepParser {
 
+    private static final Map<List<String>, CsqSchema> CSQ_SCHEMAS = new ConcurrentHashMap<>();
 
     /**
      * Convert a text from VEP int a single Variant Annotation
@@ -59,17 +64,59 @@ public class VepParser {
      * @param csqFormatFields A String list with all the fields annotated, ie.
      *                        Allele|Consequence|SYMBOL|Feature_type|BIOTYPEcDNA_position|CDS_position|Protein_position
      * @param csqInfoField The CSQ field from the VCF INFO column
-     * @return
+     * @return Variant annotation with the consequence types and the HGVS names
      */
     public static VariantAnnotation parseInfoCsq(List<String> csqFormatFields, String csqInfoField) {
-        if (csqInfoField.startsWith("CSQ")) {
-            csqInfoField = csqInfoField.replaceFirst("CSQ=", "");
-        }
+        return parseInfoCsq(getCsqSchema(csqFormatFields), csqInfoField);
+    }
+
+    /**
+     * @param schema        CSQ schema, compiled from the VCF header
+     * @param csqInfoField  The CSQ field from the VCF INFO column
+     * @return Variant annotation with the consequence types and the HGVS names
+     */
+    public static VariantAnnotation parseInfoCsq(CsqSchema schema, String csqInfoField) {
+        List<CsqConsequence> consequences = schema.split(csqInfoField);
 
         VariantAnnotation variantAnnotation = new VariantAnnotation();
+        List<ConsequenceType> consequenceTypes = new ArrayList<>(consequences.size());
+        List<String> hgvs = new ArrayList<>();
+        for (CsqConsequence consequence : consequences) {
+            consequenceTypes.add(consequence.toConsequenceType());
+            addHgvs(hgvs, consequence.get(schema.hgvsc));
+            addHgvs(hgvs, consequence.get(schema.hgvsp));
+        }
+        variantAnnotation.setConsequenceTypes(consequenceTypes);
+        if (!hgvs.isEmpty()) {
+            variantAnnotation.setHgvs(hgvs);
+        }
+        return variantAnnotation;
+    }
 
+    /**
+     * Compiled schemas are cached, as all the variants of a VCF share the same CSQ format.
+     *
+     * @param csqFormatFields CSQ columns
+     * @return Compiled CSQ schema
+     */
+    public static CsqSchema getCsqSchema(List<String> csqFormatFields) {
+        CsqSchema schema = CSQ_SCHEMAS.get(csqFormatFields);
+        if (schema == null) {
+            schema = new CsqSchema(csqFormatFields);
+            // The schema keeps its own copy of the fields, which is safe to use as key
+            CsqSchema previous = CSQ_SCHEMAS.putIfAbsent(schema.getFields(), schema);
+            if (previous != null) {
+                schema = previous;
+            }
+        }
+        return schema;
+    }
 
-        return null;
+    private static void addHgvs(List<String> hgvs, String value) {
+        // HGVS names are URL encoded, ie. ENSP00000354587.3:p.Pro14%3DSer
+        if (value != null) {
+            hgvs.add(value.replace("%3D", "="));
+        }
     }
 
 }
@@ -42,24 +42,52 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
 /**
  * Created by fjlopez on 07/04/15.
+ *
+ * Lines are grouped by variant (first three columns) before being parsed. When created with more than one thread,
+ * {@link #read(int)} reads ahead variant-aligned chunks of lines and parses them in parallel, returning the
+ * annotations in the same order as in the file.
  */
 public class VepFormatReader implements DataReader<VariantAnnotation> {
 
+    private static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+
     private BufferedReader reader;
     private Path path;
     private String filename;
-    private String currentVariantString = "";
-    private VariantAnnotation currentAnnotation = null;
+
+    // First line of the next variant to be read
+    private String nextLine = null;
+    private boolean endOfFileReached = false;
+
+    private final int numThreads;
+    private ExecutorService executorService;
+    private final Deque<Future<List<VariantAnnotation>>> pendingChunks = new LinkedList<>();
+    private final Deque<VariantAnnotation> parsedAnnotations = new LinkedList<>();
 
     private static final String CNV_PATTERN = "CN(([0123456789]+)|V)";
 
-    public VepFormatReader(String filename) { this.filename = filename; }
+    public VepFormatReader(String filename) {
+        this(filename, 1);
+    }
+
+    /**
+     * @param filename   VEP output file. Accept formats: *.txt, *.tsv, *.gz (gzip or bgzip)
+     * @param numThreads Number of threads parsing lines in {@link #read(int)}
+     */
+    public VepFormatReader(String filename, int numThreads) {
+        this.filename = filename;
+        this.numThreads = Math.max(1, numThreads);
+    }
 
     @Override
     public boolean open() {
@@ -68,10 +96,12 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
             this.path = Paths.get(this.filename);
             Files.exists(this.path);
 
+            // bgzip files are valid multi-member gzip files. Inflate in large blocks to reduce the per-call overhead
             if (path.toFile().getName().endsWith(".gz")) {
-                this.reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(path.toFile()))));
+                this.reader = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(new FileInputStream(path.toFile()), INPUT_BUFFER_SIZE)), INPUT_BUFFER_SIZE);
             } else {
-                this.reader = Files.newBufferedReader(path, Charset.defaultCharset());
+                this.reader = new BufferedReader(Files.newBufferedReader(path, Charset.defaultCharset()), INPUT_BUFFER_SIZE);
             }
 
         } catch (IOException ex) {
@@ -79,6 +109,9 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
             return false;
         }
 
+        if (numThreads > 1) {
+            executorService = Executors.newFixedThreadPool(numThreads);
+        }
 
         return true;
     }
@@ -88,6 +121,12 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
 
     @Override
     public boolean close() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        pendingChunks.clear();
+        parsedAnnotations.clear();
         try {
             reader.close();
         } catch (IOException e) {
@@ -102,101 +141,133 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
     @Override
     public List<VariantAnnotation> read() {
         try {
-            String line;
-            Boolean noNewVariantFound = true;
-            VariantAnnotation variantAnnotationToReturn = null;
-
-            while ((line = reader.readLine()) != null && (line.trim().equals("") || line.startsWith("#"))) ;
-
-            while ((line != null) && noNewVariantFound) {
-                ConsequenceType consequenceType = new ConsequenceType();
-                String[] lineFields = line.split("\t");
-                // strings representing the current and the read are compared
-                if (!currentVariantString.equals(lineFields[0] + ":" + lineFields[1] + ":" + lineFields[2])) {
-                    noNewVariantFound = (currentAnnotation==null);  // currentAnnotation==null only in the first iteration.
-                    variantAnnotationToReturn = currentAnnotation;
-                    Map<String,String> variantMap = parseVariant(lineFields[0], lineFields[1], lineFields[2]);  // coordinates and alternative are only parsed onceca
-                    currentAnnotation = new VariantAnnotation();
-                    currentAnnotation.setChromosome(variantMap.get("chromosome"));
-                    currentAnnotation.setStart(Integer.valueOf(variantMap.get("start")));
-                    currentAnnotation.setEnd(Integer.valueOf(variantMap.get("end")));
-                    currentAnnotation.setReference(variantMap.get("reference"));
-                    currentAnnotation.setAlternate(variantMap.get("alternative"));
-
-                    /**
-                     * Set rs id
-                     */
-                    if (!lineFields[12].isEmpty() && !lineFields[12].equals("-")) {
-                        currentAnnotation.setId(lineFields[12]);
-                    }
+            List<String> variantLines = readVariantLines();
+            if (variantLines == null) {
+                return null;
+            }
+            return Collections.singletonList(parseVariantAnnotation(variantLines));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
-                    /**
-                     * Initialize list of consequence types
-                     */
-                    if(currentAnnotation.getConsequenceTypes()==null) {
-                        currentAnnotation.setConsequenceTypes(new ArrayList<ConsequenceType>());
-                    }
+        return null;
+    }
 
-                    /**
-                     * Save the string representing coordinates and
-                     */
-                    currentVariantString = lineFields[0] + ":" + lineFields[1] + ":" + lineFields[2];
-
-                    /**
-                     * parses extra column and populates fields as required. Some lines do not have extra field and end with a \t: the split function above does not return that field
-                     * true parameter indicates the function to also parse frequencies
-                     */
-                    if(lineFields.length>13) {
-                        parseExtraField(consequenceType, lineFields[13], true);
-                    }
+    /**
+     * Read all the consecutive lines of the next variant.
+     *
+     * @return Lines of the variant, or null if the end of the file was reached
+     * @throws IOException if the file can not be read
+     */
+    private List<String> readVariantLines() throws IOException {
+        if (nextLine == null) {
+            if (endOfFileReached) {
+                return null;
+            }
+            nextLine = readNonEmptyLine();
+            if (nextLine == null) {
+                return null;
+            }
+        }
 
-                    /**
-                     * Another line must be read if this is the first variant in the file
-                     */
-                    if(noNewVariantFound) {
-                        line = reader.readLine();
-                    }
-                } else {
-                    /**
-                     * Some lines do not have extra field and end with a \t: the split function above does not return that field
-                     * false indicates the function to skip frequency attributes (were already parsed the first time this variant was seen)
-                     */
-                    if(lineFields.length>13) {
-                        parseExtraField(consequenceType, lineFields[13], false);
-                    }
-                    line = reader.readLine();
-                }
-                // Remaining fields only of interest if the feature is a transcript
-                if(lineFields[5].toLowerCase().equals("transcript")) {
-                    parseRemainingFields(consequenceType, lineFields);
-                // Otherwise just set SO terms
-                } else {
-                    consequenceType.setSequenceOntologyTerms(
-                            getSequenceOntologyTerms(Arrays.asList(lineFields[6].split(","))));   // fill so terms
-//                    consequenceType.setSoTermsFromSoNames(Arrays.asList(lineFields[6].split(",")));   // fill so terms
-                }
-                currentAnnotation.getConsequenceTypes().add(consequenceType);
+        String firstLine = nextLine;
+        int keyLength = variantKeyLength(firstLine);
+        List<String> lines = new ArrayList<>();
+        lines.add(firstLine);
+        while ((nextLine = readNonEmptyLine()) != null && isSameVariant(firstLine, keyLength, nextLine)) {
+            lines.add(nextLine);
+        }
+        return lines;
+    }
+
+    private String readNonEmptyLine() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null && (line.trim().isEmpty() || line.startsWith("#"))) ;
+        if (line == null) {
+            endOfFileReached = true;
+        }
+        return line;
+    }
+
+    /**
+     * Length of the "Uploaded_variation \t Location \t Allele" prefix, which identifies the variant of the line.
+     */
+    private static int variantKeyLength(String line) {
+        int idx = -1;
+        for (int i = 0; i < 3; i++) {
+            idx = line.indexOf('\t', idx + 1);
+            if (idx < 0) {
+                return line.length();
             }
+        }
+        return idx;
+    }
 
-            /**
-             * End of file.
-             */
-            if(line==null) {
-                // Last variant was read, no more to read. Return last read variant and leave currentAnnotation=null so that if read() is called again, null will be returned
-                if(currentAnnotation!=null) {
-                    variantAnnotationToReturn = currentAnnotation;
-                    currentAnnotation = null;
-                } else {
-                    return null;
+    private static boolean isSameVariant(String firstLine, int keyLength, String line) {
+        return line.regionMatches(0, firstLine, 0, keyLength)
+                && (line.length() == keyLength || line.charAt(keyLength) == '\t');
+    }
+
+    /**
+     * Build the annotation of a variant from all its lines. Does not modify the state of the reader, so it can be
+     * called concurrently.
+     *
+     * @param variantLines Lines of a single variant
+     * @return Annotation of the variant
+     */
+    protected VariantAnnotation parseVariantAnnotation(List<String> variantLines) {
+        VariantAnnotation annotation = null;
+        for (String line : variantLines) {
+            ConsequenceType consequenceType = new ConsequenceType();
+            String[] lineFields = line.split("\t");
+            if (annotation == null) {
+                Map<String,String> variantMap = parseVariant(lineFields[0], lineFields[1], lineFields[2]);  // coordinates and alternative are only parsed once
+                annotation = new VariantAnnotation();
+                annotation.setChromosome(variantMap.get("chromosome"));
+                annotation.setStart(Integer.valueOf(variantMap.get("start")));
+                annotation.setEnd(Integer.valueOf(variantMap.get("end")));
+                annotation.setReference(variantMap.get("reference"));
+                annotation.setAlternate(variantMap.get("alternative"));
+
+                /**
+                 * Set rs id
+                 */
+                if (!lineFields[12].isEmpty() && !lineFields[12].equals("-")) {
+                    annotation.setId(lineFields[12]);
                 }
-            }
-            return Collections.singletonList(variantAnnotationToReturn);
 
-        } catch (IOException e) {
-            e.printStackTrace();
+                /**
+                 * Initialize list of consequence types
+                 */
+                annotation.setConsequenceTypes(new ArrayList<ConsequenceType>(variantLines.size()));
+
+                /**
+                 * parses extra column and populates fields as required. Some lines do not have extra field and end with a \t: the split function above does not return that field
+                 * true parameter indicates the function to also parse frequencies
+                 */
+                if(lineFields.length>13) {
+                    parseExtraField(annotation, consequenceType, lineFields[13], true);
+                }
+            } else {
+                /**
+                 * Some lines do not have extra field and end with a \t: the split function above does not return that field
+                 * false indicates the function to skip frequency attributes (were already parsed the first time this variant was seen)
+                 */
+                if(lineFields.length>13) {
+                    parseExtraField(annotation, consequenceType, lineFields[13], false);
+                }
+            }
+            // Remaining fields only of interest if the feature is a transcript
+            if(lineFields[5].toLowerCase().equals("transcript")) {
+                parseRemainingFields(consequenceType, lineFields);
+            // Otherwise just set SO terms
+            } else {
+                consequenceType.setSequenceOntologyTerms(
+                        getSequenceOntologyTerms(Arrays.asList(lineFields[6].split(","))));   // fill so terms
+            }
+            annotation.getConsequenceTypes().add(consequenceType);
         }
-
-        return null;
+        return annotation;
     }
 
     protected List<SequenceOntologyTerm> getSequenceOntologyTerms(List<String> SoNames) {
@@ -251,7 +322,8 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
         }
     }
 
-    private void parseExtraField(ConsequenceType consequenceType, String extraField, Boolean parseFrequencies) {
+    private void parseExtraField(VariantAnnotation annotation, ConsequenceType consequenceType, String extraField,
+                                 Boolean parseFrequencies) {
 
         for (String field : extraField.split(";")) {
             String[] keyValue = field.split("=");
@@ -259,37 +331,37 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
             switch (keyValue[0].toLowerCase()) {
                 case "aa_maf":
                     if(parseFrequencies) {
-                        if(currentAnnotation.getPopulationFrequencies()==null) {
-                            currentAnnotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
+                        if(annotation.getPopulationFrequencies()==null) {
+                            annotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
                         }
-                        currentAnnotation.getPopulationFrequencies().add(parsePopulationFrequency(keyValue[1], "ESP_6500",
+                        annotation.getPopulationFrequencies().add(parsePopulationFrequency(annotation, keyValue[1], "ESP_6500",
                                 "African_American"));
                     }
                     break;
                 case "afr_maf":
                     if(parseFrequencies) {
-                        if(currentAnnotation.getPopulationFrequencies()==null) {
-                            currentAnnotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
+                        if(annotation.getPopulationFrequencies()==null) {
+                            annotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
                         }
-                        currentAnnotation.getPopulationFrequencies().add(parsePopulationFrequency(keyValue[1], "1000GENOMES",
+                        annotation.getPopulationFrequencies().add(parsePopulationFrequency(annotation, keyValue[1], "1000GENOMES",
                                 "phase_1_AFR"));
                     }
                     break;
                 case "amr_maf":
                     if(parseFrequencies) {
-                        if(currentAnnotation.getPopulationFrequencies()==null) {
-                            currentAnnotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
+                        if(annotation.getPopulationFrequencies()==null) {
+                            annotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
                         }
-                        currentAnnotation.getPopulationFrequencies().add(parsePopulationFrequency(keyValue[1], "1000GENOMES",
+                        annotation.getPopulationFrequencies().add(parsePopulationFrequency(annotation, keyValue[1], "1000GENOMES",
                                 "phase_1_AMR"));
                     }
                     break;
                 case "asn_maf":
                     if(parseFrequencies) {
-                        if(currentAnnotation.getPopulationFrequencies()==null) {
-                            currentAnnotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
+                        if(annotation.getPopulationFrequencies()==null) {
+                            annotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
                         }
-                        currentAnnotation.getPopulationFrequencies().add(parsePopulationFrequency(keyValue[1], "1000GENOMES",
+                        annotation.getPopulationFrequencies().add(parsePopulationFrequency(annotation, keyValue[1], "1000GENOMES",
                                 "phase_1_ASN"));
                     }
                     break;
@@ -298,42 +370,42 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
                     break;
                 case "ea_maf":
                     if(parseFrequencies) {
-                        if(currentAnnotation.getPopulationFrequencies()==null) {
-                            currentAnnotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
+                        if(annotation.getPopulationFrequencies()==null) {
+                            annotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
                         }
-                        currentAnnotation.getPopulationFrequencies().add(parsePopulationFrequency(keyValue[1], "ESP_6500",
+                        annotation.getPopulationFrequencies().add(parsePopulationFrequency(annotation, keyValue[1], "ESP_6500",
                                 "European_American"));
                     }
                     break;
                 case "eur_maf":
                     if(parseFrequencies) {
-                        if(currentAnnotation.getPopulationFrequencies()==null) {
-                            currentAnnotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
+                        if(annotation.getPopulationFrequencies()==null) {
+                            annotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
                         }
-                        currentAnnotation.getPopulationFrequencies().add(parsePopulationFrequency(keyValue[1], "1000GENOMES",
+                        annotation.getPopulationFrequencies().add(parsePopulationFrequency(annotation, keyValue[1], "1000GENOMES",
                                 "phase_1_EUR"));
                     }
                     break;
                 case "gmaf": // Format is GMAF=G:0.2640  or  GMAF=T:0.1221,-:0.0905
                     if(parseFrequencies) {
-                        if(currentAnnotation.getPopulationFrequencies()==null) {
-                            currentAnnotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
+                        if(annotation.getPopulationFrequencies()==null) {
+                            annotation.setPopulationFrequencies(new ArrayList<PopulationFrequency>());
                         }
-                        currentAnnotation.getPopulationFrequencies().add(parsePopulationFrequency(keyValue[1], "1000GENOMES",
+                        annotation.getPopulationFrequencies().add(parsePopulationFrequency(annotation, keyValue[1], "1000GENOMES",
                                 "phase_1_ALL"));
                     }
                     break;
                 case "hgvsc":
-                    if(currentAnnotation.getHgvs()==null) {
-                        currentAnnotation.setHgvs(new ArrayList<String>());
+                    if(annotation.getHgvs()==null) {
+                        annotation.setHgvs(new ArrayList<String>());
                     }
-                    currentAnnotation.getHgvs().add(keyValue[1]);
+                    annotation.getHgvs().add(keyValue[1]);
                     break;
                 case "hgvsp":
-                    if(currentAnnotation.getHgvs()==null) {
-                        currentAnnotation.setHgvs(new ArrayList<String>());
+                    if(annotation.getHgvs()==null) {
+                        annotation.setHgvs(new ArrayList<String>());
                     }
-                    currentAnnotation.getHgvs().add(keyValue[1]);
+                    annotation.getHgvs().add(keyValue[1]);
                     break;
                 case "polyphen": // Format is PolyPhen=possibly_damaging(0.859)
                     addProteinSubstitutionScore(consequenceType, parseProteinSubstitutionScore("Polyphen", keyValue[1]));
@@ -373,16 +445,17 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
         return new Score(Double.valueOf(scoreFields[1]), predictorName, scoreFields[0]);
     }
 
-    private PopulationFrequency parsePopulationFrequency(String frequencyStrings, String study, String population) {
+    private PopulationFrequency parsePopulationFrequency(VariantAnnotation annotation, String frequencyStrings, String study,
+                                                         String population) {
         PopulationFrequency populationFrequency = new PopulationFrequency();
         populationFrequency.setStudy(study);
         populationFrequency.setPopulation(population);
 //        populationFrequency.setSuperPopulation(population);
-        populationFrequency.setRefAllele(currentAnnotation.getReference());
-        populationFrequency.setAltAllele(currentAnnotation.getAlternate());
+        populationFrequency.setRefAllele(annotation.getReference());
+        populationFrequency.setAltAllele(annotation.getAlternate());
         for(String frequencyString : frequencyStrings.split(",")) {
             String[] parts = frequencyString.split(":");
-            if (parts[0].equals(currentAnnotation.getAlternate())) {
+            if (parts[0].equals(annotation.getAlternate())) {
                 populationFrequency.setAltAlleleFreq(Float.valueOf(parts[1]));
             } else {
                 populationFrequency.setRefAlleleFreq(Float.valueOf(parts[1]));
@@ -472,6 +545,9 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
 
     @Override
     public List<VariantAnnotation> read(int batchSize) {
+        if (numThreads > 1) {
+            return readParallel(batchSize);
+        }
         List<VariantAnnotation> batch = new ArrayList<>(batchSize);
         List<VariantAnnotation> readRecords;
         int i = 0;
@@ -482,5 +558,59 @@ public class VepFormatReader implements DataReader<VariantAnnotation> {
         return batch;
     }
 
+    private List<VariantAnnotation> readParallel(int batchSize) {
+        int chunkSize = Math.max(1, batchSize / numThreads);
+        List<VariantAnnotation> batch = new ArrayList<>(batchSize);
+        try {
+            while (batch.size() < batchSize) {
+                if (parsedAnnotations.isEmpty()) {
+                    submitChunks(chunkSize);
+                    Future<List<VariantAnnotation>> future = pendingChunks.pollFirst();
+                    if (future == null) {
+                        break;
+                    }
+                    parsedAnnotations.addAll(future.get());
+                }
+                while (batch.size() < batchSize && !parsedAnnotations.isEmpty()) {
+                    batch.add(parsedAnnotations.pollFirst());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        return batch;
+    }
+
+    /**
+     * Keep up to two chunks per thread being parsed ahead of the consumer.
+     */
+    private void submitChunks(int chunkSize) throws IOException {
+        while (pendingChunks.size() < numThreads * 2) {
+            List<List<String>> chunk = new ArrayList<>(chunkSize);
+            List<String> variantLines;
+            while (chunk.size() < chunkSize && (variantLines = readVariantLines()) != null) {
+                chunk.add(variantLines);
+            }
+            if (chunk.isEmpty()) {
+                return;
+            }
+            pendingChunks.addLast(executorService.submit(() -> {
+                List<VariantAnnotation> annotations = new ArrayList<>(chunk.size());
+                for (List<String> lines : chunk) {
+                    annotations.add(parseVariantAnnotation(lines));
+                }
+                return annotations;
+            }));
+        }
+    }
+
 }
 
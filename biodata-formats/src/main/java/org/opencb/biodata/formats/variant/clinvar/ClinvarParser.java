@@ -19,13 +19,19 @@
 
 package org.opencb.biodata.formats.variant.clinvar;
 
+import org.opencb.biodata.formats.io.XmlEntryReader;
+import org.opencb.biodata.formats.variant.clinvar.v53jaxb.PublicSetType;
+
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 
 public class ClinvarParser {
@@ -33,6 +39,7 @@ public class ClinvarParser {
     public final static String CLINVAR_CONTEXT_v19 = "org.opencb.biodata.formats.variant.clinvar.v19jaxb";
     public final static String CLINVAR_CONTEXT_v24 = "org.opencb.biodata.formats.variant.clinvar.v24jaxb";
     public final static String CLINVAR_CONTEXT_v53 = "org.opencb.biodata.formats.variant.clinvar.v53jaxb";
+    public final static QName CLINVAR_SET = new QName("ClinVarSet");
 
     public static void saveXMLInfo(Object obj, String filename) throws FileNotFoundException, JAXBException {
         JAXBContext jaxbContext;
@@ -75,4 +82,40 @@ public class ClinvarParser {
         obj = unmarshaller.unmarshal(inputStream);
         return obj;
     }
+
+    /**
+     * Creates a reader of the ClinVarSet elements of a ClinVar release, unmarshalling one ClinVarSet at a time
+     * instead of the whole release.
+     *
+     * @param path          ClinVar XML file, optionally gzipped
+     * @param numThreads    Number of threads unmarshalling ClinVarSets
+     * @return              ClinVarSet reader
+     */
+    public static XmlEntryReader<PublicSetType> newClinVarSetReader(Path path, int numThreads) {
+        return newClinVarSetReader(path, PublicSetType.class, numThreads);
+    }
+
+    /**
+     * Creates a reader of the ClinVarSet elements of a ClinVar release of any of the supported versions.
+     *
+     * @param path              ClinVar XML file, optionally gzipped
+     * @param clinVarSetClass   PublicSetType class of the JAXB package of the release version, e.g. v24jaxb.PublicSetType
+     * @param numThreads        Number of threads unmarshalling ClinVarSets
+     * @param <T>               PublicSetType class
+     * @return                  ClinVarSet reader
+     */
+    public static <T> XmlEntryReader<T> newClinVarSetReader(Path path, Class<T> clinVarSetClass, int numThreads) {
+        return new XmlEntryReader<>(path, CLINVAR_SET, clinVarSetClass, numThreads);
+    }
+
+    /**
+     * Streams the ClinVarSet elements of a ClinVar release to the consumer, in file order.
+     *
+     * @param path          ClinVar XML file, optionally gzipped
+     * @param numThreads    Number of threads unmarshalling ClinVarSets
+     * @param consumer      ClinVarSet consumer
+     */
+    public static void parse(Path path, int numThreads, Consumer<PublicSetType> consumer) {
+        newClinVarSetReader(path, numThreads).forEachEntry(consumer);
+    }
 }
@@ -18,8 +18,11 @@ package org.opencb.biodata.formats.variant.hgvs;
 
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import org.opencb.biodata.formats.feature.refseq.RefseqAccession;
+import org.opencb.biodata.formats.sequence.fasta.dbadaptor.SequenceDBAdaptor;
+import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -70,10 +73,32 @@ public class Hgvs {
     }
 
     public Variant getVariant() throws ParseException {
-        return getVariant(null);
+        return getVariant((ReferenceSequenceFetcher) null);
     }
 
     public Variant getVariant(IndexedFastaSequenceFile genomeSequenceFastaFile) throws ParseException {
+        if (genomeSequenceFastaFile == null) {
+            return getVariant((ReferenceSequenceFetcher) null);
+        }
+        return getVariant((chromosome, start, stop) ->
+                new String(genomeSequenceFastaFile.getSubsequenceAt(chromosome, start, stop).getBases()));
+    }
+
+    public Variant getVariant(SequenceDBAdaptor sequenceDBAdaptor) throws ParseException {
+        if (sequenceDBAdaptor == null) {
+            return getVariant((ReferenceSequenceFetcher) null);
+        }
+        return getVariant((chromosome, start, stop) -> {
+            try {
+                return sequenceDBAdaptor.getSequence(new Region(chromosome, start, stop));
+            } catch (IOException e) {
+                throw new ParseException("Unable to fetch reference sequence " + chromosome + ":" + start + "-" + stop
+                        + " : " + e.getMessage(), 0);
+            }
+        });
+    }
+
+    private Variant getVariant(ReferenceSequenceFetcher genomeSequenceFastaFile) throws ParseException {
 
         Variant variant = null;
         // check that the HGVS is genomic
@@ -100,9 +125,55 @@ public class Hgvs {
         return variant;
     }
 
-    private Variant getVariantFromComplexRearrangement(String chromosome, IndexedFastaSequenceFile genomeSequenceFastaFile) {
-        // TODO: implement parser for changes like "NC_000016.10:g.2088677_2088679delTGAins5"
-        return null;
+    @FunctionalInterface
+    private interface ReferenceSequenceFetcher {
+        String fetch(String chromosome, int start, int stop) throws ParseException;
+    }
+
+    private Variant getVariantFromComplexRearrangement(String chromosome, ReferenceSequenceFetcher genomeSequenceFastaFile)
+            throws ParseException {
+        // examples g.32_33delinsGA, g.32_33delTGinsGA. Inserted sequences given by length (g.32_34delTGAins5) are not
+        // supported
+        int delIndex = change.indexOf("del");
+        int insIndex = change.indexOf("ins", delIndex + 3);
+        if (delIndex != 0 || insIndex < 0) {
+            throw new ParseException("Hgvs deletion-insertion malformed: " + change, Math.max(delIndex, 0));
+        }
+        String insertedNucleotides = change.substring(insIndex + 3);
+        if (!isSequence(insertedNucleotides)) {
+            return null;
+        }
+
+        String deletedNucleotides = change.substring(3, insIndex);
+        if (!isSequence(deletedNucleotides)) {
+            if (genomeSequenceFastaFile != null) {
+                deletedNucleotides = genomeSequenceFastaFile.fetch(chromosome, start, stop);
+            } else {
+                // in this case, without genome sequence fasta file, deleted nucleotides cannot be obtained
+                return null;
+            }
+        }
+
+        return new Variant(chromosome, start, stop, deletedNucleotides, insertedNucleotides);
+    }
+
+    private static boolean isSequence(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            switch (s.charAt(i)) {
+                case 'A':
+                case 'C':
+                case 'G':
+                case 'T':
+                case 'N':
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
     }
 
     private Variant getVariantFromSNV(String chromosome) {
@@ -123,7 +194,8 @@ public class Hgvs {
         return variant;
     }
 
-    private Variant getVariantFromDuplication(String chromosome, IndexedFastaSequenceFile genomeSequenceFastaFile) {
+    private Variant getVariantFromDuplication(String chromosome, ReferenceSequenceFetcher genomeSequenceFastaFile)
+            throws ParseException {
         String duplicatedNucleotides;
         String[] fields = change.split("(dup)");
         if (fields.length == 2) {
@@ -132,7 +204,7 @@ public class Hgvs {
         } else {
             // example g.413dup or g.307_308dup
             if (genomeSequenceFastaFile != null) {
-                duplicatedNucleotides = new String(genomeSequenceFastaFile.getSubsequenceAt(chromosome, start, stop).getBases());
+                duplicatedNucleotides = genomeSequenceFastaFile.fetch(chromosome, start, stop);
             } else {
                 // in this case, without genome sequence fasta file, duplicated nucleotides cannot be obtained
                 duplicatedNucleotides = null;
@@ -148,7 +220,7 @@ public class Hgvs {
         return variant;
     }
 
-    private Variant getVariantFromDeletion(String chromosome, IndexedFastaSequenceFile genomeSequenceFastaFile) throws ParseException {
+    private Variant getVariantFromDeletion(String chromosome, ReferenceSequenceFetcher genomeSequenceFastaFile) throws ParseException {
         String deletedNucleotides;
         String[] fields = change.split("(del)");
         if (fields.length == 2) {
@@ -157,7 +229,7 @@ public class Hgvs {
             throw new ParseException("Hgvs deletion malformed: " + change, change.lastIndexOf("del"));
         } else {
             if (genomeSequenceFastaFile != null) {
-                deletedNucleotides = new String(genomeSequenceFastaFile.getSubsequenceAt(chromosome, start, stop).getBases());
+                deletedNucleotides = genomeSequenceFastaFile.fetch(chromosome, start, stop);
             } else {
                 // in this case, without genome sequence fasta file, deleted nucleotides cannot be obtained
                 deletedNucleotides = null;
@@ -3,27 +3,39 @@ package org.opencb.biodata.formats.variant.io;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.mortbay.util.ajax.JSON;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.base.Throwables;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantAvro;
 import org.opencb.commons.io.DataReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 /**
+ * Reads variants from a file with one {@link VariantAvro} JSON per line, optionally gzipped.
+ *
+ * Each line is decoded straight into a {@link VariantAvro}. If more than one thread is used, each batch of lines is
+ * split in chunks decoded in a pool of threads, and variants are returned in file order. Malformed lines are skipped
+ * and logged with their line number.
+ *
  * Created by fjlopez on 08/06/16.
  */
 public class JsonVariantReader implements DataReader<Variant> {
@@ -31,34 +43,61 @@ public class JsonVariantReader implements DataReader<Variant> {
     private BufferedReader reader;
     private Path path;
     private String filename;
+    private final int numThreads;
+
+    private ExecutorService executor;
+    private long lineNumber;
+    private final AtomicLong numMalformedLines = new AtomicLong();
 
     private static ObjectMapper jsonObjectMapper;
+    private static ObjectReader variantReader;
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonVariantReader.class);
 
     static {
         jsonObjectMapper = new ObjectMapper();
         jsonObjectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
         jsonObjectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        variantReader = jsonObjectMapper.readerFor(VariantAvro.class);
     }
 
-    public JsonVariantReader(String filename) { this.filename = filename; }
+    public JsonVariantReader(String filename) {
+        this(filename, 1);
+    }
+
+    /**
+     * @param filename      JSON file, optionally gzipped
+     * @param numThreads    Number of threads decoding lines. If 1 or less, lines are decoded in the calling thread
+     */
+    public JsonVariantReader(String filename, int numThreads) {
+        this.filename = filename;
+        this.numThreads = numThreads;
+    }
 
     @Override
     public boolean open() {
 
         try {
             this.path = Paths.get(this.filename);
-            Files.exists(this.path);
-
+            InputStream inputStream = Files.newInputStream(path);
             if (path.toFile().getName().endsWith(".gz")) {
-                this.reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(path.toFile()))));
-            } else {
-                this.reader = Files.newBufferedReader(path, Charset.defaultCharset());
+                inputStream = new GZIPInputStream(inputStream, 64 * 1024);
             }
-
+            this.reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), 64 * 1024);
         } catch (IOException ex) {
-            Logger.getLogger(JsonVariantReader.class.getName()).log(Level.SEVERE, null, ex);
+            logger.error("Error opening file {}", filename, ex);
             return false;
         }
+
+        lineNumber = 0;
+        numMalformedLines.set(0);
+        if (numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread thread = new Thread(r, "json-variant-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
         return true;
     }
 
@@ -67,10 +106,14 @@ public class JsonVariantReader implements DataReader<Variant> {
 
     @Override
     public boolean close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
         try {
             reader.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw Throwables.propagate(e);
         }
         return true;
     }
@@ -81,29 +124,95 @@ public class JsonVariantReader implements DataReader<Variant> {
 
     @Override
     public List<Variant> read() {
+        List<Variant> batch = read(1);
+        return batch.isEmpty() ? null : Collections.singletonList(batch.get(0));
+    }
 
-        String line = null;
+    @Override
+    public List<Variant> read(int batchSize) {
+        List<Variant> batch = new ArrayList<>(batchSize);
+        // Skipped lines are replaced by the next ones, so a batch is only short at the end of the file
+        while (batch.size() < batchSize) {
+            int size = batch.size();
+            List<String> lines = new ArrayList<>(batchSize - size);
+            long firstLineNumber = readLines(lines, batchSize - size);
+            if (lines.isEmpty()) {
+                break;
+            }
+            decode(lines, firstLineNumber, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * @return Number of malformed lines skipped so far
+     */
+    public long getNumMalformedLines() {
+        return numMalformedLines.get();
+    }
+
+    /**
+     * Read up to maxLines lines, skipping empty lines, which are given a null value.
+     *
+     * @return Line number of the first line read
+     */
+    private long readLines(List<String> lines, int maxLines) {
+        long firstLineNumber = lineNumber + 1;
         try {
-            line = reader.readLine();
+            String line;
+            while (lines.size() < maxLines && (line = reader.readLine()) != null) {
+                lineNumber++;
+                lines.add(line.isEmpty() ? null : line);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw Throwables.propagate(e);
         }
+        return firstLineNumber;
+    }
 
-        return line != null
-                ? Collections.singletonList(new Variant(jsonObjectMapper.convertValue(JSON.parse(line), VariantAvro.class)))
-                : null;
+    private void decode(List<String> lines, long firstLineNumber, List<Variant> batch) {
+        if (executor == null || lines.size() < numThreads) {
+            decode(lines, firstLineNumber, 0, lines.size(), batch);
+            return;
+        }
+
+        int chunkSize = (lines.size() + numThreads - 1) / numThreads;
+        List<Future<List<Variant>>> futures = new ArrayList<>(numThreads);
+        for (int from = 0; from < lines.size(); from += chunkSize) {
+            int start = from;
+            int end = Math.min(lines.size(), from + chunkSize);
+            futures.add(executor.submit(() -> {
+                List<Variant> variants = new ArrayList<>(end - start);
+                decode(lines, firstLineNumber, start, end, variants);
+                return variants;
+            }));
+        }
+        try {
+            for (Future<List<Variant>> future : futures) {
+                batch.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
     }
 
-    @Override
-    public List<Variant> read(int batchSize) {
-        List<Variant> batch = new ArrayList<>(batchSize);
-        List<Variant> readRecords;
-        int i = 0;
-        while ((i < batchSize) && (readRecords = this.read()) != null) {
-            batch.add(readRecords.get(0));
-            i++;
+    private void decode(List<String> lines, long firstLineNumber, int start, int end, List<Variant> variants) {
+        for (int i = start; i < end; i++) {
+            String line = lines.get(i);
+            if (line == null) {
+                continue;
+            }
+            try {
+                VariantAvro variantAvro = variantReader.readValue(line);
+                variants.add(new Variant(variantAvro));
+            } catch (IOException | RuntimeException e) {
+                numMalformedLines.incrementAndGet();
+                logger.warn("Skipping malformed line {} of {}: {}", firstLineNumber + i, filename, e.getMessage());
+            }
         }
-        return batch;
     }
 
 }
@@ -0,0 +1,245 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.formats.variant.io;
+
+import com.google.common.base.Throwables;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.io.DataReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Reads variants from an Avro data file of {@link VariantAvro}, as written by {@link VariantAvroBlockWriter}.
+ *
+ * Fields "studies" and "annotation" can be excluded, in which case they are skipped while decoding instead of being
+ * read and discarded. If regions are given and the file has a blocks index, only the blocks overlapping any of the
+ * regions are decoded.
+ *
+ * Created on 19/10/26.
+ */
+public class VariantAvroBlockReader implements DataReader<Variant> {
+
+    private static final String STUDIES_FIELD = "studies";
+    private static final String ANNOTATION_FIELD = "annotation";
+
+    private final Path inputPath;
+    private final boolean includeStudies;
+    private final boolean includeAnnotation;
+    private final Map<String, List<Region>> regions;
+
+    private DataFileReader<Object> reader;
+    private Schema projection;
+    // Position in VariantAvro of each field of the projection
+    private int[] projectionPositions;
+
+    // Blocks to read, if filtering by region with a blocks index
+    private Deque<long[]> blocks;
+    private long remainingInBlock;
+
+    public VariantAvroBlockReader(Path inputPath) {
+        this(inputPath, true, true, null);
+    }
+
+    /**
+     * @param inputPath         Avro file
+     * @param includeStudies    Decode the field "studies". Otherwise, variants will have an empty list of studies
+     * @param includeAnnotation Decode the field "annotation". Otherwise, variants will have a null annotation
+     * @param regions           Return only variants overlapping any of these regions. Null or empty for no filter
+     */
+    public VariantAvroBlockReader(Path inputPath, boolean includeStudies, boolean includeAnnotation, List<Region> regions) {
+        this.inputPath = inputPath;
+        this.includeStudies = includeStudies;
+        this.includeAnnotation = includeAnnotation;
+        if (regions == null || regions.isEmpty()) {
+            this.regions = null;
+        } else {
+            this.regions = new HashMap<>();
+            for (Region region : regions) {
+                this.regions.computeIfAbsent(region.getChromosome(), k -> new ArrayList<>()).add(region);
+            }
+        }
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            SpecificDatumReader<Object> datumReader;
+            if (includeStudies && includeAnnotation) {
+                datumReader = new SpecificDatumReader<>(VariantAvro.getClassSchema());
+            } else {
+                projection = buildProjection();
+                datumReader = new SpecificDatumReader<>(projection);
+            }
+            reader = new DataFileReader<>(inputPath.toFile(), datumReader);
+
+            Path blocksIndexPath = VariantAvroBlockWriter.getBlocksIndexPath(inputPath);
+            if (regions != null && Files.exists(blocksIndexPath)) {
+                blocks = readOverlappingBlocks(blocksIndexPath);
+                remainingInBlock = 0;
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return true;
+    }
+
+    @Override
+    public List<Variant> read(int batchSize) {
+        List<Variant> batch = new ArrayList<>(batchSize);
+        try {
+            while (batch.size() < batchSize) {
+                VariantAvro variantAvro = next();
+                if (variantAvro == null) {
+                    break;
+                }
+                if (regions == null || overlaps(variantAvro)) {
+                    batch.add(new Variant(variantAvro));
+                }
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return batch;
+    }
+
+    private VariantAvro next() throws IOException {
+        if (blocks != null) {
+            if (remainingInBlock == 0) {
+                long[] block = blocks.pollFirst();
+                if (block == null) {
+                    return null;
+                }
+                reader.seek(block[0]);
+                remainingInBlock = block[1];
+            }
+            remainingInBlock--;
+        } else if (!reader.hasNext()) {
+            return null;
+        }
+
+        Object record = reader.next();
+        if (projection == null) {
+            return (VariantAvro) record;
+        } else {
+            return toVariantAvro((IndexedRecord) record);
+        }
+    }
+
+    private boolean overlaps(VariantAvro variant) {
+        List<Region> chromosomeRegions = regions.get(variant.getChromosome());
+        if (chromosomeRegions != null) {
+            for (Region region : chromosomeRegions) {
+                if (region.overlaps(variant.getChromosome(), variant.getStart(), variant.getEnd())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the blocks index, keeping the position and size of the blocks overlapping any region, sorted by position.
+     */
+    private Deque<long[]> readOverlappingBlocks(Path blocksIndexPath) throws IOException {
+        List<long[]> overlapping = new ArrayList<>();
+        try (BufferedReader indexReader = Files.newBufferedReader(blocksIndexPath)) {
+            String line;
+            while ((line = indexReader.readLine()) != null) {
+                if (line.startsWith("#") || line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                List<Region> chromosomeRegions = regions.get(fields[0]);
+                if (chromosomeRegions == null) {
+                    continue;
+                }
+                int start = Integer.parseInt(fields[1]);
+                int end = Integer.parseInt(fields[2]);
+                for (Region region : chromosomeRegions) {
+                    if (region.overlaps(fields[0], start, end)) {
+                        overlapping.add(new long[]{Long.parseLong(fields[3]), Long.parseLong(fields[4])});
+                        break;
+                    }
+                }
+            }
+        }
+        overlapping.sort(Comparator.comparingLong(block -> block[0]));
+        return new LinkedList<>(overlapping);
+    }
+
+    /**
+     * Build a reader schema without the excluded fields. It has a different name, aliased to VariantAvro, so the
+     * top level record is decoded as a generic record with the positions of the projection, while nested records
+     * are still decoded as specific records.
+     */
+    private Schema buildProjection() {
+        Schema schema = VariantAvro.getClassSchema();
+        List<Schema.Field> fields = new ArrayList<>();
+        for (Schema.Field field : schema.getFields()) {
+            if (!includeStudies && field.name().equals(STUDIES_FIELD)
+                    || !includeAnnotation && field.name().equals(ANNOTATION_FIELD)) {
+                continue;
+            }
+            fields.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue()));
+        }
+        Schema projection = Schema.createRecord(schema.getName() + "Projection", schema.getDoc(), schema.getNamespace(),
+                false);
+        projection.setFields(fields);
+        projection.addAlias(schema.getFullName());
+
+        projectionPositions = new int[fields.size()];
+        for (Schema.Field field : projection.getFields()) {
+            projectionPositions[field.pos()] = schema.getField(field.name()).pos();
+        }
+        return projection;
+    }
+
+    private VariantAvro toVariantAvro(IndexedRecord record) {
+        VariantAvro variantAvro = new VariantAvro();
+        for (int i = 0; i < projectionPositions.length; i++) {
+            variantAvro.put(projectionPositions[i], record.get(i));
+        }
+        if (!includeStudies) {
+            variantAvro.setStudies(new ArrayList<>());
+        }
+        return variantAvro;
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.formats.variant.io;
+
+import com.google.common.base.Throwables;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.io.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes variants into an Avro data file of {@link VariantAvro}, compressed in blocks.
+ *
+ * Each block contains variants from a single chromosome, up to a configurable number of variants. A sidecar file
+ * ({@link #BLOCKS_INDEX_SUFFIX}) stores, for each block, its chromosome, min start, max end, file position and number
+ * of variants, so {@link VariantAvroBlockReader} can skip the blocks that do not overlap the requested regions.
+ *
+ * Optionally, serialization and compression run in a background thread, overlapping with the producer.
+ *
+ * Created on 19/10/26.
+ */
+public class VariantAvroBlockWriter implements DataWriter<Variant> {
+
+    public static final String BLOCKS_INDEX_SUFFIX = ".blocks";
+    public static final String DEFAULT_CODEC = "deflate";
+    public static final int DEFAULT_BLOCK_SIZE = 10000;
+    private static final int QUEUE_CAPACITY = 4;
+    private static final List<VariantAvro> END_OF_STREAM = Collections.emptyList();
+
+    private final Path outputPath;
+    private final String codec;
+    private final int blockSize;
+    private final boolean backgroundCompression;
+
+    private DataFileWriter<VariantAvro> writer;
+    private BufferedWriter blocksIndexWriter;
+
+    // Current block
+    private String blockChromosome;
+    private int blockStart;
+    private int blockEnd;
+    private int blockCount;
+    private long blockPosition;
+
+    private BlockingQueue<List<VariantAvro>> queue;
+    private Thread compressionThread;
+    private volatile Throwable compressionError;
+
+    private long numVariants = 0;
+    private long numBlocks = 0;
+
+    private final Logger logger = LoggerFactory.getLogger(VariantAvroBlockWriter.class);
+
+    public VariantAvroBlockWriter(Path outputPath) {
+        this(outputPath, DEFAULT_CODEC, DEFAULT_BLOCK_SIZE, false);
+    }
+
+    /**
+     * @param outputPath            Output avro file
+     * @param codec                 Avro codec name. One of "null", "deflate", "snappy", "bzip2", "xz"
+     * @param blockSize             Max number of variants per block
+     * @param backgroundCompression Serialize and compress in a background thread
+     */
+    public VariantAvroBlockWriter(Path outputPath, String codec, int blockSize, boolean backgroundCompression) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.outputPath = outputPath;
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.backgroundCompression = backgroundCompression;
+    }
+
+    public static Path getBlocksIndexPath(Path avroPath) {
+        return Paths.get(avroPath.toString() + BLOCKS_INDEX_SUFFIX);
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            writer = new DataFileWriter<>(new SpecificDatumWriter<>(VariantAvro.class));
+            writer.setCodec(CodecFactory.fromString(codec));
+            writer.create(VariantAvro.getClassSchema(), outputPath.toFile());
+            blocksIndexWriter = Files.newBufferedWriter(getBlocksIndexPath(outputPath));
+            blocksIndexWriter.write("#chromosome\tstart\tend\tposition\tcount\n");
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        if (backgroundCompression) {
+            queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            compressionThread = new Thread(() -> {
+                try {
+                    List<VariantAvro> batch;
+                    while ((batch = queue.take()) != END_OF_STREAM) {
+                        // After an error, keep consuming so the producer never blocks
+                        if (compressionError == null) {
+                            try {
+                                appendBatch(batch);
+                            } catch (Throwable e) {
+                                compressionError = e;
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    compressionError = e;
+                }
+            }, "avro-block-writer");
+            compressionThread.setDaemon(true);
+            compressionThread.start();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean write(List<Variant> batch) {
+        List<VariantAvro> variantAvros = new ArrayList<>(batch.size());
+        for (Variant variant : batch) {
+            variantAvros.add(variant.getImpl());
+        }
+        if (backgroundCompression) {
+            checkCompressionError();
+            try {
+                queue.put(variantAvros);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        } else {
+            try {
+                appendBatch(variantAvros);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean post() {
+        if (backgroundCompression) {
+            try {
+                queue.put(END_OF_STREAM);
+                compressionThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            checkCompressionError();
+        }
+        try {
+            endBlock();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        logger.debug("{} variants written in {} blocks", numVariants, numBlocks);
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        try {
+            writer.close();
+            blocksIndexWriter.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return true;
+    }
+
+    private void appendBatch(List<VariantAvro> batch) throws IOException {
+        for (VariantAvro variant : batch) {
+            if (blockCount == blockSize || blockCount > 0 && !blockChromosome.equals(variant.getChromosome())) {
+                endBlock();
+            }
+            if (blockCount == 0) {
+                // Flushes the previous block. Returns a position valid for DataFileReader::seek
+                blockPosition = writer.sync();
+                blockChromosome = variant.getChromosome();
+                blockStart = Integer.MAX_VALUE;
+                blockEnd = Integer.MIN_VALUE;
+            }
+            writer.append(variant);
+            blockStart = Math.min(blockStart, variant.getStart());
+            blockEnd = Math.max(blockEnd, variant.getEnd());
+            blockCount++;
+        }
+        numVariants += batch.size();
+    }
+
+    private void endBlock() throws IOException {
+        if (blockCount == 0) {
+            return;
+        }
+        blocksIndexWriter.write(blockChromosome + '\t' + blockStart + '\t' + blockEnd + '\t' + blockPosition + '\t'
+                + blockCount + '\n');
+        blockCount = 0;
+        numBlocks++;
+    }
+
+    private void checkCompressionError() {
+        if (compressionError != null) {
+            throw Throwables.propagate(compressionError);
+        }
+    }
+
+    public long getNumVariants() {
+        return numVariants;
+    }
+
+    public long getNumBlocks() {
+        return numBlocks;
+    }
+}
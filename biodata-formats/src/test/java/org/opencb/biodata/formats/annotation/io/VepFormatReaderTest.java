@@ -25,6 +25,7 @@ import org.opencb.biodata.formats.variant.annotation.io.VepFormatReader;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
 //import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
 
+import java.util.ArrayList;
 import java.util.List;
 import static org.junit.Assert.assertEquals;
 
@@ -109,4 +110,25 @@ public class VepFormatReaderTest {
         vepFormatReader.close();
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReadParallel() throws Exception {
+        String file = getClass().getResource("/vepoutputtest.tsv.gz").getFile();
+        VepFormatReader vepFormatReader = new VepFormatReader(file);
+        vepFormatReader.open();
+        List<VariantAnnotation> expected = vepFormatReader.read(10000);
+        vepFormatReader.close();
+
+        // Small batches force several read-ahead chunks per batch
+        VepFormatReader parallelReader = new VepFormatReader(file, 4);
+        parallelReader.open();
+        List<VariantAnnotation> actual = new ArrayList<>();
+        List<VariantAnnotation> batch;
+        while (!(batch = parallelReader.read(3)).isEmpty()) {
+            actual.addAll(batch);
+        }
+        parallelReader.close();
+
+        assertEquals(expected, actual);
+    }
+}
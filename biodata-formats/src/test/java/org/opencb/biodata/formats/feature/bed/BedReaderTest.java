@@ -0,0 +1,105 @@
+package org.opencb.biodata.formats.feature.bed;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.formats.feature.bed.io.BedReader;
+import org.opencb.biodata.formats.io.BeanReader;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created on 19/10/26.
+ */
+public class BedReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path bedPath;
+    private List<String> expected;
+
+    @Before
+    public void setUp() throws Exception {
+        List<String> lines = new ArrayList<>();
+        expected = new ArrayList<>();
+        lines.add("# comment");
+        for (int i = 0; i < 250; i++) {
+            lines.add("chr1\t" + (i * 100) + "\t" + (i * 100 + 50) + "\tfeature" + i + "\t" + i + "\t+\t"
+                    + (i * 100) + "\t" + (i * 100 + 50) + "\t255,0,0\t2\t10,10\t0,40");
+            expected.add(new Bed("chr1", i * 100, i * 100 + 50, "feature" + i, i, "+", i * 100, i * 100 + 50, "255,0,0",
+                    2, "10,10", "0,40").toString());
+            if (i == 100) {
+                lines.add("");
+            }
+        }
+        bedPath = temporaryFolder.getRoot().toPath().resolve("features.bed");
+        Files.write(bedPath, lines);
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        BedReader reader = new BedReader(bedPath);
+        List<Bed> beds = reader.readAll();
+        reader.close();
+        assertEquals(expected, beds.stream().map(Bed::toString).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testReadBatches() throws Exception {
+        for (int numThreads : new int[]{1, 4}) {
+            BeanReader<Bed> reader = new BeanReader<>(bedPath, Bed.class);
+            reader.setNumThreads(numThreads);
+            List<Bed> beds = new ArrayList<>();
+            List<Bed> batch;
+            while (!(batch = reader.read(60)).isEmpty()) {
+                beds.addAll(batch);
+            }
+            reader.close();
+            assertEquals(expected, beds.stream().map(Bed::toString).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testReadBatchesWithBadLine() throws Exception {
+        // Bad start in the middle of the third batch
+        List<String> lines = new ArrayList<>(Files.readAllLines(bedPath));
+        lines.add(132, "chr1\tbad\t100\tfeature\t0\t+\t0\t100\t255,0,0\t2\t10,10\t0,40");
+        Path badBedPath = temporaryFolder.getRoot().toPath().resolve("bad.bed");
+        Files.write(badBedPath, lines);
+
+        // The records of the batch before the bad line are lost, the next batch starts after the bad line
+        List<String> expectedBeds = new ArrayList<>(expected.subList(0, 120));
+        expectedBeds.addAll(expected.subList(130, expected.size()));
+        for (int numThreads : new int[]{1, 4}) {
+            BeanReader<Bed> reader = new BeanReader<>(badBedPath, Bed.class);
+            reader.setNumThreads(numThreads);
+            List<Bed> beds = new ArrayList<>();
+            int errors = 0;
+            while (true) {
+                List<Bed> batch;
+                try {
+                    batch = reader.read(60);
+                } catch (InvocationTargetException e) {
+                    errors++;
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                beds.addAll(batch);
+            }
+            reader.close();
+            assertEquals(1, errors);
+            assertEquals(expectedBeds, beds.stream().map(Bed::toString).collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.opencb.biodata.formats.sequence.fasta.dbadaptor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Region;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created on 19/10/26.
+ */
+public class IndexedFastaSequenceDBAdaptorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path fasta;
+
+    @Before
+    public void setUp() throws Exception {
+        fasta = temporaryFolder.newFile("genome.fa").toPath();
+        Files.write(fasta, (">1 first\n"
+                + "ACGTA\n"
+                + "CCGGT\n"
+                + "TT\n"
+                + ">2\n"
+                + "GGGGA\n"
+                + "AAAA\n").getBytes());
+        Files.write(Paths.get(fasta.toString() + ".fai"), ("1\t12\t9\t5\t6\n"
+                + "2\t9\t27\t5\t6\n").getBytes());
+    }
+
+    @Test
+    public void testGetSequence() throws Exception {
+        // Small windows and cache to force reads across lines, windows and evictions
+        IndexedFastaSequenceDBAdaptor adaptor = new IndexedFastaSequenceDBAdaptor(fasta, 3, 2);
+        adaptor.open();
+
+        assertEquals("ACGTACCGGTTT", adaptor.getSequence(new Region("1", 1, 12)));
+        assertEquals("TACC", adaptor.getSequence(new Region("1", 4, 7)));
+        assertEquals("T", adaptor.getSequence(new Region("1", 12, 12)));
+        assertEquals("TT", adaptor.getSequence(new Region("1", 11, 100)));
+        assertEquals("GGGGAAAAA", adaptor.getSequence(new Region("2", 1, 9)));
+        assertEquals("AAAA", adaptor.getSequence(new Region("2", 6, 9)));
+        assertEquals("ACGTA", adaptor.getSequence(new Region("1", 1, 5)));
+        assertEquals(12, adaptor.getContigLength("1"));
+
+        adaptor.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownContig() throws Exception {
+        IndexedFastaSequenceDBAdaptor adaptor = new IndexedFastaSequenceDBAdaptor(fasta);
+        adaptor.open();
+        adaptor.getSequence(new Region("3", 1, 10));
+    }
+}
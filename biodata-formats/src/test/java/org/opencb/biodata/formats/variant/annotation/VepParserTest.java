@@ -0,0 +1,97 @@
+package org.opencb.biodata.formats.variant.annotation;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 19/10/26.
+ */
+public class VepParserTest {
+
+    private static final String DESCRIPTION = "Consequence annotations from Ensembl VEP. Format: "
+            + "Allele|Consequence|IMPACT|SYMBOL|Gene|Feature_type|Feature|BIOTYPE|cDNA_position|CDS_position|"
+            + "Protein_position|Amino_acids|Codons|STRAND|SIFT|PolyPhen|HGVSc|HGVSp";
+
+    private static final String CSQ = "CSQ="
+            + "T|missense_variant&splice_region_variant|MODERATE|BRCA2|ENSG00000139618|Transcript|ENST00000380152|"
+            + "protein_coding|1234|1006|336|A/T|Gca/Aca|1|tolerated(0.07)|benign(0.012)|"
+            + "ENST00000380152.7:c.1006G>A|ENSP00000369497.3:p.Ala336Thr,"
+            + "T|upstream_gene_variant|MODIFIER|ZAR1L|ENSG00000189167|Transcript|ENST00000533490|"
+            + "processed_transcript||||||-1|||,"
+            + "T|regulatory_region_variant|MODIFIER|||RegulatoryFeature|ENSR00000061960|promoter_flanking_region";
+
+    @Test
+    public void testSchema() {
+        CsqSchema schema = CsqSchema.fromHeaderDescription(DESCRIPTION);
+        assertEquals(18, schema.size());
+        assertEquals(0, schema.indexOf("Allele"));
+        assertEquals(7, schema.indexOf("biotype"));
+        assertEquals(-1, schema.indexOf("LoF"));
+    }
+
+    @Test
+    public void testPredicates() {
+        CsqSchema schema = CsqSchema.fromHeaderDescription(DESCRIPTION);
+        List<CsqConsequence> consequences = schema.split(CSQ);
+        assertEquals(3, consequences.size());
+
+        CsqConsequence first = consequences.get(0);
+        assertTrue(first.hasConsequenceType("missense_variant"));
+        assertTrue(first.hasConsequenceType("splice_region_variant"));
+        assertFalse(first.hasConsequenceType("splice_region"));
+        assertTrue(first.isGene("BRCA2"));
+        assertTrue(first.isGene("ENSG00000139618"));
+        assertTrue(first.isBiotype("protein_coding"));
+        assertTrue(first.isImpact("moderate"));
+        assertEquals("A/T", first.get("Amino_acids"));
+
+        CsqConsequence last = consequences.get(2);
+        assertFalse(last.isGene("BRCA2"));
+        assertNull(last.get("SYMBOL"));
+        assertNull(last.get("HGVSp"));
+
+        assertTrue(schema.anyMatch(CSQ, c -> c.isImpact("MODERATE")));
+        assertFalse(schema.anyMatch(CSQ, c -> c.isImpact("HIGH")));
+        assertFalse(schema.anyMatch(null, c -> true));
+    }
+
+    @Test
+    public void testParseInfoCsq() {
+        List<String> fields = Arrays.asList(DESCRIPTION.substring(DESCRIPTION.indexOf(':') + 2).split("\\|"));
+        VariantAnnotation annotation = VepParser.parseInfoCsq(fields, CSQ);
+        assertSame(VepParser.getCsqSchema(fields), VepParser.getCsqSchema(fields));
+
+        assertEquals(3, annotation.getConsequenceTypes().size());
+        assertEquals(Arrays.asList("ENST00000380152.7:c.1006G>A", "ENSP00000369497.3:p.Ala336Thr"), annotation.getHgvs());
+
+        ConsequenceType missense = annotation.getConsequenceTypes().get(0);
+        assertEquals("BRCA2", missense.getGeneName());
+        assertEquals("ENSG00000139618", missense.getEnsemblGeneId());
+        assertEquals("ENST00000380152", missense.getEnsemblTranscriptId());
+        assertEquals("+", missense.getStrand());
+        assertEquals(Integer.valueOf(1234), missense.getCdnaPosition());
+        assertEquals(Integer.valueOf(1006), missense.getCdsPosition());
+        assertEquals("Gca/Aca", missense.getCodon());
+        assertEquals(Integer.valueOf(336), missense.getProteinVariantAnnotation().getPosition());
+        assertEquals("A", missense.getProteinVariantAnnotation().getReference());
+        assertEquals("T", missense.getProteinVariantAnnotation().getAlternate());
+        assertEquals(2, missense.getProteinVariantAnnotation().getSubstitutionScores().size());
+        assertEquals("SO:0001583", missense.getSequenceOntologyTerms().get(0).getAccession());
+        assertEquals("splice_region_variant", missense.getSequenceOntologyTerms().get(1).getName());
+
+        ConsequenceType upstream = annotation.getConsequenceTypes().get(1);
+        assertEquals("-", upstream.getStrand());
+        assertNull(upstream.getCdnaPosition());
+        assertNull(upstream.getProteinVariantAnnotation());
+
+        ConsequenceType regulatory = annotation.getConsequenceTypes().get(2);
+        assertNull(regulatory.getEnsemblTranscriptId());
+        assertEquals("promoter_flanking_region", regulatory.getBiotype());
+    }
+}
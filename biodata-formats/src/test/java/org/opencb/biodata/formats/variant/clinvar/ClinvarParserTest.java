@@ -19,7 +19,10 @@
 
 package org.opencb.biodata.formats.variant.clinvar;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.formats.io.XmlEntryReader;
 import org.opencb.biodata.formats.variant.clinvar.v24jaxb.ObjectFactory;
 import org.opencb.biodata.formats.variant.clinvar.v24jaxb.PublicSetType;
 import org.opencb.biodata.formats.variant.clinvar.v24jaxb.ReleaseType;
@@ -27,11 +30,22 @@ import org.opencb.biodata.formats.variant.clinvar.v24jaxb.ReleaseType;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 
 public class ClinvarParserTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void loadXMLInfo() {
         try {
@@ -49,4 +63,44 @@ public class ClinvarParserTest {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void streamClinVarSets() throws IOException {
+        Path path = temporaryFolder.newFile("ClinVarRelease.xml.gz").toPath();
+        try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(path));
+             PrintWriter writer = new PrintWriter(os)) {
+            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            writer.println("<ReleaseSet Dated=\"2019-10-01\" Type=\"full\">");
+            for (int i = 1; i <= 250; i++) {
+                writer.println("  <ClinVarSet ID=\"" + i + "\">");
+                writer.println("    <RecordStatus>current</RecordStatus>");
+                writer.println("    <Title>Title " + i + " &amp; more</Title>");
+                writer.println("  </ClinVarSet>");
+            }
+            writer.println("</ReleaseSet>");
+        }
+
+        for (int numThreads : new int[]{1, 4}) {
+            List<PublicSetType> clinVarSets = new ArrayList<>();
+            XmlEntryReader<PublicSetType> reader = ClinvarParser.newClinVarSetReader(path, PublicSetType.class, numThreads);
+            reader.open();
+            List<PublicSetType> batch;
+            while (!(batch = reader.read(100)).isEmpty()) {
+                assertTrue(batch.size() <= 100);
+                clinVarSets.addAll(batch);
+            }
+            reader.close();
+
+            assertEquals(250, clinVarSets.size());
+            for (int i = 0; i < clinVarSets.size(); i++) {
+                assertEquals(BigInteger.valueOf(i + 1), clinVarSets.get(i).getID());
+                assertEquals("Title " + (i + 1) + " & more", clinVarSets.get(i).getTitle());
+            }
+        }
+
+        List<String> titles = new ArrayList<>();
+        ClinvarParser.parse(path, 2, clinVarSet -> titles.add(clinVarSet.getTitle()));
+        assertEquals(250, titles.size());
+        assertEquals("Title 250 & more", titles.get(249));
+    }
+}
@@ -0,0 +1,83 @@
+package org.opencb.biodata.formats.variant.io;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created on 19/10/26.
+ */
+public class JsonVariantReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path jsonPath;
+    private List<Variant> variants;
+
+    @Before
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+        variants = new ArrayList<>();
+        jsonPath = temporaryFolder.getRoot().toPath().resolve("variants.json.gz");
+        try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(jsonPath));
+             PrintStream out = new PrintStream(os)) {
+            for (int i = 1; i <= 250; i++) {
+                Variant variant = new Variant("1:" + i + ":A:C");
+                variants.add(variant);
+                out.println(objectMapper.writeValueAsString(variant.getImpl()));
+                if (i == 100) {
+                    out.println("{\"chromosome\": \"1\", \"start\": ");
+                    out.println();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        checkRead(new JsonVariantReader(jsonPath.toString()));
+    }
+
+    @Test
+    public void testReadParallel() throws Exception {
+        checkRead(new JsonVariantReader(jsonPath.toString(), 4));
+    }
+
+    private void checkRead(JsonVariantReader reader) {
+        List<Variant> read = new ArrayList<>();
+        reader.open();
+        reader.pre();
+        List<Variant> batch;
+        while (!(batch = reader.read(60)).isEmpty()) {
+            read.addAll(batch);
+        }
+        assertNull(reader.read());
+        reader.post();
+        reader.close();
+
+        assertEquals(variants.stream().map(Variant::toString).collect(Collectors.toList()),
+                read.stream().map(Variant::toString).collect(Collectors.toList()));
+        assertEquals(1, reader.getNumMalformedLines());
+    }
+}
@@ -0,0 +1,96 @@
+package org.opencb.biodata.formats.variant.io;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created on 19/10/26.
+ */
+public class VariantAvroBlockWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path avroPath;
+    private List<Variant> variants;
+
+    @Before
+    public void setUp() throws Exception {
+        variants = Arrays.asList(
+                new Variant("1:100:A:C"),
+                new Variant("1:200:A:C"),
+                new Variant("1:300:A:C"),
+                new Variant("2:100:A:C"),
+                new Variant("2:5000:A:C"),
+                new Variant("3:10:A:C"));
+        avroPath = temporaryFolder.getRoot().toPath().resolve("variants.avro");
+
+        VariantAvroBlockWriter writer = new VariantAvroBlockWriter(avroPath, "deflate", 2, true);
+        writer.open();
+        writer.pre();
+        writer.write(variants.subList(0, 4));
+        writer.write(variants.subList(4, 6));
+        writer.post();
+        writer.close();
+
+        // 1:[100,200] 1:[300] 2:[100,5000] 3:[10]
+        assertEquals(4, writer.getNumBlocks());
+        assertTrue(Files.exists(VariantAvroBlockWriter.getBlocksIndexPath(avroPath)));
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        List<Variant> read = read(new VariantAvroBlockReader(avroPath));
+        assertEquals(variants, read);
+    }
+
+    @Test
+    public void testReadRegions() throws Exception {
+        List<Variant> read = read(new VariantAvroBlockReader(avroPath, true, true,
+                Arrays.asList(new Region("1", 150, 300), new Region("2", 1, 1000))));
+        assertEquals(Arrays.asList(variants.get(1), variants.get(2), variants.get(3)), read);
+
+        read = read(new VariantAvroBlockReader(avroPath, true, true, Collections.singletonList(new Region("4", 1, 1000))));
+        assertEquals(0, read.size());
+    }
+
+    @Test
+    public void testReadProjection() throws Exception {
+        List<Variant> read = read(new VariantAvroBlockReader(avroPath, false, false, null));
+        assertEquals(variants.stream().map(Variant::toString).collect(Collectors.toList()),
+                read.stream().map(Variant::toString).collect(Collectors.toList()));
+        for (Variant variant : read) {
+            assertEquals(0, variant.getStudies().size());
+            assertNull(variant.getAnnotation());
+        }
+    }
+
+    private List<Variant> read(VariantAvroBlockReader reader) {
+        reader.open();
+        reader.pre();
+        List<Variant> read = new ArrayList<>();
+        List<Variant> batch;
+        while (!(batch = reader.read(4)).isEmpty()) {
+            read.addAll(batch);
+        }
+        reader.post();
+        reader.close();
+        return read;
+    }
+}
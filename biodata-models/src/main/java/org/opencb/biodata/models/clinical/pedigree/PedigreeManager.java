@@ -2,12 +2,22 @@ package org.opencb.biodata.models.clinical.pedigree;
 
 import org.apache.commons.lang.StringUtils;
 import org.opencb.biodata.models.commons.Phenotype;
+import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.commons.utils.ListUtils;
 
 import java.util.*;
 
+/**
+ * Indexes the members of a pedigree: parents, children, generations, affected members and kinship.
+ *
+ * The manager is a snapshot of the pedigree taken on construction. Changes to the pedigree or its members afterwards,
+ * like new parents or phenotypes, are not seen by the manager: create a new one.
+ */
 public class PedigreeManager {
 
+    // Largest number of members for a kinship matrix indexed by an int
+    static final int MAX_KINSHIP_MEMBERS = (int) Math.sqrt(Integer.MAX_VALUE - 8);
+
     private Pedigree pedigree;
     private List<Member> withoutParents;
     private List<Member> withOneParent;
@@ -16,6 +26,16 @@ public class PedigreeManager {
     private Map<String, List<Member>> partner;
     private Map<String, List<Member>> children;
 
+    // Pedigree compiled into arrays indexed by the position of the member in the pedigree
+    private Member[] members;
+    private Map<String, Integer> indexes;
+    private int[] fathers;
+    private int[] mothers;
+    private int[] generations;
+    private int[] generationOrder;
+    private Map<String, BitSet> affected;
+    private volatile double[] kinship;
+
     public PedigreeManager(Pedigree pedigree) {
         this.pedigree = pedigree;
 
@@ -67,42 +87,243 @@ public class PedigreeManager {
                 withoutChildren.add(member);
             }
         }
+
+        compile();
     }
 
-    public Set<Member> getAffectedIndividuals(Phenotype phenotype) {
-        Set<Member> members = new HashSet<>();
-        for (Member member : pedigree.getMembers()) {
+    private void compile() {
+        members = pedigree.getMembers().toArray(new Member[0]);
+        int n = members.length;
+        indexes = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            indexes.put(members[i].getId(), i);
+        }
+
+        fathers = new int[n];
+        mothers = new int[n];
+        affected = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Member member = members[i];
+            fathers[i] = member.getFather() == null ? -1 : getIndex(member.getFather().getId());
+            mothers[i] = member.getMother() == null ? -1 : getIndex(member.getMother().getId());
             if (ListUtils.isNotEmpty(member.getPhenotypes())) {
-                for (Phenotype pheno: member.getPhenotypes()) {
-                    if (StringUtils.isNotEmpty(pheno.getId()) && pheno.getId().equals(phenotype.getId())) {
-                        members.add(member);
-                        break;
+                for (Phenotype phenotype : member.getPhenotypes()) {
+                    if (StringUtils.isNotEmpty(phenotype.getId())) {
+                        affected.computeIfAbsent(phenotype.getId(), k -> new BitSet(n)).set(i);
                     }
                 }
             }
         }
+
+        // Founders are generation 0, and children are one generation after their youngest parent
+        generations = new int[n];
+        Arrays.fill(generations, -1);
+        int[] stack = new int[n];
+        boolean[] inStack = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int size = 0;
+            if (generations[i] < 0) {
+                stack[size++] = i;
+                inStack[i] = true;
+            }
+            while (size > 0) {
+                int member = stack[size - 1];
+                int pending = getPendingParent(fathers[member], inStack);
+                if (pending < 0) {
+                    pending = getPendingParent(mothers[member], inStack);
+                }
+                if (pending >= 0) {
+                    stack[size++] = pending;
+                    inStack[pending] = true;
+                } else {
+                    int generation = 0;
+                    if (fathers[member] >= 0) {
+                        generation = generations[fathers[member]] + 1;
+                    }
+                    if (mothers[member] >= 0) {
+                        generation = Math.max(generation, generations[mothers[member]] + 1);
+                    }
+                    generations[member] = generation;
+                    inStack[member] = false;
+                    size--;
+                }
+            }
+        }
+
+        // Stable counting sort by generation, so parents come before their children
+        int maxGeneration = 0;
+        for (int generation : generations) {
+            maxGeneration = Math.max(maxGeneration, generation);
+        }
+        int[] starts = new int[maxGeneration + 2];
+        for (int generation : generations) {
+            starts[generation + 1]++;
+        }
+        for (int g = 1; g < starts.length; g++) {
+            starts[g] += starts[g - 1];
+        }
+        generationOrder = new int[n];
+        for (int i = 0; i < n; i++) {
+            generationOrder[starts[generations[i]]++] = i;
+        }
+    }
+
+    private int getPendingParent(int parent, boolean[] inStack) {
+        if (parent < 0 || generations[parent] >= 0) {
+            return -1;
+        }
+        if (inStack[parent]) {
+            throw new IllegalArgumentException("Member " + members[parent].getId() + " is an ancestor of itself");
+        }
+        return parent;
+    }
+
+    public Set<Member> getAffectedIndividuals(Phenotype phenotype) {
+        Set<Member> members = new HashSet<>();
+        BitSet bitSet = affected.get(phenotype.getId());
+        if (bitSet != null) {
+            for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+                members.add(this.members[i]);
+            }
+        }
         return members;
     }
 
     public Set<Member> getUnaffectedIndividuals(Phenotype phenotype) {
         Set<Member> members = new HashSet<>();
-        for (Member member : pedigree.getMembers()) {
-            boolean affected = false;
-            if (ListUtils.isNotEmpty(member.getPhenotypes())) {
-                for (Phenotype pheno: member.getPhenotypes()) {
-                    if (StringUtils.isNotEmpty(pheno.getId()) && pheno.getId().equals(phenotype.getId())) {
-                        affected = true;
-                        break;
-                    }
-                }
-            }
-            if (!affected) {
-                members.add(member);
+        BitSet bitSet = affected.get(phenotype.getId());
+        for (int i = 0; i < this.members.length; i++) {
+            if (bitSet == null || !bitSet.get(i)) {
+                members.add(this.members[i]);
             }
         }
         return members;
     }
 
+    /**
+     * @return Number of members. Members are indexed from 0 to size - 1, in the order of the pedigree
+     */
+    public int size() {
+        return members.length;
+    }
+
+    /**
+     * @param memberId Member ID
+     * @return         Index of the member, or -1 if not in the pedigree
+     */
+    public int getIndex(String memberId) {
+        Integer index = indexes.get(memberId);
+        return index == null ? -1 : index;
+    }
+
+    public Member getMember(int index) {
+        return members[index];
+    }
+
+    /**
+     * @param index Member index
+     * @return      Index of the father, or -1 if unknown or not in the pedigree
+     */
+    public int getFatherIndex(int index) {
+        return fathers[index];
+    }
+
+    /**
+     * @param index Member index
+     * @return      Index of the mother, or -1 if unknown or not in the pedigree
+     */
+    public int getMotherIndex(int index) {
+        return mothers[index];
+    }
+
+    /**
+     * @param index Member index
+     * @return      Generation of the member. Founders are generation 0
+     */
+    public int getGeneration(int index) {
+        return generations[index];
+    }
+
+    /**
+     * @return Member indexes sorted by generation, so parents come before their children
+     */
+    public int[] getGenerationOrder() {
+        return generationOrder.clone();
+    }
+
+    /**
+     * @param phenotypeId Phenotype ID
+     * @return            Indexes of the members with the phenotype
+     */
+    public BitSet getAffected(String phenotypeId) {
+        BitSet bitSet = affected.get(phenotypeId);
+        return bitSet == null ? new BitSet(members.length) : (BitSet) bitSet.clone();
+    }
+
+    public boolean isAffected(int index, String phenotypeId) {
+        BitSet bitSet = affected.get(phenotypeId);
+        return bitSet != null && bitSet.get(index);
+    }
+
+    /**
+     * Kinship coefficient between two members: probability that two alleles taken at random, one from each member,
+     * are identical by descent. Members without parents in the pedigree are considered unrelated and not inbred.
+     * The matrix is computed on the first call, and takes 8 * size()^2 bytes.
+     *
+     * @param i First member index
+     * @param j Second member index
+     * @return  Kinship coefficient. 0.5 for a non inbred member with itself, 0.25 for parent and child
+     * @throws IllegalStateException if the pedigree is too large for the kinship matrix
+     */
+    public double getKinship(int i, int j) {
+        return getKinshipMatrix()[i * members.length + j];
+    }
+
+    private double[] getKinshipMatrix() {
+        double[] matrix = kinship;
+        if (matrix == null) {
+            int n = members.length;
+            if (n > MAX_KINSHIP_MEMBERS) {
+                throw new IllegalStateException("Too many members for a kinship matrix: " + n + ". Max is "
+                        + MAX_KINSHIP_MEMBERS);
+            }
+            matrix = new double[n * n];
+            // Each member only depends on the members before it
+            for (int a = 0; a < n; a++) {
+                int i = generationOrder[a];
+                int father = fathers[i];
+                int mother = mothers[i];
+                for (int b = 0; b < a; b++) {
+                    int j = generationOrder[b];
+                    double value = 0.5 * ((father < 0 ? 0 : matrix[father * n + j])
+                            + (mother < 0 ? 0 : matrix[mother * n + j]));
+                    matrix[i * n + j] = value;
+                    matrix[j * n + i] = value;
+                }
+                matrix[i * n + i] = 0.5 * (1 + (father < 0 || mother < 0 ? 0 : matrix[father * n + mother]));
+            }
+            kinship = matrix;
+        }
+        return matrix;
+    }
+
+    /**
+     * Positions of the members in the samples data of a study, to check the genotypes of a family without looking up
+     * the samples by name.
+     *
+     * @param studyEntry Study entry
+     * @return           Position in the samples data of each member, by member index, or -1 if not in the study
+     */
+    public int[] getSamplePositions(StudyEntry studyEntry) {
+        Map<String, Integer> samplesPosition = studyEntry.getSamplesPosition();
+        int[] positions = new int[members.length];
+        for (int i = 0; i < members.length; i++) {
+            Integer position = samplesPosition == null ? null : samplesPosition.get(members[i].getId());
+            positions[i] = position == null ? -1 : position;
+        }
+        return positions;
+    }
+
     public Pedigree getPedigree() {
         return pedigree;
     }
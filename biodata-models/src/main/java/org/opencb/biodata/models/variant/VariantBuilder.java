@@ -110,55 +110,65 @@ public class VariantBuilder {
         this();
         this.variantString = variantString;
         if (variantString != null && !variantString.isEmpty()) {
-            String[] fields;
-
             // Symbolic and breakend variants may use ':' within the alternate.
             //  If contains '>', is a symbolic variant
             //  If contains ']' or "[", is a breakend
             // Split in 4 segments. If reference (field[2]) contains a '<', '>', ']', '[', the reference was missing,
             // so it has to split in 3 segments.
             // Get last index of '<'. Start and end may use '<' for imprecise positions.
-            if (StringUtils.containsAny(variantString, '>', ']', '[')) {
-                fields = variantString.split(":", 4);
-                if (fields.length == 4 && StringUtils.containsAny(fields[2], '<', '>', ']', '[')) {
-                    fields = variantString.split(":", 3);
-                }
+            int c1 = variantString.indexOf(':');
+            int c2 = c1 < 0 ? -1 : variantString.indexOf(':', c1 + 1);
+            int c3 = c2 < 0 ? -1 : variantString.indexOf(':', c2 + 1);
+            boolean reference;
+            if (c2 < 0) {
+                reference = false;
+                c1 = -1;
+            } else if (c3 < 0) {
+                reference = false;
+            } else if (containsAny(variantString, 0, variantString.length(), '>', ']', '[')) {
+                reference = !containsAny(variantString, c2 + 1, c3, '<', '>', ']', '[');
             } else {
-                fields = variantString.split(":", -1);
+                reference = variantString.indexOf(':', c3 + 1) < 0;
+                if (!reference) {
+                    c1 = -1;
+                }
+            }
+            if (c1 < 0) {
+                throw new IllegalArgumentException("Variant " + variantString + " needs 3 or 4 fields separated by ':'. "
+                        + "Format: \"" + VARIANT_STRING_FORMAT + "\"");
             }
-            if (fields.length == 3) {
-                setChromosome(fields[0]);
-                parseAlternate(fields[2]);
+
+            setChromosome(variantString.substring(0, c1));
+            if (reference) {
+                setReference(variantString.substring(c2 + 1, c3));
+                parseAlternate(variantString.substring(c3 + 1));
+            } else {
+                parseAlternate(variantString.substring(c2 + 1));
                 setReference("");
+            }
 
-                // Structural variant (except <INS>) needs start-end coords
-                if (fields[1].contains("-")) {
-                    String[] coordinatesParts = fields[1].split("-");
-                    parseStart(coordinatesParts[0], variantString);
-                    parseEnd(coordinatesParts[1], variantString);
+            // Structural variant (except <INS>) needs start-end coords (<INS> may be missing end)
+            int dash = variantString.indexOf('-', c1 + 1);
+            if (dash >= 0 && dash < c2) {
+                int endLimit = variantString.indexOf('-', dash + 1);
+                parseStart(variantString, c1 + 1, dash);
+                parseEnd(variantString, dash + 1, endLimit >= 0 && endLimit < c2 ? endLimit : c2);
+            } else {
+                parseStart(variantString, c1 + 1, c2);
+            }
+        }
+    }
 
-                    // Short variant or <INS>, no reference specified
-                } else {
-                    parseStart(fields[1], variantString);
+    private static boolean containsAny(String s, int from, int to, char... chars) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            for (char x : chars) {
+                if (c == x) {
+                    return true;
                 }
-            } else if (fields.length == 4) {
-                setChromosome(fields[0]);
-                setReference(fields[2]);
-                parseAlternate(fields[3]);
-
-                // Structural variant (except <INS>) needs start-end coords (<INS> may be missing end)
-                if (fields[1].contains("-")) {
-                    String[] coordinatesParts = fields[1].split("-");
-                    parseStart(coordinatesParts[0], variantString);
-                    parseEnd(coordinatesParts[1], variantString);
-                } else {
-                    parseStart(fields[1], variantString);
-                }
-            } else {
-                throw new IllegalArgumentException("Variant " + variantString + " needs 3 or 4 fields separated by ':'. "
-                        + "Format: \"" + VARIANT_STRING_FORMAT + "\"");
             }
         }
+        return false;
     }
 
     private void parseAlternate(String alternate) {
@@ -173,46 +183,70 @@ public class VariantBuilder {
         }
     }
 
-    private void parseStart(String start, String variantString) {
-        if (StringUtils.contains(start, '<')) {
-            String[] split = start.split("<", -1);
-            if (split.length != 3) {
-                throw new IllegalArgumentException("Error parsing start from variant " + variantString + ". Expected 3 fields separated by '<'. "
-                        + "Format: \"" + VARIANT_STRING_FORMAT + "\"");
-            }
-            initSv();
-            if (!split[0].isEmpty()) {
-                sv.setCiStartLeft(Integer.parseInt(split[0]));
-            }
-            setStart(Integer.parseInt(split[1]));
-            if (!split[2].isEmpty()) {
-                sv.setCiStartRight(Integer.parseInt(split[2]));
-            }
+    private void parseStart(String variantString, int from, int to) {
+        Integer[] position = parsePosition(variantString, from, to, "start");
+        if (position.length == 1) {
+            setStart(position[0]);
         } else {
-            setStart(Integer.parseInt(start));
+            initSv();
+            sv.setCiStartLeft(position[0]);
+            setStart(position[1]);
+            sv.setCiStartRight(position[2]);
         }
     }
 
-    private void parseEnd(String end, String variantString) {
-        if (StringUtils.contains(end, '<')) {
-            String[] split = end.split("<", -1);
-            if (split.length != 3) {
-                throw new IllegalArgumentException("Error parsing end from variant " + variantString + ". Expected 3 fields separated by '<'. "
-                        + "Format: \"" + VARIANT_STRING_FORMAT + "\"");
-            }
-            initSv();
-            if (!split[0].isEmpty()) {
-                sv.setCiEndLeft(Integer.parseInt(split[0]));
-            }
-            setEnd(Integer.parseInt(split[1]));
-            if (!split[2].isEmpty()) {
-                sv.setCiEndRight(Integer.parseInt(split[2]));
-            }
+    private void parseEnd(String variantString, int from, int to) {
+        Integer[] position = parsePosition(variantString, from, to, "end");
+        if (position.length == 1) {
+            setEnd(position[0]);
         } else {
-            setEnd(Integer.parseInt(end));
+            initSv();
+            sv.setCiEndLeft(position[0]);
+            setEnd(position[1]);
+            sv.setCiEndRight(position[2]);
+        }
+    }
+
+    /**
+     * Parse a position "(pos)" or "[(ci_left)]<(pos)<[(ci_right)]" without splitting the variant string.
+     *
+     * @return The position, or the left confidence interval, the position and the right confidence interval.
+     *         Empty confidence intervals are null.
+     */
+    private static Integer[] parsePosition(String variantString, int from, int to, String name) {
+        int lt1 = variantString.indexOf('<', from);
+        if (lt1 < 0 || lt1 >= to) {
+            return new Integer[]{parseInt(variantString, from, to)};
+        }
+        int lt2 = variantString.indexOf('<', lt1 + 1);
+        int lt3 = lt2 < 0 ? -1 : variantString.indexOf('<', lt2 + 1);
+        if (lt2 < 0 || lt2 >= to || lt3 >= 0 && lt3 < to) {
+            throw new IllegalArgumentException("Error parsing " + name + " from variant " + variantString
+                    + ". Expected 3 fields separated by '<'. Format: \"" + VARIANT_STRING_FORMAT + "\"");
         }
+        return new Integer[]{
+                lt1 == from ? null : parseInt(variantString, from, lt1),
+                parseInt(variantString, lt1 + 1, lt2),
+                lt2 + 1 == to ? null : parseInt(variantString, lt2 + 1, to)};
     }
 
+    /**
+     * Same as Integer.parseInt(s.substring(from, to)), without the substring for the usual positions.
+     */
+    private static int parseInt(String s, int from, int to) {
+        if (from >= to || to - from > 9) {
+            return Integer.parseInt(s.substring(from, to));
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return Integer.parseInt(s.substring(from, to));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
 
     public VariantBuilder(String chromosome, Integer start, Integer end, String reference, String alternate) {
         this.chromosome = chromosome;
@@ -0,0 +1,147 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.models.variant;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Binary variant key, built with a {@link VariantKeyCodec}.
+ *
+ * The key starts with a long made of the contig index and the start, followed by the alleles packed with 2 bits per
+ * base, or by the rest of the variant string in UTF-8. Keys compare as unsigned bytes, which sorts them by contig
+ * index and start. Variants at the same position are sorted in a stable, but not lexicographic, order.
+ *
+ * Created on 19/10/26.
+ */
+public final class VariantKey implements Comparable<VariantKey>, Serializable {
+
+    /**
+     * Compares the bytes of two keys, in the same order as {@link VariantKey#compareTo}.
+     */
+    public static final Comparator<byte[]> BYTES_COMPARATOR = VariantKey::compare;
+
+    static final int POSITION_LENGTH = Long.BYTES;
+
+    private final byte[] bytes;
+    private int hash;
+
+    VariantKey(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @param bytes Bytes of a key, as returned by {@link #getBytes()}
+     * @return      Key
+     */
+    public static VariantKey wrap(byte[] bytes) {
+        if (bytes.length <= POSITION_LENGTH) {
+            throw new IllegalArgumentException("Not a variant key, only " + bytes.length + " bytes");
+        }
+        return new VariantKey(bytes);
+    }
+
+    /**
+     * Unsigned lexicographic comparison of two keys.
+     *
+     * @param a First key
+     * @param b Second key
+     * @return  Negative, zero or positive, as {@link Comparator#compare}
+     */
+    public static int compare(byte[] a, byte[] b) {
+        return compare(a, 0, a.length, b, 0, b.length);
+    }
+
+    /**
+     * Unsigned lexicographic comparison of two keys stored in larger arrays.
+     */
+    public static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * @return Contig index in the codec, followed by the start. Sorts as the keys
+     */
+    public long getPosition() {
+        long position = 0;
+        for (int i = 0; i < POSITION_LENGTH; i++) {
+            position = position << 8 | (bytes[i] & 0xFF);
+        }
+        return position;
+    }
+
+    public int getContigIndex() {
+        return (int) (getPosition() >>> 32);
+    }
+
+    public int getStart() {
+        return (int) getPosition();
+    }
+
+    /**
+     * @return Key bytes. Must not be modified
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public int compareTo(VariantKey o) {
+        return compare(bytes, o.bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VariantKey)) {
+            return false;
+        }
+        return Arrays.equals(bytes, ((VariantKey) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Arrays.hashCode(bytes);
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.models.variant;
+
+import org.opencb.biodata.models.core.Region;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Encodes variants into {@link VariantKey}, without creating a {@link Variant} for the usual SNVs and short indels.
+ *
+ * Contigs are indexed in the order given to the codec, and unknown contigs are added at the end as they are found.
+ * Chromosome names are normalized, so "chr1:100:A:C" and "1:100:A:C" have the same key.
+ *
+ * Variants whose reference and alternate are short sequences of A, C, G and T are packed with 2 bits per base. Any
+ * other variant (structural variants, breakends, imprecise positions, long alleles) keeps its normalized representation,
+ * without the contig, encoded in UTF-8 in the key. Keys only depend on the variant and the contig index, so they can be
+ * decoded by any codec with the same contigs, in the same order. The codec does not keep any state besides the contigs.
+ *
+ * This class is thread safe.
+ *
+ * Created on 19/10/26.
+ */
+public class VariantKeyCodec {
+
+    /**
+     * Max length of the reference and alternate to pack them in the key.
+     */
+    public static final int MAX_PACKED_ALLELE_LENGTH = 64;
+
+    private static final byte PACKED = 0;
+    private static final byte STORED = 1;
+    private static final String EMPTY_ALLELE = "-";
+
+    private final Map<String, Integer> contigIndexes = new ConcurrentHashMap<>();
+    private final List<String> contigs = new CopyOnWriteArrayList<>();
+    private volatile Contig lastContig;
+
+    public VariantKeyCodec() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * @param contigs Contigs, in the order of the keys
+     */
+    public VariantKeyCodec(List<String> contigs) {
+        for (String contig : contigs) {
+            getContigIndex(Region.normalizeChromosome(contig));
+        }
+    }
+
+    /**
+     * @param variant Variant string, as accepted by {@link VariantBuilder#VariantBuilder(String)}
+     * @return        Variant key
+     * @throws IllegalArgumentException if the variant can not be parsed
+     */
+    public VariantKey encode(String variant) {
+        int c1 = variant.indexOf(':');
+        if (c1 <= 0) {
+            throw new IllegalArgumentException("Variant " + variant + " needs 3 or 4 fields separated by ':'");
+        }
+        int c2 = variant.indexOf(':', c1 + 1);
+        int c3 = c2 < 0 ? -1 : variant.indexOf(':', c2 + 1);
+        if (c2 > c1 + 1 && isDigits(variant, c1 + 1, c2)
+                && (c3 < 0 || variant.indexOf(':', c3 + 1) < 0)) {
+            int start = parseInt(variant, c1 + 1, c2);
+            int refFrom = c3 < 0 ? c2 : c2 + 1;
+            int refTo = c3 < 0 ? c2 : c3;
+            int altFrom = c3 < 0 ? c2 + 1 : c3 + 1;
+            int altTo = variant.length();
+            if (isPackable(variant, refFrom, refTo) && isPackable(variant, altFrom, altTo)) {
+                return encodePacked(getContigIndex(variant, c1), start,
+                        variant, refFrom, refTo, variant, altFrom, altTo);
+            }
+        }
+        return encodeStored(new Variant(variant));
+    }
+
+    /**
+     * @param variant Variant
+     * @return        Variant key
+     */
+    public VariantKey encode(Variant variant) {
+        String reference = variant.getReference();
+        String alternate = variant.getAlternate();
+        if (variant.getSv() == null
+                && variant.getEnd() == variant.getStart() + reference.length() - 1
+                && isPackable(reference, 0, reference.length()) && isPackable(alternate, 0, alternate.length())) {
+            return encodePacked(getContigIndex(Region.normalizeChromosome(variant.getChromosome())), variant.getStart(),
+                    reference, 0, reference.length(), alternate, 0, alternate.length());
+        }
+        return encodeStored(variant);
+    }
+
+    /**
+     * @param key Variant key
+     * @return    Normalized variant string, as returned by {@link Variant#toString()}
+     * @throws IllegalArgumentException if the contig of the key is unknown by this codec
+     */
+    public String decode(VariantKey key) {
+        byte[] bytes = key.getBytes();
+        String contig = getContig(key.getContigIndex());
+        int offset = VariantKey.POSITION_LENGTH;
+        if (bytes[offset] == STORED) {
+            return contig + ':' + new String(bytes, offset + 1, bytes.length - offset - 1, StandardCharsets.UTF_8);
+        }
+        StringBuilder sb = new StringBuilder(contig.length() + 24).append(contig).append(':').append(key.getStart());
+        offset = unpack(bytes, offset + 1, sb.append(':'));
+        unpack(bytes, offset, sb.append(':'));
+        return sb.toString();
+    }
+
+    /**
+     * @param key Variant key
+     * @return    Variant
+     */
+    public Variant decodeVariant(VariantKey key) {
+        return new Variant(decode(key));
+    }
+
+    /**
+     * @param index Contig index, as returned by {@link VariantKey#getContigIndex()}
+     * @return      Normalized contig name
+     */
+    public String getContig(int index) {
+        if (index < 0 || index >= contigs.size()) {
+            throw new IllegalArgumentException("Unknown contig index " + index);
+        }
+        return contigs.get(index);
+    }
+
+    /**
+     * @return Normalized contig names, in the order of the keys
+     */
+    public List<String> getContigs() {
+        return Collections.unmodifiableList(contigs);
+    }
+
+    private VariantKey encodePacked(int contigIndex, int start, String reference, int refFrom, int refTo,
+                                    String alternate, int altFrom, int altTo) {
+        int refLength = alleleLength(reference, refFrom, refTo);
+        int altLength = alleleLength(alternate, altFrom, altTo);
+        byte[] bytes = new byte[VariantKey.POSITION_LENGTH + 3 + (refLength + 3) / 4 + (altLength + 3) / 4];
+        writePosition(bytes, contigIndex, start);
+        int offset = VariantKey.POSITION_LENGTH;
+        bytes[offset++] = PACKED;
+        offset = pack(reference, refFrom, refLength, bytes, offset);
+        pack(alternate, altFrom, altLength, bytes, offset);
+        return new VariantKey(bytes);
+    }
+
+    private VariantKey encodeStored(Variant variant) {
+        // Same representation for all the strings of the variant
+        String normalized = variant.toString();
+        byte[] stored = normalized.substring(normalized.indexOf(':') + 1).getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[VariantKey.POSITION_LENGTH + 1 + stored.length];
+        writePosition(bytes, getContigIndex(Region.normalizeChromosome(variant.getChromosome())), variant.getStart());
+        bytes[VariantKey.POSITION_LENGTH] = STORED;
+        System.arraycopy(stored, 0, bytes, VariantKey.POSITION_LENGTH + 1, stored.length);
+        return new VariantKey(bytes);
+    }
+
+    private int getContigIndex(String variant, int end) {
+        // Variants usually come sorted, so the last contig is checked first
+        Contig contig = lastContig;
+        if (contig != null && contig.name.length() == end && variant.regionMatches(0, contig.name, 0, end)) {
+            return contig.index;
+        }
+        String name = variant.substring(0, end);
+        int index = getContigIndex(Region.normalizeChromosome(name));
+        lastContig = new Contig(name, index);
+        return index;
+    }
+
+    private int getContigIndex(String normalizedContig) {
+        Integer index = contigIndexes.get(normalizedContig);
+        if (index == null) {
+            synchronized (contigs) {
+                index = contigIndexes.get(normalizedContig);
+                if (index == null) {
+                    index = contigs.size();
+                    contigs.add(normalizedContig);
+                    contigIndexes.put(normalizedContig, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    private static void writePosition(byte[] bytes, int contigIndex, int start) {
+        long position = ((long) contigIndex) << 32 | (start & 0xFFFFFFFFL);
+        for (int i = 0; i < VariantKey.POSITION_LENGTH; i++) {
+            bytes[i] = (byte) (position >>> (8 * (VariantKey.POSITION_LENGTH - 1 - i)));
+        }
+    }
+
+    /**
+     * Write the length of the allele, followed by its bases with 2 bits per base, first base in the higher bits.
+     */
+    private static int pack(String allele, int from, int length, byte[] bytes, int offset) {
+        bytes[offset++] = (byte) length;
+        for (int i = 0; i < length; i++) {
+            bytes[offset + i / 4] |= baseCode(allele.charAt(from + i)) << (6 - 2 * (i % 4));
+        }
+        return offset + (length + 3) / 4;
+    }
+
+    private static int unpack(byte[] bytes, int offset, StringBuilder sb) {
+        int length = bytes[offset++] & 0xFF;
+        if (length == 0) {
+            sb.append(EMPTY_ALLELE);
+        }
+        for (int i = 0; i < length; i++) {
+            sb.append("ACGT".charAt((bytes[offset + i / 4] >> (6 - 2 * (i % 4))) & 3));
+        }
+        return offset + (length + 3) / 4;
+    }
+
+    private static int baseCode(char base) {
+        switch (base) {
+            case 'A':
+                return 0;
+            case 'C':
+                return 1;
+            case 'G':
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    private static boolean isPackable(String allele, int from, int to) {
+        if (to - from == 1 && allele.charAt(from) == '-') {
+            return true;
+        }
+        if (to - from > MAX_PACKED_ALLELE_LENGTH) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            char c = allele.charAt(i);
+            if (c != 'A' && c != 'C' && c != 'G' && c != 'T') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int alleleLength(String allele, int from, int to) {
+        return to - from == 1 && allele.charAt(from) == '-' ? 0 : to - from;
+    }
+
+    private static boolean isDigits(String s, int from, int to) {
+        if (to - from > 9) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseInt(String s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static final class Contig {
+        private final String name;
+        private final int index;
+
+        private Contig(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+    }
+}
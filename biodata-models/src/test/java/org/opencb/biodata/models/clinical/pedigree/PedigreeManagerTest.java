@@ -0,0 +1,128 @@
+package org.opencb.biodata.models.clinical.pedigree;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.commons.Phenotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 19/10/26.
+ */
+public class PedigreeManagerTest {
+
+    private Phenotype phenotype;
+    private PedigreeManager pedigreeManager;
+
+    @Before
+    public void before() {
+        phenotype = new Phenotype("disease1", "disease1", "");
+
+        Member grandfather = new Member().setId("grandfather").setSex(Member.Sex.MALE);
+        Member grandmother = new Member().setId("grandmother").setSex(Member.Sex.FEMALE);
+        Member father = new Member().setId("father").setSex(Member.Sex.MALE)
+                .setPhenotypes(Collections.singletonList(phenotype))
+                .setFather(grandfather).setMother(grandmother);
+        Member aunt = new Member().setId("aunt").setSex(Member.Sex.FEMALE)
+                .setFather(grandfather).setMother(grandmother);
+        Member mother = new Member().setId("mother").setSex(Member.Sex.FEMALE);
+        Member child = new Member().setId("child").setSex(Member.Sex.MALE)
+                .setPhenotypes(Collections.singletonList(phenotype))
+                .setFather(father).setMother(mother);
+        // Child of siblings
+        Member inbred = new Member().setId("inbred").setSex(Member.Sex.FEMALE)
+                .setFather(father).setMother(aunt);
+
+        pedigreeManager = new PedigreeManager(new Pedigree()
+                .setMembers(Arrays.asList(child, father, mother, grandfather, grandmother, aunt, inbred)));
+    }
+
+    @Test
+    public void testGenerations() {
+        int child = pedigreeManager.getIndex("child");
+        int father = pedigreeManager.getIndex("father");
+        int grandfather = pedigreeManager.getIndex("grandfather");
+
+        assertEquals(7, pedigreeManager.size());
+        assertEquals(-1, pedigreeManager.getIndex("unknown"));
+        assertEquals(father, pedigreeManager.getFatherIndex(child));
+        assertEquals(pedigreeManager.getIndex("mother"), pedigreeManager.getMotherIndex(child));
+        assertEquals(-1, pedigreeManager.getFatherIndex(grandfather));
+        assertEquals(0, pedigreeManager.getGeneration(grandfather));
+        assertEquals(1, pedigreeManager.getGeneration(father));
+        assertEquals(2, pedigreeManager.getGeneration(child));
+
+        int[] order = pedigreeManager.getGenerationOrder();
+        List<Integer> positions = new ArrayList<>();
+        for (int index : order) {
+            positions.add(index);
+        }
+        for (int i = 0; i < pedigreeManager.size(); i++) {
+            int parent = pedigreeManager.getFatherIndex(i);
+            if (parent >= 0) {
+                assertTrue(positions.indexOf(parent) < positions.indexOf(i));
+            }
+        }
+    }
+
+    @Test
+    public void testAffected() {
+        Set<String> affected = new HashSet<>();
+        pedigreeManager.getAffectedIndividuals(phenotype).forEach(member -> affected.add(member.getId()));
+        assertEquals(new HashSet<>(Arrays.asList("child", "father")), affected);
+        assertEquals(5, pedigreeManager.getUnaffectedIndividuals(phenotype).size());
+        assertEquals(2, pedigreeManager.getAffected(phenotype.getId()).cardinality());
+        assertTrue(pedigreeManager.isAffected(pedigreeManager.getIndex("child"), phenotype.getId()));
+        assertFalse(pedigreeManager.isAffected(pedigreeManager.getIndex("mother"), phenotype.getId()));
+        assertTrue(pedigreeManager.getAffected("disease2").isEmpty());
+    }
+
+    @Test
+    public void testKinship() {
+        assertEquals(0.5, kinship("child", "child"), 0);
+        assertEquals(0.25, kinship("child", "father"), 0);
+        assertEquals(0.125, kinship("child", "grandfather"), 0);
+        assertEquals(0.25, kinship("father", "aunt"), 0);
+        assertEquals(0, kinship("mother", "father"), 0);
+        assertEquals(0.625, kinship("inbred", "inbred"), 0);
+        assertEquals(kinship("inbred", "child"), kinship("child", "inbred"), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testKinshipTooManyMembers() {
+        List<Member> members = new ArrayList<>(PedigreeManager.MAX_KINSHIP_MEMBERS + 1);
+        for (int i = 0; i <= PedigreeManager.MAX_KINSHIP_MEMBERS; i++) {
+            members.add(new Member().setId("member" + i));
+        }
+        new PedigreeManager(new Pedigree().setMembers(members)).getKinship(0, 1);
+    }
+
+    @Test
+    public void testSamplePositions() {
+        StudyEntry studyEntry = new StudyEntry();
+        LinkedHashMap<String, Integer> samplesPosition = new LinkedHashMap<>();
+        samplesPosition.put("mother", 0);
+        samplesPosition.put("child", 1);
+        studyEntry.setSamplesPosition(samplesPosition);
+
+        int[] positions = pedigreeManager.getSamplePositions(studyEntry);
+        assertEquals(1, positions[pedigreeManager.getIndex("child")]);
+        assertEquals(0, positions[pedigreeManager.getIndex("mother")]);
+        assertEquals(-1, positions[pedigreeManager.getIndex("father")]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycle() {
+        Member member1 = new Member().setId("member1");
+        Member member2 = new Member().setId("member2").setFather(member1);
+        member1.setFather(member2);
+        new PedigreeManager(new Pedigree().setMembers(Arrays.asList(member1, member2)));
+    }
+
+    private double kinship(String member1, String member2) {
+        return pedigreeManager.getKinship(pedigreeManager.getIndex(member1), pedigreeManager.getIndex(member2));
+    }
+}
@@ -0,0 +1,82 @@
+package org.opencb.biodata.models.variant;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created on 19/10/26.
+ */
+public class VariantKeyCodecTest {
+
+    private final VariantKeyCodec codec = new VariantKeyCodec(Arrays.asList("1", "2", "10"));
+
+    @Test
+    public void testRoundTrip() {
+        List<String> variants = Arrays.asList(
+                "1:1000:A:C",
+                "1:1000:-:C",
+                "1:1000:A:-",
+                "10:5:ACGTACGTA:T",
+                "X:100:A:G",
+                "1:1000:N:C",
+                "1:1000-2000:<DEL>",
+                "1:999<1000<1001-1999<2000<2001:<CN5>",
+                "1:1000-2000:<DUP:TANDEM>",
+                "1:1000:ACACAC...GTGTGTGT",
+                "1:800001:A:A[2:321681[",
+                "1:800001:G:[2:321681[GTATTG",
+                "1:1000:A:A.");
+        for (String variant : variants) {
+            VariantKey key = codec.encode(variant);
+            assertEquals(variant, new Variant(variant), codec.decodeVariant(key));
+            assertEquals(variant, key, codec.encode(new Variant(variant)));
+            assertEquals(variant, key, VariantKey.wrap(key.getBytes().clone()));
+        }
+    }
+
+    @Test
+    public void testDecodeWithOtherCodec() {
+        VariantKeyCodec other = new VariantKeyCodec(Arrays.asList("1", "2", "10"));
+        for (String variant : Arrays.asList("1:1000:A:C", "2:1000-2000:<DEL>", "10:1000:A:A[2:321681[", "1:1000:N:C")) {
+            VariantKey key = codec.encode(variant);
+            assertEquals(variant, key, other.encode(variant));
+            assertEquals(variant, new Variant(variant), other.decodeVariant(key));
+        }
+    }
+
+    @Test
+    public void testEquivalentStrings() {
+        assertEquals(codec.encode("1:1000:A:C"), codec.encode("chr1:1000:A:C"));
+        assertEquals(codec.encode("1:1000:-:C"), codec.encode("1:1000:C"));
+        assertEquals(codec.encode("1:1000-2000:<DUP:TANDEM>"), codec.encode("1:1000-2000::<DUP:TANDEM>"));
+        assertNotEquals(codec.encode("1:1000:A:C"), codec.encode("1:1000:A:G"));
+        assertNotEquals(codec.encode("1:1000:A:-"), codec.encode("1:1000:A:."));
+    }
+
+    @Test
+    public void testSort() {
+        List<String> variants = Arrays.asList("X:1:A:C", "10:5:A:C", "2:300:A:C", "2:200:A:<DEL>", "1:200:A:C", "1:100:A:C");
+        List<VariantKey> keys = variants.stream().map(codec::encode).collect(Collectors.toList());
+
+        List<VariantKey> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        assertEquals(Arrays.asList("1:100:A:C", "1:200:A:C", "2:200:A:<DEL>", "2:300:A:C", "10:5:A:C", "X:1:A:C"),
+                sorted.stream().map(codec::decode).collect(Collectors.toList()));
+
+        List<byte[]> bytes = keys.stream().map(VariantKey::getBytes).sorted(VariantKey.BYTES_COMPARATOR)
+                .collect(Collectors.toList());
+        assertEquals(sorted, bytes.stream().map(VariantKey::wrap).collect(Collectors.toList()));
+
+        VariantKey key = codec.encode("2:300:A:C");
+        assertEquals(1, key.getContigIndex());
+        assertEquals(300, key.getStart());
+        assertEquals(3, codec.getContigs().indexOf("X"));
+        assertTrue(codec.encode("1:100:A:C").getPosition() < key.getPosition());
+    }
+}
@@ -31,11 +31,14 @@ import org.opencb.biodata.tools.alignment.coverage.SamRecordRegionCoverageCalcul
 import org.opencb.biodata.tools.alignment.exceptions.AlignmentCoverageException;
 import org.opencb.biodata.tools.alignment.filters.AlignmentFilters;
 import org.opencb.biodata.tools.alignment.iterators.BamIterator;
+import org.opencb.biodata.tools.alignment.iterators.ParallelBamRecordIterator;
 import org.opencb.biodata.tools.alignment.iterators.SAMRecordToAvroReadAlignmentBamIterator;
 import org.opencb.biodata.tools.alignment.iterators.SAMRecordToProtoReadAlignmentBamIterator;
 import org.opencb.biodata.tools.alignment.iterators.SamRecordBamIterator;
 import org.opencb.biodata.tools.alignment.stats.AlignmentGlobalStats;
+import org.opencb.biodata.tools.alignment.stats.AlignmentGlobalStatsAccumulator;
 import org.opencb.biodata.tools.alignment.stats.SamRecordAlignmentGlobalStatsCalculator;
+import org.opencb.biodata.tools.commons.ParallelBlockCompressedInputStream;
 import org.opencb.biodata.tools.feature.BigWigManager;
 import org.opencb.commons.utils.FileUtils;
 import org.slf4j.Logger;
@@ -50,6 +53,9 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by imedina on 14/09/15.
@@ -58,11 +64,14 @@ public class BamManager {
 
     private Path bamFile;
     private SamReader samReader;
+    private int numThreads = 1;
+    private int readAhead = ParallelBlockCompressedInputStream.DEFAULT_READ_AHEAD;
 
     public static final int DEFAULT_WINDOW_SIZE = 1;
     public static final int MAX_NUM_RECORDS = 50000;
     public static final int MAX_REGION_COVERAGE = 100000;
     public static final String COVERAGE_BIGWIG_EXTENSION = ".coverage.bw";
+    public static final int STATS_SHARD_SIZE = 10000000;
 
     private Logger logger;
 
@@ -236,7 +245,9 @@ public class BamManager {
         init();
         checkBaiFileExists();
 
-        SAMRecordIterator samRecordIterator = samReader.iterator();
+        SAMRecordIterator samRecordIterator = isParallel()
+                ? new ParallelBamRecordIterator(bamFile, samReader.getFileHeader(), numThreads, readAhead)
+                : samReader.iterator();
         return getAlignmentIterator(filters, options, clazz, samRecordIterator);
     }
 
@@ -260,11 +271,29 @@ public class BamManager {
         if (options == null) {
             options = new AlignmentOptions();
         }
-        SAMRecordIterator samRecordIterator =
-                samReader.query(region.getChromosome(), region.getStart(), region.getEnd(), options.isContained());
+        SAMRecordIterator samRecordIterator;
+        if (isParallel()) {
+            SAMFileHeader header = samReader.getFileHeader();
+            int referenceIndex = header.getSequenceIndex(region.getChromosome());
+            BAMFileSpan span = referenceIndex < 0
+                    ? null
+                    : samReader.indexing().getIndex().getSpanOverlapping(referenceIndex, region.getStart(), region.getEnd());
+            samRecordIterator = new ParallelBamRecordIterator(bamFile, header, span, region.getChromosome(), region.getStart(),
+                    region.getEnd(), options.isContained(), numThreads, readAhead);
+        } else {
+            samRecordIterator =
+                    samReader.query(region.getChromosome(), region.getStart(), region.getEnd(), options.isContained());
+        }
         return getAlignmentIterator(filters, options, clazz, samRecordIterator);
     }
 
+    /**
+     * Only BAM files are read in parallel. CRAM files are always read with HTSJDK.
+     */
+    private boolean isParallel() {
+        return numThreads > 1 && samReader.type() == SamReader.Type.BAM_TYPE;
+    }
+
     private <T> BamIterator<T> getAlignmentIterator(AlignmentFilters<SAMRecord> filters, AlignmentOptions alignmentOptions, Class<T> clazz,
                                                     SAMRecordIterator samRecordIterator) {
         if (alignmentOptions == null) {
@@ -394,6 +423,11 @@ public class BamManager {
     }
 
     public AlignmentGlobalStats stats() throws IOException {
+        init();
+        if (numThreads > 1 && samReader.hasIndex()) {
+            checkBaiFileExists();
+            return calculateGlobalStatsByShards();
+        }
         return calculateGlobalStats(iterator());
     }
 
@@ -402,16 +436,90 @@ public class BamManager {
     }
 
     private AlignmentGlobalStats calculateGlobalStats(BamIterator<SAMRecord> iterator) throws IOException {
-        AlignmentGlobalStats alignmentGlobalStats = new AlignmentGlobalStats();
-        SamRecordAlignmentGlobalStatsCalculator calculator = new SamRecordAlignmentGlobalStatsCalculator();
+        AlignmentGlobalStatsAccumulator<SAMRecord> accumulator =
+                new AlignmentGlobalStatsAccumulator<>(new SamRecordAlignmentGlobalStatsCalculator());
         while (iterator.hasNext()) {
-            AlignmentGlobalStats computed = calculator.compute(iterator.next());
-            calculator.update(computed, alignmentGlobalStats);
+            accumulator.add(iterator.next());
         }
         iterator.close();
-        return alignmentGlobalStats;
+        return accumulator.toAlignmentGlobalStats();
     }
 
+    /**
+     * Split the file into shards of STATS_SHARD_SIZE bases of each reference, plus the unmapped reads, using the index.
+     * Each thread opens its own reader and accumulates the shards it takes, and the accumulators are merged at the end.
+     * A record belongs to the shard where it starts, so it is counted once.
+     */
+    private AlignmentGlobalStats calculateGlobalStatsByShards() throws IOException {
+        Queue<Region> shards = new ConcurrentLinkedQueue<>();
+        for (SAMSequenceRecord sequence : samReader.getFileHeader().getSequenceDictionary().getSequences()) {
+            int start = 1;
+            do {
+                shards.add(new Region(sequence.getSequenceName(), start, start + STATS_SHARD_SIZE - 1));
+                start += STATS_SHARD_SIZE;
+            } while (start <= sequence.getSequenceLength());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "bam-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<AlignmentGlobalStatsAccumulator<SAMRecord>>> futures = new ArrayList<>(numThreads);
+            AtomicBoolean unmappedTaken = new AtomicBoolean();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(() -> accumulateShards(shards, unmappedTaken)));
+            }
+            AlignmentGlobalStatsAccumulator<SAMRecord> accumulator = futures.get(0).get();
+            for (int i = 1; i < futures.size(); i++) {
+                accumulator.merge(futures.get(i).get());
+            }
+            return accumulator.toAlignmentGlobalStats();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error calculating stats of " + bamFile, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private AlignmentGlobalStatsAccumulator<SAMRecord> accumulateShards(Queue<Region> shards, AtomicBoolean unmappedTaken)
+            throws IOException {
+        AlignmentGlobalStatsAccumulator<SAMRecord> accumulator =
+                new AlignmentGlobalStatsAccumulator<>(new SamRecordAlignmentGlobalStatsCalculator());
+        SamReaderFactory srf = SamReaderFactory.make();
+        srf.validationStringency(ValidationStringency.LENIENT);
+        try (SamReader reader = srf.open(SamInputResource.of(bamFile.toFile()))) {
+            Region shard;
+            while ((shard = shards.poll()) != null) {
+                // The last shard of each reference reads up to its end (0), in case of records out of its length
+                boolean last = shard.getEnd() >= reader.getFileHeader().getSequence(shard.getChromosome()).getSequenceLength();
+                try (SAMRecordIterator iterator = reader.query(shard.getChromosome(), shard.getStart(),
+                        last ? 0 : shard.getEnd(), false)) {
+                    while (iterator.hasNext()) {
+                        SAMRecord record = iterator.next();
+                        if (record.getAlignmentStart() >= shard.getStart()) {
+                            accumulator.add(record);
+                        }
+                    }
+                }
+            }
+            if (unmappedTaken.compareAndSet(false, true)) {
+                try (SAMRecordIterator iterator = reader.queryUnmapped()) {
+                    while (iterator.hasNext()) {
+                        accumulator.add(iterator.next());
+                    }
+                }
+            }
+        }
+        return accumulator;
+    }
 
     public void close() throws IOException {
         if (samReader != null) {
@@ -433,4 +541,34 @@ public class BamManager {
         this.bamFile = bamFilePath;
         return this;
     }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Number of threads inflating and decoding BAM records in iterators, stats and coverage. If greater than 1,
+     * records are read with a {@link ParallelBamRecordIterator}, in the same order, and the stats of indexed files are
+     * calculated by shards in parallel.
+     *
+     * @param numThreads Number of threads
+     * @return this
+     */
+    public BamManager setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @param readAhead Maximum number of BGZF blocks inflated ahead of the reader, when using more than one thread
+     * @return this
+     */
+    public BamManager setReadAhead(int readAhead) {
+        this.readAhead = readAhead;
+        return this;
+    }
 }
@@ -0,0 +1,365 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.alignment.iterators;
+
+import htsjdk.samtools.*;
+import org.opencb.biodata.tools.commons.ParallelBlockCompressedInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Iterator over the records of a BAM file, inflating and decoding them in a pool of threads.
+ *
+ * BGZF blocks are read ahead and inflated by a {@link ParallelBlockCompressedInputStream}. The calling thread only
+ * splits the uncompressed data into batches of records, which are decoded in the same pool. Records are returned in
+ * file order, so the iterator can replace the {@link SAMRecordIterator} of a {@link SamReader} in any
+ * {@link BamIterator}. Batch buffers are reused, and records are returned with all their fields already decoded.
+ *
+ * The iterator reads either the whole file, or the chunks of a BAM index overlapping a region.
+ *
+ * Created on 19/10/26.
+ */
+public class ParallelBamRecordIterator implements SAMRecordIterator {
+
+    private static final byte[] BAM_MAGIC = {'B', 'A', 'M', 1};
+    private static final int BATCH_SIZE = 1024 * 1024;
+
+    private final SAMFileHeader header;
+    private final ExecutorService executor;
+    private final ParallelBlockCompressedInputStream input;
+    private final int maxPendingBatches;
+    private final Deque<Future<List<SAMRecord>>> pendingBatches = new ArrayDeque<>();
+    private final BlockingQueue<byte[]> bufferPool = new LinkedBlockingQueue<>();
+
+    // Chunks as pairs of virtual offsets, or null to read the whole file
+    private final long[] chunks;
+    private int chunkIndex;
+    private boolean endOfInput;
+
+    // Region to filter, as in SamReader.query
+    private final int referenceIndex;
+    private final int start;
+    private final int end;
+    private final boolean contained;
+
+    private Iterator<SAMRecord> batch = Collections.emptyIterator();
+    private SAMRecord next;
+    private final byte[] sizeBuffer = new byte[4];
+
+    /**
+     * Iterate over all the records of a BAM file.
+     *
+     * @param bamFile    BAM file
+     * @param header     BAM header
+     * @param numThreads Number of inflating and decoding threads
+     * @param readAhead  Maximum number of BGZF blocks inflated ahead of the reader
+     * @throws IOException If the file can not be read
+     */
+    public ParallelBamRecordIterator(Path bamFile, SAMFileHeader header, int numThreads, int readAhead) throws IOException {
+        this(bamFile, header, null, -1, 0, 0, false, numThreads, readAhead);
+    }
+
+    /**
+     * Iterate over the records of a BAM file overlapping a region, using the chunks given by its index.
+     *
+     * @param bamFile    BAM file
+     * @param header     BAM header
+     * @param span       Chunks of the BAM index overlapping the region
+     * @param chromosome Region chromosome
+     * @param start      Region start, 1-based
+     * @param end        Region end, inclusive
+     * @param contained  Return only the records contained in the region, instead of overlapping it
+     * @param numThreads Number of inflating and decoding threads
+     * @param readAhead  Maximum number of BGZF blocks inflated ahead of the reader
+     * @throws IOException If the file can not be read
+     */
+    public ParallelBamRecordIterator(Path bamFile, SAMFileHeader header, BAMFileSpan span, String chromosome, int start,
+                                     int end, boolean contained, int numThreads, int readAhead) throws IOException {
+        this(bamFile, header, toArray(span), header.getSequenceIndex(chromosome), start, end, contained, numThreads,
+                readAhead);
+    }
+
+    private ParallelBamRecordIterator(Path bamFile, SAMFileHeader header, long[] chunks, int referenceIndex, int start,
+                                      int end, boolean contained, int numThreads, int readAhead) throws IOException {
+        this.header = header;
+        this.chunks = chunks;
+        this.referenceIndex = referenceIndex;
+        this.start = start;
+        this.end = end;
+        this.contained = contained;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, numThreads), r -> {
+            Thread thread = new Thread(r, "bam-record-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPendingBatches = Math.max(2, numThreads * 2);
+        try {
+            this.input = new ParallelBlockCompressedInputStream(bamFile, executor, readAhead);
+        } catch (IOException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+
+        try {
+            if (chunks == null) {
+                skipHeader();
+            } else if (chunks.length == 0 || referenceIndex < 0) {
+                endOfInput = true;
+            } else {
+                input.seek(chunks[0]);
+            }
+            findNext();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static long[] toArray(BAMFileSpan span) {
+        if (span == null) {
+            return new long[0];
+        }
+        List<Chunk> chunkList = span.getChunks();
+        long[] chunks = new long[chunkList.size() * 2];
+        for (int i = 0; i < chunkList.size(); i++) {
+            chunks[i * 2] = chunkList.get(i).getChunkStart();
+            chunks[i * 2 + 1] = chunkList.get(i).getChunkEnd();
+        }
+        return chunks;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public SAMRecord next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        SAMRecord record = next;
+        try {
+            findNext();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return record;
+    }
+
+    @Override
+    public SAMRecordIterator assertSorted(SAMFileHeader.SortOrder sortOrder) {
+        // Same behaviour as the iterators of SamReader when the header does not match
+        if (header.getSortOrder() != sortOrder) {
+            throw new IllegalStateException("Expected " + sortOrder + " sorted BAM, found " + header.getSortOrder());
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        pendingBatches.clear();
+        try {
+            input.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void findNext() throws IOException {
+        next = null;
+        while (true) {
+            while (batch.hasNext()) {
+                SAMRecord record = batch.next();
+                int match = matchRegion(record);
+                if (match == 0) {
+                    next = record;
+                    return;
+                } else if (match > 0) {
+                    // Sorted file, so no other record can match
+                    endOfInput = true;
+                    pendingBatches.clear();
+                    batch = Collections.emptyIterator();
+                    return;
+                }
+            }
+            while (!endOfInput && pendingBatches.size() < maxPendingBatches) {
+                submitBatch();
+            }
+            if (pendingBatches.isEmpty()) {
+                return;
+            }
+            batch = getBatch(pendingBatches.pollFirst()).iterator();
+        }
+    }
+
+    /**
+     * @return 0 if the record must be returned, -1 if it must be skipped, 1 if it is after the region
+     */
+    private int matchRegion(SAMRecord record) {
+        if (chunks == null) {
+            return 0;
+        }
+        int recordReferenceIndex = record.getReferenceIndex();
+        if (recordReferenceIndex != referenceIndex) {
+            return recordReferenceIndex > referenceIndex || recordReferenceIndex < 0 ? 1 : -1;
+        }
+        int recordStart = record.getAlignmentStart();
+        if (recordStart > end) {
+            return 1;
+        }
+        int recordEnd = record.getReadUnmappedFlag() ? recordStart : record.getAlignmentEnd();
+        if (contained) {
+            return recordStart >= start && recordEnd <= end ? 0 : -1;
+        } else {
+            return recordEnd >= start ? 0 : -1;
+        }
+    }
+
+    /**
+     * Copy the next records into a buffer, and decode them in the pool.
+     */
+    private void submitBatch() throws IOException {
+        byte[] buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = new byte[BATCH_SIZE];
+        }
+        int size = 0;
+        while (size < BATCH_SIZE) {
+            if (!nextRecordInChunk()) {
+                endOfInput = true;
+                break;
+            }
+            int n = input.read(sizeBuffer, 0, 4);
+            if (n < 0) {
+                endOfInput = true;
+                break;
+            }
+            if (n < 4) {
+                input.readFully(sizeBuffer, n, 4 - n);
+            }
+            int recordSize = (sizeBuffer[0] & 0xff) | (sizeBuffer[1] & 0xff) << 8 | (sizeBuffer[2] & 0xff) << 16
+                    | (sizeBuffer[3] & 0xff) << 24;
+            if (recordSize < 0) {
+                throw new IOException("Invalid BAM record size " + recordSize);
+            }
+            if (size + 4 + recordSize > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + 4 + recordSize));
+            }
+            System.arraycopy(sizeBuffer, 0, buffer, size, 4);
+            input.readFully(buffer, size + 4, recordSize);
+            size += 4 + recordSize;
+        }
+        if (size > 0) {
+            byte[] data = buffer;
+            int dataSize = size;
+            pendingBatches.addLast(executor.submit(() -> decode(data, dataSize)));
+        } else {
+            bufferPool.add(buffer);
+        }
+    }
+
+    /**
+     * When following the chunks of an index, move to the next chunk at the end of the current one.
+     *
+     * @return false if there are no more records to read
+     */
+    private boolean nextRecordInChunk() throws IOException {
+        if (chunks == null) {
+            return true;
+        }
+        while (input.getFilePointer() >= chunks[chunkIndex * 2 + 1]) {
+            chunkIndex++;
+            if (chunkIndex * 2 >= chunks.length) {
+                return false;
+            }
+            if (input.getFilePointer() < chunks[chunkIndex * 2]) {
+                input.seek(chunks[chunkIndex * 2]);
+            }
+        }
+        return true;
+    }
+
+    private List<SAMRecord> decode(byte[] data, int size) {
+        List<SAMRecord> records = new ArrayList<>();
+        BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setInputStream(new ByteArrayInputStream(data, 0, size));
+        SAMRecord record;
+        while ((record = codec.decode()) != null) {
+            record.setValidationStringency(ValidationStringency.LENIENT);
+            // BAM records decode their variable length fields lazily. Do it here, in the pool
+            record.getCigar();
+            record.getReadBases();
+            record.getBaseQualities();
+            record.getAttributes();
+            records.add(record);
+        }
+        bufferPool.add(data);
+        return records;
+    }
+
+    private List<SAMRecord> getBatch(Future<List<SAMRecord>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Error decoding BAM records", e.getCause());
+        }
+    }
+
+    private void skipHeader() throws IOException {
+        byte[] magic = new byte[BAM_MAGIC.length];
+        input.readFully(magic, 0, magic.length);
+        if (!Arrays.equals(BAM_MAGIC, magic)) {
+            throw new IOException("Invalid BAM file. Missing BAM magic number");
+        }
+        skipFully(readInt());
+        int numReferences = readInt();
+        for (int i = 0; i < numReferences; i++) {
+            skipFully(readInt());
+            readInt();
+        }
+    }
+
+    private int readInt() throws IOException {
+        input.readFully(sizeBuffer, 0, 4);
+        return (sizeBuffer[0] & 0xff) | (sizeBuffer[1] & 0xff) << 8 | (sizeBuffer[2] & 0xff) << 16
+                | (sizeBuffer[3] & 0xff) << 24;
+    }
+
+    private void skipFully(long n) throws IOException {
+        if (input.skip(n) != n) {
+            throw new EOFException("Unexpected end of BAM header");
+        }
+    }
+}
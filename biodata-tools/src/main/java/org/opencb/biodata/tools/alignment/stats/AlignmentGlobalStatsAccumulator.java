@@ -0,0 +1,324 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.alignment.stats;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Accumulates the {@link AlignmentGlobalStats} of many alignments in primitive arrays.
+ *
+ * Gives the same result as calling {@link AlignmentGlobalStatsCalculator#compute} for each alignment and
+ * {@link AlignmentGlobalStatsCalculator#update} to add them up, without creating any map per alignment. Accumulators
+ * can be merged in any order, so each shard of a file can be accumulated in a different thread.
+ *
+ * Not thread safe.
+ *
+ * Created on 19/10/26.
+ */
+public class AlignmentGlobalStatsAccumulator<T> {
+
+    private final AlignmentGlobalStatsCalculator<T> calculator;
+
+    private int numMapped;
+    private int numUnmapped;
+    private int numPaired;
+    private int numMappedFirst;
+    private int numMappedSecond;
+    private int nm;
+    private int numHardC;
+    private int numSoftC;
+    private int numIn;
+    private int numDel;
+    private int numPad;
+    private int numSkip;
+    private int accMappingQuality;
+    private int accInsert;
+    private final Histogram mappingQualities = new Histogram(256);
+    private final Histogram inserts = new Histogram(1 << 16);
+
+    // Sequence stats
+    private int numSeqs;
+    private int numA;
+    private int numT;
+    private int numG;
+    private int numC;
+    private int numN;
+    private int minSeqLength = Integer.MAX_VALUE;
+    private int maxSeqLength;
+    private int accSeqQual;
+    private final Histogram lengths = new Histogram(1 << 10);
+
+    // Sequence stats by position in the read
+    private int[] positionA = new int[0];
+    private int[] positionT = new int[0];
+    private int[] positionG = new int[0];
+    private int[] positionC = new int[0];
+    private int[] positionN = new int[0];
+    private int[] positionNumQual = new int[0];
+    private int[] positionAccQual = new int[0];
+
+    public AlignmentGlobalStatsAccumulator(AlignmentGlobalStatsCalculator<T> calculator) {
+        this.calculator = calculator;
+    }
+
+    public AlignmentGlobalStatsAccumulator<T> add(T alignment) {
+        if (calculator.isMapped(alignment)) {
+            numMapped++;
+            nm += calculator.getNumberOfMismatches(alignment);
+
+            AlignmentGlobalStatsCalculator.CIGAR cigar = calculator.getActiveCigars(alignment);
+            if (cigar.hard) numHardC++;
+            if (cigar.soft) numSoftC++;
+            if (cigar.in) numIn++;
+            if (cigar.del) numDel++;
+            if (cigar.pad) numPad++;
+            if (cigar.skip) numSkip++;
+
+            if (calculator.isProperlyPaired(alignment)) {
+                numPaired++;
+                int insert = Math.abs(calculator.getInsertSize(alignment));
+                accInsert += insert;
+                inserts.add(insert, 1);
+            }
+            if (calculator.isFirstOfPair(alignment)) {
+                numMappedFirst++;
+            }
+            if (calculator.isSecondOfPair(alignment)) {
+                numMappedSecond++;
+            }
+
+            int mappingQuality = calculator.getMappingQuality(alignment);
+            accMappingQuality += mappingQuality;
+            mappingQualities.add(mappingQuality, 1);
+        } else {
+            numUnmapped++;
+        }
+
+        addSequence(calculator.getAlignedSequence(alignment), calculator.getAlignedQuality(alignment));
+        return this;
+    }
+
+    private void addSequence(String sequence, List<Integer> quality) {
+        int length = sequence.length();
+        numSeqs++;
+        lengths.add(length, 1);
+        minSeqLength = Math.min(minSeqLength, length);
+        maxSeqLength = Math.max(maxSeqLength, length);
+        ensurePositions(length);
+
+        for (int i = 0; i < length; i++) {
+            int qual = quality.get(i);
+            accSeqQual += qual;
+            positionNumQual[i]++;
+            positionAccQual[i] += qual;
+            switch (sequence.charAt(i)) {
+                case 'A':
+                case 'a':
+                    numA++;
+                    positionA[i]++;
+                    break;
+                case 'T':
+                case 't':
+                    numT++;
+                    positionT[i]++;
+                    break;
+                case 'G':
+                case 'g':
+                    numG++;
+                    positionG[i]++;
+                    break;
+                case 'C':
+                case 'c':
+                    numC++;
+                    positionC[i]++;
+                    break;
+                default:
+                    numN++;
+                    positionN[i]++;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Add the alignments of another accumulator to this one.
+     *
+     * @param other Accumulator to merge. It is not modified
+     * @return this
+     */
+    public AlignmentGlobalStatsAccumulator<T> merge(AlignmentGlobalStatsAccumulator<?> other) {
+        numMapped += other.numMapped;
+        numUnmapped += other.numUnmapped;
+        numPaired += other.numPaired;
+        numMappedFirst += other.numMappedFirst;
+        numMappedSecond += other.numMappedSecond;
+        nm += other.nm;
+        numHardC += other.numHardC;
+        numSoftC += other.numSoftC;
+        numIn += other.numIn;
+        numDel += other.numDel;
+        numPad += other.numPad;
+        numSkip += other.numSkip;
+        accMappingQuality += other.accMappingQuality;
+        accInsert += other.accInsert;
+        mappingQualities.merge(other.mappingQualities);
+        inserts.merge(other.inserts);
+
+        numSeqs += other.numSeqs;
+        numA += other.numA;
+        numT += other.numT;
+        numG += other.numG;
+        numC += other.numC;
+        numN += other.numN;
+        minSeqLength = Math.min(minSeqLength, other.minSeqLength);
+        maxSeqLength = Math.max(maxSeqLength, other.maxSeqLength);
+        accSeqQual += other.accSeqQual;
+        lengths.merge(other.lengths);
+
+        int n = other.positionNumQual.length;
+        ensurePositions(n);
+        for (int i = 0; i < n; i++) {
+            positionA[i] += other.positionA[i];
+            positionT[i] += other.positionT[i];
+            positionG[i] += other.positionG[i];
+            positionC[i] += other.positionC[i];
+            positionN[i] += other.positionN[i];
+            positionNumQual[i] += other.positionNumQual[i];
+            positionAccQual[i] += other.positionAccQual[i];
+        }
+        return this;
+    }
+
+    public AlignmentGlobalStats toAlignmentGlobalStats() {
+        AlignmentGlobalStats stats = new AlignmentGlobalStats();
+        stats.numMapped = numMapped;
+        stats.numUnmapped = numUnmapped;
+        stats.numPaired = numPaired;
+        stats.numMappedFirst = numMappedFirst;
+        stats.numMappedSecond = numMappedSecond;
+        stats.NM = nm;
+        stats.numHardC = numHardC;
+        stats.numSoftC = numSoftC;
+        stats.numIn = numIn;
+        stats.numDel = numDel;
+        stats.numPad = numPad;
+        stats.numSkip = numSkip;
+        stats.accMappingQuality = accMappingQuality;
+        stats.mappingQualityMap = mappingQualities.toMap();
+        stats.accInsert = accInsert;
+        stats.insertMap = inserts.toMap();
+
+        SequenceStats seqStats = stats.seqStats;
+        seqStats.numSeqs = numSeqs;
+        seqStats.numA = numA;
+        seqStats.numT = numT;
+        seqStats.numG = numG;
+        seqStats.numC = numC;
+        seqStats.numN = numN;
+        seqStats.minSeqLength = minSeqLength;
+        seqStats.maxSeqLength = maxSeqLength;
+        seqStats.accSeqQual = accSeqQual;
+        seqStats.lengthMap = lengths.toMap();
+        for (int i = 0; i < positionNumQual.length; i++) {
+            // Positions are only added when a read is long enough, so they always have qualities
+            if (positionNumQual[i] > 0) {
+                SequenceInfo info = new SequenceInfo();
+                info.numA = positionA[i];
+                info.numT = positionT[i];
+                info.numG = positionG[i];
+                info.numC = positionC[i];
+                info.numN = positionN[i];
+                info.numQual = positionNumQual[i];
+                info.accQual = positionAccQual[i];
+                seqStats.infoMap.put(i, info);
+            }
+        }
+        return stats;
+    }
+
+    private void ensurePositions(int length) {
+        if (length > positionNumQual.length) {
+            positionA = Arrays.copyOf(positionA, length);
+            positionT = Arrays.copyOf(positionT, length);
+            positionG = Arrays.copyOf(positionG, length);
+            positionC = Arrays.copyOf(positionC, length);
+            positionN = Arrays.copyOf(positionN, length);
+            positionNumQual = Arrays.copyOf(positionNumQual, length);
+            positionAccQual = Arrays.copyOf(positionAccQual, length);
+        }
+    }
+
+    /**
+     * Counts by value. Values from 0 to a limit are counted in an array, and the rest in a map.
+     */
+    private static final class Histogram {
+
+        private final int maxDenseValue;
+        private int[] counts = new int[16];
+        private Map<Integer, Integer> others;
+
+        private Histogram(int maxDenseValue) {
+            this.maxDenseValue = maxDenseValue;
+        }
+
+        private void add(int value, int count) {
+            if (value >= 0 && value < maxDenseValue) {
+                if (value >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.min(maxDenseValue, Math.max(value + 1, counts.length * 2)));
+                }
+                counts[value] += count;
+            } else {
+                if (others == null) {
+                    others = new HashMap<>();
+                }
+                others.merge(value, count, Integer::sum);
+            }
+        }
+
+        private void merge(Histogram other) {
+            for (int value = other.counts.length - 1; value >= 0; value--) {
+                if (other.counts[value] != 0) {
+                    add(value, other.counts[value]);
+                }
+            }
+            if (other.others != null) {
+                other.others.forEach(this::add);
+            }
+        }
+
+        private Map<Integer, Integer> toMap() {
+            Map<Integer, Integer> map = new HashMap<>();
+            for (int value = 0; value < counts.length; value++) {
+                if (counts[value] != 0) {
+                    map.put(value, counts[value]);
+                }
+            }
+            if (others != null) {
+                // Sorted, so the order of the map does not depend on the order of the merges
+                map.putAll(new TreeMap<>(others));
+            }
+            return map;
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.opencb.biodata.tools.commons;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
+import java.util.function.DoublePredicate;
 import java.util.function.Predicate;
 
 /**
@@ -32,6 +33,8 @@ public class CommonsFilters<T> implements Predicate<T> {
     protected List<Predicate<T>> filters;
     protected boolean mustPassAll;
 
+    private static final int NOT_AN_INTEGER = Integer.MIN_VALUE;
+
     public CommonsFilters() {
         this(new ArrayList<>());
     }
@@ -131,7 +134,6 @@ public class CommonsFilters<T> implements Predicate<T> {
 
     protected static Predicate<String> buildPredicate(String op, String value, boolean acceptNull) {
         Predicate<String> predicate;
-        Double numValue;
         switch (op) {
             case "=":
             case "==":
@@ -146,65 +148,70 @@ public class CommonsFilters<T> implements Predicate<T> {
                 }
                 predicate = values::contains;
                 break;
-            case ">":
-                numValue = Double.valueOf(value);
-                predicate = v -> {
-                    if (StringUtils.isEmpty(v) || v.equals(".")) {
-                        return acceptNull;
-                    } else {
-                        try {
-                            return Double.valueOf(v) > numValue;
-                        } catch (NumberFormatException e) {
-                            return acceptNull;
-                        }
-                    }
-                };
+            case ">": {
+                double numValue = Double.parseDouble(value);
+                predicate = buildNumericPredicate(v -> v > numValue, acceptNull);
                 break;
-            case ">=":
-                numValue = Double.valueOf(value);
-                predicate = v -> {
-                    if (StringUtils.isEmpty(v) || v.equals(".")) {
-                        return acceptNull;
-                    } else {
-                        try {
-                            return Double.valueOf(v) >= numValue;
-                        } catch (NumberFormatException e) {
-                            return acceptNull;
-                        }
-                    }
-                };
+            }
+            case ">=": {
+                double numValue = Double.parseDouble(value);
+                predicate = buildNumericPredicate(v -> v >= numValue, acceptNull);
                 break;
-            case "<":
-                numValue = Double.valueOf(value);
-                predicate = v -> {
-                    if (StringUtils.isEmpty(v) || v.equals(".")) {
-                        return acceptNull;
-                    } else {
-                        try {
-                            return Double.valueOf(v) < numValue;
-                        } catch (NumberFormatException e) {
-                            return acceptNull;
-                        }
-                    }
-                };
+            }
+            case "<": {
+                double numValue = Double.parseDouble(value);
+                predicate = buildNumericPredicate(v -> v < numValue, acceptNull);
                 break;
-            case "<=":
-                numValue = Double.valueOf(value);
-                predicate = v -> {
-                    if (StringUtils.isEmpty(v) || v.equals(".")) {
-                        return acceptNull;
-                    } else {
-                        try {
-                            return Double.valueOf(v) <= numValue;
-                        } catch (NumberFormatException e) {
-                            return acceptNull;
-                        }
-                    }
-                };
+            }
+            case "<=": {
+                double numValue = Double.parseDouble(value);
+                predicate = buildNumericPredicate(v -> v <= numValue, acceptNull);
                 break;
+            }
             default:
                 throw new IllegalArgumentException("Unsupported operator " + op);
         }
         return predicate;
     }
+
+    private static Predicate<String> buildNumericPredicate(DoublePredicate predicate, boolean acceptNull) {
+        return v -> {
+            if (StringUtils.isEmpty(v) || v.equals(".")) {
+                return acceptNull;
+            }
+            // Most numeric values are small integers. Parse them without going through Double.parseDouble
+            int integer = parseSmallInteger(v);
+            if (integer != NOT_AN_INTEGER) {
+                return predicate.test(integer);
+            }
+            try {
+                return predicate.test(Double.parseDouble(v));
+            } catch (NumberFormatException e) {
+                return acceptNull;
+            }
+        };
+    }
+
+    /**
+     * Parse a non empty string of at most 9 digits, with an optional minus sign.
+     *
+     * @param value Value to parse
+     * @return the integer, or {@link #NOT_AN_INTEGER} if it is not a small integer
+     */
+    private static int parseSmallInteger(String value) {
+        int length = value.length();
+        int i = value.charAt(0) == '-' ? 1 : 0;
+        if (i == length || length - i > 9) {
+            return NOT_AN_INTEGER;
+        }
+        int integer = 0;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_AN_INTEGER;
+            }
+            integer = integer * 10 + (c - '0');
+        }
+        return value.charAt(0) == '-' ? -integer : integer;
+    }
 }
@@ -0,0 +1,385 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.commons;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * BGZF input stream reading the compressed blocks ahead and inflating them in a pool of threads.
+ *
+ * Reads the same format as {@link BlockCompressedInputStream}. Blocks are read from the file in the calling thread,
+ * which is cheap, and inflated in the pool. Up to "readAhead" blocks are inflated ahead of the reader, and bytes are
+ * always returned in file order. Uncompressed buffers and inflaters are reused.
+ *
+ * Supports {@link #seek(long)} and {@link #getFilePointer()} with BGZF virtual file offsets, so it can follow the
+ * chunks of a BAM index.
+ *
+ * Not thread safe. All the methods must be called from the same thread.
+ *
+ * Created on 19/10/26.
+ */
+public class ParallelBlockCompressedInputStream extends InputStream {
+
+    public static final int DEFAULT_READ_AHEAD = 32;
+
+    private static final int MAX_BLOCK_SIZE = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+    private static final int HEADER_LENGTH = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+    private static final int FOOTER_LENGTH = BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final int readAhead;
+    private final Deque<Future<Block>> pendingBlocks = new ArrayDeque<>();
+    private final BlockingQueue<byte[]> bufferPool = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Inflater> inflaters = new LinkedBlockingQueue<>();
+
+    private long nextBlockAddress;
+    private Block block;
+    private int blockOffset;
+    private boolean closed;
+
+    public ParallelBlockCompressedInputStream(Path path, int numThreads) throws IOException {
+        this(path, numThreads, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * @param path       BGZF file
+     * @param numThreads Number of inflating threads. If 1 or less, inflate in the calling thread
+     * @param readAhead  Maximum number of blocks inflated ahead of the reader
+     * @throws IOException If the file can not be opened
+     */
+    public ParallelBlockCompressedInputStream(Path path, int numThreads, int readAhead) throws IOException {
+        this(path, numThreads > 1 ? newExecutor(numThreads) : null, true, readAhead);
+    }
+
+    /**
+     * @param path       BGZF file
+     * @param executor   Executor inflating the blocks, shared with other tasks. Not shut down on close
+     * @param readAhead  Maximum number of blocks inflated ahead of the reader
+     * @throws IOException If the file can not be opened
+     */
+    public ParallelBlockCompressedInputStream(Path path, ExecutorService executor, int readAhead) throws IOException {
+        this(path, executor, false, readAhead);
+    }
+
+    private ParallelBlockCompressedInputStream(Path path, ExecutorService executor, boolean ownExecutor, int readAhead)
+            throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.readAhead = executor == null ? 0 : Math.max(1, readAhead);
+    }
+
+    private static ExecutorService newExecutor(int numThreads) {
+        return Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "bgzf-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return Virtual file offset of the next byte: address of its block shifted 16 bits, plus its offset in the block
+     */
+    public long getFilePointer() throws IOException {
+        if (block != null && blockOffset == block.size) {
+            // At the end of a block, point to the start of the next one, as BlockCompressedInputStream does
+            nextBlock();
+        }
+        if (block == null) {
+            return nextBlockAddress << 16;
+        }
+        return block.address << 16 | blockOffset;
+    }
+
+    /**
+     * Move to a virtual file offset, discarding the blocks read ahead.
+     *
+     * @param virtualOffset BGZF virtual file offset
+     * @throws IOException If the block can not be read
+     */
+    public void seek(long virtualOffset) throws IOException {
+        long address = virtualOffset >>> 16;
+        int offset = (int) (virtualOffset & 0xffff);
+        if (block == null || block.address != address) {
+            discardPendingBlocks();
+            releaseBlock();
+            nextBlockAddress = address;
+            nextBlock();
+        }
+        if (block == null ? offset != 0 : offset > block.size) {
+            throw new IOException("Invalid virtual file offset " + virtualOffset);
+        }
+        blockOffset = offset;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return block.data[blockOffset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < length && ensureAvailable()) {
+            int n = Math.min(length - read, block.size - blockOffset);
+            System.arraycopy(block.data, blockOffset, bytes, offset + read, n);
+            blockOffset += n;
+            read += n;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Read exactly the given number of bytes.
+     *
+     * @throws EOFException If the stream ends before
+     */
+    public void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = read(bytes, offset, length);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of BGZF file");
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureAvailable()) {
+            int s = (int) Math.min(n - skipped, block.size - blockOffset);
+            blockOffset += s;
+            skipped += s;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return block == null ? 0 : block.size - blockOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            discardPendingBlocks();
+            channel.close();
+        } finally {
+            if (ownExecutor && executor != null) {
+                executor.shutdownNow();
+            }
+            for (Inflater inflater : inflaters) {
+                inflater.end();
+            }
+            inflaters.clear();
+        }
+    }
+
+    /**
+     * @return false at the end of the file
+     */
+    private boolean ensureAvailable() throws IOException {
+        // Empty blocks, like the EOF marker, are skipped
+        while (block == null || blockOffset == block.size) {
+            if (!nextBlock()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean nextBlock() throws IOException {
+        releaseBlock();
+        if (executor == null) {
+            RawBlock rawBlock = readRawBlock();
+            block = rawBlock == null ? null : inflate(rawBlock);
+        } else {
+            while (pendingBlocks.size() < readAhead) {
+                RawBlock rawBlock = readRawBlock();
+                if (rawBlock == null) {
+                    break;
+                }
+                pendingBlocks.addLast(executor.submit(() -> inflate(rawBlock)));
+            }
+            block = pendingBlocks.isEmpty() ? null : getBlock(pendingBlocks.pollFirst());
+        }
+        blockOffset = 0;
+        return block != null;
+    }
+
+    private Block getBlock(Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error inflating BGZF block", e.getCause());
+        }
+    }
+
+    private void releaseBlock() {
+        if (block != null) {
+            bufferPool.add(block.data);
+            block = null;
+        }
+    }
+
+    private void discardPendingBlocks() {
+        // Buffers of blocks being inflated are not reused
+        for (Future<Block> future : pendingBlocks) {
+            future.cancel(false);
+        }
+        pendingBlocks.clear();
+    }
+
+    /**
+     * @return Next compressed block, or null at the end of the file
+     */
+    private RawBlock readRawBlock() throws IOException {
+        long address = nextBlockAddress;
+        if (address >= fileSize) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(header, address);
+        byte[] h = header.array();
+        if ((h[0] & 0xff) != 31 || (h[1] & 0xff) != 139 || h[2] != 8 || (h[3] & 4) == 0
+                || h[12] != 'B' || h[13] != 'C') {
+            throw new IOException("Invalid BGZF block header at file offset " + address);
+        }
+        int blockSize = readShort(h, 16) + 1;
+        if (blockSize < HEADER_LENGTH + FOOTER_LENGTH || blockSize > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid BGZF block size " + blockSize + " at file offset " + address);
+        }
+        ByteBuffer data = ByteBuffer.allocate(blockSize);
+        data.put(h);
+        readFully(data, address + HEADER_LENGTH);
+        nextBlockAddress = address + blockSize;
+        return new RawBlock(address, data.array());
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Truncated BGZF block at file offset " + position);
+            }
+            position += n;
+        }
+    }
+
+    private Block inflate(RawBlock rawBlock) throws IOException {
+        byte[] compressed = rawBlock.data;
+        int uncompressedSize = readInt(compressed, compressed.length - 4);
+        byte[] data = bufferPool.poll();
+        if (data == null || data.length < uncompressedSize) {
+            data = new byte[Math.max(uncompressedSize, BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE)];
+        }
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.reset();
+            inflater.setInput(compressed, HEADER_LENGTH, compressed.length - HEADER_LENGTH - FOOTER_LENGTH);
+            int n = 0;
+            while (n < uncompressedSize && !inflater.finished()) {
+                int inflated = inflater.inflate(data, n, uncompressedSize - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != uncompressedSize) {
+                throw new IOException("Corrupt BGZF block at file offset " + rawBlock.address);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block at file offset " + rawBlock.address, e);
+        } finally {
+            inflaters.add(inflater);
+        }
+        return new Block(rawBlock.address, data, uncompressedSize);
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+    }
+
+    private static final class RawBlock {
+        private final long address;
+        private final byte[] data;
+
+        private RawBlock(long address, byte[] data) {
+            this.address = address;
+            this.data = data;
+        }
+    }
+
+    private static final class Block {
+        private final long address;
+        private final byte[] data;
+        private final int size;
+
+        private Block(long address, byte[] data, int size) {
+            this.address = address;
+            this.data = data;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.commons;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * BGZF output stream compressing blocks in a pool of threads.
+ *
+ * Produces the same format as {@link BlockCompressedOutputStream}: a sequence of gzip blocks of up to 64KB,
+ * followed by the empty EOF block. Blocks are written in order.
+ *
+ * As the compressed size of a block is not known until it is compressed, virtual file offsets can not be obtained
+ * while writing. Instead, {@link #getPosition()} returns the uncompressed position, and a {@link BlockListener} is
+ * notified with the compressed address of each block once written, so uncompressed positions can be translated into
+ * virtual offsets (e.g. to build an index).
+ *
+ * Not thread safe. All the methods must be called from the same thread.
+ *
+ * Created on 19/10/26.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+
+    // Same uncompressed block size as samtools, so incompressible data always fits in a block when stored
+    private static final int BLOCK_SIZE = 0xff00;
+    private static final int MAX_BLOCK_SIZE = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+    private static final int HEADER_LENGTH = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+    private static final int FOOTER_LENGTH = BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+
+    @FunctionalInterface
+    public interface BlockListener {
+        /**
+         * Called after writing each block, in order.
+         *
+         * @param uncompressedPosition Uncompressed position of the first byte of the block
+         * @param uncompressedSize     Uncompressed size of the block
+         * @param blockAddress         File offset of the block
+         */
+        void onBlockWritten(long uncompressedPosition, int uncompressedSize, long blockAddress);
+    }
+
+    private final OutputStream out;
+    private final int compressionLevel;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+    private final Deque<Future<CompressedBlock>> pendingBlocks = new ArrayDeque<>();
+    private final Deque<byte[]> bufferPool = new ArrayDeque<>();
+    // Compressed buffers are taken by the compression threads, and returned by the writing thread
+    private final BlockingQueue<byte[]> compressedBufferPool = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Deflater> deflaters = new LinkedBlockingQueue<>();
+    private BlockListener listener;
+
+    private byte[] buffer;
+    private int bufferSize;
+    private long bufferPosition;
+    private long blockAddress;
+    private boolean closed;
+
+    public ParallelBlockCompressedOutputStream(OutputStream out, int numThreads) {
+        this(out, numThreads, BlockCompressedOutputStream.getDefaultCompressionLevel());
+    }
+
+    /**
+     * @param out              Underlying output stream
+     * @param numThreads       Number of compression threads. If 1 or less, compress in the calling thread
+     * @param compressionLevel Deflate compression level
+     */
+    public ParallelBlockCompressedOutputStream(OutputStream out, int numThreads, int compressionLevel) {
+        this.out = out;
+        this.compressionLevel = compressionLevel;
+        if (numThreads > 1) {
+            executor = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread thread = new Thread(r, "bgzf-compressor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maxPendingBlocks = numThreads * 2;
+        } else {
+            executor = null;
+            maxPendingBlocks = 0;
+        }
+        buffer = new byte[BLOCK_SIZE];
+    }
+
+    public ParallelBlockCompressedOutputStream setBlockListener(BlockListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return Number of uncompressed bytes written so far
+     */
+    public long getPosition() {
+        return bufferPosition + bufferSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (bufferSize == BLOCK_SIZE) {
+            submitBlock();
+        }
+        buffer[bufferSize++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (bufferSize == BLOCK_SIZE) {
+                submitBlock();
+            }
+            int n = Math.min(length, BLOCK_SIZE - bufferSize);
+            System.arraycopy(bytes, offset, buffer, bufferSize, n);
+            bufferSize += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Compress and write all the buffered data. As in {@link BlockCompressedOutputStream}, this ends the current block.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (bufferSize > 0) {
+            submitBlock();
+        }
+        while (!pendingBlocks.isEmpty()) {
+            writeNextBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            out.close();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (Deflater deflater : deflaters) {
+                deflater.end();
+            }
+            deflaters.clear();
+            compressedBufferPool.clear();
+            bufferPool.clear();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = buffer;
+        int size = bufferSize;
+        long position = bufferPosition;
+        bufferPosition += bufferSize;
+        bufferSize = 0;
+        buffer = bufferPool.isEmpty() ? new byte[BLOCK_SIZE] : bufferPool.pollFirst();
+
+        if (executor == null) {
+            writeBlock(compress(data, size, position));
+        } else {
+            pendingBlocks.addLast(executor.submit(() -> compress(data, size, position)));
+            while (pendingBlocks.size() > maxPendingBlocks) {
+                writeNextBlock();
+            }
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        try {
+            writeBlock(pendingBlocks.pollFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error compressing BGZF block", e.getCause());
+        }
+    }
+
+    private void writeBlock(CompressedBlock block) throws IOException {
+        out.write(block.data, 0, block.size);
+        if (listener != null) {
+            listener.onBlockWritten(block.uncompressedPosition, block.uncompressedSize, blockAddress);
+        }
+        blockAddress += block.size;
+        bufferPool.addLast(block.uncompressedData);
+        compressedBufferPool.add(block.data);
+    }
+
+    private CompressedBlock compress(byte[] data, int size, long position) {
+        byte[] compressed = compressedBufferPool.poll();
+        if (compressed == null) {
+            compressed = new byte[MAX_BLOCK_SIZE];
+        }
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(compressionLevel, true);
+        }
+        int compressedSize;
+        try {
+            compressedSize = deflate(deflater, data, size, compressed);
+        } finally {
+            deflaters.add(deflater);
+        }
+        if (compressedSize < 0) {
+            // Data is not compressible. Store it in a single deflate stored block, which always fits
+            int offset = HEADER_LENGTH;
+            compressed[offset] = 1;     // Final block, no compression
+            writeShort(compressed, offset + 1, size);
+            writeShort(compressed, offset + 3, ~size);
+            System.arraycopy(data, 0, compressed, offset + 5, size);
+            compressedSize = size + 5;
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, size);
+        int blockSize = HEADER_LENGTH + compressedSize + FOOTER_LENGTH;
+
+        // Gzip header, with the BGZF extra subfield "BC" containing the total block size minus 1
+        compressed[0] = (byte) 31;
+        compressed[1] = (byte) 139;
+        compressed[2] = 8;              // Deflate
+        compressed[3] = 4;              // Extra field
+        // 4..7 modification time, 8 extra flags
+        compressed[9] = (byte) 255;     // Unknown OS
+        writeShort(compressed, 10, 6);  // Extra field length
+        compressed[12] = 'B';
+        compressed[13] = 'C';
+        writeShort(compressed, 14, 2);  // Subfield length
+        writeShort(compressed, 16, blockSize - 1);
+
+        int footer = HEADER_LENGTH + compressedSize;
+        writeInt(compressed, footer, (int) crc32.getValue());
+        writeInt(compressed, footer + 4, size);
+        return new CompressedBlock(compressed, blockSize, data, size, position);
+    }
+
+    /**
+     * @return Compressed size, or -1 if it does not fit in a block
+     */
+    private static int deflate(Deflater deflater, byte[] data, int size, byte[] compressed) {
+        deflater.reset();
+        deflater.setInput(data, 0, size);
+        deflater.finish();
+        int compressedSize = deflater.deflate(compressed, HEADER_LENGTH, compressed.length - HEADER_LENGTH - FOOTER_LENGTH);
+        return deflater.finished() ? compressedSize : -1;
+    }
+
+    private static void writeShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        writeShort(bytes, offset, value);
+        writeShort(bytes, offset + 2, value >>> 16);
+    }
+
+    private static final class CompressedBlock {
+        private final byte[] data;
+        private final int size;
+        private final byte[] uncompressedData;
+        private final int uncompressedSize;
+        private final long uncompressedPosition;
+
+        private CompressedBlock(byte[] data, int size, byte[] uncompressedData, int uncompressedSize, long uncompressedPosition) {
+            this.data = data;
+            this.size = size;
+            this.uncompressedData = uncompressedData;
+            this.uncompressedSize = uncompressedSize;
+            this.uncompressedPosition = uncompressedPosition;
+        }
+    }
+}
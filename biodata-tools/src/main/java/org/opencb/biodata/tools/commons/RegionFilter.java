@@ -0,0 +1,156 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.commons;
+
+import org.opencb.biodata.models.core.Region;
+
+import java.util.*;
+
+/**
+ * Tests if an interval overlaps, or is contained in, any region of a list of regions.
+ *
+ * The regions are compiled once into a sorted array of intervals per chromosome, so each test is a hash lookup
+ * plus a binary search, regardless of the number of regions. When the tested intervals come sorted, the position of
+ * the last match is checked first, avoiding the binary search.
+ *
+ * Can be shared between threads: the position of the last match is kept per thread.
+ *
+ * Created on 19/10/26.
+ */
+public class RegionFilter {
+
+    private final Map<String, Intervals> intervalsByChromosome;
+    private final boolean contained;
+    private final ThreadLocal<Hint> hints = ThreadLocal.withInitial(Hint::new);
+
+    /**
+     * @param regions   List of regions
+     * @param contained Require the intervals to be fully contained in a region. Otherwise, overlapping is enough
+     */
+    public RegionFilter(List<Region> regions, boolean contained) {
+        this.contained = contained;
+        Map<String, List<Region>> regionsByChromosome = new HashMap<>();
+        for (Region region : regions) {
+            regionsByChromosome.computeIfAbsent(region.getChromosome(), k -> new ArrayList<>()).add(region);
+        }
+        intervalsByChromosome = new HashMap<>(regionsByChromosome.size() * 2);
+        for (Map.Entry<String, List<Region>> entry : regionsByChromosome.entrySet()) {
+            intervalsByChromosome.put(entry.getKey(), new Intervals(entry.getKey(), entry.getValue(), contained));
+        }
+    }
+
+    /**
+     * @param chromosome Chromosome
+     * @param start      Start position, 1-based, inclusive
+     * @param end        End position, 1-based, inclusive
+     * @return if the interval overlaps (or is contained in) any region
+     */
+    public boolean test(String chromosome, int start, int end) {
+        Hint hint = hints.get();
+        Intervals intervals = hint.intervals;
+        if (intervals == null || !intervals.chromosome.equals(chromosome)) {
+            intervals = intervalsByChromosome.get(chromosome);
+            if (intervals == null) {
+                return false;
+            }
+            hint.intervals = intervals;
+            hint.index = 0;
+        }
+        if (contained) {
+            // Nested regions are removed, so the ends are sorted too.
+            // The last region starting before the interval is the one with the greatest end
+            int i = intervals.floor(start, hint);
+            return i >= 0 && intervals.ends[i] >= end;
+        } else {
+            // Regions are merged, so the last region starting before the interval end is the one with the greatest end
+            int i = intervals.floor(end, hint);
+            return i >= 0 && intervals.ends[i] >= start;
+        }
+    }
+
+    public boolean isContained() {
+        return contained;
+    }
+
+    private static final class Intervals {
+        private final String chromosome;
+        private final int[] starts;
+        private final int[] ends;
+
+        private Intervals(String chromosome, List<Region> regions, boolean contained) {
+            this.chromosome = chromosome;
+            List<Region> sorted = new ArrayList<>(regions);
+            sorted.sort(Comparator.comparingInt(Region::getStart).thenComparing(Comparator.comparingInt(Region::getEnd).reversed()));
+
+            int[] starts = new int[sorted.size()];
+            int[] ends = new int[sorted.size()];
+            int size = 0;
+            for (Region region : sorted) {
+                if (size > 0 && contained && region.getEnd() <= ends[size - 1]) {
+                    // Nested in the previous region
+                    continue;
+                } else if (size > 0 && !contained && region.getStart() <= ends[size - 1]) {
+                    // Overlapping the previous region
+                    ends[size - 1] = Math.max(ends[size - 1], region.getEnd());
+                    continue;
+                }
+                starts[size] = region.getStart();
+                ends[size] = region.getEnd();
+                size++;
+            }
+            this.starts = Arrays.copyOf(starts, size);
+            this.ends = Arrays.copyOf(ends, size);
+        }
+
+        /**
+         * @return Index of the last interval with start lower or equal than the position, or -1 if none
+         */
+        private int floor(int position, Hint hint) {
+            int i = hint.index;
+            if (isFloor(i, position)) {
+                return i;
+            } else if (isFloor(i + 1, position)) {
+                hint.index = i + 1;
+                return i + 1;
+            }
+            // Starts are unique, as regions with the same start are either merged or nested
+            i = Arrays.binarySearch(starts, position);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            if (i >= 0) {
+                hint.index = i;
+            }
+            return i;
+        }
+
+        private boolean isFloor(int i, int position) {
+            return i < starts.length && starts[i] <= position && (i + 1 == starts.length || starts[i + 1] > position);
+        }
+    }
+
+    /**
+     * Intervals of the last tested chromosome, and index of the last match in them, of one thread.
+     */
+    private static final class Hint {
+        private Intervals intervals;
+        private int index;
+    }
+}
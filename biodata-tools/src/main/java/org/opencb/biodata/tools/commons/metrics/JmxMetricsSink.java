@@ -0,0 +1,69 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Registers each stage as a {@link StageMetricsMXBean} in the platform MBean server, so the metrics can be read live
+ * from any JMX client (e.g. jconsole). Beans are registered on the first report, and unregistered on {@link #close()}.
+ *
+ * Created on 19/10/26.
+ */
+public class JmxMetricsSink implements MetricsSink, AutoCloseable {
+
+    public static final String DOMAIN = "org.opencb.biodata";
+
+    private final String pipeline;
+    private final MBeanServer server;
+    private final Set<ObjectName> registered = new HashSet<>();
+
+    public JmxMetricsSink(String pipeline) {
+        this.pipeline = pipeline;
+        this.server = ManagementFactory.getPlatformMBeanServer();
+    }
+
+    @Override
+    public synchronized void report(Collection<StageMetrics> stages) throws JMException {
+        for (StageMetrics stage : stages) {
+            ObjectName name = new ObjectName(DOMAIN + ":type=PipelineStage,pipeline=" + ObjectName.quote(pipeline)
+                    + ",name=" + ObjectName.quote(stage.getName()));
+            if (!registered.contains(name) && !server.isRegistered(name)) {
+                server.registerMBean(stage, name);
+                registered.add(name);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws JMException {
+        for (ObjectName name : registered) {
+            server.unregisterMBean(name);
+        }
+        registered.clear();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the metrics of all the stages into a JSON file, replacing the previous report.
+ *
+ * Created on 19/10/26.
+ */
+public class JsonFileMetricsSink implements MetricsSink {
+
+    private final Path output;
+    private final ObjectMapper objectMapper;
+
+    public JsonFileMetricsSink(Path output) {
+        this.output = output;
+        this.objectMapper = new ObjectMapper().configure(SerializationFeature.INDENT_OUTPUT, true);
+    }
+
+    @Override
+    public void report(Collection<StageMetrics> stages) throws IOException {
+        List<Map<String, Object>> values = new ArrayList<>(stages.size());
+        for (StageMetrics stage : stages) {
+            values.add(stage.toMap());
+        }
+        // Write to a temporary file first, so readers never see a partial report
+        Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+        objectMapper.writeValue(tmp.toFile(), values);
+        Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+/**
+ * Writes one log line per stage.
+ *
+ * Created on 19/10/26.
+ */
+public class LogMetricsSink implements MetricsSink {
+
+    private final Logger logger;
+
+    public LogMetricsSink() {
+        this(LoggerFactory.getLogger(LogMetricsSink.class));
+    }
+
+    public LogMetricsSink(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void report(Collection<StageMetrics> stages) {
+        for (StageMetrics stage : stages) {
+            logger.info("{}", stage);
+        }
+    }
+}
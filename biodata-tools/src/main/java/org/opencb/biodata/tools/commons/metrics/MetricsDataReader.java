@@ -0,0 +1,94 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import org.opencb.commons.io.DataReader;
+
+import java.util.List;
+
+/**
+ * DataReader decorator recording the metrics of each batch read by the wrapped reader.
+ *
+ * The time between two consecutive reads is recorded as queue wait, as it is the time the reader was blocked waiting
+ * for the consumers. If the reader implements {@link StageCounters}, its discarded and malformed records are added to
+ * the metrics after each batch.
+ *
+ * Created on 19/10/26.
+ */
+public class MetricsDataReader<T> implements DataReader<T> {
+
+    private final DataReader<T> reader;
+    private final StageMetrics metrics;
+    private final StageCountersTracker counters;
+    private long lastBatchEnd = -1;
+
+    public MetricsDataReader(DataReader<T> reader, StageMetrics metrics) {
+        this.reader = reader;
+        this.metrics = metrics;
+        this.counters = new StageCountersTracker(reader, metrics);
+    }
+
+    @Override
+    public boolean open() {
+        return reader.open();
+    }
+
+    @Override
+    public boolean pre() {
+        return reader.pre();
+    }
+
+    @Override
+    public List<T> read(int batchSize) {
+        long start = System.nanoTime();
+        if (lastBatchEnd >= 0) {
+            metrics.recordQueueWait(start - lastBatchEnd);
+        }
+        long allocated = ThreadAllocation.getAllocatedBytes();
+
+        List<T> batch = reader.read(batchSize);
+
+        long end = System.nanoTime();
+        int size = batch == null ? 0 : batch.size();
+        metrics.recordBatch(size, size, start, end, ThreadAllocation.getAllocatedBytes(allocated));
+        counters.update();
+        lastBatchEnd = end;
+        return batch;
+    }
+
+    @Override
+    public boolean post() {
+        return reader.post();
+    }
+
+    @Override
+    public boolean close() {
+        return reader.close();
+    }
+
+    public DataReader<T> getReader() {
+        return reader;
+    }
+
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+}
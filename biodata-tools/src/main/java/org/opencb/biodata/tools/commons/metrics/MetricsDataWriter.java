@@ -0,0 +1,89 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import org.opencb.commons.io.DataWriter;
+
+import java.util.List;
+
+/**
+ * DataWriter decorator recording the metrics of each batch written by the wrapped writer.
+ *
+ * The time between two consecutive writes is recorded as queue wait, as it is the time the writer was blocked waiting
+ * for input.
+ *
+ * Created on 19/10/26.
+ */
+public class MetricsDataWriter<T> implements DataWriter<T> {
+
+    private final DataWriter<T> writer;
+    private final StageMetrics metrics;
+    private long lastBatchEnd = -1;
+
+    public MetricsDataWriter(DataWriter<T> writer, StageMetrics metrics) {
+        this.writer = writer;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean open() {
+        return writer.open();
+    }
+
+    @Override
+    public boolean pre() {
+        return writer.pre();
+    }
+
+    @Override
+    public boolean write(List<T> batch) {
+        long start = System.nanoTime();
+        if (lastBatchEnd >= 0) {
+            metrics.recordQueueWait(start - lastBatchEnd);
+        }
+        long allocated = ThreadAllocation.getAllocatedBytes();
+
+        boolean result = writer.write(batch);
+
+        long end = System.nanoTime();
+        metrics.recordBatch(batch.size(), batch.size(), start, end, ThreadAllocation.getAllocatedBytes(allocated));
+        lastBatchEnd = end;
+        return result;
+    }
+
+    @Override
+    public boolean post() {
+        return writer.post();
+    }
+
+    @Override
+    public boolean close() {
+        return writer.close();
+    }
+
+    public DataWriter<T> getWriter() {
+        return writer;
+    }
+
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+}
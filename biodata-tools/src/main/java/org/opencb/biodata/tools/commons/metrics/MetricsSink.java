@@ -0,0 +1,41 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import java.util.Collection;
+
+/**
+ * Destination of the metrics reported by {@link PipelineMetrics}.
+ *
+ * Created on 19/10/26.
+ */
+@FunctionalInterface
+public interface MetricsSink {
+
+    /**
+     * Report the current value of the metrics. Called periodically while the pipeline runs, and once at the end.
+     *
+     * @param stages Metrics of each stage, in pipeline order
+     * @throws Exception on any error reporting the metrics
+     */
+    void report(Collection<StageMetrics> stages) throws Exception;
+
+}
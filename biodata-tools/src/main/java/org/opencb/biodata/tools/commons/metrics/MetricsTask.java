@@ -0,0 +1,99 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import org.opencb.commons.run.Task;
+
+import java.util.List;
+
+/**
+ * Task decorator recording the metrics of each batch processed by the wrapped task.
+ *
+ * The time between two consecutive batches of the same thread is recorded as queue wait, as it is the time the thread
+ * was blocked waiting for input. If the task implements {@link StageCounters}, its discarded and malformed records are
+ * added to the metrics after each batch.
+ *
+ * Created on 19/10/26.
+ */
+public class MetricsTask<I, O> implements Task<I, O> {
+
+    private final Task<I, O> task;
+    private final StageMetrics metrics;
+    private final StageCountersTracker counters;
+    private final ThreadLocal<Long> lastBatchEnd = new ThreadLocal<>();
+
+    public MetricsTask(Task<I, O> task, StageMetrics metrics) {
+        this.task = task;
+        this.metrics = metrics;
+        this.counters = new StageCountersTracker(task, metrics);
+    }
+
+    @Override
+    public void pre() throws Exception {
+        task.pre();
+    }
+
+    @Override
+    public List<O> apply(List<I> batch) throws Exception {
+        long start = System.nanoTime();
+        Long previousEnd = lastBatchEnd.get();
+        if (previousEnd != null) {
+            metrics.recordQueueWait(start - previousEnd);
+        }
+        long allocated = ThreadAllocation.getAllocatedBytes();
+
+        List<O> result = task.apply(batch);
+
+        long end = System.nanoTime();
+        metrics.recordBatch(batch.size(), result == null ? 0 : result.size(), start, end,
+                ThreadAllocation.getAllocatedBytes(allocated));
+        counters.update();
+        lastBatchEnd.set(end);
+        return result;
+    }
+
+    @Override
+    public List<O> drain() throws Exception {
+        long start = System.nanoTime();
+        long allocated = ThreadAllocation.getAllocatedBytes();
+
+        List<O> result = task.drain();
+
+        if (result != null && !result.isEmpty()) {
+            metrics.recordBatch(0, result.size(), start, System.nanoTime(), ThreadAllocation.getAllocatedBytes(allocated));
+        }
+        counters.update();
+        return result;
+    }
+
+    @Override
+    public void post() throws Exception {
+        task.post();
+    }
+
+    public Task<I, O> getTask() {
+        return task;
+    }
+
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+}
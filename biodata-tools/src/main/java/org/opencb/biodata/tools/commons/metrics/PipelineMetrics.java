@@ -0,0 +1,145 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the metrics of the stages of a pipeline, and reports them to a set of {@link MetricsSink}.
+ *
+ * <pre>
+ *     PipelineMetrics metrics = new PipelineMetrics().addSink(new LogMetricsSink());
+ *     VariantVcfHtsjdkReader vcfReader = new VariantVcfHtsjdkReader(input, metadata);
+ *     ParallelTaskRunner&lt;Variant, Variant&gt; ptr = new ParallelTaskRunner&lt;&gt;(
+ *             metrics.wrapReader("reader", vcfReader),
+ *             metrics.wrapTask("normalizer", normalizer),
+ *             metrics.wrapWriter("writer", writer), config);
+ *     metrics.start(30, TimeUnit.SECONDS);
+ *     ptr.run();
+ *     metrics.stop();
+ * </pre>
+ *
+ * Created on 19/10/26.
+ */
+public class PipelineMetrics {
+
+    private final Map<String, StageMetrics> stages = new LinkedHashMap<>();
+    private final List<MetricsSink> sinks = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+
+    private final Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+
+    /**
+     * Get the metrics of a stage, creating them if missing.
+     *
+     * @param name Stage name
+     * @return Metrics of the stage
+     */
+    public synchronized StageMetrics stage(String name) {
+        return stages.computeIfAbsent(name, StageMetrics::new);
+    }
+
+    public synchronized Collection<StageMetrics> getStages() {
+        return new ArrayList<>(stages.values());
+    }
+
+    public <I, O> MetricsTask<I, O> wrapTask(String name, Task<I, O> task) {
+        return new MetricsTask<>(task, stage(name));
+    }
+
+    public <T> MetricsDataReader<T> wrapReader(String name, DataReader<T> reader) {
+        return new MetricsDataReader<>(reader, stage(name));
+    }
+
+    public <T> MetricsDataWriter<T> wrapWriter(String name, DataWriter<T> writer) {
+        return new MetricsDataWriter<>(writer, stage(name));
+    }
+
+    public PipelineMetrics addSink(MetricsSink sink) {
+        synchronized (sinks) {
+            sinks.add(sink);
+        }
+        return this;
+    }
+
+    /**
+     * Report the current metrics to all the sinks. Errors from the sinks are logged, never propagated.
+     */
+    public void report() {
+        Collection<StageMetrics> values = getStages();
+        synchronized (sinks) {
+            for (MetricsSink sink : sinks) {
+                try {
+                    sink.report(values);
+                } catch (Exception e) {
+                    logger.warn("Error reporting metrics to " + sink.getClass().getSimpleName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start reporting periodically, from a daemon thread.
+     *
+     * @param period Time between reports
+     * @param unit   Time unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pipeline-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::report, period, period, unit);
+    }
+
+    /**
+     * Stop the periodic reports, and report the final values.
+     */
+    public void stop() {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = this.scheduler;
+            this.scheduler = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        report();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+/**
+ * Counters of the records skipped by a reader or a task. The metrics decorators add them to the {@link StageMetrics}
+ * of the stage after each batch.
+ *
+ * Created on 19/10/26.
+ */
+public interface StageCounters {
+
+    /**
+     * @return Number of valid records discarded so far
+     */
+    default long getDiscardedRecords() {
+        return 0;
+    }
+
+    /**
+     * @return Number of malformed records skipped so far
+     */
+    default long getMalformedRecords() {
+        return 0;
+    }
+
+}
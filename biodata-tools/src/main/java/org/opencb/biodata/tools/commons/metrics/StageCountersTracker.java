@@ -0,0 +1,62 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds to the {@link StageMetrics} the increments of the {@link StageCounters} of a stage since the last update.
+ *
+ * Created on 19/10/26.
+ */
+final class StageCountersTracker {
+
+    private final StageCounters counters;
+    private final StageMetrics metrics;
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+
+    /**
+     * @param stage   Reader or task of the stage. Ignored if does not implement {@link StageCounters}
+     * @param metrics Metrics of the stage
+     */
+    StageCountersTracker(Object stage, StageMetrics metrics) {
+        this.counters = stage instanceof StageCounters ? (StageCounters) stage : null;
+        this.metrics = metrics;
+    }
+
+    void update() {
+        if (counters == null) {
+            return;
+        }
+        // Concurrent updates may see the counters in any order, but the increments always add up to the last value
+        long discarded = counters.getDiscardedRecords();
+        long increment = discarded - this.discarded.getAndSet(discarded);
+        if (increment != 0) {
+            metrics.incrementDiscarded(increment);
+        }
+        long malformed = counters.getMalformedRecords();
+        increment = malformed - this.malformed.getAndSet(malformed);
+        if (increment != 0) {
+            metrics.incrementMalformed(increment);
+        }
+    }
+}
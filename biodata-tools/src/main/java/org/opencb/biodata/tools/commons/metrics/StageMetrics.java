@@ -0,0 +1,227 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a single stage of a pipeline: a reader, a task or a writer.
+ *
+ * Thread safe, so it can be shared by all the threads running the same stage.
+ *
+ * Created on 19/10/26.
+ */
+public class StageMetrics implements StageMetricsMXBean {
+
+    private final String name;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong recordsIn = new AtomicLong();
+    private final AtomicLong recordsOut = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private volatile long firstBatchNanos = -1;
+    private final AtomicLong lastBatchNanos = new AtomicLong(-1);
+
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record a processed batch.
+     *
+     * @param in             Number of input records. Same as output for readers and writers
+     * @param out            Number of output records
+     * @param startNanos     {@link System#nanoTime()} at the start of the batch
+     * @param endNanos       {@link System#nanoTime()} at the end of the batch
+     * @param allocated      Bytes allocated by the thread while processing the batch, or -1 if unknown
+     */
+    public void recordBatch(long in, long out, long startNanos, long endNanos, long allocated) {
+        if (firstBatchNanos < 0) {
+            synchronized (this) {
+                if (firstBatchNanos < 0) {
+                    firstBatchNanos = startNanos;
+                }
+            }
+        }
+        lastBatchNanos.accumulateAndGet(endNanos, Math::max);
+        batches.incrementAndGet();
+        recordsIn.addAndGet(in);
+        recordsOut.addAndGet(out);
+        busyNanos.addAndGet(endNanos - startNanos);
+        batchLatency.record(endNanos - startNanos);
+        if (allocated > 0) {
+            allocatedBytes.addAndGet(allocated);
+        }
+    }
+
+    /**
+     * Record the time a thread of this stage was idle between two batches, waiting for input.
+     *
+     * @param nanos Nanoseconds waiting
+     */
+    public void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    public void incrementDiscarded(long n) {
+        discarded.addAndGet(n);
+    }
+
+    public void incrementMalformed(long n) {
+        malformed.addAndGet(n);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @Override
+    public long getRecordsIn() {
+        return recordsIn.get();
+    }
+
+    @Override
+    public long getRecordsOut() {
+        return recordsOut.get();
+    }
+
+    @Override
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    @Override
+    public long getMalformed() {
+        return malformed.get();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * Input records per second of wall clock time, since the first batch.
+     */
+    @Override
+    public double getRecordsPerSecond() {
+        long elapsed = lastBatchNanos.get() - firstBatchNanos;
+        return firstBatchNanos < 0 || elapsed <= 0 ? 0 : recordsIn.get() / (elapsed / 1e9);
+    }
+
+    /**
+     * Input records per second of processing time, aggregated by all the threads. Does not include the queue wait.
+     */
+    @Override
+    public double getBusyRecordsPerSecond() {
+        long busy = busyNanos.get();
+        return busy <= 0 ? 0 : recordsIn.get() / (busy / 1e9);
+    }
+
+    @Override
+    public double getMeanBatchLatencyMillis() {
+        return batchLatency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getBatchLatencyMillisP50() {
+        return toMillis(batchLatency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getBatchLatencyMillisP99() {
+        return toMillis(batchLatency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getMaxBatchLatencyMillis() {
+        return toMillis(batchLatency.getMax());
+    }
+
+    @Override
+    public double getMeanQueueWaitMillis() {
+        return queueWait.getMean() / 1e6;
+    }
+
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", name);
+        map.put("batches", getBatches());
+        map.put("recordsIn", getRecordsIn());
+        map.put("recordsOut", getRecordsOut());
+        map.put("discarded", getDiscarded());
+        map.put("malformed", getMalformed());
+        map.put("recordsPerSecond", getRecordsPerSecond());
+        map.put("busyRecordsPerSecond", getBusyRecordsPerSecond());
+        map.put("allocatedBytes", getAllocatedBytes());
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("mean", getMeanBatchLatencyMillis());
+        latency.put("p50", getBatchLatencyMillisP50());
+        latency.put("p90", toMillis(batchLatency.getValueAtPercentile(90)));
+        latency.put("p99", getBatchLatencyMillisP99());
+        latency.put("p999", toMillis(batchLatency.getValueAtPercentile(99.9)));
+        latency.put("max", getMaxBatchLatencyMillis());
+        map.put("batchLatencyMillis", latency);
+        Map<String, Object> wait = new LinkedHashMap<>();
+        wait.put("mean", getMeanQueueWaitMillis());
+        wait.put("p50", toMillis(queueWait.getValueAtPercentile(50)));
+        wait.put("p99", toMillis(queueWait.getValueAtPercentile(99)));
+        wait.put("max", toMillis(queueWait.getMax()));
+        map.put("queueWaitMillis", wait);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d records in, %d out (%d discarded, %d malformed) in %d batches. %.1f records/s "
+                        + "(%.1f records/s busy). Batch latency mean %.2fms, p50 %.2fms, p99 %.2fms, max %.2fms. "
+                        + "Queue wait mean %.2fms. Allocated %d MB",
+                name, getRecordsIn(), getRecordsOut(), getDiscarded(), getMalformed(), getBatches(),
+                getRecordsPerSecond(), getBusyRecordsPerSecond(), getMeanBatchLatencyMillis(), getBatchLatencyMillisP50(),
+                getBatchLatencyMillisP99(), getMaxBatchLatencyMillis(), getMeanQueueWaitMillis(),
+                getAllocatedBytes() / (1024 * 1024));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+/**
+ * Management interface of {@link StageMetrics}, exported by {@link JmxMetricsSink}.
+ *
+ * Created on 19/10/26.
+ */
+public interface StageMetricsMXBean {
+
+    String getName();
+
+    long getBatches();
+
+    long getRecordsIn();
+
+    long getRecordsOut();
+
+    long getDiscarded();
+
+    long getMalformed();
+
+    long getAllocatedBytes();
+
+    double getRecordsPerSecond();
+
+    double getBusyRecordsPerSecond();
+
+    double getMeanBatchLatencyMillis();
+
+    double getBatchLatencyMillisP50();
+
+    double getBatchLatencyMillisP99();
+
+    double getMaxBatchLatencyMillis();
+
+    double getMeanQueueWaitMillis();
+
+}
@@ -0,0 +1,71 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.commons.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Bytes allocated by the current thread, if supported and enabled by the JVM. This class never changes the JVM setting,
+ * see {@link com.sun.management.ThreadMXBean#setThreadAllocatedMemoryEnabled(boolean)}.
+ *
+ * Created on 19/10/26.
+ */
+final class ThreadAllocation {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN;
+
+    static {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean bean = null;
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            bean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (!bean.isThreadAllocatedMemorySupported()) {
+                bean = null;
+            }
+        }
+        THREAD_MX_BEAN = bean;
+    }
+
+    private ThreadAllocation() {
+    }
+
+    /**
+     * @return Bytes allocated by the current thread since it started, or -1 if not supported or not enabled
+     */
+    static long getAllocatedBytes() {
+        if (THREAD_MX_BEAN == null || !THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param since Value returned by a previous call to {@link #getAllocatedBytes()} from the same thread
+     * @return Bytes allocated by the current thread since the previous call, or -1 if not supported or not enabled
+     */
+    static long getAllocatedBytes(long since) {
+        if (since < 0) {
+            return -1;
+        }
+        return getAllocatedBytes() - since;
+    }
+}
@@ -17,22 +17,64 @@
  *
  */
 
+
 package org.opencb.biodata.tools.feature;
 
+import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.formats.feature.bed.Bed;
 
 /**
- * Created by imedina on 26/10/16.
+ * Feature manager of BED files. As in the BED format, {@link Bed} start positions are 0-based and end positions are
+ * exclusive, while queries use 1-based inclusive positions.
  */
 public class BedManager extends FeatureManager<Bed> {
 
-
-    public BedManager() {
-        this.chromsomeColIndex = 1;
-        this.startColIndex = 3;
-        this.endColIndex = 4;
+    @Override
+    protected Bed parse(String line) {
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+            return null;
+        }
+        String[] fields = line.split("\t");
+        if (fields.length < 3) {
+            fields = line.trim().split("\\s+");
+        }
+        Bed bed = new Bed(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+        if (fields.length > 3) {
+            bed.setName(fields[3]);
+        }
+        if (fields.length > 4 && StringUtils.isNumeric(fields[4])) {
+            bed.setScore(Integer.parseInt(fields[4]));
+        }
+        if (fields.length > 5) {
+            bed.setStrand(fields[5]);
+        }
+        if (fields.length > 7) {
+            bed.setThickStart(Integer.parseInt(fields[6]));
+            bed.setThickEnd(Integer.parseInt(fields[7]));
+        }
+        if (fields.length > 8) {
+            bed.setItemRgb(fields[8]);
+        }
+        if (fields.length > 11) {
+            bed.setBlockCount(Integer.parseInt(fields[9]));
+            bed.setBlockSizes(fields[10]);
+            bed.setBlockStarts(fields[11]);
+        }
+        return bed;
     }
 
+    @Override
+    protected String getChromosome(Bed feature) {
+        return feature.getChromosome();
+    }
 
+    @Override
+    protected int getStart(Bed feature) {
+        return feature.getStart() + 1;
+    }
 
+    @Override
+    protected int getEnd(Bed feature) {
+        return feature.getEnd();
+    }
 }
@@ -19,21 +19,387 @@
 
 package org.opencb.biodata.tools.feature;
 
+import org.opencb.biodata.models.core.Region;
+import org.opencb.commons.utils.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
 /**
- * Created by imedina on 26/10/16.
+ * Loads the features of an annotation file (BED, GFF, GTF, ...) into one interval tree per chromosome, to find the
+ * features overlapping any region.
+ *
+ * Features are either loaded from the annotation file ({@link #load(Path)}), or from an index file previously written
+ * with {@link #index(Path, Path)}. Index files are memory mapped, so opening them is immediate, and features are only
+ * parsed when returned by a query.
+ *
+ * Queries can be done from several threads once the features are loaded.
+ *
+ * @param <T>   Feature type
  */
 public abstract class FeatureManager<T> {
 
-    protected int chromsomeColIndex;
-    protected int startColIndex;
-    protected int endColIndex;
+    private static final byte[] INDEX_MAGIC = {'B', 'D', 'F', 'I', 'D', 'X', 0, 1};
+
+    private Map<String, ChromosomeFeatures<T>> chromosomes = Collections.emptyMap();
+
+    /**
+     * Parse a line of the annotation file.
+     *
+     * @param line  Line
+     * @return      Feature, or null if the line is not a feature (e.g. headers and comments)
+     */
+    protected abstract T parse(String line);
+
+    protected abstract String getChromosome(T feature);
+
+    /**
+     * @param feature   Feature
+     * @return          1-based start of the feature
+     */
+    protected abstract int getStart(T feature);
+
+    /**
+     * @param feature   Feature
+     * @return          1-based inclusive end of the feature
+     */
+    protected abstract int getEnd(T feature);
+
+    /**
+     * Load all the features of an annotation file, optionally gzipped.
+     *
+     * @param path          Annotation file
+     * @return              this
+     * @throws IOException  if the file can not be read or parsed
+     */
+    public FeatureManager<T> load(Path path) throws IOException {
+        Map<String, List<T>> features = new HashMap<>();
+        readFeatures(path, (feature, line) ->
+                features.computeIfAbsent(getChromosome(feature), k -> new ArrayList<>()).add(feature));
+
+        Map<String, ChromosomeFeatures<T>> chromosomes = new HashMap<>(features.size() * 2);
+        for (Map.Entry<String, List<T>> entry : features.entrySet()) {
+            List<T> list = entry.getValue();
+            list.sort(Comparator.comparingInt(this::getStart));
+            int[] starts = new int[list.size()];
+            int[] ends = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                starts[i] = getStart(list.get(i));
+                ends[i] = getEnd(list.get(i));
+            }
+            chromosomes.put(entry.getKey(), new ChromosomeFeatures<>(ImplicitIntervalTree.build(starts, ends), list::get));
+        }
+        this.chromosomes = chromosomes;
+        return this;
+    }
+
+    /**
+     * Write an index file of an annotation file, with the interval trees and the lines of the features.
+     * The index file can be opened with {@link #open(Path)}.
+     *
+     * @param path          Annotation file, optionally gzipped
+     * @param indexPath     Index file
+     * @throws IOException  if the file can not be read or parsed, or the index can not be written
+     */
+    public void index(Path path, Path indexPath) throws IOException {
+        Map<String, List<IndexedLine>> lines = new LinkedHashMap<>();
+        readFeatures(path, (feature, line) -> lines.computeIfAbsent(getChromosome(feature), k -> new ArrayList<>())
+                .add(new IndexedLine(getStart(feature), getEnd(feature), line)));
+
+        Map<String, int[]> directory = new LinkedHashMap<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath)))) {
+            out.write(INDEX_MAGIC);
+            for (Map.Entry<String, List<IndexedLine>> entry : lines.entrySet()) {
+                List<IndexedLine> list = entry.getValue();
+                list.sort(Comparator.comparingInt(line -> line.start));
+                int n = list.size();
+                int[] starts = new int[n];
+                int[] ends = new int[n];
+                byte[][] bytes = new byte[n][];
+                for (int i = 0; i < n; i++) {
+                    starts[i] = list.get(i).start;
+                    ends[i] = list.get(i).end;
+                    bytes[i] = list.get(i).line.getBytes(StandardCharsets.UTF_8);
+                }
+                ImplicitIntervalTree tree = ImplicitIntervalTree.build(starts, ends);
+                directory.put(entry.getKey(), new int[]{n, tree.getMaxLevel(), out.size()});
+
+                for (int i = 0; i < n; i++) {
+                    out.writeInt(tree.getStart(i));
+                }
+                for (int i = 0; i < n; i++) {
+                    out.writeInt(tree.getEnd(i));
+                }
+                for (int i = 0; i < n; i++) {
+                    out.writeInt(tree.getMaxEnd(i));
+                }
+                // Offsets of the lines, relative to the first one, and the lines
+                int offset = 0;
+                for (int i = 0; i < n; i++) {
+                    out.writeInt(offset);
+                    offset += bytes[i].length;
+                }
+                out.writeInt(offset);
+                for (byte[] line : bytes) {
+                    out.write(line);
+                }
+                if (out.size() == Integer.MAX_VALUE) {
+                    throw new IOException("Index file " + indexPath + " exceeds the maximum size of 2GB");
+                }
+            }
+
+            int directoryOffset = out.size();
+            out.writeInt(directory.size());
+            for (Map.Entry<String, int[]> entry : directory.entrySet()) {
+                out.writeUTF(entry.getKey());
+                for (int value : entry.getValue()) {
+                    out.writeInt(value);
+                }
+            }
+            out.writeInt(directoryOffset);
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("Index file " + indexPath + " exceeds the maximum size of 2GB");
+            }
+        }
+    }
+
+    /**
+     * Open an index file written with {@link #index(Path, Path)}. The file is memory mapped, and features are parsed
+     * when returned by a query.
+     *
+     * @param indexPath     Index file
+     * @return              this
+     * @throws IOException  if the file can not be read, or it is not an index file
+     */
+    public FeatureManager<T> open(Path indexPath) throws IOException {
+        FileUtils.checkFile(indexPath);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] magic = new byte[INDEX_MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(INDEX_MAGIC, magic)) {
+            throw new IOException("File " + indexPath + " is not a feature index");
+        }
+
+        DataInputStream directory = new DataInputStream(new ByteBufferInputStream(buffer, buffer.getInt(buffer.limit() - 4)));
+        int numChromosomes = directory.readInt();
+        Map<String, ChromosomeFeatures<T>> chromosomes = new HashMap<>(numChromosomes * 2);
+        for (int c = 0; c < numChromosomes; c++) {
+            String chromosome = directory.readUTF();
+            int n = directory.readInt();
+            int maxLevel = directory.readInt();
+            int offset = directory.readInt();
+
+            IntBuffer starts = intBuffer(buffer, offset, n);
+            IntBuffer ends = intBuffer(buffer, offset + 4 * n, n);
+            IntBuffer maxEnds = intBuffer(buffer, offset + 8 * n, n);
+            IntBuffer lineOffsets = intBuffer(buffer, offset + 12 * n, n + 1);
+            int linesOffset = offset + 16 * n + 4;
+            ImplicitIntervalTree tree = new ImplicitIntervalTree(starts, ends, maxEnds, maxLevel);
+            chromosomes.put(chromosome, new ChromosomeFeatures<>(tree, i -> {
+                byte[] line = new byte[lineOffsets.get(i + 1) - lineOffsets.get(i)];
+                ByteBuffer lineBuffer = buffer.duplicate();
+                lineBuffer.position(linesOffset + lineOffsets.get(i));
+                lineBuffer.get(line);
+                return parse(new String(line, StandardCharsets.UTF_8));
+            }));
+        }
+        this.chromosomes = chromosomes;
+        return this;
+    }
+
+    /**
+     * Find the features overlapping a region.
+     *
+     * @param region    Region
+     * @return          Overlapping features, sorted by start
+     */
+    public List<T> query(Region region) {
+        return query(region.getChromosome(), region.getStart(), region.getEnd());
+    }
+
+    /**
+     * Find the features overlapping a region.
+     *
+     * @param chromosome    Chromosome
+     * @param start         1-based start
+     * @param end           1-based inclusive end
+     * @return              Overlapping features, sorted by start
+     */
+    public List<T> query(String chromosome, int start, int end) {
+        ChromosomeFeatures<T> features = chromosomes.get(chromosome);
+        if (features == null) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<>();
+        features.tree.query(start, end, i -> result.add(features.get(i)));
+        return result;
+    }
+
+    /**
+     * Find the features overlapping each of the regions.
+     *
+     * @param regions   Regions
+     * @return          Overlapping features of each region, in the same order as the regions
+     */
+    public List<List<T>> overlaps(List<Region> regions) {
+        List<List<T>> result = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            result.add(query(region));
+        }
+        return result;
+    }
+
+    /**
+     * Join a stream of items, sorted by start within each chromosome, with the overlapping features. Instead of a
+     * query per item, features are walked in order along with the items, keeping only those that can still overlap.
+     *
+     * @param items     Items, grouped by chromosome and sorted by start
+     * @param toRegion  Region of an item
+     * @param consumer  Receives each item with its overlapping features, sorted by start
+     * @param <R>       Item type
+     * @throws IllegalArgumentException if the items are not sorted
+     */
+    public <R> void join(Iterator<R> items, Function<R, Region> toRegion, BiConsumer<R, List<T>> consumer) {
+        String chromosome = null;
+        ChromosomeFeatures<T> features = null;
+        int next = 0;
+        int lastStart = 0;
+        // Features starting before the current item and not ending before it, sorted by start
+        int[] active = new int[16];
+        int numActive = 0;
+        while (items.hasNext()) {
+            R item = items.next();
+            Region region = toRegion.apply(item);
+            if (!region.getChromosome().equals(chromosome)) {
+                chromosome = region.getChromosome();
+                features = chromosomes.get(chromosome);
+                next = 0;
+                numActive = 0;
+            } else if (region.getStart() < lastStart) {
+                throw new IllegalArgumentException("Items are not sorted: " + region + " found after position "
+                        + chromosome + ":" + lastStart);
+            }
+            lastStart = region.getStart();
+
+            List<T> overlapping = new ArrayList<>();
+            if (features != null) {
+                ImplicitIntervalTree tree = features.tree;
+                while (next < tree.size() && tree.getStart(next) <= region.getEnd()) {
+                    if (numActive == active.length) {
+                        active = Arrays.copyOf(active, numActive * 2);
+                    }
+                    active[numActive++] = next++;
+                }
+                // Features ending before this item can not overlap the next ones
+                int kept = 0;
+                for (int j = 0; j < numActive; j++) {
+                    int i = active[j];
+                    if (tree.getEnd(i) >= region.getStart()) {
+                        active[kept++] = i;
+                        if (tree.getStart(i) <= region.getEnd()) {
+                            overlapping.add(features.get(i));
+                        }
+                    }
+                }
+                numActive = kept;
+            }
+            consumer.accept(item, overlapping);
+        }
+    }
+
+    public Set<String> getChromosomes() {
+        return Collections.unmodifiableSet(chromosomes.keySet());
+    }
+
+    /**
+     * @return  Number of features
+     */
+    public int size() {
+        int size = 0;
+        for (ChromosomeFeatures<T> features : chromosomes.values()) {
+            size += features.tree.size();
+        }
+        return size;
+    }
+
+    private void readFeatures(Path path, BiConsumer<T, String> consumer) throws IOException {
+        FileUtils.checkFile(path);
+        try (BufferedReader reader = FileUtils.newBufferedReader(path)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                T feature;
+                try {
+                    feature = parse(line);
+                } catch (RuntimeException e) {
+                    throw new IOException("Error parsing line " + lineNumber + " of " + path + ": " + line, e);
+                }
+                if (feature != null) {
+                    consumer.accept(feature, line);
+                }
+            }
+        }
+    }
+
+    private static IntBuffer intBuffer(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + 4 * length);
+        return slice.slice().asIntBuffer();
+    }
 
+    private static final class ChromosomeFeatures<T> {
+        private final ImplicitIntervalTree tree;
+        private final IntFunction<T> features;
 
-    public void index() {
+        private ChromosomeFeatures(ImplicitIntervalTree tree, IntFunction<T> features) {
+            this.tree = tree;
+            this.features = features;
+        }
 
+        private T get(int i) {
+            return features.apply(i);
+        }
     }
 
-    public T query(String chromosome, int start, int end) {
-        return null;
+    private static final class IndexedLine {
+        private final int start;
+        private final int end;
+        private final String line;
+
+        private IndexedLine(int start, int end, String line) {
+            this.start = start;
+            this.end = end;
+            this.line = line;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer, int offset) {
+            this.buffer = buffer.duplicate();
+            this.buffer.position(offset);
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
     }
 }
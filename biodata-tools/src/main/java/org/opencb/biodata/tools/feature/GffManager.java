@@ -0,0 +1,58 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.feature;
+
+import org.opencb.biodata.formats.feature.gff.Gff;
+
+/**
+ * Feature manager of GFF2 and GFF3 files. The last column (attributes) is kept as the {@link Gff} group.
+ */
+public class GffManager extends FeatureManager<Gff> {
+
+    @Override
+    protected Gff parse(String line) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return null;
+        }
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 8) {
+            // e.g. sequences after the GFF3 "##FASTA" directive
+            return null;
+        }
+        return new Gff(fields[0], fields[1], fields[2], Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                fields[5], fields[6], fields[7], fields.length > 8 ? fields[8] : null);
+    }
+
+    @Override
+    protected String getChromosome(Gff feature) {
+        return feature.getSequenceName();
+    }
+
+    @Override
+    protected int getStart(Gff feature) {
+        return feature.getStart();
+    }
+
+    @Override
+    protected int getEnd(Gff feature) {
+        return feature.getEnd();
+    }
+}
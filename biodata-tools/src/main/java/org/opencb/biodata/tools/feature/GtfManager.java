@@ -0,0 +1,53 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+
+package org.opencb.biodata.tools.feature;
+
+import org.opencb.biodata.formats.feature.gtf.Gtf;
+import org.opencb.biodata.formats.feature.gtf.io.GtfReader;
+
+/**
+ * Feature manager of GTF files.
+ */
+public class GtfManager extends FeatureManager<Gtf> {
+
+    @Override
+    protected Gtf parse(String line) {
+        if (line.trim().isEmpty() || line.startsWith("#")) {
+            return null;
+        }
+        return GtfReader.parseLine(line);
+    }
+
+    @Override
+    protected String getChromosome(Gtf feature) {
+        return feature.getSequenceName();
+    }
+
+    @Override
+    protected int getStart(Gtf feature) {
+        return feature.getStart();
+    }
+
+    @Override
+    protected int getEnd(Gtf feature) {
+        return feature.getEnd();
+    }
+}
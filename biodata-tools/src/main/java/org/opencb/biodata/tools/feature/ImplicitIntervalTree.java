@@ -0,0 +1,161 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.feature;
+
+import java.nio.IntBuffer;
+import java.util.function.IntConsumer;
+
+/**
+ * Implicit interval tree over a set of closed intervals sorted by start.
+ *
+ * The sorted array is seen as the in-order layout of a binary search tree: nodes at level k are the positions
+ * 2^k - 1, 2^k - 1 + 2^(k+1), ... Each node stores the greatest end of its subtree, so overlapping intervals are found
+ * in O(log n + number of hits) without any pointer, and the three arrays can be stored as they are in a file.
+ *
+ * Created on 19/10/26.
+ */
+final class ImplicitIntervalTree {
+
+    // Subtrees up to this level are scanned linearly
+    private static final int LINEAR_SCAN_LEVEL = 3;
+
+    private final IntBuffer starts;
+    private final IntBuffer ends;
+    private final IntBuffer maxEnds;
+    private final int size;
+    private final int maxLevel;
+
+    ImplicitIntervalTree(IntBuffer starts, IntBuffer ends, IntBuffer maxEnds, int maxLevel) {
+        this.starts = starts;
+        this.ends = ends;
+        this.maxEnds = maxEnds;
+        this.size = starts.limit();
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * @param starts    Interval starts, sorted
+     * @param ends      Interval ends
+     * @return          Interval tree over the given arrays
+     */
+    static ImplicitIntervalTree build(int[] starts, int[] ends) {
+        int n = starts.length;
+        int[] maxEnds = new int[n];
+        if (n == 0) {
+            return new ImplicitIntervalTree(IntBuffer.wrap(starts), IntBuffer.wrap(ends), IntBuffer.wrap(maxEnds), -1);
+        }
+        // Leaves
+        int lastIndex = 0;
+        int last = 0;
+        for (int i = 0; i < n; i += 2) {
+            lastIndex = i;
+            last = ends[i];
+            maxEnds[i] = ends[i];
+        }
+        // Internal nodes, level by level. "last" is the max end of the last node of the level, which is the right
+        // child of the nodes whose right child is out of range
+        int k;
+        for (k = 1; 1L << k <= n; k++) {
+            int x = 1 << (k - 1);
+            int step = x << 2;
+            for (int i = (x << 1) - 1; i < n; i += step) {
+                int end = Math.max(ends[i], maxEnds[i - x]);
+                end = Math.max(end, i + x < n ? maxEnds[i + x] : last);
+                maxEnds[i] = end;
+            }
+            lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n && maxEnds[lastIndex] > last) {
+                last = maxEnds[lastIndex];
+            }
+        }
+        return new ImplicitIntervalTree(IntBuffer.wrap(starts), IntBuffer.wrap(ends), IntBuffer.wrap(maxEnds), k - 1);
+    }
+
+    /**
+     * Find the intervals overlapping the closed interval [start, end].
+     *
+     * @param start     Query start
+     * @param end       Query end
+     * @param consumer  Receives the positions of the overlapping intervals, in increasing order
+     */
+    void query(int start, int end, IntConsumer consumer) {
+        if (size == 0) {
+            return;
+        }
+        // Each stack element is a node, its level, and whether its left child has been visited
+        int[] nodes = new int[64];
+        int[] levels = new int[64];
+        boolean[] leftVisited = new boolean[64];
+        int t = 0;
+        nodes[t] = (1 << maxLevel) - 1;
+        levels[t] = maxLevel;
+        leftVisited[t++] = false;
+        while (t > 0) {
+            t--;
+            int x = nodes[t];
+            int k = levels[t];
+            if (k <= LINEAR_SCAN_LEVEL) {
+                int i0 = x >> k << k;
+                int i1 = Math.min(size, i0 + (1 << (k + 1)) - 1);
+                for (int i = i0; i < i1 && starts.get(i) <= end; i++) {
+                    if (ends.get(i) >= start) {
+                        consumer.accept(i);
+                    }
+                }
+            } else if (!leftVisited[t]) {
+                // Visit the left child first. It may be out of range, but not its own left children
+                int y = x - (1 << (k - 1));
+                leftVisited[t++] = true;
+                if (y >= size || maxEnds.get(y) >= start) {
+                    nodes[t] = y;
+                    levels[t] = k - 1;
+                    leftVisited[t++] = false;
+                }
+            } else if (x < size && starts.get(x) <= end) {
+                if (ends.get(x) >= start) {
+                    consumer.accept(x);
+                }
+                nodes[t] = x + (1 << (k - 1));
+                levels[t] = k - 1;
+                leftVisited[t++] = false;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getStart(int i) {
+        return starts.get(i);
+    }
+
+    int getEnd(int i) {
+        return ends.get(i);
+    }
+
+    int getMaxEnd(int i) {
+        return maxEnds.get(i);
+    }
+
+    int getMaxLevel() {
+        return maxLevel;
+    }
+}
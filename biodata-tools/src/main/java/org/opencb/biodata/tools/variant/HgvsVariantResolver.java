@@ -0,0 +1,509 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant;
+
+import org.opencb.biodata.formats.feature.refseq.RefseqAccession;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.tools.sequence.SequenceAdaptor;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves lists of genomic HGVS expressions (e.g. "NC_000017.10:g.41197701_41197702delinsTT") into variants.
+ *
+ * Expressions are parsed with a scanner, without regular expressions. Those needing the reference sequence (deletions
+ * and duplications without sequence, deletion-insertions without deleted sequence and repeated sequences) are grouped
+ * by chromosome and sorted by position, and each chromosome is resolved in its own thread, reading the reference
+ * sequence in windows of {@link #DEFAULT_WINDOW_SIZE} bases, so each base is fetched about once.
+ *
+ * Variants are built as {@link org.opencb.biodata.formats.variant.hgvs.Hgvs#getVariant()} does, using "-" for empty
+ * alleles. Expressions that can not be resolved are counted by {@link Failure} type.
+ *
+ * Created on 19/10/26.
+ */
+public class HgvsVariantResolver {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+    private static final String EMPTY_ALLELE = "-";
+    private static final String GENOMIC_TYPE = "g";
+
+    public enum Failure {
+        /** The expression can not be parsed. */
+        MALFORMED,
+        /** The expression is not genomic, e.g. "c." or "p.". */
+        NOT_GENOMIC,
+        /** The accession is not a RefSeq chromosome. */
+        UNKNOWN_ACCESSION,
+        /** The change is valid HGVS but not supported, e.g. inserted sequences given by length. */
+        UNSUPPORTED,
+        /** The reference sequence is needed and no sequence adaptor was given. */
+        MISSING_REFERENCE,
+        /** The reference sequence could not be read, or does not contain the repeated sequence. */
+        REFERENCE_ERROR,
+        /** The resulting variant is not valid. */
+        INVALID_VARIANT
+    }
+
+    private enum Kind {
+        SNV, DELETION, DUPLICATION, INSERTION, DELINS, REPEAT
+    }
+
+    private final SequenceAdaptor sequenceAdaptor;
+    private final int numThreads;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private final Map<Failure, AtomicLong> failures = new EnumMap<>(Failure.class);
+    private final Map<String, String> accessionChromosomes = new HashMap<>();
+
+    public HgvsVariantResolver(SequenceAdaptor sequenceAdaptor) {
+        this(sequenceAdaptor, 1);
+    }
+
+    /**
+     * @param sequenceAdaptor   Reference sequence. May be null, then expressions needing it are not resolved
+     * @param numThreads        Number of chromosomes resolved at the same time
+     */
+    public HgvsVariantResolver(SequenceAdaptor sequenceAdaptor, int numThreads) {
+        this.sequenceAdaptor = sequenceAdaptor;
+        this.numThreads = Math.max(numThreads, 1);
+        for (Failure failure : Failure.values()) {
+            failures.put(failure, new AtomicLong());
+        }
+    }
+
+    /**
+     * @param hgvsList  HGVS expressions
+     * @return          Variants, in the same order. Null for the expressions that could not be resolved
+     */
+    public List<Variant> resolve(List<String> hgvsList) {
+        Variant[] variants = new Variant[hgvsList.size()];
+
+        // Parse, and resolve what does not need the reference sequence
+        Map<String, List<ParsedHgvs>> byChromosome = new HashMap<>();
+        for (int i = 0; i < variants.length; i++) {
+            ParsedHgvs hgvs = parse(hgvsList.get(i), i);
+            if (hgvs == null) {
+                continue;
+            }
+            if (hgvs.needsReference()) {
+                if (sequenceAdaptor == null) {
+                    fail(Failure.MISSING_REFERENCE);
+                } else {
+                    byChromosome.computeIfAbsent(hgvs.chromosome, k -> new ArrayList<>()).add(hgvs);
+                }
+            } else {
+                variants[i] = toVariant(hgvs, hgvs.deleted);
+            }
+        }
+
+        if (byChromosome.isEmpty()) {
+            return Arrays.asList(variants);
+        }
+        if (numThreads == 1 || byChromosome.size() == 1) {
+            for (List<ParsedHgvs> list : byChromosome.values()) {
+                resolveChromosome(list, variants);
+            }
+            return Arrays.asList(variants);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, byChromosome.size()), r -> {
+            Thread thread = new Thread(r, "hgvs-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(byChromosome.size());
+            for (List<ParsedHgvs> list : byChromosome.values()) {
+                // Each task writes different positions of the array
+                futures.add(executor.submit(() -> resolveChromosome(list, variants)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return Arrays.asList(variants);
+    }
+
+    /**
+     * @param hgvs  HGVS expression
+     * @return      Variant, or null if it could not be resolved
+     */
+    public Variant resolve(String hgvs) {
+        return resolve(Collections.singletonList(hgvs)).get(0);
+    }
+
+    /**
+     * @return Number of expressions not resolved so far, by failure type
+     */
+    public Map<Failure, Long> getFailureCounts() {
+        Map<Failure, Long> counts = new EnumMap<>(Failure.class);
+        for (Map.Entry<Failure, AtomicLong> entry : failures.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public HgvsVariantResolver setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    private void resolveChromosome(List<ParsedHgvs> list, Variant[] variants) {
+        list.sort(Comparator.comparingInt(hgvs -> hgvs.start));
+        ReferenceWindow window = new ReferenceWindow(list.get(0).chromosome);
+        for (ParsedHgvs hgvs : list) {
+            try {
+                String reference;
+                if (hgvs.kind == Kind.REPEAT) {
+                    reference = resolveRepeat(hgvs, window);
+                } else {
+                    reference = window.get(hgvs.start, hgvs.stop);
+                }
+                if (reference == null) {
+                    fail(Failure.REFERENCE_ERROR);
+                } else {
+                    variants[hgvs.index] = toVariant(hgvs, reference);
+                }
+            } catch (Exception e) {
+                fail(Failure.REFERENCE_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Find the reference sequence replaced by a repeat. If the expression has no end, the repeated region is made of
+     * all the copies of the repeat unit in the reference from the start.
+     */
+    private String resolveRepeat(ParsedHgvs hgvs, ReferenceWindow window) throws Exception {
+        String unit = hgvs.inserted;
+        if (hgvs.hasStop) {
+            return window.get(hgvs.start, hgvs.stop);
+        }
+        int copies = 0;
+        int position = hgvs.start;
+        String next;
+        while ((next = window.get(position, position + unit.length() - 1)) != null && next.equalsIgnoreCase(unit)) {
+            copies++;
+            position += unit.length();
+        }
+        if (copies == 0) {
+            return null;
+        }
+        hgvs.stop = position - 1;
+        return window.get(hgvs.start, hgvs.stop);
+    }
+
+    private Variant toVariant(ParsedHgvs hgvs, String reference) {
+        try {
+            switch (hgvs.kind) {
+                case SNV:
+                    return new Variant(hgvs.chromosome, hgvs.start, hgvs.stop, hgvs.deleted, hgvs.inserted);
+                case DELETION:
+                    return new Variant(hgvs.chromosome, hgvs.start, hgvs.stop, reference, EMPTY_ALLELE);
+                case DUPLICATION:
+                    return new Variant(hgvs.chromosome, hgvs.start, hgvs.stop, EMPTY_ALLELE,
+                            hgvs.inserted != null ? hgvs.inserted : reference);
+                case INSERTION:
+                    return new Variant(hgvs.chromosome, hgvs.start, hgvs.stop, EMPTY_ALLELE, hgvs.inserted);
+                case DELINS:
+                    return new Variant(hgvs.chromosome, hgvs.start, hgvs.stop, reference, hgvs.inserted);
+                case REPEAT:
+                    StringBuilder alternate = new StringBuilder(hgvs.inserted.length() * hgvs.copies);
+                    for (int i = 0; i < hgvs.copies; i++) {
+                        alternate.append(hgvs.inserted);
+                    }
+                    return new Variant(hgvs.chromosome, hgvs.start, hgvs.stop, reference,
+                            alternate.length() == 0 ? EMPTY_ALLELE : alternate.toString());
+                default:
+                    throw new IllegalStateException("Unknown HGVS kind " + hgvs.kind);
+            }
+        } catch (RuntimeException e) {
+            fail(Failure.INVALID_VARIANT);
+            return null;
+        }
+    }
+
+    private void fail(Failure failure) {
+        failures.get(failure).incrementAndGet();
+    }
+
+    /**
+     * Parse an expression like "NC_000001.10:g.123_125delinsTT". Failures are counted.
+     *
+     * @return Parsed expression, or null if it can not be resolved
+     */
+    private ParsedHgvs parse(String hgvs, int index) {
+        if (hgvs == null) {
+            fail(Failure.MALFORMED);
+            return null;
+        }
+        int colon = hgvs.indexOf(':');
+        int dot = colon < 0 ? -1 : hgvs.indexOf('.', colon + 1);
+        if (colon <= 0 || dot < 0 || hgvs.charAt(0) != 'N') {
+            fail(Failure.MALFORMED);
+            return null;
+        }
+        if (dot - colon - 1 != GENOMIC_TYPE.length() || !hgvs.startsWith(GENOMIC_TYPE, colon + 1)) {
+            fail(Failure.NOT_GENOMIC);
+            return null;
+        }
+
+        ParsedHgvs parsed = new ParsedHgvs(index);
+        parsed.chromosome = getChromosome(hgvs.substring(0, colon));
+        if (parsed.chromosome == null) {
+            fail(Failure.UNKNOWN_ACCESSION);
+            return null;
+        }
+
+        // Positions
+        int i = dot + 1;
+        int end = scanDigits(hgvs, i);
+        if (end == i || end - i > 9) {
+            fail(Failure.MALFORMED);
+            return null;
+        }
+        parsed.start = Integer.parseInt(hgvs.substring(i, end));
+        parsed.stop = parsed.start;
+        i = end;
+        if (i < hgvs.length() && hgvs.charAt(i) == '_') {
+            end = scanDigits(hgvs, i + 1);
+            if (end == i + 1 || end - i - 1 > 9) {
+                // e.g. intronic offsets or uncertain positions
+                fail(Failure.UNSUPPORTED);
+                return null;
+            }
+            parsed.stop = Integer.parseInt(hgvs.substring(i + 1, end));
+            parsed.hasStop = true;
+            i = end;
+        }
+        if (parsed.stop < parsed.start) {
+            fail(Failure.MALFORMED);
+            return null;
+        }
+
+        Failure failure = parseChange(hgvs, i, parsed);
+        if (failure != null) {
+            fail(failure);
+            return null;
+        }
+        return parsed;
+    }
+
+    private Failure parseChange(String hgvs, int i, ParsedHgvs parsed) {
+        int length = hgvs.length();
+        if (hgvs.startsWith("delins", i)) {
+            parsed.kind = Kind.DELINS;
+            return parseInserted(hgvs, i + 6, parsed);
+        } else if (hgvs.startsWith("del", i)) {
+            int end = scanSequence(hgvs, i + 3);
+            String deleted = hgvs.substring(i + 3, end);
+            if (hgvs.startsWith("ins", end)) {
+                parsed.kind = Kind.DELINS;
+                parsed.deleted = deleted.isEmpty() ? null : deleted;
+                return parseInserted(hgvs, end + 3, parsed);
+            }
+            parsed.kind = Kind.DELETION;
+            // A deleted length (e.g. "del3") is ignored, the reference is used instead
+            end = deleted.isEmpty() ? scanDigits(hgvs, end) : end;
+            if (end != length) {
+                return Failure.MALFORMED;
+            }
+            parsed.deleted = deleted.isEmpty() ? null : deleted;
+            return null;
+        } else if (hgvs.startsWith("dup", i)) {
+            parsed.kind = Kind.DUPLICATION;
+            int end = scanSequence(hgvs, i + 3);
+            String duplicated = hgvs.substring(i + 3, end);
+            end = duplicated.isEmpty() ? scanDigits(hgvs, end) : end;
+            if (end != length) {
+                return Failure.MALFORMED;
+            }
+            parsed.inserted = duplicated.isEmpty() ? null : duplicated;
+            return null;
+        } else if (hgvs.startsWith("ins", i)) {
+            parsed.kind = Kind.INSERTION;
+            return parseInserted(hgvs, i + 3, parsed);
+        }
+
+        int end = scanSequence(hgvs, i);
+        if (end == i) {
+            return end < length && hgvs.charAt(end) == '=' ? Failure.UNSUPPORTED : Failure.MALFORMED;
+        }
+        if (end < length && hgvs.charAt(end) == '>') {
+            int altEnd = scanSequence(hgvs, end + 1);
+            if (altEnd == end + 1 || altEnd != length) {
+                return Failure.MALFORMED;
+            }
+            parsed.kind = Kind.SNV;
+            parsed.deleted = hgvs.substring(i, end);
+            parsed.inserted = hgvs.substring(end + 1, altEnd);
+            return null;
+        } else if (end < length && hgvs.charAt(end) == '[') {
+            // Repeated sequence, e.g. "g.123_191CAG[23]" or "g.123CAG[23]"
+            int copiesEnd = scanDigits(hgvs, end + 1);
+            if (copiesEnd == end + 1 || copiesEnd - end - 1 > 6 || copiesEnd + 1 != length || hgvs.charAt(copiesEnd) != ']') {
+                // Mixed repeats, e.g. "g.123_191CAG[23]CAA[4]", are not supported
+                return copiesEnd < length && hgvs.charAt(copiesEnd) == ']' ? Failure.UNSUPPORTED : Failure.MALFORMED;
+            }
+            parsed.kind = Kind.REPEAT;
+            parsed.inserted = hgvs.substring(i, end);
+            parsed.copies = Integer.parseInt(hgvs.substring(end + 1, copiesEnd));
+            return null;
+        }
+        return Failure.MALFORMED;
+    }
+
+    private static Failure parseInserted(String hgvs, int i, ParsedHgvs parsed) {
+        int end = scanSequence(hgvs, i);
+        if (end == i || end != hgvs.length()) {
+            // e.g. inserted length "ins5", or a reference to another sequence
+            return end == i ? Failure.UNSUPPORTED : Failure.MALFORMED;
+        }
+        parsed.inserted = hgvs.substring(i, end);
+        return null;
+    }
+
+    private String getChromosome(String accession) {
+        String chromosome = accessionChromosomes.get(accession);
+        if (chromosome == null && !accessionChromosomes.containsKey(accession)) {
+            try {
+                chromosome = new RefseqAccession(accession).getChromosome();
+            } catch (RuntimeException e) {
+                chromosome = null;
+            }
+            accessionChromosomes.put(accession, chromosome);
+        }
+        return chromosome;
+    }
+
+    private static int scanDigits(String s, int i) {
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int scanSequence(String s, int i) {
+        while (i < s.length()) {
+            switch (s.charAt(i)) {
+                case 'A':
+                case 'C':
+                case 'G':
+                case 'T':
+                case 'N':
+                    i++;
+                    break;
+                default:
+                    return i;
+            }
+        }
+        return i;
+    }
+
+    private static final class ParsedHgvs {
+        private final int index;
+        private String chromosome;
+        private int start;
+        private int stop;
+        private boolean hasStop;
+        private Kind kind;
+        // Deleted sequence, if given
+        private String deleted;
+        // Inserted, duplicated or repeated sequence, if given
+        private String inserted;
+        private int copies;
+
+        private ParsedHgvs(int index) {
+            this.index = index;
+        }
+
+        private boolean needsReference() {
+            switch (kind) {
+                case DELETION:
+                case DELINS:
+                    return deleted == null;
+                case DUPLICATION:
+                    return inserted == null;
+                case REPEAT:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Last window of reference sequence read from a chromosome. Expressions are resolved by increasing start, so
+     * windows are read forward.
+     */
+    private final class ReferenceWindow {
+        private final String chromosome;
+        private int start;
+        private String sequence;
+
+        private ReferenceWindow(String chromosome) {
+            this.chromosome = chromosome;
+        }
+
+        /**
+         * @return Reference sequence between the positions, both included, or null if out of the chromosome
+         */
+        private String get(int from, int to) throws Exception {
+            if (sequence == null || from < start || to >= start + sequence.length()) {
+                fetch(from, to);
+                if (to >= start + sequence.length()) {
+                    return null;
+                }
+            }
+            return sequence.substring(from - start, to - start + 1);
+        }
+
+        private void fetch(int from, int to) throws Exception {
+            int windowEnd = Math.max(to, from + windowSize - 1);
+            String fetched;
+            try {
+                fetched = sequenceAdaptor.query(chromosome, from, windowEnd);
+            } catch (Exception e) {
+                // The window may go beyond the end of the chromosome
+                if (windowEnd == to) {
+                    throw e;
+                }
+                fetched = sequenceAdaptor.query(chromosome, from, to);
+            }
+            start = from;
+            sequence = fetched == null ? "" : fetched;
+        }
+    }
+}
@@ -1,23 +1,46 @@
 package org.opencb.biodata.tools.variant;
 
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.biodata.tools.commons.metrics.StageCounters;
 import org.opencb.commons.run.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
+ * Removes duplicated variants from a stream of variants sorted by chromosome and start.
+ *
+ * Variants are buffered by chromosome in a sorted map, and released once no duplicate could come after them. The
+ * input may be partially unsorted (e.g. after normalization, or with large structural variants interleaved with
+ * SNVs), so variants are retained for a window of positions that grows to cover the longest variant of the chromosome
+ * and the largest disorder seen so far. Duplicates are found no matter how many records there are between them.
+ *
+ * If the number of buffered variants exceeds the configured limit, the task switches to spill mode: no more variants
+ * are returned by {@link #apply(List)}, and the remaining input is written to sorted runs in temporary files, which
+ * are merged on {@link #drain()}, sorted by chromosome name. The whole merge is returned by the first call to
+ * {@link #drain()}, as the task runners drain each task only once. Temporary files are deleted once the merge ends, or
+ * on {@link #post()}.
+ *
  * Created on 22/02/18.
  *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
  */
-public class VariantDeduplicationTask implements Task<Variant, Variant> {
+public class VariantDeduplicationTask implements Task<Variant, Variant>, StageCounters {
 
-    private final DuplicatedVariantsResolver resolver;
-    private final CircularSortedArrayQueue<Variant> queue;
+    public static final int DEFAULT_MAX_BUFFERED_VARIANTS = 1000000;
 
     private static final Comparator<Variant> VARIANT_COMPARATOR = Comparator
-            .comparing(Variant::getChromosome, (chr1, chr2) -> chr1.equals(chr2) ? 0 : -1)
-            .thenComparing(Variant::getStart)
+            .comparing(Variant::getStart)
             .thenComparing(Variant::getEnd)
             .thenComparing(Variant::getType)
             .thenComparing(Variant::getReference)
@@ -27,7 +50,41 @@ public class VariantDeduplicationTask implements Task<Variant, Variant> {
                             : sv1 == null ? -1
                             : sv2 == null ? 1
                             : sv1.compareTo(sv2));
+    private static final Comparator<Variant> SPILL_COMPARATOR = Comparator
+            .comparing(Variant::getChromosome)
+            .thenComparing(VARIANT_COMPARATOR);
+
+    private final Logger logger = LoggerFactory.getLogger(VariantDeduplicationTask.class);
+    private final DuplicatedVariantsResolver resolver;
+    private final int maxBufferedVariants;
+    private final Path tmpDir;
+
+    // Variants of the current chromosome, grouped by duplicates
+    private final TreeMap<Variant, List<Variant>> buffer = new TreeMap<>(VARIANT_COMPARATOR);
+    private int bufferedVariants = 0;
+    private String chromosome;
+    private boolean revisitedChromosome;
+    private int maxStart;
+    // Number of positions to keep in the buffer before the max start.
+    // Grows with the disorder of the input, and with the span of the variants of the current chromosome
+    private int window = 0;
+    private int disorderWindow = 0;
+    private int spanWindow = 0;
+    private int maxWindow = 0;
+    private final Set<String> finishedChromosomes = new HashSet<>();
+
+    // Spill mode
+    private boolean spill = false;
+    private final List<Variant> run = new ArrayList<>();
+    private final List<Path> runFiles = new ArrayList<>();
+    private RunMerger merger;
+    private boolean drained = false;
+
     private int discardedVariants = 0;
+    private long duplicatedGroups = 0;
+    private long unsortedVariants = 0;
+    private long spilledVariants = 0;
+    private long variantsAfterRevisitedChromosome = 0;
 
     public VariantDeduplicationTask() {
         this((list) -> {
@@ -40,8 +97,22 @@ public class VariantDeduplicationTask implements Task<Variant, Variant> {
     }
 
     public VariantDeduplicationTask(DuplicatedVariantsResolver duplicatedVariantsResolver) {
+        this(duplicatedVariantsResolver, DEFAULT_MAX_BUFFERED_VARIANTS, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param duplicatedVariantsResolver Resolver for groups of duplicated variants
+     * @param maxBufferedVariants        Max number of variants to keep in memory before spilling to disk
+     * @param tmpDir                     Directory for the temporary files of the spill mode
+     */
+    public VariantDeduplicationTask(DuplicatedVariantsResolver duplicatedVariantsResolver, int maxBufferedVariants,
+                                    Path tmpDir) {
+        if (maxBufferedVariants <= 0) {
+            throw new IllegalArgumentException("Max buffered variants must be positive");
+        }
         resolver = duplicatedVariantsResolver;
-        queue = new CircularSortedArrayQueue<>(100, VARIANT_COMPARATOR);
+        this.maxBufferedVariants = maxBufferedVariants;
+        this.tmpDir = tmpDir;
     }
 
     @FunctionalInterface
@@ -54,199 +125,287 @@ public class VariantDeduplicationTask implements Task<Variant, Variant> {
     public List<Variant> apply(List<Variant> list) throws Exception {
         List<Variant> filteredVariants = new ArrayList<>(list.size());
         for (Variant variant : list) {
-            if (queue.hasNext()) {
-                if (queue.isDuplicated()) {
-                    List<Variant> dupVariants = queue.nextDuplicated();
-                    List<Variant> resolved = resolver.resolveDuplicatedVariants(dupVariants);
-                    discardedVariants += (dupVariants.size() - resolved.size());
-                    filteredVariants.addAll(resolved);
-                } else {
-                    filteredVariants.add(queue.next());
+            if (spill) {
+                addToRun(variant);
+                continue;
+            }
+            if (!variant.getChromosome().equals(chromosome)) {
+                flush(filteredVariants);
+                chromosome = variant.getChromosome();
+                maxStart = variant.getStart();
+                spanWindow = 0;
+                window = disorderWindow;
+                revisitedChromosome = finishedChromosomes.contains(chromosome);
+                if (revisitedChromosome && variantsAfterRevisitedChromosome == 0) {
+                    logger.warn("Input not sorted by chromosome. Chromosome " + chromosome + " found again after "
+                            + "other chromosomes. Duplicates with its previous variants will not be detected.");
+                }
+            }
+            if (revisitedChromosome) {
+                variantsAfterRevisitedChromosome++;
+            }
+
+            if (variant.getStart() < maxStart) {
+                unsortedVariants++;
+                disorderWindow = Math.max(disorderWindow, maxStart - variant.getStart());
+            } else {
+                maxStart = variant.getStart();
+            }
+            spanWindow = Math.max(spanWindow, variant.getEnd() - variant.getStart() + 1);
+            window = Math.max(disorderWindow, spanWindow);
+            maxWindow = Math.max(maxWindow, window);
+            buffer.computeIfAbsent(variant, k -> new ArrayList<>(1)).add(variant);
+            bufferedVariants++;
+
+            if (bufferedVariants > maxBufferedVariants) {
+                startSpill();
+            } else {
+                // Release the variants that can not have any duplicate in the rest of the input
+                while (!buffer.isEmpty() && buffer.firstKey().getStart() < maxStart - window) {
+                    List<Variant> variants = buffer.pollFirstEntry().getValue();
+                    bufferedVariants -= variants.size();
+                    release(variants, filteredVariants);
                 }
             }
-            queue.add(variant);
         }
         return filteredVariants;
     }
 
     @Override
     public List<Variant> drain() throws Exception {
-        queue.setFinished(true);
-        List<Variant> filteredVariants = new ArrayList<>(queue.size);
-        while (!queue.isEmpty()) {
-            if (queue.isDuplicated()) {
-                List<Variant> dupVariants = queue.nextDuplicated();
-                List<Variant> resolved = resolver.resolveDuplicatedVariants(dupVariants);
-                discardedVariants += (dupVariants.size() - resolved.size());
-                filteredVariants.addAll(resolved);
-            } else {
-                filteredVariants.add(queue.next());
+        List<Variant> filteredVariants;
+        if (spill) {
+            if (merger == null) {
+                merger = new RunMerger();
             }
+            try {
+                filteredVariants = merger.merge();
+            } finally {
+                deleteRuns();
+            }
+        } else {
+            filteredVariants = new ArrayList<>(bufferedVariants);
+            flush(filteredVariants);
+        }
+        if (!drained) {
+            drained = true;
+            logger.info("Duplicated variants: " + duplicatedGroups + " groups of duplicated variants resolved, "
+                    + discardedVariants + " variants discarded. "
+                    + "Unsorted variants: " + unsortedVariants + ", max window: " + maxWindow + " positions"
+                    + (spilledVariants > 0 ? ". Spilled variants: " + spilledVariants + " in " + runFiles.size() + " files" : ""));
         }
         return filteredVariants;
     }
 
+    @Override
+    public void post() throws Exception {
+        deleteRuns();
+    }
+
     public int getDiscardedVariants() {
         return discardedVariants;
     }
 
-    static class CircularSortedArrayQueue<T> {
+    @Override
+    public long getDiscardedRecords() {
+        return discardedVariants;
+    }
 
-        private final T[] array;
-        private final boolean[] duplicated;
-        private boolean finished = false;
-        private final Comparator<T> comparator;
-        private final int capacity;
-        private int head = 0;
-        private int tail = 0;
-        private int size = 0;
+    /**
+     * @return Number of groups of duplicated variants given to the resolver
+     */
+    public long getDuplicatedGroups() {
+        return duplicatedGroups;
+    }
 
-        public CircularSortedArrayQueue(int capacity, Comparator<T> comparator) {
-            this.array = (T[]) new Object[capacity];
-            this.duplicated = new boolean[capacity];
-            this.capacity = array.length;
-            this.comparator = comparator;
-        }
+    /**
+     * @return Number of variants with a start lower than a previous variant from the same chromosome
+     */
+    public long getUnsortedVariants() {
+        return unsortedVariants;
+    }
 
-        public CircularSortedArrayQueue setFinished(boolean finished) {
-            this.finished = finished;
-            return this;
-        }
+    /**
+     * @return Number of variants found in a chromosome after other chromosomes were found. Duplicates with the
+     * previous variants from the same chromosome are not detected.
+     */
+    public long getVariantsAfterRevisitedChromosome() {
+        return variantsAfterRevisitedChromosome;
+    }
 
-        public int size() {
-            return size;
-        }
+    /**
+     * @return Number of variants written to temporary files
+     */
+    public long getSpilledVariants() {
+        return spilledVariants;
+    }
 
-        public boolean isEmpty() {
-            return size == 0;
-        }
+    /**
+     * @return Largest window, in positions, of retained variants
+     */
+    public int getMaxWindow() {
+        return maxWindow;
+    }
 
-        public boolean isDuplicated() {
-            return duplicated[tail];
+    private void flush(List<Variant> filteredVariants) {
+        for (List<Variant> variants : buffer.values()) {
+            release(variants, filteredVariants);
         }
-
-        public T get() {
-            return array[tail];
+        buffer.clear();
+        bufferedVariants = 0;
+        if (chromosome != null) {
+            finishedChromosomes.add(chromosome);
         }
+    }
 
-        public boolean hasNext() {
-            return finished || size >= (capacity - 1);
+    private void release(List<Variant> variants, List<Variant> filteredVariants) {
+        if (variants.size() == 1) {
+            filteredVariants.add(variants.get(0));
+        } else {
+            resolve(variants, filteredVariants);
         }
+    }
 
-        public T next() {
-            if (hasNext()) {
-                return getNext();
-            } else {
-                return null;
+    private void resolve(List<Variant> dupVariants, List<Variant> filteredVariants) {
+        List<Variant> resolved = resolver.resolveDuplicatedVariants(dupVariants);
+        duplicatedGroups++;
+        discardedVariants += (dupVariants.size() - resolved.size());
+        filteredVariants.addAll(resolved);
+    }
+
+    private void startSpill() throws IOException {
+        logger.warn("More than " + maxBufferedVariants + " variants buffered to find duplicates, with a window of "
+                + window + " positions. Spilling the rest of the input to " + tmpDir);
+        spill = true;
+        for (List<Variant> variants : buffer.values()) {
+            for (Variant variant : variants) {
+                addToRun(variant);
             }
         }
+        buffer.clear();
+        bufferedVariants = 0;
+    }
 
-        private T getNext() {
-            T value = array[tail];
-            array[tail] = null;
-            duplicated[tail] = false;
-            if (value != null) {
-                size--;
-            }
-            incrementTail();
-            return value;
+    private void addToRun(Variant variant) throws IOException {
+        run.add(variant);
+        spilledVariants++;
+        if (run.size() >= maxBufferedVariants) {
+            writeRun();
         }
+    }
 
-        public List<T> nextDuplicated() {
-            ArrayList<T> list = new ArrayList<>(3);
-            T first = next();
-            if (first == null) {
-                return Collections.emptyList();
+    /**
+     * Sort the current run and write it into a temporary file. Sort is stable, so duplicates keep the input order.
+     */
+    private void writeRun() throws IOException {
+        run.sort(SPILL_COMPARATOR);
+        Path file = Files.createTempFile(tmpDir, "variant_dedup_", ".avro");
+        try (DataFileWriter<VariantAvro> writer = new DataFileWriter<>(new SpecificDatumWriter<>(VariantAvro.class))) {
+            writer.create(VariantAvro.getClassSchema(), file.toFile());
+            for (Variant variant : run) {
+                writer.append(variant.getImpl());
             }
-            list.add(first);
-            while (duplicated[tail]) {
-                T next = array[tail];
-                if (next != null && comparator.compare(first, next) == 0) {
-                    list.add(getNext());
-                } else {
-                    break;
-                }
-            }
-            return list;
         }
+        runFiles.add(file);
+        run.clear();
+    }
 
-        public void add(T elem) {
-            if (elem == null) {
-                finished = true;
-                return;
-            }
-            size++;
-            T t = array[head];
-            if (t != null) {
-                throw new IllegalStateException("Queue full");
-            }
-            array[head] = elem;
-
-            int position = this.head;
-            boolean swap = checkSorted(elem, position);
-            while (swap) {
-                position = prevPosition(position);
-                swap = checkSorted(elem, position);
-                if (position == this.tail) {
-                    // Something really exceptional happened
-                    throw new IllegalStateException("New element below than any other");
+    private void deleteRuns() throws IOException {
+        if (merger != null) {
+            merger.close();
+        }
+        for (Path file : runFiles) {
+            Files.deleteIfExists(file);
+        }
+        run.clear();
+    }
+
+    /**
+     * Merges the sorted runs, resolving the groups of duplicated variants. Only the head of each run is kept in memory.
+     */
+    private final class RunMerger {
+
+        private final List<Iterator<Variant>> runs = new ArrayList<>(runFiles.size() + 1);
+        private final List<DataFileReader<VariantAvro>> readers = new ArrayList<>(runFiles.size());
+        // Ties are sorted by run, to keep the input order of duplicates
+        private final PriorityQueue<RunHead> heads = new PriorityQueue<>(
+                Comparator.comparing((RunHead head) -> head.variant, SPILL_COMPARATOR).thenComparingInt(head -> head.run));
+
+        private RunMerger() throws IOException {
+            run.sort(SPILL_COMPARATOR);
+            try {
+                for (Path file : runFiles) {
+                    DataFileReader<VariantAvro> reader = new DataFileReader<>(file.toFile(),
+                            new SpecificDatumReader<>(VariantAvro.class));
+                    readers.add(reader);
+                    runs.add(new Iterator<Variant>() {
+                        @Override
+                        public boolean hasNext() {
+                            return reader.hasNext();
+                        }
+
+                        @Override
+                        public Variant next() {
+                            return new Variant(reader.next());
+                        }
+                    });
                 }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
             }
-            incrementHead();
-        }
-
-        private boolean checkSorted(T elem, int position) {
-            int prevPosition = prevPosition(position);
-            boolean swap = false;
-            T prev = array[prevPosition];
-            if (prev != null) {
-                int c = comparator.compare(prev, elem);
-                if (c < 0) {
-                    // prev < elem
-                    return swap;
-                } else if (c == 0) {
-                    // Duplicated
-                    duplicated[position] = true;
-                    duplicated[prevPosition] = true;
-                } else if (c > 0) {
-                    // prev > elem
-                    // Swap
-                    array[position] = prev;
-                    array[prevPosition] = elem;
-                    boolean b = duplicated[position];
-                    duplicated[position] = duplicated[prevPosition];
-                    duplicated[prevPosition] = b;
-                    swap = true;
+            runs.add(run.iterator());
+            for (int i = 0; i < runs.size(); i++) {
+                if (runs.get(i).hasNext()) {
+                    heads.add(new RunHead(runs.get(i).next(), i));
                 }
             }
-            return swap;
-        }
-
-        private void incrementTail() {
-            tail = nextPosition(tail);
-        }
-
-        private void incrementHead() {
-            head = nextPosition(head);
         }
 
-        private int nextPosition(int position) {
-            int next = position + 1;
-            if (next == capacity) {
-                return 0;
-            } else {
-                return next;
+        /**
+         * @return Remaining variants of all the runs, after resolving the duplicates. Empty if there are no more variants
+         */
+        private List<Variant> merge() {
+            List<Variant> filteredVariants = new ArrayList<>();
+            while (!heads.isEmpty()) {
+                List<Variant> group = new ArrayList<>(1);
+                do {
+                    RunHead head = heads.poll();
+                    group.add(head.variant);
+                    Iterator<Variant> iterator = runs.get(head.run);
+                    if (iterator.hasNext()) {
+                        heads.add(new RunHead(iterator.next(), head.run));
+                    }
+                } while (!heads.isEmpty() && SPILL_COMPARATOR.compare(group.get(0), heads.peek().variant) == 0);
+                release(group, filteredVariants);
             }
+            return filteredVariants;
         }
 
-        private int prevPosition(int position) {
-            int prev = position - 1;
-            if (prev == -1) {
-                return capacity - 1;
-            } else {
-                return prev;
+        private void close() throws IOException {
+            IOException exception = null;
+            for (DataFileReader<VariantAvro> reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    exception = e;
+                }
+            }
+            readers.clear();
+            heads.clear();
+            if (exception != null) {
+                throw exception;
             }
         }
     }
 
+    private static final class RunHead {
+        private final Variant variant;
+        private final int run;
+
+        private RunHead(Variant variant, int run) {
+            this.variant = variant;
+            this.run = run;
+        }
+    }
 }
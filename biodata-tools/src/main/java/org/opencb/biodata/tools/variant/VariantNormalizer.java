@@ -40,6 +40,7 @@ import org.opencb.biodata.models.variant.VariantBuilder;
 import org.opencb.biodata.models.variant.avro.*;
 import org.opencb.biodata.models.variant.exceptions.NonStandardCompliantSampleField;
 import org.opencb.biodata.models.variant.metadata.VariantFileHeader;
+import org.opencb.biodata.tools.commons.metrics.StageCounters;
 import org.opencb.biodata.tools.sequence.SequenceAdaptor;
 import org.opencb.biodata.tools.variant.exceptions.VariantNormalizerException;
 import org.opencb.biodata.tools.variant.merge.VariantAlternateRearranger;
@@ -50,6 +51,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -58,7 +60,7 @@ import java.util.stream.Collectors;
  *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
  */
-public class VariantNormalizer implements ParallelTaskRunner.Task<Variant, Variant> {
+public class VariantNormalizer implements ParallelTaskRunner.Task<Variant, Variant>, StageCounters {
 
     protected Logger logger = LoggerFactory.getLogger(this.getClass().toString());
 
@@ -170,6 +172,7 @@ public class VariantNormalizer implements ParallelTaskRunner.Task<Variant, Varia
     private Map<Integer, int[]> genotypeReorderMapCache = new ConcurrentHashMap<>();
     private final VariantAlternateRearranger.Configuration rearrangerConf = new VariantAlternateRearranger.Configuration();
     private VariantNormalizerConfig config = new VariantNormalizerConfig();
+    private final AtomicLong discardedVariants = new AtomicLong();
 
     public VariantNormalizer() {}
 
@@ -270,6 +273,14 @@ public class VariantNormalizer implements ParallelTaskRunner.Task<Variant, Varia
         return this;
     }
 
+    /**
+     * @return Number of symbolic reference-only alleles skipped so far, as they do not generate any normalized variant
+     */
+    @Override
+    public long getDiscardedRecords() {
+        return discardedVariants.get();
+    }
+
     public VariantNormalizerConfig getConfig() {
             return config;
     }
@@ -363,6 +374,7 @@ public class VariantNormalizer implements ParallelTaskRunner.Task<Variant, Varia
                     for (VariantKeyFields keyFields : sortByPosition(keyFieldsList)) {
                         // Skip symbolic NO_VARIATION
                         if (keyFields.alternate.equals(VariantBuilder.REF_ONLY_ALT)) {
+                            discardedVariants.incrementAndGet();
                             continue;
                         }
                         String call = callPrefix + keyFields.getNumAllele();
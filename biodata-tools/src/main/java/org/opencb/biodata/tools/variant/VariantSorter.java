@@ -0,0 +1,559 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant;
+
+import org.apache.avro.io.*;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * External merge sort of variants by chromosome, start, end, reference and alternate.
+ *
+ * Variants written are serialized with the {@link VariantAvro} schema, and kept in memory until the buffer reaches
+ * the given number of bytes. Then, the buffer is sorted and written into a temporary file (a sorted run) by a pool of
+ * threads, while the next buffer is filled. Once closed, the sorted variants are read with {@link #getSortedReader()},
+ * which merges all the runs. If there are too many runs, they are first merged in parallel into larger runs.
+ *
+ * Chromosomes are sorted following the given contigs dictionary. Chromosomes not in the dictionary go last, sorted by
+ * name. The sort is stable: variants with the same coordinates and alleles are returned in input order.
+ *
+ * Usage:
+ * <pre>
+ *     sorter.open(); sorter.pre(); sorter.write(batch); ... ; sorter.post(); sorter.close();
+ *     DataReader&lt;Variant&gt; reader = sorter.getSortedReader();
+ * </pre>
+ *
+ * Created on 19/10/26.
+ */
+public class VariantSorter implements DataWriter<Variant> {
+
+    public static final long DEFAULT_MAX_BUFFER_BYTES = 256L * 1024 * 1024;
+    public static final int DEFAULT_MERGE_FAN_IN = 64;
+    // Approximated size in memory of an entry, without the serialized variant and alleles
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final Logger logger = LoggerFactory.getLogger(VariantSorter.class);
+
+    private final Map<String, Integer> contigIndex;
+    private final long maxBufferBytes;
+    private final Path tmpDir;
+    private final int numThreads;
+    private int mergeFanIn = DEFAULT_MERGE_FAN_IN;
+
+    private ExecutorService executor;
+    private final Deque<Future<Path>> pendingRuns = new ArrayDeque<>();
+    private final List<Path> runFiles = new ArrayList<>();
+
+    private List<Entry> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private long numVariants;
+    private boolean closed;
+
+    private final DatumWriter<VariantAvro> datumWriter = new SpecificDatumWriter<>(VariantAvro.class);
+    private final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    private BinaryEncoder encoder;
+
+    public VariantSorter(List<String> contigs, Path tmpDir) {
+        this(contigs, DEFAULT_MAX_BUFFER_BYTES, tmpDir, 1);
+    }
+
+    /**
+     * @param contigs        Sorted list of contigs. Null or empty to sort chromosomes by name
+     * @param maxBufferBytes Approximated max number of bytes of each sorted run in memory. Up to numThreads + 1 runs
+     *                       may be in memory at the same time
+     * @param tmpDir         Directory for the temporary files. Defaults to java.io.tmpdir
+     * @param numThreads     Number of threads for sorting and merging runs
+     */
+    public VariantSorter(List<String> contigs, long maxBufferBytes, Path tmpDir, int numThreads) {
+        contigIndex = new HashMap<>();
+        if (contigs != null) {
+            for (String contig : contigs) {
+                contigIndex.putIfAbsent(contig, contigIndex.size());
+            }
+        }
+        this.maxBufferBytes = maxBufferBytes;
+        this.tmpDir = tmpDir == null ? Paths.get(System.getProperty("java.io.tmpdir")) : tmpDir;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param mergeFanIn Max number of runs merged at once
+     * @return this
+     */
+    public VariantSorter setMergeFanIn(int mergeFanIn) {
+        if (mergeFanIn < 2) {
+            throw new IllegalArgumentException("Merge fan in must be at least 2");
+        }
+        this.mergeFanIn = mergeFanIn;
+        return this;
+    }
+
+    @Override
+    public boolean open() {
+        executor = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "variant-sorter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return true;
+    }
+
+    @Override
+    public boolean write(List<Variant> batch) {
+        if (closed) {
+            throw new IllegalStateException("Sorter already closed");
+        } else if (executor == null) {
+            throw new IllegalStateException("Sorter not open");
+        }
+        for (Variant variant : batch) {
+            Entry entry = new Entry(variant, serialize(variant), contigIndex);
+            buffer.add(entry);
+            bufferBytes += entry.size();
+            numVariants++;
+            if (bufferBytes >= maxBufferBytes) {
+                submitRun();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for all the runs to be written, and merge them until there are at most {@link #setMergeFanIn} runs.
+     * The last buffer is kept in memory.
+     */
+    @Override
+    public boolean close() {
+        if (closed) {
+            return true;
+        }
+        closed = true;
+        try {
+            while (!pendingRuns.isEmpty()) {
+                runFiles.add(waitFor(pendingRuns.pollFirst()));
+            }
+            buffer.sort(Entry::compareTo);
+
+            // Leave room for the in memory run in the final merge
+            while (runFiles.size() + 1 > mergeFanIn) {
+                List<Future<Path>> merges = new ArrayList<>();
+                for (int i = 0; i < runFiles.size(); i += mergeFanIn) {
+                    List<Path> group = new ArrayList<>(runFiles.subList(i, Math.min(runFiles.size(), i + mergeFanIn)));
+                    merges.add(group.size() == 1
+                            ? CompletableFuture.completedFuture(group.get(0))
+                            : executor.submit(() -> mergeRuns(group)));
+                }
+                List<Path> merged = new ArrayList<>(merges.size());
+                for (Future<Path> merge : merges) {
+                    merged.add(waitFor(merge));
+                }
+                runFiles.clear();
+                runFiles.addAll(merged);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        logger.debug("Sorted " + numVariants + " variants in " + (runFiles.size() + 1) + " runs");
+        return true;
+    }
+
+    /**
+     * Read the sorted variants. Temporary files are deleted when the reader is closed.
+     *
+     * @return DataReader of sorted variants
+     */
+    public DataReader<Variant> getSortedReader() {
+        if (!closed) {
+            throw new IllegalStateException("Sorter must be closed before reading the sorted variants");
+        }
+        return new SortedVariantReader();
+    }
+
+    public long getNumVariants() {
+        return numVariants;
+    }
+
+    /**
+     * @return Number of runs written to disk
+     */
+    public int getNumRunFiles() {
+        return runFiles.size();
+    }
+
+    private byte[] serialize(Variant variant) {
+        serialized.reset();
+        encoder = EncoderFactory.get().binaryEncoder(serialized, encoder);
+        try {
+            datumWriter.write(variant.getImpl(), encoder);
+            encoder.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return serialized.toByteArray();
+    }
+
+    private void submitRun() {
+        List<Entry> run = buffer;
+        buffer = new ArrayList<>(run.size());
+        bufferBytes = 0;
+        pendingRuns.addLast(executor.submit(() -> writeRun(run)));
+        // Collect the written runs, waiting if there are too many runs in memory
+        while (!pendingRuns.isEmpty() && (pendingRuns.size() > numThreads || pendingRuns.peekFirst().isDone())) {
+            runFiles.add(waitFor(pendingRuns.pollFirst()));
+        }
+    }
+
+    private Path writeRun(List<Entry> run) throws IOException {
+        run.sort(Entry::compareTo);
+        Path file = Files.createTempFile(tmpDir, "variant_sort_", ".run");
+        try (DataOutputStream out = newOutputStream(file)) {
+            for (Entry entry : run) {
+                entry.write(out);
+            }
+        }
+        return file;
+    }
+
+    private Path mergeRuns(List<Path> files) throws IOException {
+        Path file = Files.createTempFile(tmpDir, "variant_sort_", ".run");
+        List<RunIterator> runs = new ArrayList<>(files.size());
+        try (DataOutputStream out = newOutputStream(file)) {
+            for (Path runFile : files) {
+                runs.add(new FileRunIterator(runFile, contigIndex));
+            }
+            MergeIterator merge = new MergeIterator(runs);
+            while (merge.hasNext()) {
+                merge.next().write(out);
+            }
+        } finally {
+            for (RunIterator run : runs) {
+                run.close();
+            }
+        }
+        for (Path runFile : files) {
+            Files.deleteIfExists(runFile);
+        }
+        return file;
+    }
+
+    private static DataOutputStream newOutputStream(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1024 * 1024));
+    }
+
+    private static <T> T waitFor(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private class SortedVariantReader implements DataReader<Variant> {
+
+        private final DatumReader<VariantAvro> datumReader = new SpecificDatumReader<>(VariantAvro.class);
+        private BinaryDecoder decoder;
+        private final List<RunIterator> runs = new ArrayList<>(runFiles.size() + 1);
+        private MergeIterator merge;
+
+        @Override
+        public boolean open() {
+            for (Path runFile : runFiles) {
+                runs.add(new FileRunIterator(runFile, contigIndex));
+            }
+            runs.add(new MemoryRunIterator(buffer));
+            merge = new MergeIterator(runs);
+            return true;
+        }
+
+        @Override
+        public List<Variant> read(int batchSize) {
+            List<Variant> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && merge.hasNext()) {
+                byte[] data = merge.next().data;
+                decoder = DecoderFactory.get().binaryDecoder(data, decoder);
+                try {
+                    batch.add(new Variant(datumReader.read(null, decoder)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return batch;
+        }
+
+        @Override
+        public boolean close() {
+            for (RunIterator run : runs) {
+                run.close();
+            }
+            try {
+                for (Path runFile : runFiles) {
+                    Files.deleteIfExists(runFile);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sort key of a variant, with its serialized value.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final int contig;
+        private final String chromosome;
+        private final int start;
+        private final int end;
+        private final String reference;
+        private final String alternate;
+        private final byte[] data;
+
+        private Entry(Variant variant, byte[] data, Map<String, Integer> contigIndex) {
+            this(variant.getChromosome(), variant.getStart(), variant.getEnd(), variant.getReference(),
+                    variant.getAlternate(), data, contigIndex);
+        }
+
+        private Entry(String chromosome, int start, int end, String reference, String alternate, byte[] data,
+                      Map<String, Integer> contigIndex) {
+            this.contig = contigIndex.getOrDefault(chromosome, Integer.MAX_VALUE);
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+            this.reference = reference;
+            this.alternate = alternate;
+            this.data = data;
+        }
+
+        private long size() {
+            return ENTRY_OVERHEAD_BYTES + data.length + 2L * (reference.length() + alternate.length());
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int c = Integer.compare(contig, other.contig);
+            if (c != 0) {
+                return c;
+            }
+            if (contig == Integer.MAX_VALUE) {
+                c = chromosome.compareTo(other.chromosome);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            c = Integer.compare(start, other.start);
+            if (c != 0) {
+                return c;
+            }
+            c = Integer.compare(end, other.end);
+            if (c != 0) {
+                return c;
+            }
+            c = reference.compareTo(other.reference);
+            if (c != 0) {
+                return c;
+            }
+            return alternate.compareTo(other.alternate);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            writeString(out, chromosome);
+            out.writeInt(start);
+            out.writeInt(end);
+            writeString(out, reference);
+            writeString(out, alternate);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        /**
+         * @return the next entry, or null if the end of the stream was reached
+         */
+        private static Entry read(DataInputStream in, Map<String, Integer> contigIndex) throws IOException {
+            String chromosome;
+            try {
+                chromosome = readString(in);
+            } catch (EOFException e) {
+                return null;
+            }
+            int start = in.readInt();
+            int end = in.readInt();
+            String reference = readString(in);
+            String alternate = readString(in);
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Entry(chromosome, start, end, reference, alternate, data, contigIndex);
+        }
+
+        // DataOutputStream.writeUTF is limited to 64KB, which is not enough for large alleles
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private interface RunIterator extends Iterator<Entry> {
+        default void close() {
+        }
+    }
+
+    private static final class MemoryRunIterator implements RunIterator {
+        private final Iterator<Entry> iterator;
+
+        private MemoryRunIterator(List<Entry> entries) {
+            iterator = entries.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Entry next() {
+            return iterator.next();
+        }
+    }
+
+    private static final class FileRunIterator implements RunIterator {
+        private final DataInputStream in;
+        private final Map<String, Integer> contigIndex;
+        private Entry next;
+
+        private FileRunIterator(Path file, Map<String, Integer> contigIndex) {
+            this.contigIndex = contigIndex;
+            try {
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1024 * 1024));
+                next = Entry.read(in, contigIndex);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry entry = next;
+            try {
+                next = Entry.read(in, contigIndex);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return entry;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs. Ties are returned in the order of the runs, so the merge is stable.
+     */
+    private static final class MergeIterator implements Iterator<Entry> {
+        private final PriorityQueue<Head> heads;
+
+        private MergeIterator(List<RunIterator> runs) {
+            heads = new PriorityQueue<>(Math.max(1, runs.size()));
+            for (int i = 0; i < runs.size(); i++) {
+                RunIterator run = runs.get(i);
+                if (run.hasNext()) {
+                    heads.add(new Head(run.next(), run, i));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            Entry entry = head.entry;
+            if (head.run.hasNext()) {
+                head.entry = head.run.next();
+                heads.add(head);
+            }
+            return entry;
+        }
+    }
+
+    private static final class Head implements Comparable<Head> {
+        private Entry entry;
+        private final RunIterator run;
+        private final int runIndex;
+
+        private Head(Entry entry, RunIterator run, int runIndex) {
+            this.entry = entry;
+            this.run = run;
+            this.runIndex = runIndex;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int c = entry.compareTo(other.entry);
+            return c != 0 ? c : Integer.compare(runIndex, other.runIndex);
+        }
+    }
+}
@@ -25,13 +25,18 @@ import htsjdk.tribble.readers.LineReader;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderVersion;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.opencb.biodata.formats.variant.annotation.CsqSchema;
 import org.opencb.biodata.formats.variant.io.VariantReader;
 import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantFileMetadata;
 import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+import org.opencb.biodata.tools.commons.metrics.StageCounters;
 import org.opencb.biodata.tools.variant.converters.avro.VCFHeaderToVariantFileHeaderConverter;
 import org.opencb.biodata.tools.variant.converters.avro.VariantContextToVariantConverter;
+import org.opencb.biodata.tools.variant.iterators.TabixVcfLineIterator;
 import org.opencb.commons.utils.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,11 +53,13 @@ import java.util.function.BiConsumer;
  *
  * Optionally, normalizes the variants.
  *
+ * If a list of regions is given, reads only the variants overlapping them from a bgzipped VCF file with a tabix index.
+ *
  * Created on 16/05/16.
  *
  * @author Jacobo Coll &lt;jVariantVcfHtsjdkReaderacobo167@gmail.com&gt;
  */
-public class VariantVcfHtsjdkReader implements VariantReader {
+public class VariantVcfHtsjdkReader implements VariantReader, StageCounters {
 
     private final Logger logger = LoggerFactory.getLogger(VariantVcfHtsjdkReader.class);
 
@@ -68,6 +75,8 @@ public class VariantVcfHtsjdkReader implements VariantReader {
     private List<String> headerLines;
     private Set<BiConsumer<String, RuntimeException>> malformHandlerSet = new HashSet<>();
     private boolean failOnError = false;
+    private List<Region> regions = null;
+    private long numMalformedLines = 0;
     private final boolean closeInputStream;   // Do not close inputStream if is provided in constructor. Respect symmetrical open/close
 
     public VariantVcfHtsjdkReader(InputStream inputStream, VariantStudyMetadata metadata) {
@@ -106,9 +115,23 @@ public class VariantVcfHtsjdkReader implements VariantReader {
         return this;
     }
 
+    /**
+     * Read only the variants overlapping any of these regions. Requires a bgzipped input file with a tabix index.
+     *
+     * @param regions List of regions, or null to read the whole file
+     * @return this
+     */
+    public VariantVcfHtsjdkReader setRegions(List<Region> regions) {
+        if (regions != null && input == null) {
+            throw new IllegalStateException("Unable to read by region from an InputStream. Requires an indexed file");
+        }
+        this.regions = regions == null || regions.isEmpty() ? null : regions;
+        return this;
+    }
+
     @Override
     public boolean open() {
-        if (inputStream == null) {
+        if (inputStream == null && regions == null) {
             try {
                 inputStream = FileUtils.newInputStream(input);
             } catch (IOException e) {
@@ -121,7 +144,11 @@ public class VariantVcfHtsjdkReader implements VariantReader {
     @Override
     public boolean pre() {
         codec = new FullVcfCodec();
-        lineIterator = codec.makeSourceFromStream(inputStream);
+        if (regions == null) {
+            lineIterator = codec.makeSourceFromStream(inputStream);
+        } else {
+            lineIterator = new TabixVcfLineIterator(input, regions);
+        }
 
         // Read the header
         headerLines = new LinkedList<>();
@@ -192,6 +219,7 @@ public class VariantVcfHtsjdkReader implements VariantReader {
     }
 
     private void logMalformatedLine(String line, RuntimeException exception) {
+        numMalformedLines++;
         logger.warn(exception.getMessage());
         for (BiConsumer<String, RuntimeException> consumer : this.malformHandlerSet) {
             consumer.accept(line, exception);
@@ -206,7 +234,10 @@ public class VariantVcfHtsjdkReader implements VariantReader {
     @Override
     public boolean close() {
         try {
-            if (closeInputStream) {
+            if (lineIterator instanceof TabixVcfLineIterator) {
+                ((TabixVcfLineIterator) lineIterator).close();
+            }
+            if (closeInputStream && inputStream != null) {
                 inputStream.close();
             }
         } catch (IOException e) {
@@ -215,6 +246,18 @@ public class VariantVcfHtsjdkReader implements VariantReader {
         return true;
     }
 
+    /**
+     * @return Number of lines that could not be parsed so far
+     */
+    public long getNumMalformedLines() {
+        return numMalformedLines;
+    }
+
+    @Override
+    public long getMalformedRecords() {
+        return numMalformedLines;
+    }
+
     @Override
     public List<String> getSampleNames() {
         return header.getSampleNamesInOrder();
@@ -229,6 +272,17 @@ public class VariantVcfHtsjdkReader implements VariantReader {
         return header;
     }
 
+    /**
+     * Schema of the VEP CSQ INFO field, to read or filter the consequences of each variant without decoding all of
+     * them, ie. {@code schema.anyMatch(fileEntry.getAttributes().get("CSQ"), c -> c.isGene("BRCA2"))}.
+     *
+     * @return CSQ schema, or null if the header has no CSQ field
+     */
+    public CsqSchema getCsqSchema() {
+        VCFInfoHeaderLine csq = header == null ? null : header.getInfoHeaderLine(CsqSchema.CSQ);
+        return csq == null ? null : CsqSchema.fromHeaderDescription(csq.getDescription());
+    }
+
     public VCFHeaderVersion getVCFHeaderVersion() {
         return codec.getVCFHeaderVersion();
     }
@@ -8,11 +8,14 @@ import htsjdk.tribble.TribbleException;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFHeader;
 import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.variant.iterators.TabixVcfLineIterator;
 import org.opencb.commons.io.DataReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.BiConsumer;
 
@@ -30,6 +33,7 @@ public class VcfFileReader  implements DataReader<VariantContext> {
     private LineIterator lineIterator;
     private List<String> headerLines;
     private boolean lazy;
+    private List<Region> regions = null;
     private Set<BiConsumer<String, RuntimeException>> malformHandlerSet = new HashSet<>();
 
     public VcfFileReader registerMalformatedVcfHandler(BiConsumer<String, RuntimeException> handler) {
@@ -42,13 +46,27 @@ public class VcfFileReader  implements DataReader<VariantContext> {
         this.lazy = lazy;
     }
 
+    /**
+     * Read only the variants overlapping any of these regions. Requires a bgzipped input file with a tabix index.
+     *
+     * @param regions List of regions, or null to read the whole file
+     * @return this
+     */
+    public VcfFileReader setRegions(List<Region> regions) {
+        this.regions = regions == null || regions.isEmpty() ? null : regions;
+        return this;
+    }
+
     @Override
     public boolean open() {
         try {
-            inputStream = new FileInputStream(new File(inputFilename));
-
             codec = new FullVcfCodec();
-            lineIterator = codec.makeSourceFromStream(inputStream);
+            if (regions == null) {
+                inputStream = new FileInputStream(new File(inputFilename));
+                lineIterator = codec.makeSourceFromStream(inputStream);
+            } else {
+                lineIterator = new TabixVcfLineIterator(Paths.get(inputFilename), regions);
+            }
 
             // Read the header
             headerLines = new LinkedList<>();
@@ -123,7 +141,12 @@ public class VcfFileReader  implements DataReader<VariantContext> {
     @Override
     public boolean close() {
         try {
-            inputStream.close();
+            if (lineIterator instanceof TabixVcfLineIterator) {
+                ((TabixVcfLineIterator) lineIterator).close();
+            }
+            if (inputStream != null) {
+                inputStream.close();
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -1,6 +1,10 @@
 package org.opencb.biodata.tools.variant.converters;
 
 import com.google.common.collect.Iterators;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -8,13 +12,16 @@ import htsjdk.variant.vcf.VCFHeader;
 import org.opencb.biodata.formats.variant.vcf4.VcfUtils;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+import org.opencb.biodata.tools.commons.ParallelBlockCompressedOutputStream;
 import org.opencb.biodata.tools.variant.converters.avro.VariantAvroToVariantContextConverter;
 import org.opencb.biodata.tools.variant.converters.avro.VariantStudyMetadataToVCFHeaderConverter;
+import org.opencb.biodata.tools.variant.converters.avro.VariantToVcfEncoder;
 import org.opencb.biodata.tools.variant.metadata.VariantMetadataUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
 
@@ -31,6 +38,17 @@ public class VCFExporter implements Closeable {
     private OutputStream outputStream;
     private VariantContextWriter writer;
 
+    // direct encoding: variant -> VCF line, optionally BGZF compressed in parallel and indexed on the fly
+    private boolean directEncoding = false;
+    private int compressionThreads = 1;
+    private VariantToVcfEncoder encoder;
+    private OutputStream directOutputStream;
+    private ParallelBlockCompressedOutputStream bgzfOutputStream;
+    private TabixIndexer tabixIndexer;
+    private Path outPath;
+    private final StringBuilder line = new StringBuilder();
+    private byte[] lineBytes = new byte[1024];
+
     // logger
     protected Logger logger = LoggerFactory.getLogger(this.getClass().toString());
 
@@ -77,11 +95,16 @@ public class VCFExporter implements Closeable {
      */
     public void export(Iterator<Variant> iterator) {
         // sanity check
-        if (writer == null) {
+        if (writer == null && encoder == null) {
             logger.error("Error exporting VCF data: exporter must be opened");
             return;
         }
 
+        if (directEncoding) {
+            exportDirect(iterator);
+            return;
+        }
+
         // main loop (from iterator)
         while (iterator.hasNext()) {
             try {
@@ -97,12 +120,74 @@ public class VCFExporter implements Closeable {
 //      close();
     }
 
+    private void exportDirect(Iterator<Variant> iterator) {
+        while (iterator.hasNext()) {
+            try {
+                Variant variant = iterator.next();
+                line.setLength(0);
+                encoder.encode(variant, line);
+                if (tabixIndexer != null) {
+                    // Register the offset where the line starts before writing it, as writing the line may complete
+                    // the block containing it, and the indexer only assigns virtual offsets to pending records
+                    tabixIndexer.addRecord(variant.getChromosome(), encoder.getStart(), encoder.getEnd(),
+                            bgzfOutputStream.getPosition());
+                }
+                writeLine();
+            } catch (Exception e) {
+                logger.error("Error exporting VCF data: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void writeLine() throws IOException {
+        int length = line.length();
+        if (lineBytes.length < length) {
+            lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c >= 0x80) {
+                // Non ASCII. Encode the whole line
+                directOutputStream.write(line.toString().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            lineBytes[i] = (byte) c;
+        }
+        directOutputStream.write(lineBytes, 0, length);
+    }
+
+    /**
+     * Open the exporter to write into a file.
+     *
+     * With direct encoding, files ending in ".gz" are compressed in BGZF format using {@link #getCompressionThreads()}
+     * threads, and indexed with tabix if {@link Options#INDEX_ON_THE_FLY} is given.
+     *
+     * @param outPath       Output file
+     * @param writerOptions htsjdk writer options
+     * @throws FileNotFoundException if the file can not be created
+     */
     public void open(Path outPath, Options... writerOptions) throws FileNotFoundException {
         FileOutputStream os = new FileOutputStream(outPath.toString());
-        open(os, writerOptions);
+        if (directEncoding && outPath.toString().endsWith(".gz")) {
+            this.outPath = outPath;
+            bgzfOutputStream = new ParallelBlockCompressedOutputStream(os, compressionThreads);
+            if (writerOptions != null && Arrays.asList(writerOptions).contains(Options.INDEX_ON_THE_FLY)) {
+                tabixIndexer = new TabixIndexer();
+                bgzfOutputStream.setBlockListener(tabixIndexer);
+            }
+            outputStream = os;
+            openDirect(bgzfOutputStream, writerOptions);
+        } else {
+            open(os, writerOptions);
+        }
     }
 
     public void open(OutputStream os, Options... writerOptions) {
+        if (directEncoding) {
+            outputStream = Objects.requireNonNull(os);
+            openDirect(new BufferedOutputStream(os, 64 * 1024), writerOptions);
+            return;
+        }
         variantConverter = new VariantAvroToVariantContextConverter(metadata.getId(), sampleNames, formats, annotations);
 
         // create the variant context writer
@@ -114,12 +199,43 @@ public class VCFExporter implements Closeable {
         writer.writeHeader(vcfHeader);
     }
 
+    private void openDirect(OutputStream os, Options... writerOptions) {
+        List<Options> options = writerOptions == null ? Collections.emptyList() : Arrays.asList(writerOptions);
+        boolean writeGenotypes = !options.contains(Options.DO_NOT_WRITE_GENOTYPES);
+        boolean allowMissingFieldsInHeader = options.contains(Options.ALLOW_MISSING_FIELDS_IN_HEADER);
+        encoder = new VariantToVcfEncoder(metadata.getId(), sampleNames, formats, annotations, vcfHeader, writeGenotypes,
+                allowMissingFieldsInHeader);
+        directOutputStream = os;
+
+        // write VCF header, exactly as the htsjdk writer does
+        Options[] headerOptions = options.stream()
+                .filter(option -> option != Options.INDEX_ON_THE_FLY && option != Options.USE_ASYNC_IO)
+                .toArray(Options[]::new);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        VariantContextWriter headerWriter = VcfUtils.createVariantContextWriter(header,
+                vcfHeader.getSequenceDictionary(), headerOptions);
+        headerWriter.writeHeader(vcfHeader);
+        headerWriter.close();
+        try {
+            header.writeTo(directOutputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public void close() throws IOException {
         // close everything
         if (writer != null) {
             writer.close();
         }
-        if (outputStream != null) {
+        if (directOutputStream != null) {
+            // Closes the underlying output stream
+            directOutputStream.close();
+            if (tabixIndexer != null) {
+                Index index = tabixIndexer.finalizeIndex();
+                index.writeBasedOnFeatureFile(outPath.toFile());
+            }
+        } else if (outputStream != null) {
             outputStream.close();
         }
     }
@@ -149,4 +265,75 @@ public class VCFExporter implements Closeable {
     public void setAnnotations(List<String> annotations) {
         this.annotations = annotations;
     }
+
+    public boolean isDirectEncoding() {
+        return directEncoding;
+    }
+
+    /**
+     * Write VCF lines straight from the variants, instead of converting them into htsjdk VariantContext.
+     * The output is the same.
+     *
+     * @param directEncoding Use direct encoding
+     */
+    public void setDirectEncoding(boolean directEncoding) {
+        this.directEncoding = directEncoding;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Number of threads compressing BGZF blocks, when writing "*.gz" files with direct encoding.
+     *
+     * @param compressionThreads Number of threads
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Builds a tabix index from the BGZF blocks as they are written. Records are kept until the block containing
+     * their first byte has been written, so their virtual offset is known.
+     */
+    private static class TabixIndexer implements ParallelBlockCompressedOutputStream.BlockListener {
+
+        private final TabixIndexCreator indexCreator = new TabixIndexCreator(TabixFormat.VCF);
+        private final Deque<PendingRecord> pendingRecords = new ArrayDeque<>();
+        private long lastVirtualOffset = 0;
+
+        void addRecord(String chromosome, int start, int end, long uncompressedPosition) {
+            pendingRecords.addLast(new PendingRecord(chromosome, start, end, uncompressedPosition));
+        }
+
+        @Override
+        public void onBlockWritten(long uncompressedPosition, int uncompressedSize, long blockAddress) {
+            long blockEnd = uncompressedPosition + uncompressedSize;
+            while (!pendingRecords.isEmpty() && pendingRecords.peekFirst().position < blockEnd) {
+                PendingRecord record = pendingRecords.pollFirst();
+                indexCreator.addFeature(new SimpleFeature(record.chromosome, record.start, record.end),
+                        (blockAddress << 16) | (record.position - uncompressedPosition));
+            }
+            lastVirtualOffset = (blockAddress << 16) | uncompressedSize;
+        }
+
+        Index finalizeIndex() {
+            return indexCreator.finalizeIndex(lastVirtualOffset);
+        }
+    }
+
+    private static class PendingRecord {
+        private final String chromosome;
+        private final int start;
+        private final int end;
+        private final long position;
+
+        PendingRecord(String chromosome, int start, int end, long position) {
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+    }
 }
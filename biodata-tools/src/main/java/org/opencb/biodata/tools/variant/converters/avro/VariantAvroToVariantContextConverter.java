@@ -71,10 +71,31 @@ public class VariantAvroToVariantContextConverter extends VariantContextConverte
         // QUAL
         double qual = getQuality(fileAttributes);
 
-        studyEntry.setSamplesPosition(samplePositions);
+        // Samples are found by name. Without samples position, the samples data is in the order of the exported samples
+        if (studyEntry.getSamplesPosition() == null || studyEntry.getSamplesPosition().isEmpty()) {
+            studyEntry.setSamplesPosition(samplePositions);
+        }
         BiFunction<String, String, String> getSampleData = studyEntry::getSampleData;
 
         // INFO
+        ObjectMap attributes = buildAttributes(variant, studyEntry, fileAttributes);
+
+        // SAMPLES
+        List<Genotype> genotypes = getGenotypes(alleleList, studyEntry.getFormat(), getSampleData);
+
+        return makeVariantContext(chromosome, start, end, idForVcf, alleleList, isNoVariation, filters, qual, attributes, genotypes);
+    }
+
+    /**
+     * Build the INFO attributes: cohort stats, annotations (consequence types and population frequencies) and
+     * file attributes.
+     *
+     * @param variant        Variant
+     * @param studyEntry     Study to export
+     * @param fileAttributes Attributes of each file of the study
+     * @return INFO attributes
+     */
+    protected ObjectMap buildAttributes(Variant variant, StudyEntry studyEntry, List<Map<String, String>> fileAttributes) {
         // Cohorts stats and annotations (consequence types and population frequencies)
         ObjectMap attributes = new ObjectMap();
 
@@ -97,11 +118,7 @@ public class VariantAvroToVariantContextConverter extends VariantContextConverte
                 }
             }
         }
-
-        // SAMPLES
-        List<Genotype> genotypes = getGenotypes(alleleList, studyEntry.getFormat(), getSampleData);
-
-        return makeVariantContext(chromosome, start, end, idForVcf, alleleList, isNoVariation, filters, qual, attributes, genotypes);
+        return attributes;
     }
 
     /**
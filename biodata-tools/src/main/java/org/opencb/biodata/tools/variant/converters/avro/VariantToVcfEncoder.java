@@ -0,0 +1,615 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.converters.avro;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.*;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.FileEntry;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.*;
+
+/**
+ * Encodes variants as VCF lines, without building an intermediate {@link VariantContext}.
+ *
+ * Produces the same text as {@link VariantAvroToVariantContextConverter} followed by the htsjdk VCF writer, including
+ * the records rejected by htsjdk, which throw an exception here as well.
+ *
+ * Not thread safe. Use one instance per thread.
+ *
+ * Created on 19/10/26.
+ */
+public class VariantToVcfEncoder extends VariantAvroToVariantContextConverter {
+
+    private static final String GT = VCFConstants.GENOTYPE_KEY;
+    private static final String AD = VCFConstants.GENOTYPE_ALLELE_DEPTHS;
+    private static final String DP = VCFConstants.DEPTH_KEY;
+    private static final String GQ = VCFConstants.GENOTYPE_QUALITY_KEY;
+    private static final String PL = VCFConstants.GENOTYPE_PL_KEY;
+    private static final String FT = VCFConstants.GENOTYPE_FILTER_KEY;
+    private static final String SPANNING_DELETION_ALLELE = "*";
+    private static final int NO_CALL = -1;
+    private static final int INVALID_ALLELE = -2;
+
+    private final VCFHeader header;
+    private final boolean allowMissingFieldsInHeader;
+    private final List<String> headerSamples;
+    // Position of each header sample in the list of exported samples, or -1 if not exported
+    private final int[] headerSamplePositions;
+    // Fast path for QUAL, if the default locale formats "%.2f" as expected
+    private final boolean plainDecimalFormat;
+
+    // Per record state, reused between records
+    private final Map<String, Genotype> genotypeCache = new HashMap<>();
+    private final List<String> vcAlleles = new ArrayList<>();
+    // Index in the record of each allele from the allele list. Either NO_CALL or INVALID_ALLELE if missing
+    private int[] alleleIndex = new int[4];
+    private int numAlleles;
+    private String[][] sampleValues = new String[0][];
+    private int start;
+    private int end;
+
+    /**
+     * @param study                      Study to export
+     * @param sampleNames                Samples to export
+     * @param sampleFormats              Sample formats to export. Null to export all the formats of each variant
+     * @param annotations                Annotations to export
+     * @param header                     VCF header, as written to the output
+     * @param writeGenotypes             Write FORMAT and sample columns
+     * @param allowMissingFieldsInHeader Accept INFO, FORMAT and FILTER keys not defined in the header
+     */
+    public VariantToVcfEncoder(String study, List<String> sampleNames, List<String> sampleFormats, List<String> annotations,
+                               VCFHeader header, boolean writeGenotypes, boolean allowMissingFieldsInHeader) {
+        super(study, sampleNames, sampleFormats, annotations);
+        this.header = header;
+        this.allowMissingFieldsInHeader = allowMissingFieldsInHeader;
+        if (writeGenotypes && header.hasGenotypingData()) {
+            headerSamples = header.getGenotypeSamples();
+        } else {
+            headerSamples = Collections.emptyList();
+        }
+        headerSamplePositions = new int[headerSamples.size()];
+        for (int i = 0; i < headerSamples.size(); i++) {
+            headerSamplePositions[i] = samplePositions.getOrDefault(headerSamples.get(i), -1);
+        }
+        plainDecimalFormat = String.format(VCFConstants.QUAL_FORMAT_STRING, 1.5).equals("1.50");
+    }
+
+    /**
+     * Append the VCF line of the variant, including the trailing new line. Nothing is appended on error.
+     *
+     * @param variant Variant to encode
+     * @param sb      Output buffer
+     * @throws RuntimeException if the variant can not be represented in the VCF
+     */
+    public void encode(Variant variant, StringBuilder sb) {
+        int mark = sb.length();
+        try {
+            encodeRecord(variant, sb);
+        } catch (RuntimeException e) {
+            sb.setLength(mark);
+            throw e;
+        }
+    }
+
+    /**
+     * @return VCF start of the last encoded variant. Might differ from the variant start for indels.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return VCF end of the last encoded variant
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    private void encodeRecord(Variant variant, StringBuilder sb) {
+        init(variant);
+
+        StudyEntry studyEntry = getStudy(variant);
+        List<FileEntry> files = studyEntry.getFiles();
+        List<Map<String, String>> fileAttributes = new ArrayList<>(files.size());
+        List<String> calls = new ArrayList<>(files.size());
+        for (FileEntry file : files) {
+            fileAttributes.add(file.getAttributes());
+            calls.add(file.getCall());
+        }
+
+        // CHROM START END REFERENCE ALTERNATE
+        String chromosome = variant.getChromosome();
+        Map<Integer, Character> referenceAlleles = buildReferenceAllelesMap(calls.iterator());
+        Pair<Integer, Integer> adjustedStartEndPositions = adjustedVariantStart(variant, studyEntry, referenceAlleles);
+        start = adjustedStartEndPositions.getLeft();
+        end = adjustedStartEndPositions.getRight();
+        List<String> alleleList = buildAlleles(variant, adjustedStartEndPositions, referenceAlleles);
+        boolean isNoVariation = variant.getType().equals(VariantType.NO_VARIATION);
+        buildAlleles(alleleList, isNoVariation);
+
+        String idForVcf = getIdForVcf(variant.getId(), variant.getNames());
+        Set<String> filters = getFilters(fileAttributes);
+        double log10PError = getQuality(fileAttributes);
+        Map<String, Object> attributes = buildAttributes(variant, studyEntry, fileAttributes);
+        validateLog10PError(log10PError);
+        validateStop(chromosome, attributes);
+
+        sb.append(chromosome).append(VCFConstants.FIELD_SEPARATOR)
+                .append(start).append(VCFConstants.FIELD_SEPARATOR)
+                .append(idForVcf).append(VCFConstants.FIELD_SEPARATOR)
+                .append(vcAlleles.get(0)).append(VCFConstants.FIELD_SEPARATOR);
+
+        // ALT
+        if (vcAlleles.size() > 1) {
+            sb.append(vcAlleles.get(1));
+            for (int i = 2; i < vcAlleles.size(); i++) {
+                sb.append(',').append(vcAlleles.get(i));
+            }
+        } else {
+            sb.append(VCFConstants.EMPTY_ALTERNATE_ALLELE_FIELD);
+        }
+        sb.append(VCFConstants.FIELD_SEPARATOR);
+
+        // QUAL
+        if (log10PError == VariantContext.NO_LOG10_PERROR) {
+            sb.append(VCFConstants.MISSING_VALUE_v4);
+        } else {
+            appendQual(log10PError * -10, sb);
+        }
+        sb.append(VCFConstants.FIELD_SEPARATOR);
+
+        // FILTER
+        appendFilters(chromosome, filters, sb);
+        sb.append(VCFConstants.FIELD_SEPARATOR);
+
+        // INFO
+        appendInfo(chromosome, attributes, sb);
+
+        // FORMAT and samples
+        if (!headerSamples.isEmpty()) {
+            List<String> formats = sampleFormats == null ? studyEntry.getFormat() : sampleFormats;
+            appendSamples(chromosome, studyEntry, alleleList, formats, sb);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Build the alleles of the record, and the index of each allele from the allele list in the record.
+     * Same validations as htsjdk {@link htsjdk.variant.variantcontext.Allele}.
+     */
+    private void buildAlleles(List<String> alleleList, boolean isNoVariation) {
+        vcAlleles.clear();
+        numAlleles = alleleList.size();
+        if (alleleIndex.length < numAlleles) {
+            alleleIndex = new int[numAlleles];
+        }
+        for (int i = 0; i < alleleList.size(); i++) {
+            String allele = alleleList.get(i);
+            if (NO_CALL_ALLELE.equals(allele) && i > 0) {
+                alleleIndex[i] = NO_CALL;
+            } else if (i > 0 && isNoVariation && alleleList.get(1).isEmpty()) {
+                alleleIndex[i] = INVALID_ALLELE;
+            } else {
+                String display = toDisplayString(allele, i == 0);
+                for (String other : vcAlleles) {
+                    if (other.equals(display)) {
+                        throw new IllegalArgumentException("Duplicate allele added to VariantContext: " + display);
+                    }
+                }
+                alleleIndex[i] = vcAlleles.size();
+                vcAlleles.add(display);
+            }
+        }
+    }
+
+    private static String toDisplayString(String allele, boolean isRef) {
+        if (allele.isEmpty() || allele.equals(String.valueOf(VCFConstants.NULL_ALLELE))) {
+            throw new IllegalArgumentException("Null alleles are not supported");
+        }
+        if (allele.equals(NO_CALL_ALLELE)) {
+            throw new IllegalArgumentException("Cannot tag a NoCall allele as the reference allele");
+        }
+        if (isSymbolic(allele)) {
+            if (isRef) {
+                throw new IllegalArgumentException("Cannot tag a symbolic allele as the reference allele");
+            }
+            return allele;
+        }
+        if (allele.equals(SPANNING_DELETION_ALLELE)) {
+            if (isRef) {
+                throw new IllegalArgumentException("Unexpected base in allele bases '" + allele + "'");
+            }
+            return allele;
+        }
+        boolean upperCase = true;
+        for (int i = 0; i < allele.length(); i++) {
+            switch (allele.charAt(i)) {
+                case 'A': case 'C': case 'G': case 'T': case 'N':
+                    break;
+                case 'a': case 'c': case 'g': case 't': case 'n':
+                    upperCase = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected base in allele bases '" + allele + "'");
+            }
+        }
+        return upperCase ? allele : allele.toUpperCase();
+    }
+
+    private static boolean isSymbolic(String allele) {
+        if (allele.length() <= 1) {
+            return false;
+        }
+        char first = allele.charAt(0);
+        char last = allele.charAt(allele.length() - 1);
+        return first == '<' || last == '>'
+                || allele.indexOf('[') >= 0 || allele.indexOf(']') >= 0
+                || first == '.' || last == '.';
+    }
+
+    private void validateLog10PError(double log10PError) {
+        if (log10PError > 0 && log10PError != VariantContext.NO_LOG10_PERROR) {
+            throw new IllegalArgumentException("BUG: log10PError cannot be > 0 : " + log10PError);
+        }
+        if (Double.isInfinite(log10PError)) {
+            throw new IllegalArgumentException("BUG: log10PError should not be Infinity");
+        }
+        if (Double.isNaN(log10PError)) {
+            throw new IllegalArgumentException("BUG: log10PError should not be NaN");
+        }
+    }
+
+    private void validateStop(String chromosome, Map<String, Object> attributes) {
+        Object endAttribute = attributes.get(VCFConstants.END_KEY);
+        if (endAttribute != null) {
+            int endValue = Integer.parseInt(endAttribute.toString());
+            if (endValue != end) {
+                throw new IllegalStateException("Badly formed variant context at location " + chromosome + ":" + start
+                        + "; getEnd() was " + end + " but this VariantContext contains an END key with value " + endValue);
+            }
+        } else {
+            long length = (end - start) + 1;
+            boolean hasSymbolicAlleles = false;
+            for (String allele : vcAlleles) {
+                hasSymbolicAlleles |= isSymbolic(allele);
+            }
+            if (!hasSymbolicAlleles && length != vcAlleles.get(0).length()) {
+                throw new IllegalStateException("BUG: GenomeLoc " + chromosome + ":" + start + "-" + end + " has a size == "
+                        + length + " but the variation reference allele has length " + vcAlleles.get(0).length());
+            }
+        }
+    }
+
+    private void appendQual(double qual, StringBuilder sb) {
+        double rounded = Math.rint(qual);
+        if (plainDecimalFormat && qual >= 1 && qual < Integer.MAX_VALUE && Math.abs(qual - rounded) < 0.001) {
+            // Would be formatted as "X.00", and then trimmed
+            sb.append((long) rounded);
+        } else {
+            String formatted = String.format(VCFConstants.QUAL_FORMAT_STRING, qual);
+            if (formatted.endsWith(VCFConstants.QUAL_FORMAT_EXTENSION_TO_TRIM)) {
+                formatted = formatted.substring(0, formatted.length() - VCFConstants.QUAL_FORMAT_EXTENSION_TO_TRIM.length());
+            }
+            sb.append(formatted);
+        }
+    }
+
+    private void appendFilters(String chromosome, Set<String> filters, StringBuilder sb) {
+        if (filters.isEmpty()) {
+            sb.append(VCFConstants.PASSES_FILTERS_v4);
+            return;
+        }
+        List<String> sortedFilters = new ArrayList<>(filters);
+        Collections.sort(sortedFilters);
+        for (int i = 0; i < sortedFilters.size(); i++) {
+            String filter = sortedFilters.get(i);
+            if (!header.hasFilterLine(filter)) {
+                fieldIsMissingFromHeaderError(chromosome, filter, "FILTER");
+            }
+            if (i > 0) {
+                sb.append(VCFConstants.FILTER_CODE_SEPARATOR);
+            }
+            sb.append(filter);
+        }
+    }
+
+    private void appendInfo(String chromosome, Map<String, Object> attributes, StringBuilder sb) {
+        if (attributes.isEmpty()) {
+            sb.append(VCFConstants.EMPTY_INFO_FIELD);
+            return;
+        }
+        List<String> keys = new ArrayList<>(attributes.keySet());
+        Collections.sort(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            VCFInfoHeaderLine metaData = header.getInfoHeaderLine(key);
+            if (metaData == null) {
+                fieldIsMissingFromHeaderError(chromosome, key, "INFO");
+            }
+            Object value = attributes.get(key);
+            String outputValue = value == null ? VCFConstants.MISSING_VALUE_v4 : value.toString();
+            if (i > 0) {
+                sb.append(VCFConstants.INFO_FIELD_SEPARATOR);
+            }
+            sb.append(key);
+            if (!outputValue.isEmpty()
+                    && (metaData == null || metaData.getCountType() != VCFHeaderLineCount.INTEGER || metaData.getCount() != 0)) {
+                sb.append('=').append(outputValue);
+            }
+        }
+    }
+
+    private void appendSamples(String chromosome, StudyEntry studyEntry, List<String> alleleList, List<String> formats,
+                               StringBuilder sb) {
+        int numSamples = sampleNames == null ? 0 : sampleNames.size();
+        List<String> fields = formats == null ? Collections.emptyList() : new ArrayList<>(new LinkedHashSet<>(formats));
+        int numFields = fields.size();
+        Map<String, Integer> formatPositions = studyEntry.getFormatPositions();
+        List<List<String>> samplesData = studyEntry.getSamplesData();
+        // Samples are found by name, unless the study has no samples position. Then the samples data is in the order of
+        // the exported samples, as in VariantAvroToVariantContextConverter
+        Map<String, Integer> studySamplesPosition = studyEntry.getSamplesPosition();
+        boolean samplesByName = studySamplesPosition != null && !studySamplesPosition.isEmpty();
+
+        // Read the value of each field of each sample, as in VariantContextConverter::getGenotypes
+        if (sampleValues.length < numSamples) {
+            sampleValues = new String[numSamples][];
+        }
+        boolean sawGT = false;
+        boolean sawGQ = false;
+        boolean sawDP = false;
+        boolean sawAD = false;
+        boolean sawPL = false;
+        int maxPloidy = 0;
+        genotypeCache.clear();
+        String refAllele = alleleList.get(0);
+        List<String> alternates = alleleList.subList(1, alleleList.size());
+        for (int s = 0; s < numSamples; s++) {
+            String[] values = sampleValues[s];
+            if (values == null || values.length < numFields) {
+                values = new String[numFields];
+                sampleValues[s] = values;
+            }
+            Integer position = samplesByName ? studySamplesPosition.get(sampleNames.get(s)) : Integer.valueOf(s);
+            // Samples not in the study are no-calls
+            List<String> sampleData = position == null ? null : samplesData.get(position);
+            for (int f = 0; f < numFields; f++) {
+                String field = fields.get(f);
+                Integer formatIdx = formatPositions.get(field);
+                String value = null;
+                if (formatIdx != null && sampleData != null) {
+                    value = formatIdx < sampleData.size() ? sampleData.get(formatIdx) : null;
+                }
+                switch (field) {
+                    case GT:
+                        if (value == null) {
+                            value = NO_CALL_ALLELE;
+                        }
+                        Genotype genotype = getGenotype(value, refAllele, alternates);
+                        maxPloidy = Math.max(maxPloidy, genotype.getPloidy());
+                        sawGT = true;
+                        break;
+                    case AD:
+                    case PL:
+                        if (StringUtils.isNotEmpty(value) && !value.equals(VCFConstants.MISSING_VALUE_v4)) {
+                            value = joinInts(value);
+                            sawAD |= field.equals(AD);
+                            sawPL |= field.equals(PL);
+                        } else {
+                            value = null;
+                        }
+                        break;
+                    case DP:
+                    case GQ:
+                        if (StringUtils.isNotEmpty(value) && !value.equals(VCFConstants.MISSING_VALUE_v4)) {
+                            value = Integer.toString(Integer.parseInt(value));
+                            sawDP |= field.equals(DP);
+                            sawGQ |= field.equals(GQ);
+                        } else {
+                            value = null;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                values[f] = value;
+            }
+        }
+        if (maxPloidy == 0) {
+            maxPloidy = 2;
+        }
+
+        // FORMAT keys, as htsjdk VariantContext::calcVCFGenotypeKeys
+        List<String> keys = new ArrayList<>(numFields);
+        for (String field : fields) {
+            if (field.equals(GQ) && sawGQ || field.equals(DP) && sawDP || field.equals(AD) && sawAD || field.equals(PL) && sawPL
+                    || !field.equals(GT) && !field.equals(GQ) && !field.equals(DP) && !field.equals(AD) && !field.equals(PL)
+                    && numSamples > 0) {
+                keys.add(field);
+            }
+        }
+        Collections.sort(keys);
+        if (sawGT && numSamples > 0) {
+            keys.add(0, GT);
+        }
+        if (keys.isEmpty()) {
+            // All samples are no-calls
+            keys.add(GT);
+        }
+        int[] keyFields = new int[keys.size()];
+        for (int k = 0; k < keys.size(); k++) {
+            String key = keys.get(k);
+            if (!header.hasFormatLine(key)) {
+                fieldIsMissingFromHeaderError(chromosome, key, "FORMAT");
+            }
+            keyFields[k] = fields.indexOf(key);
+        }
+
+        sb.append(VCFConstants.FIELD_SEPARATOR);
+        for (int k = 0; k < keys.size(); k++) {
+            if (k > 0) {
+                sb.append(VCFConstants.GENOTYPE_FIELD_SEPARATOR);
+            }
+            sb.append(keys.get(k));
+        }
+
+        for (int h = 0; h < headerSamples.size(); h++) {
+            sb.append(VCFConstants.FIELD_SEPARATOR);
+            int s = headerSamplePositions[h];
+            String[] values = s < 0 || s >= numSamples ? null : sampleValues[s];
+            for (int k = 0; k < keys.size(); k++) {
+                String key = keys.get(k);
+                int f = keyFields[k];
+                String value = values == null || f < 0 ? null : values[f];
+                if (key.equals(GT)) {
+                    if (values == null) {
+                        appendMissingGenotype(maxPloidy, sb);
+                    } else if (f < 0) {
+                        throw new IllegalStateException("GTs cannot be missing for some samples if they are available "
+                                + "for others in the record");
+                    } else {
+                        appendGenotype(getGenotype(value, refAllele, alternates), sb);
+                    }
+                    continue;
+                }
+                if (k > 0 || keys.get(0).equals(GT)) {
+                    sb.append(VCFConstants.GENOTYPE_FIELD_SEPARATOR);
+                }
+                if (key.equals(FT)) {
+                    sb.append(VCFConstants.PASSES_FILTERS_v4);
+                } else if (value != null && !value.equals(VCFConstants.MISSING_VALUE_v4)) {
+                    sb.append(value);
+                } else {
+                    appendMissingValue(key, maxPloidy, isStandardKey(key), sb);
+                }
+            }
+        }
+    }
+
+    private static boolean isStandardKey(String key) {
+        return key.equals(GQ) || key.equals(DP) || key.equals(AD) || key.equals(PL);
+    }
+
+    /**
+     * Missing value, with as many elements as expected by the header for non standard keys.
+     */
+    private void appendMissingValue(String key, int ploidy, boolean standardKey, StringBuilder sb) {
+        sb.append(VCFConstants.MISSING_VALUE_v4);
+        if (standardKey) {
+            return;
+        }
+        VCFFormatHeaderLine metaData = header.getFormatHeaderLine(key);
+        if (metaData != null) {
+            int count = getCount(metaData, ploidy);
+            for (int i = 1; i < count; i++) {
+                sb.append(',').append(VCFConstants.MISSING_VALUE_v4);
+            }
+        }
+    }
+
+    private int getCount(VCFCompoundHeaderLine metaData, int ploidy) {
+        int numAlleles = vcAlleles.size();
+        switch (metaData.getCountType()) {
+            case INTEGER:
+                return metaData.getCount();
+            case A:
+                return numAlleles - 1;
+            case R:
+                return numAlleles;
+            case G:
+                // Number of genotypes: combinations with repetition of numAlleles taken by ploidy
+                long count = 1;
+                for (int i = 1; i <= ploidy; i++) {
+                    count = count * (numAlleles + i - 1) / i;
+                }
+                return (int) count;
+            case UNBOUNDED:
+            default:
+                return -1;
+        }
+    }
+
+    private Genotype getGenotype(String value, String refAllele, List<String> alternates) {
+        Genotype genotype = genotypeCache.get(value);
+        if (genotype == null) {
+            genotype = new Genotype(value, refAllele, alternates);
+            genotypeCache.put(value, genotype);
+        }
+        return genotype;
+    }
+
+    private void appendGenotype(Genotype genotype, StringBuilder sb) {
+        int[] allelesIdx = genotype.getAllelesIdx();
+        char separator = genotype.isPhased() ? VCFConstants.PHASED.charAt(0) : VCFConstants.UNPHASED.charAt(0);
+        for (int i = 0; i < allelesIdx.length; i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            int gtIdx = allelesIdx[i];
+            if (gtIdx >= 0 && gtIdx < numAlleles && alleleIndex[gtIdx] != NO_CALL) {
+                if (alleleIndex[gtIdx] == INVALID_ALLELE) {
+                    throw new IllegalArgumentException("Null alleles are not supported");
+                }
+                sb.append(alleleIndex[gtIdx]);
+            } else {
+                sb.append(VCFConstants.MISSING_VALUE_v4);
+            }
+        }
+    }
+
+    private static void appendMissingGenotype(int ploidy, StringBuilder sb) {
+        for (int i = 0; i < ploidy; i++) {
+            if (i > 0) {
+                sb.append(VCFConstants.UNPHASED);
+            }
+            sb.append(VCFConstants.MISSING_VALUE_v4);
+        }
+    }
+
+    private static String joinInts(String value) {
+        String[] split = value.split(",");
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < split.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            try {
+                sb.append(Integer.parseInt(split[i]));
+            } catch (NumberFormatException e) {
+                sb.append(0);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void fieldIsMissingFromHeaderError(String chromosome, String id, String field) {
+        if (!allowMissingFieldsInHeader) {
+            throw new IllegalStateException("Key " + id + " found in VariantContext field " + field + " at " + chromosome
+                    + ":" + start + " but this key isn't defined in the VCFHeader.  We require all VCFs to have complete "
+                    + "VCF headers by default.");
+        }
+    }
+}
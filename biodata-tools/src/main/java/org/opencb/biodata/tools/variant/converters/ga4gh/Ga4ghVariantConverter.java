@@ -31,6 +31,11 @@ import org.opencb.biodata.tools.variant.converters.ga4gh.factories.ProtoGa4GhVar
 import org.opencb.biodata.tools.Converter;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created on 08/08/16.
@@ -44,6 +49,12 @@ public class Ga4ghVariantConverter<V> implements Converter<Variant, V> {
     private final Map<String, Integer> callSetNameId;
     private final Ga4ghVariantFactory<V, ?, ?, ?, ?> factory;
 
+    private int numThreads = 1;
+    private ExecutorService executor;
+    // Studies from the same source usually share the same samples position map and format
+    private volatile SamplesLayout lastSamplesLayout;
+    private volatile FormatLayout lastFormatLayout;
+
     public Ga4ghVariantConverter(Ga4ghVariantFactory<V, ?, ?, ?, ?> factory) {
         this(true, Collections.emptyMap(), factory);
     }
@@ -87,6 +98,38 @@ public class Ga4ghVariantConverter<V> implements Converter<Variant, V> {
      */
     @Override
     public List<V> apply(List<Variant> variants) {
+        if (numThreads <= 1 || variants.size() < 2) {
+            return convertBatch(variants);
+        }
+
+        // Contiguous chunks, so the results keep the order of the variants
+        int numChunks = Math.min(variants.size(), numThreads * 4);
+        int chunkSize = (variants.size() + numChunks - 1) / numChunks;
+        List<Future<List<V>>> futures = new ArrayList<>(numChunks);
+        ExecutorService executor = getExecutor();
+        for (int i = 0; i < variants.size(); i += chunkSize) {
+            List<Variant> chunk = variants.subList(i, Math.min(variants.size(), i + chunkSize));
+            futures.add(executor.submit(() -> convertBatch(chunk)));
+        }
+
+        List<V> gaVariants = new ArrayList<>(variants.size());
+        try {
+            for (Future<List<V>> future : futures) {
+                gaVariants.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        return gaVariants;
+    }
+
+    private List<V> convertBatch(List<Variant> variants) {
         List<V> gaVariants = new ArrayList<>(variants.size());
 
         for (Variant variant : variants) {
@@ -127,6 +170,42 @@ public class Ga4ghVariantConverter<V> implements Converter<Variant, V> {
         return gaVariants;
     }
 
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread thread = new Thread(r, "ga4gh-variant-converter-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Stop the threads used to convert the batches. The converter can still be used after this.
+     */
+    @Override
+    public synchronized void post() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @param numThreads Number of threads converting each batch of variants. The order of the variants is kept
+     * @return this
+     */
+    public Ga4ghVariantConverter<V> setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
     /**
      *
      * 0-based -> [start,end)
@@ -179,67 +258,235 @@ public class Ga4ghVariantConverter<V> implements Converter<Variant, V> {
      * @return
      */
     protected List<Object> parseCalls(String variantId, StudyEntry study) {
-        List<Object> calls = new LinkedList<>();
-
-        for (String sample : study.getOrderedSamplesName()) {
+        SamplesLayout samples = getSamplesLayout(study);
+        if (samples.size() == 0) {
+            return new ArrayList<>(0);
+        }
+        FormatLayout format = getFormatLayout(study.getFormat());
+        List<List<String>> samplesData = study.getSamplesData();
+        List<Object> calls = new ArrayList<>(samples.size());
 
-            Integer id = callSetNameId.get(sample);
-            String callSetId = null;    // SampleId
-            String callSetName = null;  // SampleName
-            if (id != null) {
-                callSetId = id.toString();
-            }
-            if (addCallSetName) {
-                callSetName = sample;
-            }
-            Map<String, List<String>> info = new HashMap<>();
+        for (int s = 0; s < samples.size(); s++) {
+            List<String> sampleData = samplesData.get(samples.positions[s]);
+            Map<String, List<String>> info = new HashMap<>(format.otherFields.length * 2);
 
             List<Integer> allelesIdx = Collections.emptyList();
             List<Double> genotypeLikelihood = Collections.emptyList();
             String phaseSet = "";
 
-            for (String formatField : study.getFormat()) {
-                String sampleData = study.getSampleData(sample, formatField);
-                switch (formatField) {
-                    case "GT":
-                        // Transform genotype with form like 0|0 to the GA4GH style
-                        Genotype genotype = new Genotype(sampleData);
-                        allelesIdx = new ArrayList<>(genotype.getAllelesIdx().length);
-                        for (int alleleIdx : genotype.getAllelesIdx()) {
-                            if (alleleIdx >= 0) {
-                                allelesIdx.add(alleleIdx);
-                            }
-                        }
-
-                        if (phaseSet.isEmpty() && genotype.isPhased()) {
-                            // It may be that the genotype is 0|0, but without PS field
-                            // Set default phaseSet
-                            phaseSet = "p";
-                        }
-                        break;
-                    case "GL":
-                        String[] split = sample.split(",");
-
-                        genotypeLikelihood = new ArrayList<>(split.length);
-                        for (String gl : split) {
-                            genotypeLikelihood.add(Double.parseDouble(gl));
-                        }
-                        break;
-                    case "PS":
-                        if (StringUtils.isNotEmpty(sampleData) && !sampleData.equals(".")) {
-                            phaseSet = sampleData;
-                        }
-                        break;
-                    default:
-                        info.put(formatField, Collections.singletonList(sampleData));
+            if (format.gt >= 0) {
+                // Transform genotype with form like 0|0 to the GA4GH style
+                String gt = getSampleData(sampleData, format.gt);
+                allelesIdx = new ArrayList<>(2);
+                if (decodeGenotype(gt, allelesIdx)) {
+                    // It may be that the genotype is 0|0, but without PS field
+                    // Set default phaseSet
+                    phaseSet = "p";
                 }
-
             }
+            if (format.gl >= 0) {
+                genotypeLikelihood = decodeLikelihoods(getSampleData(sampleData, format.gl));
+            }
+            if (format.ps >= 0) {
+                String ps = getSampleData(sampleData, format.ps);
+                if (StringUtils.isNotEmpty(ps) && !ps.equals(".")) {
+                    phaseSet = ps;
+                }
+            }
+            for (int i = 0; i < format.otherFields.length; i++) {
+                info.put(format.otherFields[i],
+                        Collections.singletonList(getSampleData(sampleData, format.otherIndexes[i])));
+            }
+
             // Create call object
-            Object call = factory.newCall(callSetName, callSetId, allelesIdx, phaseSet, genotypeLikelihood, info);
+            Object call = factory.newCall(samples.callSetNames[s], samples.callSetIds[s], allelesIdx, phaseSet,
+                    genotypeLikelihood, info);
             calls.add(call);
         }
 
         return calls;
     }
+
+    private static String getSampleData(List<String> sampleData, int formatIdx) {
+        return formatIdx < sampleData.size() ? sampleData.get(formatIdx) : null;
+    }
+
+    /**
+     * Same as {@link Genotype}, without creating it for the usual numeric genotypes.
+     *
+     * @param gt        Genotype
+     * @param allelesIdx Non missing allele indexes
+     * @return          If the genotype is phased
+     */
+    static boolean decodeGenotype(String gt, List<Integer> allelesIdx) {
+        int length = gt == null ? 0 : gt.length();
+        boolean phased = false;
+        int from = 0;
+        while (from < length) {
+            int to = from;
+            int value = 0;
+            while (to < length && gt.charAt(to) >= '0' && gt.charAt(to) <= '9' && to - from < 9) {
+                value = value * 10 + (gt.charAt(to) - '0');
+                to++;
+            }
+            if (to == from) {
+                // Missing allele
+                if (gt.startsWith(".", from)) {
+                    to = from + 1;
+                    value = -1;
+                } else if (gt.startsWith("-1", from)) {
+                    to = from + 2;
+                    value = -1;
+                }
+            }
+            if (to == from || to < length && gt.charAt(to) != '/' && gt.charAt(to) != '|' || to == length - 1) {
+                // Alleles as bases, or not a valid genotype
+                allelesIdx.clear();
+                return decodeGenotypeSlow(gt, allelesIdx);
+            }
+            if (value >= 0) {
+                allelesIdx.add(value);
+            }
+            if (to < length && gt.charAt(to) == '|') {
+                phased = true;
+            }
+            from = to + 1;
+        }
+        if (length == 0) {
+            return decodeGenotypeSlow(gt, allelesIdx);
+        }
+        return phased;
+    }
+
+    private static boolean decodeGenotypeSlow(String gt, List<Integer> allelesIdx) {
+        Genotype genotype = new Genotype(gt);
+        for (int alleleIdx : genotype.getAllelesIdx()) {
+            if (alleleIdx >= 0) {
+                allelesIdx.add(alleleIdx);
+            }
+        }
+        return genotype.isPhased();
+    }
+
+    static List<Double> decodeLikelihoods(String gl) {
+        if (gl == null || gl.isEmpty() || gl.equals(".")) {
+            return Collections.emptyList();
+        }
+        List<Double> likelihoods = new ArrayList<>(3);
+        int from = 0;
+        while (from <= gl.length()) {
+            int to = gl.indexOf(',', from);
+            if (to < 0) {
+                to = gl.length();
+            }
+            likelihoods.add(Double.parseDouble(gl.substring(from, to)));
+            from = to + 1;
+        }
+        return likelihoods;
+    }
+
+    private SamplesLayout getSamplesLayout(StudyEntry study) {
+        LinkedHashMap<String, Integer> samplesPosition = study.getSamplesPosition();
+        SamplesLayout layout = lastSamplesLayout;
+        // Same map as the last variant. Samples added to it change its size
+        if (layout != null && layout.source == samplesPosition && layout.size() == samplesPosition.size()) {
+            return layout;
+        }
+        // Compare the contents only when the instance changes
+        if (layout != null && layout.samplesPosition.equals(samplesPosition)) {
+            layout = layout.withSource(samplesPosition);
+        } else {
+            // Fails if there are no samples position
+            List<String> names = study.getOrderedSamplesName();
+            layout = new SamplesLayout(samplesPosition, names.size());
+            for (int s = 0; s < names.size(); s++) {
+                String name = names.get(s);
+                Integer id = callSetNameId.get(name);
+                layout.positions[s] = samplesPosition.get(name);
+                layout.callSetIds[s] = id == null ? null : id.toString();
+                layout.callSetNames[s] = addCallSetName ? name : null;
+            }
+        }
+        lastSamplesLayout = layout;
+        return layout;
+    }
+
+    private FormatLayout getFormatLayout(List<String> format) {
+        if (format == null) {
+            format = Collections.emptyList();
+        }
+        FormatLayout layout = lastFormatLayout;
+        if (layout == null || !layout.format.equals(format)) {
+            layout = new FormatLayout(format);
+            lastFormatLayout = layout;
+        }
+        return layout;
+    }
+
+    /**
+     * Call sets of a study, in the order of the samples.
+     */
+    private static final class SamplesLayout {
+        private final Map<String, Integer> source;
+        private final Map<String, Integer> samplesPosition;
+        private final int[] positions;
+        private final String[] callSetIds;
+        private final String[] callSetNames;
+
+        private SamplesLayout(Map<String, Integer> samplesPosition, int size) {
+            this(samplesPosition, new HashMap<>(samplesPosition), new int[size], new String[size], new String[size]);
+        }
+
+        private SamplesLayout(Map<String, Integer> source, Map<String, Integer> samplesPosition, int[] positions,
+                              String[] callSetIds, String[] callSetNames) {
+            this.source = source;
+            this.samplesPosition = samplesPosition;
+            this.positions = positions;
+            this.callSetIds = callSetIds;
+            this.callSetNames = callSetNames;
+        }
+
+        /**
+         * Same layout, for a map with the same contents.
+         */
+        private SamplesLayout withSource(Map<String, Integer> source) {
+            return new SamplesLayout(source, samplesPosition, positions, callSetIds, callSetNames);
+        }
+
+        private int size() {
+            return positions.length;
+        }
+    }
+
+    /**
+     * Position of the GT, GL and PS fields in the format, and the rest of the fields, which go to the call info.
+     */
+    private static final class FormatLayout {
+        private final List<String> format;
+        private final int gt;
+        private final int gl;
+        private final int ps;
+        private final String[] otherFields;
+        private final int[] otherIndexes;
+
+        private FormatLayout(List<String> format) {
+            this.format = new ArrayList<>(format);
+            // Last position of each field, as in StudyEntry.getFormatPositions
+            Map<String, Integer> positions = new LinkedHashMap<>();
+            for (int i = 0; i < format.size(); i++) {
+                positions.put(format.get(i), i);
+            }
+            Integer gt = positions.remove("GT");
+            Integer gl = positions.remove("GL");
+            Integer ps = positions.remove("PS");
+            this.gt = gt == null ? -1 : gt;
+            this.gl = gl == null ? -1 : gl;
+            this.ps = ps == null ? -1 : ps;
+            this.otherFields = positions.keySet().toArray(new String[0]);
+            this.otherIndexes = new int[otherFields.length];
+            for (int i = 0; i < otherFields.length; i++) {
+                otherIndexes[i] = positions.get(otherFields[i]);
+            }
+        }
+    }
 }
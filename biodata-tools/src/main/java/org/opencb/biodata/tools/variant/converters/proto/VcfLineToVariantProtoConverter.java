@@ -0,0 +1,716 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.converters.proto;
+
+import htsjdk.variant.vcf.VCFFormatHeaderLine;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.opencb.biodata.models.variant.protobuf.VariantProto;
+import org.opencb.biodata.tools.Converter;
+
+import java.util.*;
+
+/**
+ * Converts VCF data lines into {@link VariantProto.Variant}, without decoding them into an htsjdk VariantContext.
+ *
+ * Each line is scanned once. INFO and FORMAT keys are interned from the header, FORMAT layouts are compiled once
+ * per distinct FORMAT column, and the builders of the variant, study, file and samples are reused between lines.
+ *
+ * The result is the same as decoding the line with {@link org.opencb.biodata.formats.variant.vcf4.FullVcfCodec}
+ * and converting it with {@link VariantContextToVariantProtoConverter}, so it can replace them:
+ * <ul>
+ *     <li>The call is "{position}:{reference}*:{alternates}", as the htsjdk reference allele is printed</li>
+ *     <li>FORMAT keys are in the order of the htsjdk genotype attributes, with GT first, and only filled if there
+ *     is more than one sample. Samples are in the order of the htsjdk sample names</li>
+ *     <li>GT is rewritten from the allele indexes. GQ and DP are -1 when missing, AD and PL empty</li>
+ *     <li>INFO lists are written as the htsjdk lists, e.g. "[0.5, 0.1]"</li>
+ * </ul>
+ * Without a header, samples are in column order and INFO keys without value are flags.
+ *
+ * Not thread safe. Use one instance per thread.
+ *
+ * Created on 19/10/26.
+ */
+public class VcfLineToVariantProtoConverter implements Converter<String, VariantProto.Variant> {
+
+    private static final String END_KEY = "END";
+    private static final String GENOTYPE_KEY = "GT";
+    private static final String GENOTYPE_QUALITY_KEY = "GQ";
+    private static final String DEPTH_KEY = "DP";
+    private static final String ALLELE_DEPTHS_KEY = "AD";
+    private static final String PL_KEY = "PL";
+    private static final String GL_KEY = "GL";
+    private static final String FILTER_KEY = "FT";
+    private static final String MISSING_VALUE = ".";
+    private static final String MISSING_INT_VALUE = "-1";
+    private static final String PASS = "PASS";
+
+    private final String studyId;
+    private final String fileId;
+    private final KeyTable keys = new KeyTable();
+    // INFO keys that are not flags, missing if written without value
+    private final Set<String> valuedInfoKeys = new HashSet<>();
+    // Column of each sample, in the order of the samples in the output. Null without header
+    private final int[] sampleColumns;
+
+    private final VariantProto.Variant.Builder variant = VariantProto.Variant.newBuilder();
+    private final VariantProto.StudyEntry.Builder study = VariantProto.StudyEntry.newBuilder();
+    private final VariantProto.FileEntry.Builder file = VariantProto.FileEntry.newBuilder();
+    private final VariantProto.AlternateCoordinate.Builder alternate = VariantProto.AlternateCoordinate.newBuilder();
+    private VariantProto.StudyEntry.SamplesDataInfoEntry.Builder[] samples =
+            new VariantProto.StudyEntry.SamplesDataInfoEntry.Builder[0];
+    private int[] sampleStarts = new int[0];
+    private int[] sampleEnds = new int[0];
+    private int[] valueStarts = new int[0];
+    private int[] valueEnds = new int[0];
+
+    // Compiled FORMAT columns
+    private final Map<String, Format> formats = new HashMap<>();
+    private Format lastFormat;
+    private String lastChromosome = "";
+
+    // Start and end of each column of the current line
+    private final int[] columnStarts = new int[9];
+    private final int[] columnEnds = new int[9];
+    private final List<String> alternates = new ArrayList<>();
+    private final StringBuilder buffer = new StringBuilder();
+
+    public VcfLineToVariantProtoConverter(VCFHeader header) {
+        this(header, "", "");
+    }
+
+    /**
+     * @param header  VCF header, with the INFO and FORMAT keys and the samples
+     * @param studyId Study ID
+     * @param fileId  File ID
+     */
+    public VcfLineToVariantProtoConverter(VCFHeader header, String studyId, String fileId) {
+        this(studyId, fileId, getHeaderKeys(header), getSampleColumns(header));
+        for (VCFInfoHeaderLine line : header.getInfoHeaderLines()) {
+            if (line.getType() != VCFHeaderLineType.Flag) {
+                valuedInfoKeys.add(line.getID());
+            }
+        }
+    }
+
+    /**
+     * @param studyId Study ID
+     * @param fileId  File ID
+     * @param keys    INFO and FORMAT keys to intern. Keys not in the list are interned when found
+     */
+    public VcfLineToVariantProtoConverter(String studyId, String fileId, Collection<String> keys) {
+        this(studyId, fileId, keys, null);
+    }
+
+    private VcfLineToVariantProtoConverter(String studyId, String fileId, Collection<String> keys,
+                                           int[] sampleColumns) {
+        this.studyId = studyId;
+        this.fileId = fileId;
+        this.sampleColumns = sampleColumns;
+        for (String key : keys) {
+            this.keys.intern(key, 0, key.length());
+        }
+        this.keys.intern(END_KEY, 0, END_KEY.length());
+        this.keys.intern(GENOTYPE_KEY, 0, GENOTYPE_KEY.length());
+    }
+
+    private static List<String> getHeaderKeys(VCFHeader header) {
+        List<String> keys = new ArrayList<>();
+        for (VCFInfoHeaderLine line : header.getInfoHeaderLines()) {
+            keys.add(line.getID());
+        }
+        for (VCFFormatHeaderLine line : header.getFormatHeaderLines()) {
+            keys.add(line.getID());
+        }
+        return keys;
+    }
+
+    /**
+     * htsjdk lists the samples of a variant in the order of the sample offsets map of the header.
+     */
+    private static int[] getSampleColumns(VCFHeader header) {
+        Map<String, Integer> sampleNameToOffset = header.getSampleNameToOffset();
+        int[] sampleColumns = new int[sampleNameToOffset.size()];
+        int i = 0;
+        for (Integer offset : sampleNameToOffset.values()) {
+            sampleColumns[i++] = offset;
+        }
+        return sampleColumns;
+    }
+
+    /**
+     * @param line VCF data line, without the line break
+     * @return Variant
+     */
+    @Override
+    public VariantProto.Variant convert(String line) {
+        int numColumns = splitColumns(line);
+        if (numColumns < 8) {
+            throw new IllegalArgumentException("Not enough columns in VCF line: " + line);
+        }
+
+        variant.clear();
+        study.clear();
+        file.clear();
+
+        String chromosome = lastChromosome;
+        if (!matches(line, 0, chromosome)) {
+            chromosome = line.substring(columnStarts[0], columnEnds[0]);
+            lastChromosome = chromosome;
+        }
+        int start = parseInt(line, columnStarts[1], columnEnds[1]);
+        // Bases are upper case in htsjdk alleles
+        String reference = toUpperCase(line.substring(columnStarts[3], columnEnds[3]));
+        splitAlternates(line);
+
+        variant.setChromosome(chromosome);
+        variant.setStart(start);
+        variant.setReference(reference);
+        variant.setAlternate(alternates.isEmpty() ? "" : alternates.get(0));
+        variant.setLength(Math.max(reference.length(), variant.getAlternate().length()));
+        variant.setType(getType(reference, alternates));
+        setIds(line);
+
+        // Same end as htsjdk: the END attribute, or the end of the reference allele
+        int end = start + reference.length() - 1;
+        file.setFileId(fileId);
+        file.setCall(start + ":" + reference + "*:" + String.join(",", alternates));
+        int infoStart = columnStarts[7];
+        int infoEnd = columnEnds[7];
+        if (!isMissing(line, infoStart, infoEnd)) {
+            int from = infoStart;
+            while (from < infoEnd) {
+                int to = indexOf(line, ';', from, infoEnd);
+                int equals = indexOf(line, '=', from, to);
+                if (to > from) {
+                    String key = keys.intern(line, from, equals);
+                    file.putAttributes(key, getInfoValue(line, key, equals, to));
+                    if (key.equals(END_KEY) && equals + 1 < to) {
+                        end = parseInt(line, equals + 1, to);
+                    }
+                }
+                from = to + 1;
+            }
+        }
+        variant.setEnd(end);
+
+        study.setStudyId(studyId);
+        study.addFiles(file);
+        for (int i = 1; i < alternates.size(); i++) {
+            study.addSecondaryAlternates(alternate.clear().setAlternate(alternates.get(i)));
+        }
+        if (numColumns > 8) {
+            addSamplesData(line, numColumns);
+        }
+        variant.addStudies(study);
+        return variant.build();
+    }
+
+    /**
+     * As the htsjdk attributes: "true" for flags, missing for empty values, and lists for several values.
+     */
+    private String getInfoValue(String line, String key, int equals, int to) {
+        if (equals == to) {
+            return valuedInfoKeys.contains(key) ? MISSING_VALUE : "true";
+        }
+        int from = equals + 1;
+        if (from == to) {
+            return MISSING_VALUE;
+        }
+        int comma = indexOf(line, ',', from, to);
+        if (comma == to) {
+            return line.substring(from, to);
+        }
+        buffer.setLength(0);
+        buffer.append('[');
+        while (true) {
+            buffer.append(line, from, comma);
+            if (comma == to) {
+                break;
+            }
+            buffer.append(", ");
+            from = comma + 1;
+            comma = indexOf(line, ',', from, to);
+        }
+        return buffer.append(']').toString();
+    }
+
+    private void addSamplesData(String line, int numColumns) {
+        int numSamples = numColumns - 9;
+        if (sampleColumns != null) {
+            if (sampleColumns.length == 0) {
+                // htsjdk ignores the genotypes if the header has no samples
+                return;
+            }
+            if (numSamples != sampleColumns.length) {
+                throw new IllegalArgumentException("There are " + numSamples + " samples in VCF line, while the "
+                        + "header has " + sampleColumns.length + ": " + line);
+            }
+        }
+        Format format = getFormat(line);
+        if (samples.length < numSamples) {
+            int previous = samples.length;
+            samples = Arrays.copyOf(samples, numSamples);
+            for (int i = previous; i < numSamples; i++) {
+                samples[i] = VariantProto.StudyEntry.SamplesDataInfoEntry.newBuilder();
+            }
+            sampleStarts = new int[numSamples];
+            sampleEnds = new int[numSamples];
+        }
+        if (valueStarts.length < format.keys.length) {
+            valueStarts = new int[format.keys.length];
+            valueEnds = new int[format.keys.length];
+        }
+
+        int from = columnEnds[8] + 1;
+        for (int i = 0; i < numSamples; i++) {
+            int to = line.indexOf('\t', from);
+            if (to < 0) {
+                to = line.length();
+            }
+            sampleStarts[i] = from;
+            sampleEnds[i] = to;
+            from = to + 1;
+        }
+
+        // Same as VariantContextToVariantProtoConverter: FORMAT keys only with more than one sample
+        boolean withFormat = numSamples > 1;
+        if (withFormat) {
+            study.addAllFormat(Arrays.asList(format.sortedKeys));
+        }
+        for (int i = 0; i < numSamples; i++) {
+            int column = sampleColumns == null ? i : sampleColumns[i];
+            VariantProto.StudyEntry.SamplesDataInfoEntry.Builder sample = samples[i].clear();
+            if (withFormat) {
+                addSampleData(line, sampleStarts[column], sampleEnds[column], format, sample);
+            }
+            study.addSamplesData(sample);
+        }
+    }
+
+    private void addSampleData(String line, int from, int to, Format format,
+                               VariantProto.StudyEntry.SamplesDataInfoEntry.Builder sample) {
+        int numValues = 0;
+        int valueStart = from;
+        while (valueStart <= to) {
+            int valueEnd = indexOf(line, ':', valueStart, to);
+            if (numValues == format.keys.length) {
+                throw new IllegalArgumentException("There are too many values for the FORMAT keys of a sample, "
+                        + "keys = " + String.join(":", format.keys) + ", values = " + line.substring(from, to));
+            }
+            valueStarts[numValues] = valueStart;
+            valueEnds[numValues] = valueEnd;
+            numValues++;
+            valueStart = valueEnd + 1;
+        }
+
+        for (int i = 0; i < format.sortedKeys.length; i++) {
+            int column = format.sortedColumns[i];
+            String key = format.sortedKeys[i];
+            boolean missing = column >= numValues;
+            int start = missing ? 0 : valueStarts[column];
+            int end = missing ? 0 : valueEnds[column];
+            boolean missingValue = missing || end - start == 1 && line.charAt(start) == '.';
+            String value;
+            switch (key) {
+                case GENOTYPE_KEY:
+                    value = missing ? "" : getGenotype(line, start, end);
+                    break;
+                case GENOTYPE_QUALITY_KEY:
+                    if (missingValue || line.startsWith(MISSING_INT_VALUE, start) && end - start == 2) {
+                        value = MISSING_INT_VALUE;
+                    } else {
+                        value = Integer.toString((int) Math.round(Double.valueOf(line.substring(start, end))));
+                    }
+                    break;
+                case DEPTH_KEY:
+                    value = missingValue ? MISSING_INT_VALUE : Integer.toString(parseInt(line, start, end));
+                    break;
+                case ALLELE_DEPTHS_KEY:
+                    value = missingValue ? "" : decodeInts(line, start, end);
+                    break;
+                case PL_KEY:
+                    value = getPhredLikelihoods(line, format, numValues);
+                    break;
+                case FILTER_KEY:
+                    if (missingValue) {
+                        value = MISSING_VALUE;
+                    } else if (line.startsWith(PASS, start) && end - start == PASS.length()) {
+                        value = "";
+                    } else {
+                        value = String.join(",", line.substring(start, end).split(";"));
+                    }
+                    break;
+                default:
+                    value = missingValue ? MISSING_VALUE : line.substring(start, end);
+                    break;
+            }
+            sample.addInfo(value);
+        }
+    }
+
+    /**
+     * Genotype from the allele indexes, as written by the htsjdk converter: missing alleles as ".", and all the
+     * alleles phased if any is phased.
+     */
+    private String getGenotype(String line, int from, int to) {
+        boolean phased = indexOf(line, '|', from, to) < to;
+        char separator = phased ? '|' : '/';
+        int numAlleles = alternates.size() + 1;
+        buffer.setLength(0);
+        int i = from;
+        while (i < to) {
+            char c = line.charAt(i);
+            if (c == '/' || c == '|' || c == '\\') {
+                i++;
+                continue;
+            }
+            int next = i;
+            while (next < to && line.charAt(next) != '/' && line.charAt(next) != '|' && line.charAt(next) != '\\') {
+                next++;
+            }
+            if (buffer.length() > 0) {
+                buffer.append(separator);
+            }
+            if (next - i == 1 && c == '.') {
+                buffer.append('.');
+            } else {
+                int allele = parseInt(line, i, next);
+                if (allele < 0 || allele >= numAlleles) {
+                    throw new IllegalArgumentException("Invalid GT allele index " + line.substring(i, next)
+                            + " in VCF line: " + line);
+                }
+                buffer.append(allele);
+            }
+            i = next;
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * As htsjdk, PL is taken from the last PL or GL value of the sample, GL converted to PL.
+     */
+    private String getPhredLikelihoods(String line, Format format, int numValues) {
+        String pl = "";
+        for (int column = 0; column < numValues && column < format.keys.length; column++) {
+            String key = format.keys[column];
+            int start = valueStarts[column];
+            int end = valueEnds[column];
+            if (!key.equals(PL_KEY) && !key.equals(GL_KEY) || end - start == 1 && line.charAt(start) == '.') {
+                continue;
+            }
+            if (key.equals(PL_KEY)) {
+                pl = decodeInts(line, start, end);
+            } else {
+                String[] values = line.substring(start, end).split(",");
+                double[] likelihoods = new double[values.length];
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < values.length; i++) {
+                    likelihoods[i] = Double.parseDouble(values[i]);
+                    max = Math.max(max, likelihoods[i]);
+                }
+                buffer.setLength(0);
+                for (int i = 0; i < likelihoods.length; i++) {
+                    if (i > 0) {
+                        buffer.append(',');
+                    }
+                    buffer.append((int) Math.round(Math.min(-10 * (likelihoods[i] - max), Integer.MAX_VALUE)));
+                }
+                pl = buffer.toString();
+            }
+        }
+        return pl;
+    }
+
+    /**
+     * @return The integers written again, or empty if any is not an integer
+     */
+    private String decodeInts(String line, int from, int to) {
+        buffer.setLength(0);
+        while (true) {
+            int next = indexOf(line, ',', from, to);
+            int number;
+            try {
+                number = Integer.parseInt(line.substring(from, next));
+            } catch (NumberFormatException e) {
+                return "";
+            }
+            if (buffer.length() > 0) {
+                buffer.append(',');
+            }
+            buffer.append(number);
+            if (next == to) {
+                return buffer.toString();
+            }
+            from = next + 1;
+        }
+    }
+
+    private Format getFormat(String line) {
+        if (lastFormat != null && matches(line, 8, lastFormat.format)) {
+            return lastFormat;
+        }
+        int from = columnStarts[8];
+        int to = columnEnds[8];
+        String formatColumn = line.substring(from, to);
+        Format format = formats.get(formatColumn);
+        if (format == null) {
+            List<String> keyList = new ArrayList<>();
+            while (from < to) {
+                int next = indexOf(line, ':', from, to);
+                keyList.add(keys.intern(line, from, next));
+                from = next + 1;
+            }
+            format = new Format(formatColumn, keyList.toArray(new String[0]));
+            if (format.keys.length > 1 && Arrays.asList(format.keys).indexOf(GENOTYPE_KEY) > 0) {
+                throw new IllegalArgumentException("GT must be the first FORMAT key: " + line);
+            }
+            formats.put(formatColumn, format);
+        }
+        lastFormat = format;
+        return format;
+    }
+
+    private void setIds(String line) {
+        int from = columnStarts[2];
+        int to = columnEnds[2];
+        // As String.split, trailing empty IDs are dropped
+        while (to > from && line.charAt(to - 1) == ';') {
+            to--;
+        }
+        boolean first = true;
+        while (from < to) {
+            int next = indexOf(line, ';', from, to);
+            if (next - from != 1 || line.charAt(from) != '.') {
+                String id = line.substring(from, next);
+                if (first) {
+                    variant.setId(id);
+                    first = false;
+                } else {
+                    variant.addNames(id);
+                }
+            }
+            from = next + 1;
+        }
+    }
+
+    private void splitAlternates(String line) {
+        alternates.clear();
+        int from = columnStarts[4];
+        int to = columnEnds[4];
+        if (isMissing(line, from, to)) {
+            return;
+        }
+        while (from < to) {
+            int next = indexOf(line, ',', from, to);
+            String allele = line.substring(from, next);
+            alternates.add(isSymbolic(allele) ? allele : toUpperCase(allele));
+            from = next + 1;
+        }
+    }
+
+    /**
+     * Same types as VariantContext.getType().
+     */
+    static VariantProto.VariantType getType(String reference, List<String> alternates) {
+        VariantProto.VariantType type = VariantProto.VariantType.NO_VARIATION;
+        for (String alternate : alternates) {
+            VariantProto.VariantType alleleType;
+            if (isSymbolic(alternate)) {
+                alleleType = VariantProto.VariantType.SYMBOLIC;
+            } else if (reference.length() == alternate.length()) {
+                alleleType = alternate.length() == 1 ? VariantProto.VariantType.SNP : VariantProto.VariantType.MNP;
+            } else {
+                alleleType = VariantProto.VariantType.INDEL;
+            }
+            if (type == VariantProto.VariantType.NO_VARIATION) {
+                type = alleleType;
+            } else if (type != alleleType) {
+                return VariantProto.VariantType.MIXED;
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Same as htsjdk: symbolic alleles, breakends and single breakends. The "*" allele is not symbolic.
+     */
+    private static boolean isSymbolic(String allele) {
+        int length = allele.length();
+        return length > 1 && (allele.charAt(0) == '<' || allele.charAt(length - 1) == '>'
+                || allele.indexOf('[') >= 0 || allele.indexOf(']') >= 0
+                || allele.charAt(0) == '.' || allele.charAt(length - 1) == '.');
+    }
+
+    private static String toUpperCase(String bases) {
+        for (int i = 0; i < bases.length(); i++) {
+            if (Character.isLowerCase(bases.charAt(i))) {
+                return bases.toUpperCase(Locale.ROOT);
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * @return Number of columns, up to 9. The samples are not split here
+     */
+    private int splitColumns(String line) {
+        int from = 0;
+        int n = 0;
+        while (n < columnStarts.length) {
+            int to = line.indexOf('\t', from);
+            columnStarts[n] = from;
+            columnEnds[n] = to < 0 ? line.length() : to;
+            n++;
+            if (to < 0) {
+                break;
+            }
+            from = to + 1;
+        }
+        if (n == columnStarts.length && columnEnds[n - 1] < line.length()) {
+            // Count the samples
+            int samples = 1;
+            for (int i = columnEnds[n - 1] + 1; i < line.length(); i++) {
+                if (line.charAt(i) == '\t') {
+                    samples++;
+                }
+            }
+            return n + samples;
+        }
+        return n;
+    }
+
+    private boolean matches(String line, int column, String value) {
+        int from = columnStarts[column];
+        int length = columnEnds[column] - from;
+        return length == value.length() && line.regionMatches(from, value, 0, length);
+    }
+
+    private static boolean isMissing(String line, int from, int to) {
+        return to - from == 1 && line.charAt(from) == '.' || to == from;
+    }
+
+    private static int indexOf(String line, char c, int from, int to) {
+        int i = line.indexOf(c, from);
+        return i < 0 || i > to ? to : i;
+    }
+
+    private static int parseInt(String line, int from, int to) {
+        if (from >= to) {
+            throw new NumberFormatException("Empty number in VCF line: " + line);
+        }
+        int value = 0;
+        boolean negative = line.charAt(from) == '-';
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid number '" + line.substring(from, to) + "' in VCF line");
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Keys of a FORMAT column, and the order of the keys in the samples data.
+     */
+    private static final class Format {
+        private final String format;
+        private final String[] keys;
+        private final String[] sortedKeys;
+        private final int[] sortedColumns;
+
+        private Format(String format, String[] keys) {
+            this.format = format;
+            this.keys = keys;
+            // FullVcfCodec puts the keys of each genotype in a HashMap sized for one key less, and
+            // VariantContextToVariantProtoConverter takes them in the order of the map, with GT first
+            Map<String, Integer> attributes = new HashMap<>(Math.max(keys.length - 1, 0));
+            for (int i = 0; i < keys.length; i++) {
+                attributes.put(keys[i], i);
+            }
+            LinkedList<String> sorted = new LinkedList<>();
+            for (String key : attributes.keySet()) {
+                if (key.equals(GENOTYPE_KEY)) {
+                    sorted.add(0, key);
+                } else {
+                    sorted.add(key);
+                }
+            }
+            sortedKeys = sorted.toArray(new String[0]);
+            sortedColumns = new int[sortedKeys.length];
+            for (int i = 0; i < sortedKeys.length; i++) {
+                sortedColumns[i] = attributes.get(sortedKeys[i]);
+            }
+        }
+    }
+
+    /**
+     * Open addressing table of keys, looked up by a region of a line without creating a string.
+     */
+    private static final class KeyTable {
+
+        private String[] table = new String[64];
+        private int size;
+
+        private String intern(String line, int from, int to) {
+            int length = to - from;
+            int hash = 0;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + line.charAt(i);
+            }
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            String key;
+            while ((key = table[slot]) != null) {
+                if (key.length() == length && line.regionMatches(from, key, 0, length)) {
+                    return key;
+                }
+                slot = (slot + 1) & mask;
+            }
+            key = line.substring(from, to);
+            table[slot] = key;
+            if (++size * 2 > table.length) {
+                rehash();
+            }
+            return key;
+        }
+
+        private void rehash() {
+            String[] old = table;
+            table = new String[old.length * 2];
+            int mask = table.length - 1;
+            for (String key : old) {
+                if (key != null) {
+                    int slot = mix(key.hashCode()) & mask;
+                    while (table[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table[slot] = key;
+                }
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.opencb.biodata.tools.variant.filters;
 
 import htsjdk.variant.vcf.VCFConstants;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.commons.RegionFilter;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.FileEntry;
@@ -71,7 +72,8 @@ public class VariantAvroFilters extends VariantFilters<Variant> {
     }
 
     public VariantAvroFilters addSampleFormatFilter(String formatKey, Predicate<String> valueValidator) {
-        filters.add(variant -> filterSampleFormat(variant, formatKey, true, valueValidator));
+        FormatIndexResolver formatIndexResolver = new FormatIndexResolver(formatKey);
+        filters.add(variant -> filterSampleFormat(variant, formatIndexResolver, true, valueValidator));
         return this;
     }
 
@@ -99,19 +101,8 @@ public class VariantAvroFilters extends VariantFilters<Variant> {
 
     @Override
     public VariantAvroFilters addRegionFilter(List<Region> regions, boolean contained) {
-        List<Predicate<Variant>> predicates = new ArrayList<>(regions.size());
-        for (Region region: regions) {
-            if (contained) {
-                predicates.add(variant -> variant.getChromosome().equals(region.getChromosome())
-                        && variant.getStart() >= region.getStart()
-                        && variant.getEnd() <= region.getEnd());
-            } else {
-                predicates.add(variant -> variant.getChromosome().equals(region.getChromosome())
-                        && variant.getStart() <= region.getEnd()
-                        && variant.getEnd() >= region.getStart());
-            }
-        }
-        addFilterList(predicates);
+        RegionFilter regionFilter = new RegionFilter(regions, contained);
+        filters.add(variant -> regionFilter.test(variant.getChromosome(), variant.getStart(), variant.getEnd()));
         return this;
     }
 
@@ -210,7 +201,8 @@ public class VariantAvroFilters extends VariantFilters<Variant> {
             switch (type) {
                 case "FORMAT":
                     predicate = buildPredicate(op, value, acceptNull);
-                    filtersList.add(v -> filterSampleFormat(v, key, true, predicate));
+                    FormatIndexResolver formatIndexResolver = new FormatIndexResolver(key);
+                    filtersList.add(v -> filterSampleFormat(v, formatIndexResolver, true, predicate));
                     break;
                 case "INFO":
                 case "FILE":
@@ -232,14 +224,7 @@ public class VariantAvroFilters extends VariantFilters<Variant> {
                             } else {
                                 values = Collections.singleton(value);
                             }
-                            predicate = filterValue -> {
-                                for (String v : filterValue.split(VCFConstants.FILTER_CODE_SEPARATOR)) {
-                                    if (values.contains(v)) {
-                                        return containsFilter;
-                                    }
-                                }
-                                return !containsFilter;
-                            };
+                            predicate = filterValue -> anyFilterIn(filterValue, values) ? containsFilter : !containsFilter;
 
                         } else {
                             throw new IllegalArgumentException("Invalid operator " + op + " for FILE:FILTER");
@@ -337,22 +322,51 @@ public class VariantAvroFilters extends VariantFilters<Variant> {
         return false;
     }
 
-    private boolean inString(String values, String toFind) {
-        if (values != null && !values.isEmpty()) {
-            String fields[] = values.split("[,;]");
-            for (String field: fields) {
-                if (field.equals(toFind)) {
-                    return true;
-                }
+    /**
+     * Find a value in a list of values separated by "," or ";", without splitting the list.
+     */
+    private static boolean inString(String values, String toFind) {
+        if (values == null || values.isEmpty()) {
+            return false;
+        }
+        int length = toFind.length();
+        int from = 0;
+        while ((from = values.indexOf(toFind, from)) >= 0) {
+            int to = from + length;
+            if ((from == 0 || isSeparator(values.charAt(from - 1)))
+                    && (to == values.length() || isSeparator(values.charAt(to)))) {
+                return true;
+            }
+            from++;
+        }
+        return false;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == ';';
+    }
+
+    /**
+     * Check if any of the filters in a FILTER value is in the set of values. Only splits the value if it has more than
+     * one filter, as most of the FILTER values are a single filter, like "PASS".
+     */
+    private static boolean anyFilterIn(String filterValue, Set<String> values) {
+        if (filterValue == null || !filterValue.contains(VCFConstants.FILTER_CODE_SEPARATOR)) {
+            return values.contains(filterValue);
+        }
+        for (String v : filterValue.split(VCFConstants.FILTER_CODE_SEPARATOR)) {
+            if (values.contains(v)) {
+                return true;
             }
         }
         return false;
     }
 
-    private boolean filterSampleFormat(Variant variant, String formatKey, boolean mustPassAll, Predicate<String> valueValidator) {
+    private boolean filterSampleFormat(Variant variant, FormatIndexResolver formatIndexResolver, boolean mustPassAll,
+                                       Predicate<String> valueValidator) {
         StudyEntry studyEntry = getStudyEntry(variant, datasetId);
-        Integer idx = studyEntry.getFormatPositions().get(formatKey);
-        if (idx == null || idx < 0) {
+        int idx = formatIndexResolver.indexOf(studyEntry.getFormat());
+        if (idx < 0) {
             return valueValidator.test(null);
         }
         if (mustPassAll) {
@@ -410,4 +424,40 @@ public class VariantAvroFilters extends VariantFilters<Variant> {
             return studyEntry.getFile(fileId);
         }
     }
+
+    /**
+     * Resolves the position of a FORMAT key. Most of the variants from the same file share the same FORMAT, so the
+     * position is resolved once per distinct FORMAT, instead of building a map of positions for every variant.
+     */
+    private static final class FormatIndexResolver {
+        private final String formatKey;
+        // Last resolved FORMAT. Only a cache, so it does not need to be synchronized
+        private FormatIndex last;
+
+        private FormatIndexResolver(String formatKey) {
+            this.formatKey = formatKey;
+        }
+
+        private int indexOf(List<String> format) {
+            if (format == null) {
+                return -1;
+            }
+            FormatIndex last = this.last;
+            if (last == null || !last.format.equals(format)) {
+                last = new FormatIndex(new ArrayList<>(format), format.lastIndexOf(formatKey));
+                this.last = last;
+            }
+            return last.index;
+        }
+    }
+
+    private static final class FormatIndex {
+        private final List<String> format;
+        private final int index;
+
+        private FormatIndex(List<String> format, int index) {
+            this.format = format;
+            this.index = index;
+        }
+    }
 }
@@ -22,9 +22,9 @@ package org.opencb.biodata.tools.variant.filters;
 import htsjdk.variant.variantcontext.VariantContext;
 import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.commons.RegionFilter;
 
 import java.util.*;
-import java.util.function.Predicate;
 
 /**
  * Created by joaquin on 11/14/16.
@@ -87,19 +87,8 @@ public class VariantContextFilters extends VariantFilters<VariantContext> {
 
     @Override
     public VariantFilters<VariantContext> addRegionFilter(List<Region> regions, boolean contained) {
-        List<Predicate<VariantContext>> predicates = new ArrayList<>();
-        for (Region region: regions) {
-            if (contained) {
-                predicates.add(variant -> variant.getContig().equals(region.getChromosome())
-                        && variant.getStart() >= region.getStart()
-                        && variant.getEnd() <= region.getEnd());
-            } else {
-                predicates.add(variant -> variant.getContig().equals(region.getChromosome())
-                        && variant.getStart() <= region.getEnd()
-                        && variant.getEnd() >= region.getStart());
-            }
-        }
-        addFilterList(predicates);
+        RegionFilter regionFilter = new RegionFilter(regions, contained);
+        filters.add(variant -> regionFilter.test(variant.getContig(), variant.getStart(), variant.getEnd()));
         return this;
     }
 }
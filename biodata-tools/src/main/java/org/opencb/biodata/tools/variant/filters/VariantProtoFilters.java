@@ -21,11 +21,10 @@ package org.opencb.biodata.tools.variant.filters;
 
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.protobuf.VariantProto;
+import org.opencb.biodata.tools.commons.RegionFilter;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.function.Predicate;
 
 /**
  * Created by joaquin on 11/14/16.
@@ -76,19 +75,8 @@ public class VariantProtoFilters extends VariantFilters<VariantProto.Variant> {
 
     @Override
     public VariantFilters<VariantProto.Variant> addRegionFilter(List<Region> regions, boolean contained) {
-        List<Predicate<VariantProto.Variant>> predicates = new ArrayList<>();
-        for (Region region: regions) {
-            if (contained) {
-                predicates.add(variant -> variant.getChromosome().equals(region.getChromosome())
-                        && variant.getStart() >= region.getStart()
-                        && variant.getEnd() <= region.getEnd());
-            } else {
-                predicates.add(variant -> variant.getChromosome().equals(region.getChromosome())
-                        && variant.getStart() <= region.getEnd()
-                        && variant.getEnd() >= region.getStart());
-            }
-        }
-        addFilterList(predicates);
+        RegionFilter regionFilter = new RegionFilter(regions, contained);
+        filters.add(variant -> regionFilter.test(variant.getChromosome(), variant.getStart(), variant.getEnd()));
         return this;
     }
 
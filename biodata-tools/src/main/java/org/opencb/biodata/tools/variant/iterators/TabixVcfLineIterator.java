@@ -0,0 +1,189 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.iterators;
+
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.tribble.readers.TabixReader;
+import htsjdk.variant.vcf.VCFHeader;
+import org.opencb.biodata.models.core.Region;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Iterates over the lines of a bgzipped VCF file overlapping a list of regions, using its tabix index.
+ *
+ * Header lines are returned first, followed by the records of each region. Regions are sorted and merged, and
+ * records overlapping more than one region are returned only once. Only the BGZF blocks covering the regions are
+ * decompressed.
+ *
+ * Created on 19/10/26.
+ */
+public class TabixVcfLineIterator implements LineIterator, Closeable {
+
+    private static final String TABIX_INDEX_SUFFIX = ".tbi";
+    private static final String CSI_INDEX_SUFFIX = ".csi";
+
+    private final TabixReader tabixReader;
+    private final Iterator<String> headerIterator;
+    private final Iterator<Region> regionIterator;
+
+    private TabixReader.Iterator currentQuery;
+    // Records starting at or before this position were returned by the previous region of the same chromosome
+    private String previousChromosome;
+    private int previousEnd;
+    private int currentEnd;
+    private String currentChromosome;
+
+    private String next;
+
+    public TabixVcfLineIterator(Path input, List<Region> regions) {
+        if (!Files.exists(Paths.get(input.toString() + TABIX_INDEX_SUFFIX))) {
+            if (Files.exists(Paths.get(input.toString() + CSI_INDEX_SUFFIX))) {
+                throw new IllegalArgumentException("Unable to query file " + input + " by region. CSI indexes are not "
+                        + "supported, index with 'tabix -p vcf'");
+            }
+            throw new IllegalArgumentException("Unable to query file " + input + " by region. Missing tabix index "
+                    + input + TABIX_INDEX_SUFFIX);
+        }
+        try {
+            tabixReader = new TabixReader(input.toString());
+
+            // The header is not indexed. Read it from the beginning of the file
+            List<String> headerLines = new ArrayList<>();
+            String line;
+            while ((line = tabixReader.readLine()) != null && line.startsWith(VCFHeader.HEADER_INDICATOR)) {
+                headerLines.add(line);
+            }
+            headerIterator = headerLines.iterator();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        regionIterator = mergeRegions(regions).iterator();
+        next = fetchNext();
+    }
+
+    /**
+     * Sort regions by chromosome and start, and merge the overlapping ones.
+     *
+     * @param regions List of regions
+     * @return Sorted list of non overlapping regions
+     */
+    public static List<Region> mergeRegions(List<Region> regions) {
+        List<Region> sorted = new ArrayList<>(regions);
+        sorted.sort(Comparator.comparing(Region::getChromosome).thenComparingInt(Region::getStart));
+        List<Region> merged = new ArrayList<>(sorted.size());
+        Region last = null;
+        for (Region region : sorted) {
+            if (last != null && last.getChromosome().equals(region.getChromosome()) && region.getStart() <= last.getEnd()) {
+                last.setEnd(Math.max(last.getEnd(), region.getEnd()));
+            } else {
+                last = new Region(region.getChromosome(), region.getStart(), region.getEnd());
+                merged.add(last);
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public String peek() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        return next;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        String line = peek();
+        next = fetchNext();
+        return line;
+    }
+
+    @Override
+    public void close() {
+        tabixReader.close();
+    }
+
+    private String fetchNext() {
+        if (headerIterator.hasNext()) {
+            return headerIterator.next();
+        }
+        try {
+            while (true) {
+                if (currentQuery != null) {
+                    String line;
+                    while ((line = currentQuery.next()) != null) {
+                        if (!currentChromosome.equals(previousChromosome) || getPosition(line) > previousEnd) {
+                            return line;
+                        }
+                    }
+                    currentQuery = null;
+                    previousChromosome = currentChromosome;
+                    previousEnd = currentEnd;
+                }
+                if (!regionIterator.hasNext()) {
+                    return null;
+                }
+                Region region = regionIterator.next();
+                int tid = getChromosomeId(region.getChromosome());
+                if (tid >= 0) {
+                    // TabixReader expects 0-based, half-open intervals
+                    currentQuery = tabixReader.query(tid, Math.max(0, region.getStart() - 1), region.getEnd());
+                    currentChromosome = region.getChromosome();
+                    currentEnd = region.getEnd();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Find the chromosome in the index, accepting differences in the "chr" prefix.
+     */
+    private int getChromosomeId(String chromosome) {
+        int tid = tabixReader.chr2tid(chromosome);
+        if (tid < 0) {
+            if (chromosome.startsWith("chr")) {
+                tid = tabixReader.chr2tid(chromosome.substring(3));
+            } else {
+                tid = tabixReader.chr2tid("chr" + chromosome);
+            }
+        }
+        return tid;
+    }
+
+    private static int getPosition(String line) {
+        int from = line.indexOf('\t') + 1;
+        int to = line.indexOf('\t', from);
+        return Integer.parseInt(line.substring(from, to < 0 ? line.length() : to));
+    }
+}
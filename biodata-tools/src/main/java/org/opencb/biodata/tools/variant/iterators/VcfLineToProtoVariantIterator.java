@@ -0,0 +1,97 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.iterators;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.vcf.VCFHeader;
+import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.variant.protobuf.VariantProto;
+import org.opencb.biodata.tools.variant.converters.proto.VcfLineToVariantProtoConverter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the lines of a VCF file, converting them into {@link VariantProto.Variant} with a
+ * {@link VcfLineToVariantProtoConverter}, without decoding them into htsjdk VariantContexts.
+ *
+ * Header lines are skipped. Can be used with a plain line iterator or a {@link TabixVcfLineIterator}.
+ *
+ * Created on 19/10/26.
+ */
+public class VcfLineToProtoVariantIterator implements Iterator<VariantProto.Variant>, AutoCloseable {
+
+    private final LineIterator lineIterator;
+    private final VcfLineToVariantProtoConverter converter;
+
+    private String nextLine;
+
+    /**
+     * Reads the header from the line iterator, and converts the lines with an empty study and file ID.
+     *
+     * @param lineIterator Lines of the VCF file, including the header
+     */
+    public VcfLineToProtoVariantIterator(LineIterator lineIterator) {
+        this(lineIterator, new VcfLineToVariantProtoConverter(
+                (VCFHeader) new FullVcfCodec().readActualHeader(lineIterator)));
+    }
+
+    /**
+     * @param lineIterator Lines of the VCF file
+     * @param converter    Converter built from the header of the file
+     */
+    public VcfLineToProtoVariantIterator(LineIterator lineIterator, VcfLineToVariantProtoConverter converter) {
+        this.lineIterator = lineIterator;
+        this.converter = converter;
+        findNextLine();
+    }
+
+    private void findNextLine() {
+        nextLine = null;
+        while (lineIterator.hasNext()) {
+            String line = lineIterator.next();
+            if (!line.isEmpty() && !line.startsWith(VCFHeader.HEADER_INDICATOR)) {
+                nextLine = line;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextLine != null;
+    }
+
+    @Override
+    public VariantProto.Variant next() {
+        if (nextLine == null) {
+            throw new NoSuchElementException();
+        }
+        VariantProto.Variant variant = converter.convert(nextLine);
+        findNextLine();
+        return variant;
+    }
+
+    @Override
+    public void close() {
+        CloserUtil.close(lineIterator);
+    }
+}
@@ -56,6 +56,16 @@ import java.util.regex.Pattern;
 public class VariantMetadataManager {
 
     private VariantMetadata variantMetadata;
+    // Studies loaded from a binary snapshot and not added yet to the variant metadata, in order, and each study once
+    // decoded
+    private List<VariantMetadataSnapshot.EncodedStudy> snapshotStudies;
+    private VariantStudyMetadata[] decodedSnapshotStudies;
+
+    // Indexes, built on demand and discarded when the metadata is modified through this manager. See invalidateIndexes
+    private Map<String, VariantStudyMetadata> studyIndex;
+    private List<VariantStudyMetadata> indexedStudies;
+    private int numIndexedStudies;
+    private final Map<VariantStudyMetadata, StudyIndex> studyIndexes = new IdentityHashMap<>();
 
     private ObjectMapper mapper;
     private Logger logger;
@@ -87,7 +97,8 @@ public class VariantMetadataManager {
     }
 
     /**
-     * Load variant metadata file.
+     * Load variant metadata file, either in JSON format or a binary snapshot (see {@link #saveSnapshot(Path)}).
+     * Studies from a binary snapshot are decoded the first time they are accessed.
      *
      * @param path          Path to the variant metadata file
      * @throws IOException  IOException
@@ -95,25 +106,110 @@ public class VariantMetadataManager {
     public void load(Path path) throws IOException {
         FileUtils.checkPath(path);
         logger.debug("Loading variant metadata from '{}'", path.toAbsolutePath().toString());
-        variantMetadata = mapper.readValue(path.toFile(), VariantMetadata.class);
+        if (VariantMetadataSnapshot.isSnapshot(path)) {
+            VariantMetadataSnapshot snapshot = VariantMetadataSnapshot.read(path);
+            variantMetadata = snapshot.getMetadata();
+            variantMetadata.setStudies(new ArrayList<>());
+            snapshotStudies = snapshot.getStudies();
+            decodedSnapshotStudies = new VariantStudyMetadata[snapshotStudies.size()];
+        } else {
+            variantMetadata = mapper.readValue(path.toFile(), VariantMetadata.class);
+            snapshotStudies = null;
+            decodedSnapshotStudies = null;
+            for (VariantStudyMetadata variantStudyMetadata: variantMetadata.getStudies()) {
+                addIndividualAnnotations(variantStudyMetadata);
+            }
+        }
+        invalidateIndexes();
+    }
+
+    /**
+     * Save variant metadata manager in a compact binary snapshot (Avro binary encoding) into the given filename.
+     * Can be loaded with {@link #load(Path)}.
+     *
+     * @param filename      Filename where to store the metadata manager
+     * @throws IOException  IOException
+     */
+    public void saveSnapshot(Path filename) throws IOException {
+        if (filename == null || Files.exists(filename)) {
+            throw new IOException("File path not correct, either it is null or file already exists: " + filename);
+        }
+        VariantMetadataSnapshot.write(getVariantMetadata(), filename);
+    }
 
+    private void addIndividualAnnotations(VariantStudyMetadata variantStudyMetadata) {
         // We need to add Individual info fields to their sample annotations to allow more complex queries
-        for (VariantStudyMetadata variantStudyMetadata: variantMetadata.getStudies()) {
-            if (variantStudyMetadata.getIndividuals() != null) {
-                for (org.opencb.biodata.models.metadata.Individual individual : variantStudyMetadata.getIndividuals()) {
-                    for (Sample sample : individual.getSamples()) {
-                        sample.getAnnotations().put(INDIVIDUAL_ID, individual.getId());
-                        sample.getAnnotations().put(INDIVIDUAL_FAMILY, individual.getFamily());
-                        sample.getAnnotations().put(INDIVIDUAL_FATHER, individual.getFather());
-                        sample.getAnnotations().put(INDIVIDUAL_MOTHER, individual.getMother());
-                        sample.getAnnotations().put(INDIVIDUAL_SEX, individual.getSex());
-                        sample.getAnnotations().put(INDIVIDUAL_PHENOTYPE, individual.getPhenotype());
+        if (variantStudyMetadata.getIndividuals() != null) {
+            for (org.opencb.biodata.models.metadata.Individual individual : variantStudyMetadata.getIndividuals()) {
+                for (Sample sample : individual.getSamples()) {
+                    if (sample.getAnnotations() == null) {
+                        sample.setAnnotations(new HashMap<>());
                     }
+                    sample.getAnnotations().put(INDIVIDUAL_ID, individual.getId());
+                    sample.getAnnotations().put(INDIVIDUAL_FAMILY, individual.getFamily());
+                    sample.getAnnotations().put(INDIVIDUAL_FATHER, individual.getFather());
+                    sample.getAnnotations().put(INDIVIDUAL_MOTHER, individual.getMother());
+                    sample.getAnnotations().put(INDIVIDUAL_SEX, individual.getSex());
+                    sample.getAnnotations().put(INDIVIDUAL_PHENOTYPE, individual.getPhenotype());
                 }
             }
         }
     }
 
+    /**
+     * Add to the variant metadata all the studies from the binary snapshot, keeping their order.
+     */
+    private void loadSnapshotStudies() {
+        if (snapshotStudies != null) {
+            List<VariantStudyMetadata> studies = new ArrayList<>(snapshotStudies.size());
+            for (int i = 0; i < snapshotStudies.size(); i++) {
+                studies.add(getSnapshotStudy(i));
+            }
+            if (variantMetadata.getStudies() != null) {
+                studies.addAll(variantMetadata.getStudies());
+            }
+            variantMetadata.setStudies(studies);
+            snapshotStudies = null;
+            decodedSnapshotStudies = null;
+            invalidateIndexes();
+        }
+    }
+
+    private VariantStudyMetadata getSnapshotStudy(int i) {
+        VariantStudyMetadata study = decodedSnapshotStudies[i];
+        if (study == null) {
+            study = VariantMetadataSnapshot.decodeStudy(snapshotStudies.get(i).getBytes());
+            addIndividualAnnotations(study);
+            decodedSnapshotStudies[i] = study;
+        }
+        return study;
+    }
+
+    /**
+     * Discard the indexes used to speed up the queries. Changes made through this manager discard them automatically,
+     * but changes made in place to the objects returned by this manager (e.g. editing the annotations of a sample) are
+     * only detected when the list of files or individuals of a study is replaced or resized. Call this method after
+     * such changes, so the queries are not resolved with stale indexes.
+     */
+    public void invalidateIndexes() {
+        studyIndex = null;
+        indexedStudies = null;
+        studyIndexes.clear();
+    }
+
+    private void invalidateIndex(VariantStudyMetadata variantStudyMetadata) {
+        studyIndexes.remove(variantStudyMetadata);
+    }
+
+    private StudyIndex getStudyIndex(VariantStudyMetadata variantStudyMetadata) {
+        StudyIndex index = studyIndexes.get(variantStudyMetadata);
+        if (index == null || !index.isValid(variantStudyMetadata)) {
+            index = new StudyIndex(variantStudyMetadata);
+            studyIndexes.put(variantStudyMetadata, index);
+        }
+        return index;
+    }
+
 
     /**
      * Retrieve the variant study metadata from its study ID.
@@ -123,13 +219,33 @@ public class VariantMetadataManager {
      */
     public VariantStudyMetadata getVariantStudyMetadata(String studyId) {
         if (studyId != null) {
+            if (snapshotStudies != null) {
+                // First study with the ID, as in the study index
+                for (int i = 0; i < snapshotStudies.size(); i++) {
+                    if (studyId.equals(snapshotStudies.get(i).getId())) {
+                        return getSnapshotStudy(i);
+                    }
+                }
+            }
             if (variantMetadata.getStudies() == null) {
                 variantMetadata.setStudies(new ArrayList<>());
             }
-            for (VariantStudyMetadata study : variantMetadata.getStudies()) {
-                if (studyId.equals(study.getId())) {
-                    return study;
+            List<VariantStudyMetadata> studies = variantMetadata.getStudies();
+            if (studyIndex == null || indexedStudies != studies || numIndexedStudies != studies.size()) {
+                studyIndex = new HashMap<>();
+                for (VariantStudyMetadata study : studies) {
+                    studyIndex.putIfAbsent(study.getId(), study);
                 }
+                indexedStudies = studies;
+                numIndexedStudies = studies.size();
+            }
+            VariantStudyMetadata study = studyIndex.get(studyId);
+            if (study != null && studyId.equals(study.getId())) {
+                return study;
+            } else if (study != null) {
+                // Study ID modified after indexing
+                studyIndex = null;
+                return getVariantStudyMetadata(studyId);
             }
         } else {
             logger.error("Study ID is null");
@@ -148,10 +264,12 @@ public class VariantMetadataManager {
             // if there is not any study with that ID then we add the new one
             // TODO we need to think what to do when it exists, should we throw an exception?
             if (found == null) {
+                loadSnapshotStudies();
                 if (variantMetadata.getStudies() == null) {
                     variantMetadata.setStudies(new ArrayList<>());
                 }
                 variantMetadata.getStudies().add(variantStudyMetadata);
+                studyIndex = null;
             } else {
                 logger.error("Study ID already exists");
             }
@@ -174,9 +292,12 @@ public class VariantMetadataManager {
             logger.error("Dataset not found. Check your study ID: '{}'", studyId);
             return;
         }
+        loadSnapshotStudies();
         for (int i = 0; i < variantMetadata.getStudies().size(); i++) {
             if (studyId.equals(variantMetadata.getStudies().get(i).getId())) {
                 variantMetadata.getStudies().remove(i);
+                invalidateIndex(variantStudyMetadata);
+                studyIndex = null;
                 return;
             }
         }
@@ -203,29 +324,22 @@ public class VariantMetadataManager {
         if (variantStudyMetadata.getFiles() == null) {
             variantStudyMetadata.setFiles(new ArrayList<>());
         }
-        for (VariantFileMetadata file: variantStudyMetadata.getFiles()) {
-            if (file.getId() != null && file.getId().equals(fileMetadata.getId())) {
-                logger.error("Variant file metadata with id '{}' already exists in study '{}'", fileMetadata.getId(),
-                        studyId);
-                return;
-            }
-        }
         // individual management
         if (variantStudyMetadata.getIndividuals() == null) {
             variantStudyMetadata.setIndividuals(new ArrayList<>());
         }
-        if (!variantStudyMetadata.getIndividuals().isEmpty()) {
-            // check if samples are already in study
-            for (String sampleId: fileMetadata.getSampleIds()) {
-                for (org.opencb.biodata.models.metadata.Individual individual: variantStudyMetadata.getIndividuals()) {
-                    for (Sample sample: individual.getSamples()) {
-                        if (sampleId.equals(sample.getId())) {
-                            logger.error("Sample '{}' from file {} already exists in study '{}'",
-                                    sampleId, fileMetadata.getId(), studyId);
-                            return;
-                        }
-                    }
-                }
+        StudyIndex index = getStudyIndex(variantStudyMetadata);
+        if (index.fileById.containsKey(fileMetadata.getId())) {
+            logger.error("Variant file metadata with id '{}' already exists in study '{}'", fileMetadata.getId(),
+                    studyId);
+            return;
+        }
+        // check if samples are already in study
+        for (String sampleId: fileMetadata.getSampleIds()) {
+            if (index.sampleById.containsKey(sampleId)) {
+                logger.error("Sample '{}' from file {} already exists in study '{}'",
+                        sampleId, fileMetadata.getId(), studyId);
+                return;
             }
         }
         // by default, create individuals from sample, and individual ID takes the sample ID
@@ -246,6 +360,7 @@ public class VariantMetadataManager {
 
 
         variantStudyMetadata.getFiles().add(fileMetadata);
+        invalidateIndex(variantStudyMetadata);
     }
 
     /**
@@ -311,6 +426,7 @@ public class VariantMetadataManager {
             for (int i = 0; i < variantStudyMetadata.getFiles().size(); i++) {
                 if (fileId.equals(variantStudyMetadata.getFiles().get(i).getId())) {
                     variantStudyMetadata.getFiles().remove(i);
+                    invalidateIndex(variantStudyMetadata);
                     return;
                 }
             }
@@ -338,14 +454,13 @@ public class VariantMetadataManager {
         if (variantStudyMetadata.getIndividuals() == null) {
             variantStudyMetadata.setIndividuals(new ArrayList<>());
         }
-        for (org.opencb.biodata.models.metadata.Individual indi: variantStudyMetadata.getIndividuals()) {
-            if (indi.getId() != null && indi.getId().equals(individual.getId())) {
-                logger.error("Individual with id '{}' already exists in study '{}'", individual.getId(),
-                        studyId);
-                return;
-            }
+        if (getStudyIndex(variantStudyMetadata).individualById.containsKey(individual.getId())) {
+            logger.error("Individual with id '{}' already exists in study '{}'", individual.getId(),
+                    studyId);
+            return;
         }
         variantStudyMetadata.getIndividuals().add(individual);
+        invalidateIndex(variantStudyMetadata);
     }
 
     /**
@@ -385,6 +500,7 @@ public class VariantMetadataManager {
             for (int i = 0; i < variantStudyMetadata.getIndividuals().size(); i++) {
                 if (individualId.equals(variantStudyMetadata.getIndividuals().get(i).getId())) {
                     variantStudyMetadata.getIndividuals().remove(i);
+                    invalidateIndex(variantStudyMetadata);
                     return;
                 }
             }
@@ -492,10 +608,35 @@ public class VariantMetadataManager {
         return samples;
     }
 
+    /**
+     * Retrieve the samples of a given study (from its study ID) matching the query over the sample annotations.
+     * Samples are first selected from an inverted index of the annotations, using the most selective equality filter.
+     * The index is built on the first query, so annotations modified in place afterwards require calling
+     * {@link #invalidateIndexes()}.
+     *
+     * @param query     Query, e.g. "age" : ">=30"
+     * @param studyId   Study ID
+     * @return          Sample list
+     */
     public List<Sample> getSamples(Query query, String studyId) {
         List<Sample> sampleResult = new ArrayList<>();
 
-        List<Sample> samples = getSamples(studyId);
+        VariantStudyMetadata variantStudyMetadata = getVariantStudyMetadata(studyId);
+        if (variantStudyMetadata == null) {
+            logger.error("Study not found. Check your study ID: '{}'", studyId);
+            return sampleResult;
+        }
+        StudyIndex index = getStudyIndex(variantStudyMetadata);
+        List<Sample> samples = index.samples;
+        for (String key : query.keySet()) {
+            Matcher matcher = OPERATION_PATTERN.matcher(query.getString(key));
+            if (matcher.matches() && (matcher.group(1).equals("=") || matcher.group(1).equals("=="))) {
+                List<Sample> candidates = index.getSamples(key, matcher.group(2));
+                if (candidates.size() < samples.size()) {
+                    samples = candidates;
+                }
+            }
+        }
         List<Predicate<Sample>> predicates = parseSampleQuery(query);
         boolean passFilter;
         for (Sample sample : samples) {
@@ -540,18 +681,14 @@ public class VariantMetadataManager {
     public VariantMetadata loadPedigree(Pedigree pedigree, String studyId) {
         VariantStudyMetadata variantStudyMetadata = getVariantStudyMetadata(studyId);
         if (variantStudyMetadata != null) {
-            boolean found;
-            org.opencb.biodata.models.metadata.Individual dest = null;
+            Map<String, org.opencb.biodata.models.metadata.Individual> individualById
+                    = getStudyIndex(variantStudyMetadata).individualById;
+            // Annotations and samples are modified
+            invalidateIndex(variantStudyMetadata);
+            org.opencb.biodata.models.metadata.Individual dest;
             for (Member src: pedigree.getMembers()) {
-                found = false;
-                for (int i = 0; i < variantStudyMetadata.getIndividuals().size(); i++) {
-                    dest = variantStudyMetadata.getIndividuals().get(i);
-                    if (dest.getId().equals(src.getName())) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (found) {
+                dest = individualById.get(src.getName());
+                if (dest != null) {
                     dest.setFamily(pedigree.getName());
                     dest.setFather(src.getFather() != null ? src.getFather().getName() : null);
                     dest.setMother(src.getMother() != null ? src.getMother().getName() : null);
@@ -719,6 +856,7 @@ public class VariantMetadataManager {
      * @throws IOException  IOException
      */
     public void print() throws IOException {
+        loadSnapshotStudies();
         System.out.println(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(variantMetadata));
     }
 
@@ -728,6 +866,7 @@ public class VariantMetadataManager {
      * @throws IOException  IOException
      */
     public void printSummary() {
+        loadSnapshotStudies();
         StringBuilder res = new StringBuilder();
         res.append("Num. studies: ").append(variantMetadata.getStudies().size()).append("\n");
         int counter, studyCounter = 0;
@@ -776,6 +915,7 @@ public class VariantMetadataManager {
             throw new IOException("File path not correct, either it is null or file already exists: " + filename);
         }
 
+        loadSnapshotStudies();
         String text;
         if (pretty) {
             text = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(variantMetadata);
@@ -791,6 +931,7 @@ public class VariantMetadataManager {
 
     @Override
     public String toString() {
+        loadSnapshotStudies();
         final StringBuilder sb = new StringBuilder("VariantMetadataManager{");
         sb.append("variantMetadata=").append(variantMetadata);
         sb.append(", mapper=").append(mapper);
@@ -799,11 +940,15 @@ public class VariantMetadataManager {
     }
 
     public VariantMetadata getVariantMetadata() {
+        loadSnapshotStudies();
         return variantMetadata;
     }
 
     public VariantMetadataManager setVariantMetadata(VariantMetadata variantMetadata) {
         this.variantMetadata = variantMetadata;
+        snapshotStudies = null;
+        decodedSnapshotStudies = null;
+        invalidateIndexes();
         return this;
     }
 
@@ -820,10 +965,13 @@ public class VariantMetadataManager {
                 String comparator = matcher.group(1);
                 String queryValue = matcher.group(2);
 
+                // Query values are parsed once, not for every sample
+                Double number = parseNumber(queryValue);
                 switch (comparator) {
                     case "=":
                     case "==":
-                    case "!=":
+                    case "!=": {
+                        boolean negate = comparator.equals("!=");
                         filters.add(sample -> {
                             String s = sample.getAnnotations().getOrDefault(key, "");
 
@@ -832,59 +980,37 @@ public class VariantMetadataManager {
 //                                return true;
 //                            }
 
-                            try {
-                                if (!comparator.equals("!=")) {
-                                    return Double.parseDouble(s) == Double.parseDouble(queryValue);
-                                } else {
-                                    return Double.parseDouble(s) != Double.parseDouble(queryValue);
-                                }
-                            } catch (NumberFormatException e) {
-                                if (!comparator.equals("!=")) {
-                                    return s.equals(queryValue);
-                                } else {
-                                    return !s.equals(queryValue);
-                                }
+                            Double d = number == null ? null : parseNumber(s);
+                            if (d != null) {
+                                return negate ? d.doubleValue() != number.doubleValue() : d.doubleValue() == number.doubleValue();
+                            } else {
+                                return negate != queryValue.equals(s);
                             }
                         });
                         break;
+                    }
                     case "<":
                         filters.add(sample -> {
-                            try {
-                                String s = sample.getAnnotations().getOrDefault(key, "");
-                                return Double.parseDouble(s) < Double.parseDouble(queryValue);
-                            } catch (NumberFormatException e) {
-                                return false;
-                            }
+                            Double d = number == null ? null : parseNumber(sample.getAnnotations().getOrDefault(key, ""));
+                            return d != null && d < number;
                         });
                         break;
                     case "<=":
                         filters.add(sample -> {
-                            try {
-                                String s = sample.getAnnotations().getOrDefault(key, "");
-                                return Double.parseDouble(s) <= Double.parseDouble(queryValue);
-                            } catch (NumberFormatException e) {
-                                return false;
-                            }
+                            Double d = number == null ? null : parseNumber(sample.getAnnotations().getOrDefault(key, ""));
+                            return d != null && d <= number;
                         });
                         break;
                     case ">":
                         filters.add(sample -> {
-                            try {
-                                String s = sample.getAnnotations().getOrDefault(key, "");
-                                return Double.parseDouble(s) > Double.parseDouble(queryValue);
-                            } catch (NumberFormatException e) {
-                                return false;
-                            }
+                            Double d = number == null ? null : parseNumber(sample.getAnnotations().getOrDefault(key, ""));
+                            return d != null && d > number;
                         });
                         break;
                     case ">=":
                         filters.add(sample -> {
-                            try {
-                                String s = sample.getAnnotations().getOrDefault(key, "");
-                                return Double.parseDouble(s) >= Double.parseDouble(queryValue);
-                            } catch (NumberFormatException e) {
-                                return false;
-                            }
+                            Double d = number == null ? null : parseNumber(sample.getAnnotations().getOrDefault(key, ""));
+                            return d != null && d >= number;
                         });
                         break;
                     case "~=":
@@ -906,4 +1032,112 @@ public class VariantMetadataManager {
 
         return filters;
     }
+
+    private static Double parseNumber(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Key of an annotation value in the inverted index. Numeric values are normalized, so values equal as numbers
+     * share the same key, as in the "=" filter.
+     *
+     * @param value Annotation value
+     * @return      Key of the value, or null if it can not match any equality filter
+     */
+    private static String annotationKey(String value) {
+        if (value == null) {
+            return null;
+        }
+        Double number = parseNumber(value);
+        if (number == null) {
+            return "s:" + value;
+        } else if (number.isNaN()) {
+            return null;
+        } else {
+            // 0.0 == -0.0
+            return "n:" + (number == 0 ? 0.0 : number);
+        }
+    }
+
+    /**
+     * Hash indexes of a study. The inverted index of each sample annotation is built the first time it is queried.
+     */
+    private static final class StudyIndex {
+        private final List<VariantFileMetadata> files;
+        private final int numFiles;
+        private final List<org.opencb.biodata.models.metadata.Individual> individuals;
+        private final int numIndividuals;
+
+        private final Map<String, VariantFileMetadata> fileById = new HashMap<>();
+        private final Map<String, org.opencb.biodata.models.metadata.Individual> individualById = new HashMap<>();
+        private final Map<String, Sample> sampleById = new HashMap<>();
+        private final List<Sample> samples = new ArrayList<>();
+        private final Map<String, Map<String, List<Sample>>> annotationIndex = new HashMap<>();
+
+        private StudyIndex(VariantStudyMetadata variantStudyMetadata) {
+            files = variantStudyMetadata.getFiles();
+            numFiles = files == null ? 0 : files.size();
+            individuals = variantStudyMetadata.getIndividuals();
+            numIndividuals = individuals == null ? 0 : individuals.size();
+
+            if (files != null) {
+                for (VariantFileMetadata file : files) {
+                    if (file.getId() != null) {
+                        fileById.putIfAbsent(file.getId(), file);
+                    }
+                }
+            }
+            if (individuals != null) {
+                for (org.opencb.biodata.models.metadata.Individual individual : individuals) {
+                    if (individual.getId() != null) {
+                        individualById.putIfAbsent(individual.getId(), individual);
+                    }
+                    if (individual.getSamples() != null) {
+                        for (Sample sample : individual.getSamples()) {
+                            if (sample.getAnnotations() == null) {
+                                sample.setAnnotations(new HashMap<>());
+                            }
+                            if (sample.getId() != null) {
+                                sampleById.putIfAbsent(sample.getId(), sample);
+                            }
+                            samples.add(sample);
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean isValid(VariantStudyMetadata variantStudyMetadata) {
+            return files == variantStudyMetadata.getFiles() && numFiles == (files == null ? 0 : files.size())
+                    && individuals == variantStudyMetadata.getIndividuals()
+                    && numIndividuals == (individuals == null ? 0 : individuals.size());
+        }
+
+        /**
+         * @param annotation    Annotation key
+         * @param value         Annotation value
+         * @return              Samples, in study order, with an annotation value equal to the given one
+         */
+        private List<Sample> getSamples(String annotation, String value) {
+            Map<String, List<Sample>> index = annotationIndex.computeIfAbsent(annotation, key -> {
+                Map<String, List<Sample>> map = new HashMap<>();
+                for (Sample sample : samples) {
+                    String indexKey = annotationKey(sample.getAnnotations().getOrDefault(key, ""));
+                    if (indexKey != null) {
+                        map.computeIfAbsent(indexKey, k -> new ArrayList<>()).add(sample);
+                    }
+                }
+                return map;
+            });
+            String indexKey = annotationKey(value);
+            return indexKey == null ? Collections.emptyList() : index.getOrDefault(indexKey, Collections.emptyList());
+        }
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.metadata;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.opencb.biodata.models.variant.metadata.VariantMetadata;
+import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compact binary snapshot of a {@link VariantMetadata}.
+ *
+ * The snapshot contains the Avro binary encoding of the project (without studies), followed by the encoding of each
+ * study in order, prefixed by its ID (which might be null) and size, so studies can be decoded on demand. The schema used is the {@link VariantMetadata}
+ * schema with all the fields nullable, as objects built in memory do not always fill the required fields.
+ *
+ * Created on 19/10/26.
+ */
+class VariantMetadataSnapshot {
+
+    private static final byte[] MAGIC = {'V', 'M', 'S', 'N', 'A', 'P', 0, 2};
+
+    private static final Schema METADATA_SCHEMA;
+    private static final Schema STUDY_SCHEMA;
+
+    static {
+        Map<String, Schema> records = new HashMap<>();
+        METADATA_SCHEMA = nullable(VariantMetadata.getClassSchema(), records);
+        STUDY_SCHEMA = records.get(VariantStudyMetadata.getClassSchema().getFullName());
+    }
+
+    private final VariantMetadata metadata;
+    private final List<EncodedStudy> studies;
+
+    private VariantMetadataSnapshot(VariantMetadata metadata, List<EncodedStudy> studies) {
+        this.metadata = metadata;
+        this.studies = studies;
+    }
+
+    /**
+     * @return Variant metadata, without studies
+     */
+    VariantMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return Encoded studies, in the original order. Might contain duplicated or null IDs
+     */
+    List<EncodedStudy> getStudies() {
+        return studies;
+    }
+
+    static boolean isSnapshot(Path path) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream is = Files.newInputStream(path)) {
+            int read = 0;
+            int n;
+            while (read < magic.length && (n = is.read(magic, read, magic.length - read)) > 0) {
+                read += n;
+            }
+            return read == magic.length && Arrays.equals(MAGIC, magic);
+        }
+    }
+
+    static void write(VariantMetadata variantMetadata, Path path) throws IOException {
+        VariantMetadata header = new VariantMetadata();
+        header.setVersion(variantMetadata.getVersion());
+        header.setSpecies(variantMetadata.getSpecies());
+        header.setCreationDate(variantMetadata.getCreationDate());
+        header.setDescription(variantMetadata.getDescription());
+        header.setStudies(Collections.emptyList());
+
+        List<VariantStudyMetadata> studies = variantMetadata.getStudies() == null
+                ? Collections.emptyList()
+                : variantMetadata.getStudies();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.write(MAGIC);
+            writeBytes(out, encode(header, METADATA_SCHEMA));
+            out.writeInt(studies.size());
+            for (VariantStudyMetadata study : studies) {
+                out.writeBoolean(study.getId() != null);
+                if (study.getId() != null) {
+                    out.writeUTF(study.getId());
+                }
+                writeBytes(out, encode(study, STUDY_SCHEMA));
+            }
+        }
+    }
+
+    static VariantMetadataSnapshot read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("File " + path + " is not a variant metadata snapshot");
+            }
+            VariantMetadata metadata = decode(readBytes(in), METADATA_SCHEMA);
+            int numStudies = in.readInt();
+            List<EncodedStudy> studies = new ArrayList<>(numStudies);
+            for (int i = 0; i < numStudies; i++) {
+                String studyId = in.readBoolean() ? in.readUTF() : null;
+                studies.add(new EncodedStudy(studyId, readBytes(in)));
+            }
+            return new VariantMetadataSnapshot(metadata, studies);
+        }
+    }
+
+    static VariantStudyMetadata decodeStudy(byte[] bytes) {
+        try {
+            return decode(bytes, STUDY_SCHEMA);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(SpecificRecord record, Schema schema) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(bytes, null);
+        new SpecificDatumWriter<SpecificRecord>(schema).write(record, encoder);
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+
+    private static <T> T decode(byte[] bytes, Schema schema) throws IOException {
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(bytes, null);
+        return new SpecificDatumReader<T>(schema).read(null, decoder);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Copy of the schema where every field, array item and map value accepts null values.
+     * Records keep their names, so they are still decoded as the generated classes.
+     */
+    private static Schema nullable(Schema schema, Map<String, Schema> records) {
+        Schema nullable;
+        switch (schema.getType()) {
+            case RECORD:
+                nullable = records.get(schema.getFullName());
+                if (nullable != null) {
+                    return nullable;
+                }
+                nullable = Schema.createRecord(schema.getName(), schema.getDoc(), schema.getNamespace(), schema.isError());
+                records.put(schema.getFullName(), nullable);
+                List<Schema.Field> fields = new ArrayList<>(schema.getFields().size());
+                for (Schema.Field field : schema.getFields()) {
+                    fields.add(new Schema.Field(field.name(), optional(nullable(field.schema(), records)), field.doc(), null));
+                }
+                nullable.setFields(fields);
+                break;
+            case ARRAY:
+                nullable = Schema.createArray(optional(nullable(schema.getElementType(), records)));
+                break;
+            case MAP:
+                nullable = Schema.createMap(optional(nullable(schema.getValueType(), records)));
+                break;
+            case UNION:
+                List<Schema> types = new ArrayList<>(schema.getTypes().size());
+                for (Schema type : schema.getTypes()) {
+                    types.add(nullable(type, records));
+                }
+                return Schema.createUnion(types);
+            default:
+                return schema;
+        }
+        // Keep properties like "avro.java.string"
+        for (Map.Entry<String, String> entry : schema.getProps().entrySet()) {
+            nullable.addProp(entry.getKey(), entry.getValue());
+        }
+        return nullable;
+    }
+
+    private static Schema optional(Schema schema) {
+        if (schema.getType() == Schema.Type.NULL) {
+            return schema;
+        }
+        List<Schema> types = new ArrayList<>();
+        types.add(Schema.create(Schema.Type.NULL));
+        if (schema.getType() == Schema.Type.UNION) {
+            for (Schema type : schema.getTypes()) {
+                if (type.getType() == Schema.Type.NULL) {
+                    return schema;
+                }
+                types.add(type);
+            }
+        } else {
+            types.add(schema);
+        }
+        return Schema.createUnion(types);
+    }
+
+    static final class EncodedStudy {
+        private final String id;
+        private final byte[] bytes;
+
+        private EncodedStudy(String id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantScore;
 import org.opencb.biodata.models.variant.stats.VariantHardyWeinbergStats;
 import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.biodata.tools.variant.stats.HardyWeinbergExactTest;
 import org.opencb.commons.run.Task;
 
 import java.util.ArrayList;
@@ -21,6 +22,7 @@ public class HardyWeinbergScoreCalculatorTask implements Task<Variant, Variant>
     public static final String SCORE_ID = "hw";
     private final String studyId;
     private final String cohortName;
+    private final HardyWeinbergExactTest exactTest;
 
     private final static Genotype HOM_REF = new Genotype("0/0");
     private final static Genotype HET = new Genotype("0/1");
@@ -30,8 +32,18 @@ public class HardyWeinbergScoreCalculatorTask implements Task<Variant, Variant>
     private final static Genotype HOM_ALT_PHASED = new Genotype("1|1");
 
     public HardyWeinbergScoreCalculatorTask(String studyId, String cohortName) {
+        this(studyId, cohortName, false);
+    }
+
+    /**
+     * @param studyId       Study
+     * @param cohortName    Cohort with the genotype counts
+     * @param exactPValue   Use the mid-p value of the exact test as score p-value. Otherwise, it is not calculated
+     */
+    public HardyWeinbergScoreCalculatorTask(String studyId, String cohortName, boolean exactPValue) {
         this.studyId = studyId;
         this.cohortName = cohortName;
+        this.exactTest = exactPValue ? new HardyWeinbergExactTest() : null;
     }
 
     @Override
@@ -53,14 +65,14 @@ public class HardyWeinbergScoreCalculatorTask implements Task<Variant, Variant>
             return variant;
         }
 
-        VariantHardyWeinbergStats hw = new VariantHardyWeinbergStats(
-                stats.getGenotypeCount().getOrDefault(HOM_REF, 0) + stats.getGenotypeCount().getOrDefault(HOM_REF_PHASED, 0),
-                stats.getGenotypeCount().getOrDefault(HET, 0) + stats.getGenotypeCount().getOrDefault(HET_PHASED, 0),
-                stats.getGenotypeCount().getOrDefault(HOM_ALT, 0) + stats.getGenotypeCount().getOrDefault(HOM_ALT_PHASED, 0)
-        );
+        int nAA = stats.getGenotypeCount().getOrDefault(HOM_REF, 0) + stats.getGenotypeCount().getOrDefault(HOM_REF_PHASED, 0);
+        int nAB = stats.getGenotypeCount().getOrDefault(HET, 0) + stats.getGenotypeCount().getOrDefault(HET_PHASED, 0);
+        int nBB = stats.getGenotypeCount().getOrDefault(HOM_ALT, 0) + stats.getGenotypeCount().getOrDefault(HOM_ALT_PHASED, 0);
+        VariantHardyWeinbergStats hw = new VariantHardyWeinbergStats(nAA, nAB, nBB);
         hw.calculate();
 
-        study.addScore(new VariantScore(SCORE_ID, cohortName, null, hw.getChi2(), hw.getpValue()));
+        float pValue = exactTest == null ? hw.getpValue() : (float) exactTest.midP(nAA, nAB, nBB);
+        study.addScore(new VariantScore(SCORE_ID, cohortName, null, hw.getChi2(), pValue));
 
         return variant;
     }
@@ -18,14 +18,27 @@
  */
 package org.opencb.biodata.tools.variant.simulator;
 
+import htsjdk.variant.vcf.*;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.metadata.SampleSetType;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
-import org.opencb.biodata.models.variant.avro.VariantType;
+import org.opencb.biodata.models.variant.avro.FileEntry;
+import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+import org.opencb.biodata.tools.variant.converters.VCFExporter;
+import org.opencb.biodata.tools.variant.metadata.VariantMetadataManager;
+import org.opencb.commons.io.DataWriter;
 
+import java.io.IOException;
 import java.math.RoundingMode;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Created by imedina on 08/10/15.
@@ -40,9 +53,13 @@ public class VariantSimulator {
     private VariantSimulatorConfiguration variantSimulatorConfiguration;
 
     private Random rand;
+    private final long seed;
+    // Random generator of the single variants from simulate(), each one gets a split
+    private final SplittableRandom random;
 
     public static final int DEFAULT_NUM_SAMPLES = 10;
     public static final String[] ALLELE_BASES = {"A", "C", "G", "T"};
+    public static final List<String> FORMAT = Collections.unmodifiableList(Arrays.asList("GT", "GQ", "DP", "HQ"));
 
     // Default configuration values are used
     public VariantSimulator() {
@@ -51,12 +68,29 @@ public class VariantSimulator {
 
     public VariantSimulator(VariantSimulatorConfiguration variantSimulatorConfiguration) {
         this.variantSimulatorConfiguration = variantSimulatorConfiguration;
-        rand = new Random();
+        seed = variantSimulatorConfiguration.getSeed() == null
+                ? new Random().nextLong()
+                : variantSimulatorConfiguration.getSeed();
+        rand = new Random(seed);
+        random = new SplittableRandom(seed);
     }
 
-
+    /**
+     * Simulate a single variant in one of the configured regions. Successive calls return different variants, the
+     * same ones for a given seed.
+     *
+     * @return variant
+     */
     public Variant simulate() {
-        return _create(DEFAULT_NUM_SAMPLES, variantSimulatorConfiguration.getRegions());
+        List<Region> regions = variantSimulatorConfiguration.getRegions();
+        SplittableRandom variantRandom;
+        synchronized (random) {
+            variantRandom = random.split();
+        }
+        Region region = regions.get(variantRandom.nextInt(regions.size()));
+        int start = Math.max(region.getStart(), 1);
+        Shard shard = new Shard(region.getChromosome(), start, Math.max(region.getEnd(), start), 1, variantRandom);
+        return new ShardGenerator(variantSimulatorConfiguration, DEFAULT_NUM_SAMPLES).generate(shard).get(0);
     }
 
     /**
@@ -64,15 +98,7 @@ public class VariantSimulator {
      * @return variants
      */
     public List<Variant> simulate(int numVariants) {
-        List<Variant> variants = new ArrayList<>(numVariants);
-        Set<Variant> createdVariants = new HashSet<>(numVariants);
-        Variant variant;
-        // TODO we need to control that there now variants in the same chromosome and start
-        for (int i = 0; i < numVariants; i++) {
-            variant = _create(DEFAULT_NUM_SAMPLES, variantSimulatorConfiguration.getRegions());
-            variants.add(variant);
-        }
-        return variants;
+        return simulate(numVariants, DEFAULT_NUM_SAMPLES, variantSimulatorConfiguration.getRegions());
     }
 
     /**
@@ -82,69 +108,214 @@ public class VariantSimulator {
      * @return variants
      */
     public List<Variant> simulate(int numVariants, int numSamples, List<Region> regions) {
+        List<Variant> variants = new ArrayList<>(Math.max(numVariants, 1));
+        simulate(numVariants, numSamples, regions, variants::addAll);
+        return variants;
+    }
+
+    /**
+     * Simulate variants and write them, without keeping them in memory. The writer is opened and closed.
+     *
+     * @param numVariants   Number of variants
+     * @param numSamples    Number of samples, the configured number if 0 or less
+     * @param regions       Regions, the configured regions if null or empty
+     * @param writer        Variant writer, e.g. a {@link org.opencb.biodata.formats.variant.io.VariantAvroBlockWriter}
+     */
+    public void write(int numVariants, int numSamples, List<Region> regions, DataWriter<Variant> writer) {
+        writer.open();
+        writer.pre();
+        simulate(numVariants, numSamples, regions, writer::write);
+        writer.post();
+        writer.close();
+    }
+
+    /**
+     * Simulate variants and write them to a VCF file, shard by shard, without keeping them in memory. The header is
+     * built by {@link #getVariantStudyMetadata(int)}. Files ending in ".gz" are BGZF compressed.
+     *
+     * @param numVariants   Number of variants
+     * @param numSamples    Number of samples, the configured number if 0 or less
+     * @param regions       Regions, the configured regions if null or empty
+     * @param outputFile    VCF file
+     * @throws IOException if the file can not be written
+     */
+    public void writeVcf(int numVariants, int numSamples, List<Region> regions, Path outputFile) throws IOException {
+        numSamples = getNumSamples(numSamples);
+        VCFExporter exporter = new VCFExporter(getVariantStudyMetadata(numSamples));
+        exporter.setFormats(FORMAT);
+        exporter.setDirectEncoding(true);
+        exporter.open(outputFile);
+        try {
+            simulate(numVariants, numSamples, regions, exporter::export);
+        } finally {
+            exporter.close();
+        }
+    }
+
+    /**
+     * Simulate variants, handing them to the consumer in batches, sorted by region and position.
+     *
+     * Regions are split in shards of {@link VariantSimulatorConfiguration#getShardSize()} variants at most, and
+     * shards are generated by {@link VariantSimulatorConfiguration#getNumThreads()} threads. Each shard has its own
+     * random generator, split from the seed in shard order, so for a given seed the variants are the same whatever
+     * the number of threads. There is at most one variant per position, so a shard shorter than its number of
+     * variants gets one variant per position. See {@link #writeVcf} to write the variants to VCF.
+     *
+     * @param numVariants   Number of variants
+     * @param numSamples    Number of samples, the configured number if 0 or less
+     * @param regions       Regions, the configured regions if null or empty. Variants are spread over the regions
+     *                      according to their length
+     * @param consumer      Variant consumer, called from the calling thread, one shard at a time
+     */
+    public void simulate(int numVariants, int numSamples, List<Region> regions, Consumer<List<Variant>> consumer) {
         numVariants = Math.max(numVariants, 1);
-        numSamples = (numSamples <= 0) ? variantSimulatorConfiguration.getNumSamples() : numSamples;
+        numSamples = getNumSamples(numSamples);
         regions = (regions == null || regions.isEmpty()) ? variantSimulatorConfiguration.getRegions() : regions;
 
-        List<Variant> variants = new ArrayList<>(numVariants);
-        Variant variant;
-        for (int i=0; i < numVariants; i++) {
-            variant = _create(numSamples, regions);
-            variants.add(variant);
+        ShardGenerator generator = new ShardGenerator(variantSimulatorConfiguration, numSamples);
+        List<Shard> shards = createShards(numVariants, regions);
+        int numThreads = variantSimulatorConfiguration.getNumThreads();
+        if (numThreads <= 1) {
+            for (Shard shard : shards) {
+                consumer.accept(generator.generate(shard));
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "variant-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Keep a few shards ahead of the consumer, so memory does not grow with the number of variants
+            Deque<Future<List<Variant>>> pending = new ArrayDeque<>(numThreads * 2);
+            Iterator<Shard> iterator = shards.iterator();
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < numThreads * 2) {
+                    Shard shard = iterator.next();
+                    pending.add(executor.submit(() -> generator.generate(shard)));
+                }
+                consumer.accept(pending.poll().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-        return variants;
     }
 
     /**
-     * @param numSamples
-     * @param regions
-     * @return variant
+     * @param numSamples    Number of samples
+     * @return Names of the simulated samples
+     */
+    public static List<String> getSampleNames(int numSamples) {
+        List<String> sampleNames = new ArrayList<>(numSamples);
+        for (int i = 1; i <= numSamples; i++) {
+            sampleNames.add("SAMPLE_" + i);
+        }
+        return sampleNames;
+    }
+
+    /**
+     * Metadata of the simulated variants: a study and a file with the configured IDs, the samples from
+     * {@link #getSampleNames(int)}, and a header with the INFO and FORMAT fields of the variants.
+     *
+     * @param numSamples    Number of samples, the configured number if 0 or less
+     * @return Study metadata, e.g. to export the variants with a {@link VCFExporter}
+     */
+    public VariantStudyMetadata getVariantStudyMetadata(int numSamples) {
+        Set<VCFHeaderLine> headerLines = new LinkedHashSet<>();
+        headerLines.add(new VCFInfoHeaderLine(VCFConstants.ALLELE_COUNT_KEY, VCFHeaderLineCount.A,
+                VCFHeaderLineType.Integer, "Allele count in genotypes, for each ALT allele"));
+        headerLines.add(new VCFInfoHeaderLine(VCFConstants.ALLELE_FREQUENCY_KEY, VCFHeaderLineCount.A,
+                VCFHeaderLineType.Float, "Allele frequency, for each ALT allele"));
+        headerLines.add(new VCFInfoHeaderLine(VCFConstants.ALLELE_NUMBER_KEY, 1, VCFHeaderLineType.Integer,
+                "Total number of alleles in called genotypes"));
+        headerLines.add(new VCFInfoHeaderLine(VCFConstants.DEPTH_KEY, 1, VCFHeaderLineType.Integer,
+                "Combined depth across samples"));
+        headerLines.add(new VCFFormatHeaderLine(VCFConstants.GENOTYPE_KEY, 1, VCFHeaderLineType.String, "Genotype"));
+        headerLines.add(new VCFFormatHeaderLine(VCFConstants.GENOTYPE_QUALITY_KEY, 1, VCFHeaderLineType.Integer,
+                "Genotype quality"));
+        headerLines.add(new VCFFormatHeaderLine(VCFConstants.DEPTH_KEY, 1, VCFHeaderLineType.Integer, "Read depth"));
+        headerLines.add(new VCFFormatHeaderLine("HQ", 1, VCFHeaderLineType.Integer, "Haplotype quality"));
+        VCFHeader vcfHeader = new VCFHeader(headerLines, getSampleNames(getNumSamples(numSamples)));
+
+        String studyId = variantSimulatorConfiguration.getStudyId();
+        VariantMetadataManager metadataManager = new VariantMetadataManager();
+        metadataManager.addVariantDatasetMetadata(VariantStudyMetadata.newBuilder()
+                .setId(studyId)
+                .setSampleSetType(SampleSetType.UNKNOWN)
+                .build());
+        metadataManager.addFile(variantSimulatorConfiguration.getFileId(), vcfHeader, studyId);
+        return metadataManager.getVariantStudyMetadata(studyId);
+    }
+
+    /**
+     * @return Seed of the random generators, the configured one or a random one
      */
-    private Variant _create(int numSamples, List<Region> regions) {
-        if (numSamples < 1) {
-            throw new IllegalArgumentException();
+    public long getSeed() {
+        return seed;
+    }
+
+    private int getNumSamples(int numSamples) {
+        numSamples = (numSamples <= 0) ? variantSimulatorConfiguration.getNumSamples() : numSamples;
+        return (numSamples <= 0) ? DEFAULT_NUM_SAMPLES : numSamples;
+    }
+
+    /**
+     * Spread the variants over the regions proportionally to their length, and split each region in shards with
+     * the same number of variants and the same length.
+     */
+    private List<Shard> createShards(int numVariants, List<Region> regions) {
+        int numRegions = regions.size();
+        long[] lengths = new long[numRegions];
+        long totalLength = 0;
+        for (int i = 0; i < numRegions; i++) {
+            Region region = regions.get(i);
+            lengths[i] = Math.max(region.getEnd() - Math.max(region.getStart(), 1) + 1, 1);
+            totalLength += lengths[i];
+        }
+
+        // Largest remainder method, ties go to the first regions
+        int[] counts = new int[numRegions];
+        long[] remainders = new long[numRegions];
+        int assigned = 0;
+        for (int i = 0; i < numRegions; i++) {
+            counts[i] = (int) (numVariants * lengths[i] / totalLength);
+            remainders[i] = numVariants * lengths[i] % totalLength;
+            assigned += counts[i];
         }
-        if (regions == null || regions.isEmpty()) {
-            throw new IllegalArgumentException();
+        Integer[] byRemainder = new Integer[numRegions];
+        for (int i = 0; i < numRegions; i++) {
+            byRemainder[i] = i;
+        }
+        Arrays.sort(byRemainder, (a, b) -> Long.compare(remainders[b], remainders[a]));
+        for (int i = 0; assigned < numVariants; i++, assigned++) {
+            counts[byRemainder[i % numRegions]]++;
         }
 
-        String id;
-        String variantType;
-        String strand = "+";
-        id = genId();
-        String[] refAlt = createIndelAlleles();
-        referenceAllele = refAlt[0];
-        alternateAllele = refAlt[1];
-        variantType = getVariantType();
-
-        //get number of sample
-        List<StudyEntry> studyEntryList = getStudies(100);
-
-        //TODO will be used in future
-        /*Map<String, List<String>> hgvsMap = new HashMap<>();
-        List<String> hgvsList = new ArrayList<>();*/
-
-        Variant variant = new Variant();
-        //set Chromosome, start and end in mapper
-
-        // Selecting a region
-        int regionIndex = rand.nextInt(regions.size());
-        Region region = regions.get(regionIndex);
-        int start = rand.nextInt(region.getEnd());
-        variant.setChromosome(region.getChromosome());
-        variant.setStart(start);
-        // calculate this after Alleles
-        variant.setEnd(start);
-
-        variant.setReference(referenceAllele);
-        variant.setAlternate(alternateAllele);
-        variant.setId(id);
-        variant.setStudies(studyEntryList);
-        variant.setStrand(strand);
-        variant.setType(VariantType.valueOf(variantType));
-        variant.setAnnotation(null);
-        variant.setHgvs(null);
-        return variant;
+        int shardSize = Math.max(variantSimulatorConfiguration.getShardSize(), 1);
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < numRegions; i++) {
+            Region region = regions.get(i);
+            int start = Math.max(region.getStart(), 1);
+            int numShards = (counts[i] + shardSize - 1) / shardSize;
+            for (int j = 0; j < numShards; j++) {
+                int shardStart = (int) (start + lengths[i] * j / numShards);
+                int shardEnd = (int) (start + lengths[i] * (j + 1) / numShards - 1);
+                int shardVariants = counts[i] / numShards + (j < counts[i] % numShards ? 1 : 0);
+                shards.add(new Shard(region.getChromosome(), shardStart, shardEnd, shardVariants, random.split()));
+            }
+        }
+        return shards;
     }
 
     public String createRandomChromosome(List<Region> regions) {
@@ -183,25 +354,6 @@ public class VariantSimulator {
         return s.toString();
     }*/
 
-    /**
-     * @return
-     */
-
-    private String[] createSnvAlleles() {
-        int randomRef;
-        int randomAlt;
-        do {
-            randomRef = rand.nextInt(ALLELE_BASES.length);
-            randomAlt = rand.nextInt(ALLELE_BASES.length);
-        } while (randomRef == randomAlt);
-
-        String[] refAltArray = new String[2];
-        refAltArray[0] = ALLELE_BASES[randomRef];
-        refAltArray[1] = ALLELE_BASES[randomAlt];
-
-        return refAltArray;
-    }
-
     public String[] createIndelAlleles() {
 
         String[] refAltArray = new String[2];
@@ -358,4 +510,218 @@ public class VariantSimulator {
         return attributeMap;
     }
 
-}
\ No newline at end of file
+    private static final class Shard {
+        private final String chromosome;
+        private final int start;
+        private final int end;
+        private final int numVariants;
+        private final SplittableRandom random;
+
+        private Shard(String chromosome, int start, int end, int numVariants, SplittableRandom random) {
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+            this.numVariants = numVariants;
+            this.random = random;
+        }
+    }
+
+    /**
+     * Generates the variants of a shard. It is shared by all the threads, the state of each shard is in its random
+     * generator.
+     */
+    private static final class ShardGenerator {
+
+        private static final String[] BIALLELIC_GENOTYPES = {"0/0", "0/1", "1/1"};
+        private static final String MISSING_GENOTYPE = "./.";
+        // Values of GQ, DP and HQ, shared by all the samples
+        private static final String[] QUALITY_VALUES = new String[200];
+        private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+        static {
+            for (int i = 0; i < QUALITY_VALUES.length; i++) {
+                QUALITY_VALUES[i] = Integer.toString(i);
+            }
+        }
+
+        private final VariantSimulatorConfiguration configuration;
+        private final int numSamples;
+        // Samples position of every variant, copied into each study
+        private final LinkedHashMap<String, Integer> samplesPosition;
+        // Genotype probabilities as a cumulative distribution, sorted by genotype
+        private final String[] genotypes;
+        private final double[] cumulativeProbabilities;
+
+        private ShardGenerator(VariantSimulatorConfiguration configuration, int numSamples) {
+            this.configuration = configuration;
+            this.numSamples = numSamples;
+            List<String> sampleNames = getSampleNames(numSamples);
+            samplesPosition = new LinkedHashMap<>(sampleNames.size() * 2);
+            for (int i = 0; i < sampleNames.size(); i++) {
+                samplesPosition.put(sampleNames.get(i), i);
+            }
+            TreeMap<String, Double> probabilities = new TreeMap<>(configuration.getGenotypeProbabilities());
+            genotypes = probabilities.keySet().toArray(new String[0]);
+            cumulativeProbabilities = new double[genotypes.length];
+            double total = probabilities.values().stream().mapToDouble(Double::doubleValue).sum();
+            double cumulative = 0;
+            int i = 0;
+            for (Double probability : probabilities.values()) {
+                cumulative += probability / total;
+                cumulativeProbabilities[i++] = cumulative;
+            }
+        }
+
+        private List<Variant> generate(Shard shard) {
+            SplittableRandom random = shard.random;
+            int[] positions = drawPositions(shard);
+            List<Variant> variants = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                variants.add(createVariant(shard.chromosome, position, random));
+            }
+            return variants;
+        }
+
+        /**
+         * Draw the sorted positions of the variants of a shard, without repeats. At most one variant per position.
+         */
+        private static int[] drawPositions(Shard shard) {
+            SplittableRandom random = shard.random;
+            long length = (long) shard.end - shard.start + 1;
+            int numVariants = (int) Math.min(shard.numVariants, length);
+            int[] positions = new int[numVariants];
+            if (numVariants * 2L > length) {
+                // Dense shard: selection sampling, take each position with probability pending / remaining
+                int drawn = 0;
+                for (int position = shard.start; drawn < numVariants; position++) {
+                    if (random.nextLong((long) shard.end - position + 1) < numVariants - drawn) {
+                        positions[drawn++] = position;
+                    }
+                }
+            } else {
+                // Sparse shard: draw again the positions lost to repeats, until there are none
+                int distinct = 0;
+                while (distinct < numVariants) {
+                    for (int i = distinct; i < numVariants; i++) {
+                        positions[i] = random.nextInt(shard.start, shard.end + 1);
+                    }
+                    Arrays.sort(positions);
+                    distinct = 1;
+                    for (int i = 1; i < numVariants; i++) {
+                        if (positions[i] != positions[distinct - 1]) {
+                            positions[distinct++] = positions[i];
+                        }
+                    }
+                }
+            }
+            return positions;
+        }
+
+        private Variant createVariant(String chromosome, int start, SplittableRandom random) {
+            String reference;
+            String alternate;
+            double type = random.nextDouble();
+            if (type < 0.9) {
+                int ref = random.nextInt(BASES.length);
+                int alt = (ref + 1 + random.nextInt(BASES.length - 1)) % BASES.length;
+                reference = ALLELE_BASES[ref];
+                alternate = ALLELE_BASES[alt];
+            } else if (type < 0.95) {
+                // Insertion, after the reference base
+                reference = ALLELE_BASES[random.nextInt(BASES.length)];
+                alternate = reference + randomBases(1 + random.nextInt(5), random);
+            } else {
+                // Deletion, after the alternate base
+                alternate = ALLELE_BASES[random.nextInt(BASES.length)];
+                reference = alternate + randomBases(1 + random.nextInt(5), random);
+            }
+
+            Variant variant = new Variant(chromosome, start, start + reference.length() - 1, reference, alternate);
+            if (random.nextInt(10) == 0) {
+                variant.setId("rs" + (100000 + random.nextInt(900000)));
+            }
+
+            double[] probabilities = cumulativeProbabilities;
+            String[] values = genotypes;
+            if (configuration.getGenotypeModel() == VariantSimulatorConfiguration.GenotypeModel.HARDY_WEINBERG) {
+                double q = nextAlleleFrequency(random);
+                double missing = configuration.getMissingGenotypeRate();
+                double called = 1 - missing;
+                probabilities = new double[]{
+                        missing,
+                        missing + called * (1 - q) * (1 - q),
+                        missing + called * (1 - q * q),
+                        1};
+                values = new String[]{MISSING_GENOTYPE, BIALLELIC_GENOTYPES[0], BIALLELIC_GENOTYPES[1],
+                        BIALLELIC_GENOTYPES[2]};
+            }
+
+            int alleleCount = 0;
+            int alleleNumber = 0;
+            long depth = 0;
+            List<List<String>> samplesData = new ArrayList<>(numSamples);
+            for (int i = 0; i < numSamples; i++) {
+                String genotype = values[draw(probabilities, random.nextDouble())];
+                int dp = random.nextInt(QUALITY_VALUES.length);
+                List<String> sampleData = new ArrayList<>(FORMAT.size());
+                sampleData.add(genotype);
+                sampleData.add(QUALITY_VALUES[random.nextInt(QUALITY_VALUES.length)]);
+                sampleData.add(QUALITY_VALUES[dp]);
+                sampleData.add(QUALITY_VALUES[random.nextInt(QUALITY_VALUES.length)]);
+                samplesData.add(sampleData);
+                depth += dp;
+                for (int c = 0; c < genotype.length(); c++) {
+                    char allele = genotype.charAt(c);
+                    if (allele >= '0' && allele <= '9') {
+                        alleleNumber++;
+                        if (allele != '0') {
+                            alleleCount++;
+                        }
+                    }
+                }
+            }
+
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("AC", Integer.toString(alleleCount));
+            attributes.put("AN", Integer.toString(alleleNumber));
+            attributes.put("AF", alleleNumber == 0 ? "0" : Float.toString(((float) alleleCount) / alleleNumber));
+            attributes.put("DP", Long.toString(depth));
+
+            StudyEntry studyEntry = new StudyEntry(configuration.getStudyId(), new ArrayList<>(), new ArrayList<>(FORMAT));
+            studyEntry.setFiles(new ArrayList<>(Collections.singletonList(
+                    new FileEntry(configuration.getFileId(), "", attributes))));
+            studyEntry.setSamplesData(samplesData);
+            studyEntry.setSortedSamplesPosition(new LinkedHashMap<>(samplesPosition));
+            variant.setStudies(new ArrayList<>(Collections.singletonList(studyEntry)));
+            return variant;
+        }
+
+        private double nextAlleleFrequency(SplittableRandom random) {
+            double min = configuration.getMinAlleleFrequency();
+            double max = configuration.getMaxAlleleFrequency();
+            if (configuration.getAlleleFrequencyDistribution()
+                    == VariantSimulatorConfiguration.AlleleFrequencyDistribution.NEUTRAL && min > 0) {
+                return min * Math.pow(max / min, random.nextDouble());
+            } else {
+                return min + (max - min) * random.nextDouble();
+            }
+        }
+
+        private static int draw(double[] cumulativeProbabilities, double value) {
+            for (int i = 0; i < cumulativeProbabilities.length - 1; i++) {
+                if (value < cumulativeProbabilities[i]) {
+                    return i;
+                }
+            }
+            return cumulativeProbabilities.length - 1;
+        }
+
+        private static String randomBases(int length, SplittableRandom random) {
+            char[] bases = new char[length];
+            for (int i = 0; i < length; i++) {
+                bases[i] = BASES[random.nextInt(BASES.length)];
+            }
+            return new String(bases);
+        }
+    }
+}
@@ -40,6 +40,45 @@ public class VariantSimulatorConfiguration {
     private Map<String, Double> genotypeProbabilities;
     private String[] genotypeValues;
 
+    // Random seed, random if null
+    private Long seed;
+    private int numThreads = 1;
+    // Maximum number of variants generated at once by a thread
+    private int shardSize = 1000;
+    private String studyId = "2";
+    private String fileId = "3";
+
+    private GenotypeModel genotypeModel = GenotypeModel.PROBABILITIES;
+    private AlleleFrequencyDistribution alleleFrequencyDistribution = AlleleFrequencyDistribution.NEUTRAL;
+    private double minAlleleFrequency = 0.001;
+    private double maxAlleleFrequency = 0.5;
+    private double missingGenotypeRate = 0.01;
+
+    public enum GenotypeModel {
+        /**
+         * Genotypes are drawn from {@link #getGenotypeProbabilities()}, the same for every variant.
+         */
+        PROBABILITIES,
+        /**
+         * Each variant is given an alternate allele frequency q, and genotypes 0/0, 0/1 and 1/1 are drawn with
+         * probabilities (1-q)^2, 2q(1-q) and q^2 (Hardy-Weinberg equilibrium). Genotypes are missing with probability
+         * {@link #getMissingGenotypeRate()}.
+         */
+        HARDY_WEINBERG
+    }
+
+    public enum AlleleFrequencyDistribution {
+        /**
+         * Uniform between the minimum and maximum allele frequency.
+         */
+        UNIFORM,
+        /**
+         * Density proportional to 1/q between the minimum and maximum allele frequency, so rare variants are the most
+         * common ones, as in the site frequency spectrum of a neutral population.
+         */
+        NEUTRAL
+    }
+
     public VariantSimulatorConfiguration() {
         regions = getDefaultRegions();
 
@@ -142,4 +181,84 @@ public class VariantSimulatorConfiguration {
     public String[] getGenotypeValues() {
         return genotypeValues;
     }
-}
\ No newline at end of file
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    public void setShardSize(int shardSize) {
+        this.shardSize = shardSize;
+    }
+
+    public String getStudyId() {
+        return studyId;
+    }
+
+    public void setStudyId(String studyId) {
+        this.studyId = studyId;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public GenotypeModel getGenotypeModel() {
+        return genotypeModel;
+    }
+
+    public void setGenotypeModel(GenotypeModel genotypeModel) {
+        this.genotypeModel = genotypeModel;
+    }
+
+    public AlleleFrequencyDistribution getAlleleFrequencyDistribution() {
+        return alleleFrequencyDistribution;
+    }
+
+    public void setAlleleFrequencyDistribution(AlleleFrequencyDistribution alleleFrequencyDistribution) {
+        this.alleleFrequencyDistribution = alleleFrequencyDistribution;
+    }
+
+    public double getMinAlleleFrequency() {
+        return minAlleleFrequency;
+    }
+
+    public void setMinAlleleFrequency(double minAlleleFrequency) {
+        this.minAlleleFrequency = minAlleleFrequency;
+    }
+
+    public double getMaxAlleleFrequency() {
+        return maxAlleleFrequency;
+    }
+
+    public void setMaxAlleleFrequency(double maxAlleleFrequency) {
+        this.maxAlleleFrequency = maxAlleleFrequency;
+    }
+
+    public double getMissingGenotypeRate() {
+        return missingGenotypeRate;
+    }
+
+    public void setMissingGenotypeRate(double missingGenotypeRate) {
+        this.missingGenotypeRate = missingGenotypeRate;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.stats;
+
+import java.util.List;
+
+/**
+ * Counts biallelic genotypes into primitive arrays, without parsing them into {@link org.opencb.biodata.models.feature.Genotype}.
+ *
+ * Haploid and diploid genotypes made of the alleles "0", "1" and "." are given a slot, which identifies the exact
+ * genotype string, so counts can be turned back into genotypes without losing phase or allele order. Any other
+ * genotype (multiallelic, polyploid, ...) is not classified and has to be handled by the caller.
+ *
+ * Created on 19/10/26.
+ */
+public final class GenotypeCounter {
+
+    public static final int OTHER = -1;
+
+    // Slots: diploid ((a1 * 3 + a2) * 2 + phased), then haploid (18 + a), with alleles 0, 1 and 2 for missing
+    public static final int NUM_SLOTS = 21;
+
+    // Hardy-Weinberg classes
+    public static final int HOM_REF = 0;
+    public static final int HET = 1;
+    public static final int HOM_ALT = 2;
+    public static final int MISSING = 3;
+    public static final int HAPLOID = 4;
+    public static final int NUM_CLASSES = 5;
+
+    private static final String[] SLOT_GENOTYPES = new String[NUM_SLOTS];
+    private static final int[] SLOT_CLASSES = new int[NUM_SLOTS];
+    private static final char[] ALLELES = {'0', '1', '.'};
+
+    static {
+        for (int a1 = 0; a1 < 3; a1++) {
+            for (int a2 = 0; a2 < 3; a2++) {
+                for (int phased = 0; phased < 2; phased++) {
+                    int slot = (a1 * 3 + a2) * 2 + phased;
+                    SLOT_GENOTYPES[slot] = new String(new char[]{ALLELES[a1], phased == 1 ? '|' : '/', ALLELES[a2]});
+                    if (a1 == 2 || a2 == 2) {
+                        SLOT_CLASSES[slot] = MISSING;
+                    } else {
+                        SLOT_CLASSES[slot] = a1 + a2 == 0 ? HOM_REF : a1 + a2 == 1 ? HET : HOM_ALT;
+                    }
+                }
+            }
+        }
+        for (int a = 0; a < 3; a++) {
+            SLOT_GENOTYPES[18 + a] = String.valueOf(ALLELES[a]);
+            SLOT_CLASSES[18 + a] = a == 2 ? MISSING : HAPLOID;
+        }
+    }
+
+    private GenotypeCounter() {
+    }
+
+    /**
+     * @param genotype  Genotype, e.g. "0|1"
+     * @return          Slot of the genotype, or {@link #OTHER}
+     */
+    public static int getSlot(CharSequence genotype) {
+        switch (genotype.length()) {
+            case 1:
+                return haploidSlot(genotype.charAt(0));
+            case 3:
+                return diploidSlot(genotype.charAt(0), genotype.charAt(1), genotype.charAt(2));
+            default:
+                return OTHER;
+        }
+    }
+
+    /**
+     * @param bytes     Bytes containing an ASCII genotype, e.g. a VCF line
+     * @param offset    Start of the genotype
+     * @param length    Length of the genotype
+     * @return          Slot of the genotype, or {@link #OTHER}
+     */
+    public static int getSlot(byte[] bytes, int offset, int length) {
+        switch (length) {
+            case 1:
+                return haploidSlot((char) bytes[offset]);
+            case 3:
+                return diploidSlot((char) bytes[offset], (char) bytes[offset + 1], (char) bytes[offset + 2]);
+            default:
+                return OTHER;
+        }
+    }
+
+    /**
+     * @param slot  Genotype slot
+     * @return      Genotype string of the slot
+     */
+    public static String getGenotype(int slot) {
+        return SLOT_GENOTYPES[slot];
+    }
+
+    /**
+     * @param slot  Genotype slot
+     * @return      One of {@link #HOM_REF}, {@link #HET}, {@link #HOM_ALT}, {@link #MISSING} or {@link #HAPLOID}
+     */
+    public static int getHardyWeinbergClass(int slot) {
+        return SLOT_CLASSES[slot];
+    }
+
+    /**
+     * Count the genotypes of some samples by slot.
+     *
+     * @param samplesData   Samples data
+     * @param gtIdx         Position of the GT field in the samples data
+     * @param sampleIdx     Positions of the samples to count
+     * @param numSamples    Number of positions to read from sampleIdx
+     * @param slotCounts    Counts by slot, incremented. Must have {@link #NUM_SLOTS} elements
+     * @return              Number of genotypes without slot
+     */
+    public static int countSlots(List<List<String>> samplesData, int gtIdx, int[] sampleIdx, int numSamples,
+                                 int[] slotCounts) {
+        int other = 0;
+        for (int i = 0; i < numSamples; i++) {
+            int slot = getSlot(samplesData.get(sampleIdx[i]).get(gtIdx));
+            if (slot == OTHER) {
+                other++;
+            } else {
+                slotCounts[slot]++;
+            }
+        }
+        return other;
+    }
+
+    /**
+     * Count the genotypes of all the samples by Hardy-Weinberg class.
+     *
+     * @param samplesData   Samples data
+     * @param gtIdx         Position of the GT field in the samples data
+     * @param classCounts   Counts by class, incremented. Must have {@link #NUM_CLASSES} elements
+     * @return              Number of genotypes without class
+     */
+    public static int countClasses(List<List<String>> samplesData, int gtIdx, int[] classCounts) {
+        int other = 0;
+        for (List<String> sampleData : samplesData) {
+            int slot = getSlot(sampleData.get(gtIdx));
+            if (slot == OTHER) {
+                other++;
+            } else {
+                classCounts[SLOT_CLASSES[slot]]++;
+            }
+        }
+        return other;
+    }
+
+    private static int haploidSlot(char c) {
+        int allele = allele(c);
+        return allele < 0 ? OTHER : 18 + allele;
+    }
+
+    private static int diploidSlot(char c1, char separator, char c2) {
+        int phased;
+        if (separator == '/') {
+            phased = 0;
+        } else if (separator == '|') {
+            phased = 1;
+        } else {
+            return OTHER;
+        }
+        int a1 = allele(c1);
+        int a2 = allele(c2);
+        if (a1 < 0 || a2 < 0) {
+            return OTHER;
+        }
+        return (a1 * 3 + a2) * 2 + phased;
+    }
+
+    private static int allele(char c) {
+        switch (c) {
+            case '0':
+                return 0;
+            case '1':
+                return 1;
+            case '.':
+                return 2;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.stats;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exact test of Hardy-Weinberg equilibrium with mid-p correction (Wigginton et al. 2005, Graffelman and Moreno 2013).
+ *
+ * The distribution of the number of heterozygotes only depends on the number of genotypes and the number of copies
+ * of the rare allele, so the p-values of all the possible heterozygote counts are computed at once and kept in a
+ * bounded cache, shared by all the variants with the same counts. Instances are thread safe.
+ *
+ * Created on 19/10/26.
+ */
+public class HardyWeinbergExactTest {
+
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    // Relative tolerance when comparing probabilities, as in PLINK
+    private static final double EPSILON = 1e-7;
+
+    private final Map<Long, double[]> cache;
+
+    public HardyWeinbergExactTest() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize Maximum number of distributions kept
+     */
+    public HardyWeinbergExactTest(int cacheSize) {
+        cache = Collections.synchronizedMap(new LinkedHashMap<Long, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, double[]> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * @param nAA   Number of homozygotes of the first allele
+     * @param nAB   Number of heterozygotes
+     * @param nBB   Number of homozygotes of the second allele
+     * @return      Mid-p value of the exact test, 1 if there are no genotypes
+     */
+    public double midP(int nAA, int nAB, int nBB) {
+        if (nAA < 0 || nAB < 0 || nBB < 0) {
+            throw new IllegalArgumentException("Negative genotype counts " + nAA + ", " + nAB + ", " + nBB);
+        }
+        int n = nAA + nAB + nBB;
+        int rare = Math.min(2 * nAA + nAB, 2 * nBB + nAB);
+        if (n == 0) {
+            return 1;
+        }
+        long key = ((long) n << 32) | rare;
+        double[] pValues = cache.get(key);
+        if (pValues == null) {
+            // Computed outside the lock. Two threads may compute the same values
+            pValues = midPValues(n, rare);
+            cache.put(key, pValues);
+        }
+        return pValues[nAB];
+    }
+
+    /**
+     * @param n     Number of genotypes
+     * @param rare  Number of copies of the rare allele
+     * @return      Mid-p value by number of heterozygotes, NaN for impossible numbers
+     */
+    static double[] midPValues(int n, int rare) {
+        double[] probabilities = hetProbabilities(n, rare);
+        double[] sorted = new double[rare / 2 + 1];
+        for (int het = rare % 2, i = 0; het <= rare; het += 2, i++) {
+            sorted[i] = probabilities[het];
+        }
+        Arrays.sort(sorted);
+        double[] cumulative = new double[sorted.length];
+        double sum = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            sum += sorted[i];
+            cumulative[i] = sum;
+        }
+
+        double[] pValues = new double[rare + 1];
+        Arrays.fill(pValues, Double.NaN);
+        for (int het = rare % 2; het <= rare; het += 2) {
+            double probability = probabilities[het];
+            // Sum of the probabilities not greater than the observed one
+            int i = upperBound(sorted, probability * (1 + EPSILON)) - 1;
+            pValues[het] = Math.min(1, cumulative[i] - 0.5 * probability);
+        }
+        return pValues;
+    }
+
+    /**
+     * @param n     Number of genotypes
+     * @param rare  Number of copies of the rare allele
+     * @return      Probability by number of heterozygotes
+     */
+    static double[] hetProbabilities(int n, int rare) {
+        double[] probabilities = new double[rare + 1];
+        int common = 2 * n - rare;
+
+        // Start from the most likely number of heterozygotes, with the parity of the rare allele count
+        int mid = (int) ((long) rare * common / (2L * n));
+        if (((rare - mid) & 1) != 0) {
+            mid++;
+        }
+        probabilities[mid] = 1;
+        double sum = 1;
+
+        int homRare = (rare - mid) / 2;
+        int homCommon = (common - mid) / 2;
+        for (int het = mid; het > 1; het -= 2) {
+            probabilities[het - 2] = probabilities[het] * het * (het - 1) / (4.0 * (homRare + 1) * (homCommon + 1));
+            sum += probabilities[het - 2];
+            homRare++;
+            homCommon++;
+        }
+
+        homRare = (rare - mid) / 2;
+        homCommon = (common - mid) / 2;
+        for (int het = mid; het <= rare - 2; het += 2) {
+            probabilities[het + 2] = probabilities[het] * 4.0 * homRare * homCommon / ((het + 2.0) * (het + 1.0));
+            sum += probabilities[het + 2];
+            homRare--;
+            homCommon--;
+        }
+
+        for (int het = rare % 2; het <= rare; het += 2) {
+            probabilities[het] /= sum;
+        }
+        return probabilities;
+    }
+
+    private static int upperBound(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
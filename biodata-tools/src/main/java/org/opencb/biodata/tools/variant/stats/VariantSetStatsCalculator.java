@@ -59,6 +59,7 @@ public class VariantSetStatsCalculator implements ParallelTaskRunner.Task<Varian
     private double qualCount = 0;
     private double qualSum = 0;
     private double qualSumSq = 0;
+    private long variantsNotCounted = 0;
     private VariantFileHeader header;
 
     /**
@@ -118,6 +119,7 @@ public class VariantSetStatsCalculator implements ParallelTaskRunner.Task<Varian
     private void updateVariantSetStats(Variant variant) {
         StudyEntry study = variant.getStudy(studyId);
         if (study == null) {
+            variantsNotCounted++;
             return;
         }
         boolean validVariant = false;
@@ -145,6 +147,8 @@ public class VariantSetStatsCalculator implements ParallelTaskRunner.Task<Varian
                 transversionsCount++;
             }
             updateVariantSetStats(variant.getAnnotation());
+        } else {
+            variantsNotCounted++;
         }
     }
 
@@ -217,4 +221,11 @@ public class VariantSetStatsCalculator implements ParallelTaskRunner.Task<Varian
     public VariantSetStats getStats() {
         return stats;
     }
+
+    /**
+     * @return Number of variants not counted in the stats, as they are not from any of the files of the study
+     */
+    public synchronized long getVariantsNotCounted() {
+        return variantsNotCounted;
+    }
 }
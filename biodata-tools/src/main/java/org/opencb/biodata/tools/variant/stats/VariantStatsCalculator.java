@@ -45,18 +45,36 @@ public class VariantStatsCalculator {
         Integer gtIdx = study.getFormatPositions().get("GT");
         LinkedHashMap<String, Integer> samplesPosition = study.getSamplesPosition();
 
-        Map<Genotype, Integer> gtCount = new HashMap<>();
-        Map<String, Genotype> gts = new TreeMap<>(String::compareTo);
+        // Count the common genotypes by slot, and parse only the rest
+        int[] sampleIdx = new int[sampleNames.size()];
+        int numSamples = 0;
         for (String sampleName : sampleNames) {
-            Integer sampleIdx = samplesPosition.get(sampleName);
-            if (sampleIdx == null) {
-                continue;
+            Integer idx = samplesPosition.get(sampleName);
+            if (idx != null) {
+                sampleIdx[numSamples++] = idx;
             }
-            String genotype = study.getSamplesData().get(sampleIdx).get(gtIdx);
-            Genotype g = gts.computeIfAbsent(genotype, key -> new Genotype(genotype));
-            gtCount.compute(g, (s, prev) -> prev == null ? 1 : prev + 1);
-
-        }  // Finish all samples loop
+        }
+        List<List<String>> samplesData = study.getSamplesData();
+        int[] slotCounts = new int[GenotypeCounter.NUM_SLOTS];
+        int other = numSamples == 0 ? 0 : GenotypeCounter.countSlots(samplesData, gtIdx, sampleIdx, numSamples, slotCounts);
+
+        Map<String, Integer> gtStringCount = new TreeMap<>(String::compareTo);
+        for (int slot = 0; slot < GenotypeCounter.NUM_SLOTS; slot++) {
+            if (slotCounts[slot] > 0) {
+                gtStringCount.put(GenotypeCounter.getGenotype(slot), slotCounts[slot]);
+            }
+        }
+        for (int i = 0; other > 0 && i < numSamples; i++) {
+            String genotype = samplesData.get(sampleIdx[i]).get(gtIdx);
+            if (GenotypeCounter.getSlot(genotype) == GenotypeCounter.OTHER) {
+                gtStringCount.merge(genotype, 1, Integer::sum);
+                other--;
+            }
+        }
+        Map<Genotype, Integer> gtCount = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : gtStringCount.entrySet()) {
+            gtCount.merge(new Genotype(entry.getKey()), entry.getValue(), Integer::sum);
+        }
 
         calculate(gtCount, variantStats, variant.getReference(), variant.getAlternate());
 
@@ -5,6 +5,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opencb.biodata.models.alignment.RegionCoverage;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.alignment.iterators.BamIterator;
+import org.opencb.biodata.tools.alignment.stats.AlignmentGlobalStats;
+import org.opencb.biodata.tools.alignment.stats.SamRecordAlignmentGlobalStatsCalculator;
 
 import java.io.File;
 import java.io.IOException;
@@ -14,6 +17,8 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -162,4 +167,63 @@ public class BamManagerTest {
 
         writer.close();
     }
+
+    @Test
+    public void testParallelIterator() throws Exception {
+        BamManager bamManager = new BamManager(inputPath);
+        BamManager parallelBamManager = new BamManager(inputPath).setNumThreads(4).setReadAhead(4);
+
+        assertEquals(readAll(bamManager.iterator()), readAll(parallelBamManager.iterator()));
+
+        AlignmentOptions options = new AlignmentOptions();
+        for (boolean contained : Arrays.asList(false, true)) {
+            options.setContained(contained);
+            Region region = new Region("20", 62000, 65000);
+            assertEquals(readAll(bamManager.iterator(region, options)), readAll(parallelBamManager.iterator(region, options)));
+        }
+        assertEquals(0, readAll(parallelBamManager.iterator(new Region("1", 62000, 65000), options)).size());
+
+        assertEquals(bamManager.stats().toJSON(), parallelBamManager.stats().toJSON());
+
+        bamManager.close();
+        parallelBamManager.close();
+    }
+
+    @Test
+    public void testStatsByShards() throws Exception {
+        // Stats computed record by record, as before the accumulators
+        SamRecordAlignmentGlobalStatsCalculator calculator = new SamRecordAlignmentGlobalStatsCalculator();
+        AlignmentGlobalStats expected = new AlignmentGlobalStats();
+        BamManager bamManager = new BamManager(inputPath);
+        try (BamIterator<SAMRecord> iterator = bamManager.iterator()) {
+            while (iterator.hasNext()) {
+                calculator.update(calculator.compute(iterator.next()), expected);
+            }
+        }
+        bamManager.close();
+
+        for (int numThreads : Arrays.asList(1, 4)) {
+            BamManager manager = new BamManager(inputPath).setNumThreads(numThreads);
+            AlignmentGlobalStats stats = manager.stats();
+            manager.close();
+            assertEquals(expected.numMapped, stats.numMapped);
+            assertEquals(expected.numUnmapped, stats.numUnmapped);
+            assertEquals(expected.NM, stats.NM);
+            assertEquals(expected.accInsert, stats.accInsert);
+            assertEquals(expected.mappingQualityMap, stats.mappingQualityMap);
+            assertEquals(expected.insertMap, stats.insertMap);
+            assertEquals(expected.seqStats.accSeqQual, stats.seqStats.accSeqQual);
+            assertEquals(expected.seqStats.lengthMap, stats.seqStats.lengthMap);
+            assertEquals(expected.seqStats.infoMap.toString(), stats.seqStats.infoMap.toString());
+        }
+    }
+
+    private List<String> readAll(BamIterator<SAMRecord> iterator) {
+        List<String> records = new ArrayList<>();
+        while (iterator.hasNext()) {
+            records.add(iterator.next().getSAMString());
+        }
+        iterator.close();
+        return records;
+    }
 }
@@ -0,0 +1,105 @@
+package org.opencb.biodata.tools.commons.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created on 19/10/26.
+ */
+public class MetricsTaskTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean(), 0.001);
+        assertEquals(500000, histogram.getValueAtPercentile(50), 500000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value : Arrays.asList(0L, 1L, 31L, 32L, 33L, 1000L, 123456789L, Long.MAX_VALUE)) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(LatencyHistogram.bucketLowValue(index) <= value);
+            if (index + 1 < LatencyHistogram.SUB_BUCKETS * 59) {
+                assertTrue(LatencyHistogram.bucketLowValue(index + 1) > value);
+            }
+        }
+    }
+
+    @Test
+    public void testMetricsTask() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        List<StageMetrics> reported = new ArrayList<>();
+        metrics.addSink(reported::addAll);
+
+        MetricsTask<Integer, Integer> task = metrics.wrapTask("even", new EvenTask());
+
+        task.pre();
+        assertEquals(Arrays.asList(2, 4), task.apply(Arrays.asList(1, 2, 3, 4, 5)));
+        assertEquals(Arrays.asList(6), task.apply(Arrays.asList(6, 7, -8)));
+        assertEquals(Arrays.asList(-1), task.drain());
+        task.post();
+        metrics.stop();
+
+        assertEquals(1, reported.size());
+        StageMetrics stage = reported.get(0);
+        assertEquals("even", stage.getName());
+        assertEquals(3, stage.getBatches());
+        assertEquals(8, stage.getRecordsIn());
+        assertEquals(4, stage.getRecordsOut());
+        assertEquals(4, stage.getDiscarded());
+        assertEquals(1, stage.getMalformed());
+        assertEquals(3, stage.getBatchLatency().getCount());
+        assertEquals(1, stage.getQueueWait().getCount());
+        assertEquals("even", stage.toMap().get("name"));
+    }
+
+    // Discards odd numbers and skips negative numbers as malformed, and returns -1 on drain
+    private static class EvenTask implements org.opencb.commons.run.Task<Integer, Integer>, StageCounters {
+        private long discarded = 0;
+        private long malformed = 0;
+
+        @Override
+        public List<Integer> apply(List<Integer> batch) {
+            List<Integer> even = new ArrayList<>();
+            for (Integer i : batch) {
+                if (i < 0) {
+                    malformed++;
+                } else if (i % 2 == 0) {
+                    even.add(i);
+                } else {
+                    discarded++;
+                }
+            }
+            return even;
+        }
+
+        @Override
+        public List<Integer> drain() {
+            return Collections.singletonList(-1);
+        }
+
+        @Override
+        public long getDiscardedRecords() {
+            return discarded;
+        }
+
+        @Override
+        public long getMalformedRecords() {
+            return malformed;
+        }
+    }
+}
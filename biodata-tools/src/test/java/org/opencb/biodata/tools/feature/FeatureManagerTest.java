@@ -0,0 +1,98 @@
+package org.opencb.biodata.tools.feature;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.formats.feature.bed.Bed;
+import org.opencb.biodata.models.core.Region;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created on 19/10/26.
+ */
+public class FeatureManagerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testBedQuery() throws Exception {
+        Random random = new Random(1);
+        List<String> lines = new ArrayList<>();
+        lines.add("track name=test");
+        for (int i = 0; i < 5000; i++) {
+            int start = random.nextInt(1000000);
+            int length = random.nextInt(20) == 0 ? random.nextInt(50000) : random.nextInt(500);
+            lines.add("chr" + (1 + random.nextInt(3)) + "\t" + start + "\t" + (start + 1 + length) + "\tfeature_" + i);
+        }
+        Path bedPath = temporaryFolder.newFile("features.bed").toPath();
+        Files.write(bedPath, lines);
+
+        BedManager bedManager = new BedManager();
+        bedManager.load(bedPath);
+        Path indexPath = temporaryFolder.getRoot().toPath().resolve("features.bed.idx");
+        BedManager indexedBedManager = new BedManager();
+        indexedBedManager.index(bedPath, indexPath);
+        indexedBedManager.open(indexPath);
+
+        List<Bed> beds = lines.stream().map(bedManager::parse).filter(Objects::nonNull).collect(Collectors.toList());
+        assertEquals(beds.size(), bedManager.size());
+        assertEquals(beds.size(), indexedBedManager.size());
+
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int start = 1 + random.nextInt(1000000);
+            regions.add(new Region("chr" + (1 + random.nextInt(4)), start, start + random.nextInt(i % 2 == 0 ? 100 : 10000)));
+        }
+        List<List<Bed>> overlaps = bedManager.overlaps(regions);
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            // BED starts are 0-based
+            Set<String> expected = beds.stream()
+                    .filter(bed -> bed.getChromosome().equals(region.getChromosome())
+                            && bed.getStart() < region.getEnd() && bed.getEnd() >= region.getStart())
+                    .map(Bed::getName)
+                    .collect(Collectors.toSet());
+            assertEquals(expected, overlaps.get(i).stream().map(Bed::getName).collect(Collectors.toSet()));
+            assertEquals(overlaps.get(i).stream().map(Bed::getName).collect(Collectors.toList()),
+                    indexedBedManager.query(region).stream().map(Bed::getName).collect(Collectors.toList()));
+        }
+
+        regions.sort(Comparator.comparing(Region::getChromosome).thenComparing(Region::getStart));
+        List<Region> joined = new ArrayList<>();
+        bedManager.join(regions.iterator(), region -> region, (region, features) -> {
+            joined.add(region);
+            assertEquals(bedManager.query(region).stream().map(Bed::getName).collect(Collectors.toList()),
+                    features.stream().map(Bed::getName).collect(Collectors.toList()));
+        });
+        assertEquals(regions, joined);
+    }
+
+    @Test
+    public void testGtfQuery() throws Exception {
+        Path gtfPath = temporaryFolder.newFile("genes.gtf").toPath();
+        Files.write(gtfPath, Arrays.asList(
+                "#!genome-build GRCh38",
+                "1\thavana\tgene\t11869\t14409\t.\t+\t.\tgene_id \"ENSG00000223972\"; gene_name \"DDX11L1\";",
+                "1\thavana\tgene\t14404\t29570\t.\t-\t.\tgene_id \"ENSG00000227232\"; gene_name \"WASH7P\";",
+                "2\thavana\tgene\t14404\t29570\t.\t-\t.\tgene_id \"ENSG00000000002\"; gene_name \"OTHER\";"));
+
+        GtfManager gtfManager = new GtfManager();
+        gtfManager.load(gtfPath);
+
+        assertEquals(Arrays.asList("DDX11L1", "WASH7P"), gtfManager.query(new Region("1", 14409, 14409)).stream()
+                .map(gtf -> gtf.getAttributes().get("gene_name")).collect(Collectors.toList()));
+        assertEquals(Collections.singletonList("WASH7P"), gtfManager.query(new Region("1", 14410, 20000)).stream()
+                .map(gtf -> gtf.getAttributes().get("gene_name")).collect(Collectors.toList()));
+        assertTrue(gtfManager.query(new Region("1", 1, 11868)).isEmpty());
+        assertTrue(gtfManager.query(new Region("3", 1, 100000)).isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), gtfManager.getChromosomes());
+    }
+}
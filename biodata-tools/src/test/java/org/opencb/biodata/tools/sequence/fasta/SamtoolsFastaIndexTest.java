@@ -6,12 +6,16 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.opencb.biodata.formats.sequence.fasta.dbadaptor.IndexedFastaSequenceDBAdaptor;
+import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.tools.sequence.SamtoolsFastaIndex;
 import org.opencb.biodata.tools.sequence.SequenceAdaptor;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -124,4 +128,32 @@ public class SamtoolsFastaIndexTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testIndexedFastaSequenceDBAdaptorBgzf() throws Exception {
+        Path referenceGenome = Paths.get(
+                getClass().getResource("/homo_sapiens_grch38_small.fa.gz").toURI()
+        );
+
+        SequenceAdaptor referenceGenomeReader = new SamtoolsFastaIndex(referenceGenome.toString());
+        // Small windows and cache to force reads across lines, BGZF blocks and evictions
+        IndexedFastaSequenceDBAdaptor adaptor = new IndexedFastaSequenceDBAdaptor(referenceGenome, 1000, 4);
+        adaptor.open();
+
+        // Contigs of 60000 bases, stored in BGZF blocks of 65280 bytes
+        assertEquals(60000, adaptor.getContigLength("1"));
+        assertEquals(referenceGenomeReader.query("1", 1, 60000), adaptor.getSequence(new Region("1", 1, 60000)));
+        assertEquals(referenceGenomeReader.query("10", 59990, 60000), adaptor.getSequence(new Region("10", 59990, 70000)));
+        Random random = new Random(1);
+        for (String chromosome : Arrays.asList("1", "10", "11", "2", "21", "22", "X", "Y")) {
+            for (int i = 0; i < 50; i++) {
+                int start = random.nextInt(60000) + 1;
+                int end = Math.min(60000, start + random.nextInt(3000));
+                assertEquals(chromosome + ":" + start + "-" + end, referenceGenomeReader.query(chromosome, start, end),
+                        adaptor.getSequence(new Region(chromosome, start, end)));
+            }
+        }
+
+        adaptor.close();
+    }
+
+}
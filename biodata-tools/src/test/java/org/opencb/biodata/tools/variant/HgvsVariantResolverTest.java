@@ -0,0 +1,65 @@
+package org.opencb.biodata.tools.variant;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.tools.sequence.SequenceAdaptor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created on 19/10/26.
+ */
+public class HgvsVariantResolverTest {
+
+    private static final String CHR1 = "ACGTCAGCAGCAGTTTTACGT";
+    private static final String CHR2 = "GGGGGGGGGGAAAAA";
+
+    private final SequenceAdaptor sequenceAdaptor = (contig, start, end) -> {
+        String sequence = contig.equals("1") ? CHR1 : CHR2;
+        if (end > sequence.length()) {
+            throw new IllegalArgumentException("Out of contig " + contig + ":" + start + "-" + end);
+        }
+        return sequence.substring(start - 1, end);
+    };
+
+    @Test
+    public void testResolve() throws Exception {
+        HgvsVariantResolver resolver = new HgvsVariantResolver(sequenceAdaptor, 2).setWindowSize(8);
+        List<Variant> variants = resolver.resolve(Arrays.asList(
+                "NC_000001.10:g.3G>T",
+                "NC_000001.10:g.4_6del",
+                "NC_000001.10:g.2dup",
+                "NC_000001.10:g.10_11insTT",
+                "NC_000001.10:g.5_7delinsGG",
+                "NC_000001.10:g.5_7delCAGinsGG",
+                "NC_000001.10:g.5CAG[5]",
+                "NC_000002.11:g.1_3del",
+                "NC_000002.11:g.11_12delins5",
+                "NC_000002.11:g.14_20del",
+                "NM_000001.1:c.3G>T",
+                "garbage"));
+
+        assertEquals(new Variant("1", 3, 3, "G", "T"), variants.get(0));
+        assertEquals(new Variant("1", 4, 6, "TCA", "-"), variants.get(1));
+        assertEquals(new Variant("1", 2, 2, "-", "C"), variants.get(2));
+        assertEquals(new Variant("1", 10, 11, "-", "TT"), variants.get(3));
+        assertEquals(new Variant("1", 5, 7, "CAG", "GG"), variants.get(4));
+        assertEquals(variants.get(4), variants.get(5));
+        assertEquals(new Variant("1", 5, 13, "CAGCAGCAG", "CAGCAGCAGCAGCAG"), variants.get(6));
+        assertEquals(new Variant("2", 1, 3, "GGG", "-"), variants.get(7));
+        for (int i = 8; i < variants.size(); i++) {
+            assertNull(variants.get(i));
+        }
+
+        Map<HgvsVariantResolver.Failure, Long> failures = resolver.getFailureCounts();
+        assertEquals(1, failures.get(HgvsVariantResolver.Failure.UNSUPPORTED).longValue());
+        assertEquals(1, failures.get(HgvsVariantResolver.Failure.REFERENCE_ERROR).longValue());
+        assertEquals(1, failures.get(HgvsVariantResolver.Failure.NOT_GENOMIC).longValue());
+        assertEquals(1, failures.get(HgvsVariantResolver.Failure.MALFORMED).longValue());
+    }
+}
@@ -2,7 +2,7 @@ package org.opencb.biodata.tools.variant;
 
 import org.junit.Rule;
 import org.junit.Test;
-import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.opencb.biodata.models.variant.Variant;
 
 import java.util.*;
@@ -57,69 +57,92 @@ public class VariantDeduplicationTaskTest {
     }
 
     @Test
-    public void testCircularQueue() {
-        VariantDeduplicationTask.CircularSortedArrayQueue<Integer> l = new VariantDeduplicationTask.CircularSortedArrayQueue<>(4, Integer::compare);
-
-        List<Integer> v = new ArrayList<>(Arrays.asList(1, 2, 3, 4, 4, 5, 6, 8, 7, 8, 9));
+    public void testDistantDuplicates() throws Exception {
+        List<List<Variant>> duplicates = new ArrayList<>();
+        VariantDeduplicationTask t = new VariantDeduplicationTask(list -> {
+            duplicates.add(list);
+            return Collections.singletonList(list.get(0));
+        });
 
-        for (int i = 0; i < 20; i++) {
-            v.add(i + 10);
+        // A duplicate of a large deletion, left aligned by normalization, is found 500 records after the original one
+        String deletion = "1:150:" + String.join("", Collections.nCopies(600, "A")) + ":-";
+        List<Variant> input = new ArrayList<>();
+        input.add(new Variant("1:100:A:C"));
+        input.add(new Variant(deletion));
+        for (int i = 0; i < 500; i++) {
+            input.add(new Variant("1:" + (200 + i) + ":A:T"));
         }
+        input.add(new Variant(deletion));
+        input.add(new Variant("1:1000:A:T"));
+        input.add(new Variant("2:100:A:T"));
 
-        int limit = 0;
-        Iterator<Integer> iterator = v.iterator();
-        while ((iterator.hasNext() || l.size() > 0) && limit++ < v.size() * 2) {
-            if (l.hasNext()) {
-                if (l.isDuplicated()) {
-                    List<Integer> list = l.nextDuplicated();
-                    assertNotNull(list);
-                    System.out.println(list);
-                } else {
-                    Integer next = l.next();
-                    assertNotNull(next);
-                    System.out.println(next);
-                }
-            }
-            if (iterator.hasNext()) {
-                Integer i = iterator.next();
-                l.add(i);
-            } else {
-                l.setFinished(true);
-            }
+        List<Variant> l = new ArrayList<>();
+        for (int i = 0; i < input.size(); i += 10) {
+            l.addAll(t.apply(input.subList(i, Math.min(input.size(), i + 10))));
         }
+        l.addAll(t.drain());
 
+        assertEquals(input.size() - 1, l.size());
+        assertEquals(1, duplicates.size());
+        assertEquals(2, duplicates.get(0).size());
+        assertEquals(150, duplicates.get(0).get(0).getStart().intValue());
+        assertEquals(749, duplicates.get(0).get(0).getEnd().intValue());
+        assertEquals(1, t.getDiscardedVariants());
+        assertEquals(1, t.getDuplicatedGroups());
+        assertEquals(1, t.getUnsortedVariants());
+        assertEquals(600, t.getMaxWindow());
+        assertEquals(0, t.getSpilledVariants());
     }
 
+    @Test
+    public void testSpill() throws Exception {
+        VariantDeduplicationTask t = new VariantDeduplicationTask(list -> Collections.singletonList(list.get(0)), 10,
+                temporaryFolder.getRoot().toPath());
 
-    @Rule
-    public ExpectedException thrown = ExpectedException.none();
+        List<Variant> input = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            input.add(new Variant("1:" + (1000 - i) + ":A:T"));
+        }
+        input.add(new Variant("1:990:A:T"));
+        input.add(new Variant("2:100:A:T"));
+        input.add(new Variant("1:995:A:T"));
 
-    @Test
-    public void testCircularQueueFull() {
-        VariantDeduplicationTask.CircularSortedArrayQueue<Integer> l =
-                new VariantDeduplicationTask.CircularSortedArrayQueue<>(4, Integer::compare);
-
-        l.add(1);
-        l.add(2);
-        l.add(3);
-        l.add(4);
-        thrown.expect(IllegalStateException.class);
-        thrown.expectMessage("Queue full");
-        l.add(5);
+        List<Variant> l = t.apply(input);
+        // The whole merge is returned by one drain
+        l.addAll(t.drain());
+        assertEquals(0, t.drain().size());
 
+        assertEquals(51, l.size());
+        assertEquals(2, t.getDiscardedVariants());
+        assertEquals(2, t.getDiscardedRecords());
+        assertTrue(t.getSpilledVariants() > 0);
+        assertEquals("1:951:A:T", l.get(0).toString());
+        assertEquals("2:100:A:T", l.get(l.size() - 1).toString());
+        assertEquals(0, temporaryFolder.getRoot().list().length);
     }
 
     @Test
-    public void testCircularAllDuplicated() {
-        VariantDeduplicationTask.CircularSortedArrayQueue<Integer> l =
-                new VariantDeduplicationTask.CircularSortedArrayQueue<>(4, Integer::compare);
+    public void testSpillPost() throws Exception {
+        VariantDeduplicationTask t = new VariantDeduplicationTask(list -> Collections.singletonList(list.get(0)), 10,
+                temporaryFolder.getRoot().toPath());
 
-        l.add(2);
-        l.add(2);
-        l.add(2);
-        thrown.expect(IllegalStateException.class);
-        thrown.expectMessage("New element below than any other");
-        l.add(1);
+        List<Variant> input = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            input.add(new Variant("1:" + (1000 - i) + ":A:T"));
+        }
+        t.apply(input);
+        assertTrue(temporaryFolder.getRoot().list().length > 0);
 
+        List<Variant> drained = t.drain();
+        assertEquals(50, drained.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("1:" + (951 + i) + ":A:T", drained.get(i).toString());
+        }
+        assertEquals(0, temporaryFolder.getRoot().list().length);
+        t.post();
+        assertEquals(0, temporaryFolder.getRoot().list().length);
     }
-}
\ No newline at end of file
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+}
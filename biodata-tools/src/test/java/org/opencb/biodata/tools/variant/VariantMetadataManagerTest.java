@@ -5,6 +5,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opencb.biodata.models.metadata.Individual;
 import org.opencb.biodata.models.metadata.Sample;
+import org.opencb.biodata.models.variant.metadata.VariantFileMetadata;
 import org.opencb.biodata.models.variant.metadata.VariantMetadata;
 import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
 import org.opencb.biodata.tools.variant.metadata.VariantMetadataManager;
@@ -14,10 +15,11 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 
 /**
  * Created by jtarraga on 11/08/17.
@@ -118,6 +120,145 @@ public class VariantMetadataManagerTest {
         assertEquals("Sample_2_0", samples.get(0).getId());
     }
 
+    @Test
+    public void getSamplesByEqualityQuery() {
+        String studyId = variantMetadata.getStudies().get(0).getId();
+        Query query = new Query();
+        query.put("weight", "=74.0");
+        assertEquals(Arrays.asList("Sample_0_2", "Sample_1_0"), manager.getSamples(query, studyId)
+                .stream().map(Sample::getId).collect(Collectors.toList()));
+
+        query.put("hpo", "==Q1110");
+        assertEquals(Arrays.asList("Sample_1_0"), manager.getSamples(query, studyId)
+                .stream().map(Sample::getId).collect(Collectors.toList()));
+
+        query = new Query();
+        query.put("hpo", "!=Q1110");
+        assertEquals(9, manager.getSamples(query, studyId).size());
+
+        // Samples added through the manager are indexed in the next query
+        VariantFileMetadata file = new VariantFileMetadata();
+        file.setId("file1.vcf");
+        file.setSampleIds(Arrays.asList("Sample_new"));
+        manager.addFile(file, studyId);
+        manager.getSamples(studyId).stream()
+                .filter(sample -> sample.getId().equals("Sample_new"))
+                .forEach(sample -> sample.getAnnotations().put("hpo", "Q1110"));
+        assertEquals(9, manager.getSamples(query, studyId).size());
+        query = new Query();
+        query.put("hpo", "=Q1110");
+        assertEquals(4, manager.getSamples(query, studyId).size());
+    }
+
+    @Test
+    public void getSamplesAfterInPlaceChanges() {
+        String studyId = variantMetadata.getStudies().get(0).getId();
+        Query query = new Query();
+        query.put("hpo", "=Q9999");
+        assertEquals(0, manager.getSamples(query, studyId).size());
+
+        variantMetadata.getStudies().get(0).getIndividuals().get(0).getSamples().get(0).getAnnotations().put("hpo", "Q9999");
+        manager.invalidateIndexes();
+        assertEquals(Arrays.asList("Sample_0_0"), manager.getSamples(query, studyId)
+                .stream().map(Sample::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void addAndRemove() {
+        String studyId = variantMetadata.getStudies().get(0).getId();
+        VariantStudyMetadata study2 = new VariantStudyMetadata();
+        study2.setId("22");
+        manager.addVariantDatasetMetadata(study2);
+        assertSame(study2, manager.getVariantStudyMetadata("22"));
+        assertSame(variantMetadata.getStudies().get(0), manager.getVariantStudyMetadata(studyId));
+
+        VariantFileMetadata file = new VariantFileMetadata();
+        file.setId("file1.vcf");
+        file.setSampleIds(Arrays.asList("S1", "S2"));
+        manager.addFile(file, "22");
+        assertEquals(2, manager.getSamples("22").size());
+
+        // Duplicated file and duplicated samples are rejected
+        manager.addFile(file, "22");
+        VariantFileMetadata file2 = new VariantFileMetadata();
+        file2.setId("file2.vcf");
+        file2.setSampleIds(Arrays.asList("S2", "S3"));
+        manager.addFile(file2, "22");
+        assertEquals(1, study2.getFiles().size());
+        assertEquals(2, manager.getSamples("22").size());
+
+        manager.removeFile("file1.vcf", "22");
+        manager.removeIndividual("S2", "22");
+        file2.setSampleIds(Arrays.asList("S2"));
+        manager.addFile(file2, "22");
+        assertEquals(Arrays.asList("file2.vcf"), study2.getFiles().stream().map(VariantFileMetadata::getId).collect(Collectors.toList()));
+        assertEquals(2, manager.getSamples("22").size());
+
+        manager.removeVariantStudyMetadata("22");
+        assertNull(manager.getVariantStudyMetadata("22"));
+        assertNotNull(manager.getVariantStudyMetadata(studyId));
+    }
+
+    @Test
+    public void saveSnapshot() throws IOException {
+        Path path = Paths.get("/tmp/ds.meta.snapshot");
+        if (path.toFile().exists()) {
+            path.toFile().delete();
+        }
+        VariantStudyMetadata study2 = new VariantStudyMetadata();
+        study2.setId("22");
+        manager.addVariantDatasetMetadata(study2);
+        manager.saveSnapshot(path);
+
+        manager = new VariantMetadataManager();
+        manager.load(path);
+
+        // Studies are decoded on demand
+        List<Sample> samples = manager.getSamples(variantMetadata.getStudies().get(0).getId());
+        assertEquals(12, samples.size());
+        assertEquals("Sample_0_0", samples.get(0).getId());
+        assertEquals("20", samples.get(0).getAnnotations().get("age"));
+        assertEquals("Person_0", samples.get(0).getAnnotations().get("individual.id"));
+
+        Query query = new Query();
+        query.put("age", ">=30");
+        query.put("population", "=P2220");
+        query.put("weight", "<78");
+        assertEquals(Arrays.asList("Sample_2_0"), manager.getSamples(query, "11")
+                .stream().map(Sample::getId).collect(Collectors.toList()));
+
+        assertEquals(Arrays.asList("11", "22"), manager.getVariantMetadata().getStudies()
+                .stream().map(VariantStudyMetadata::getId).collect(Collectors.toList()));
+    }
+
+
+    @Test
+    public void saveSnapshotDuplicatedStudies() throws IOException {
+        Path path = Paths.get("/tmp/ds.meta.dup.snapshot");
+        if (path.toFile().exists()) {
+            path.toFile().delete();
+        }
+        // Added directly, as the manager rejects duplicated IDs
+        VariantStudyMetadata duplicated = new VariantStudyMetadata();
+        duplicated.setId("11");
+        duplicated.setDescription("duplicated");
+        VariantStudyMetadata noId = new VariantStudyMetadata();
+        noId.setDescription("no id");
+        variantMetadata.getStudies().add(noId);
+        variantMetadata.getStudies().add(duplicated);
+        manager.saveSnapshot(path);
+
+        manager = new VariantMetadataManager();
+        manager.load(path);
+
+        // First study with the ID, as before saving
+        assertEquals(12, manager.getSamples("11").size());
+        List<VariantStudyMetadata> studies = manager.getVariantMetadata().getStudies();
+        assertEquals(Arrays.asList("11", null, "11"), studies.stream().map(VariantStudyMetadata::getId)
+                .collect(Collectors.toList()));
+        assertEquals("no id", studies.get(1).getDescription());
+        assertEquals("duplicated", studies.get(2).getDescription());
+    }
 
     @Test
     public void print() {
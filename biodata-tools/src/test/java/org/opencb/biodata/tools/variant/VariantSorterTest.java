@@ -0,0 +1,94 @@
+package org.opencb.biodata.tools.variant;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.tools.variant.simulator.VariantSimulator;
+import org.opencb.biodata.tools.variant.simulator.VariantSimulatorConfiguration;
+import org.opencb.commons.io.DataReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created on 19/10/26.
+ */
+public class VariantSorterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSort() throws Exception {
+        List<String> contigs = new VariantSimulatorConfiguration().getRegions().stream()
+                .map(Region::getChromosome)
+                .collect(Collectors.toList());
+        List<Variant> variants = new VariantSimulator().simulate(5000);
+
+        VariantSorter sorter = new VariantSorter(contigs, 100 * 1024, temporaryFolder.getRoot().toPath(), 4)
+                .setMergeFanIn(3);
+        List<Variant> sorted = sort(sorter, variants);
+
+        assertTrue(sorter.getNumRunFiles() > 0);
+        assertEquals(variants.size(), sorted.size());
+        Comparator<Variant> comparator = Comparator.<Variant>comparingInt(v -> contigs.indexOf(v.getChromosome()))
+                .thenComparing(Variant::getStart)
+                .thenComparing(Variant::getEnd)
+                .thenComparing(Variant::getReference)
+                .thenComparing(Variant::getAlternate);
+        List<Variant> expected = new ArrayList<>(variants);
+        expected.sort(comparator);
+        assertEquals(expected.stream().map(Variant::toString).collect(Collectors.toList()),
+                sorted.stream().map(Variant::toString).collect(Collectors.toList()));
+        assertEquals(expected.get(0).getStudies().get(0).getSamplesData(), sorted.get(0).getStudies().get(0).getSamplesData());
+        assertEquals(0, temporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testSortInMemory() throws Exception {
+        List<Variant> variants = Arrays.asList(
+                new Variant("chrX:100:A:C"),
+                new Variant("2:300:A:C"),
+                new Variant("10:100:A:C"),
+                new Variant("2:200:A:C").setId("first"),
+                new Variant("2:200:A:C").setId("second"),
+                new Variant("1:200:A:C"));
+
+        VariantSorter sorter = new VariantSorter(Arrays.asList("1", "2", "10"), temporaryFolder.getRoot().toPath());
+        List<Variant> sorted = sort(sorter, variants);
+
+        assertEquals(0, sorter.getNumRunFiles());
+        assertEquals(Arrays.asList("1:200:A:C", "2:200:A:C", "2:200:A:C", "2:300:A:C", "10:100:A:C", "chrX:100:A:C"),
+                sorted.stream().map(Variant::toString).collect(Collectors.toList()));
+        assertEquals("first", sorted.get(1).getId());
+        assertEquals("second", sorted.get(2).getId());
+    }
+
+    private List<Variant> sort(VariantSorter sorter, List<Variant> variants) {
+        sorter.open();
+        sorter.pre();
+        for (int i = 0; i < variants.size(); i += 100) {
+            sorter.write(variants.subList(i, Math.min(variants.size(), i + 100)));
+        }
+        sorter.post();
+        sorter.close();
+
+        List<Variant> sorted = new ArrayList<>(variants.size());
+        DataReader<Variant> reader = sorter.getSortedReader();
+        reader.open();
+        List<Variant> batch;
+        while (!(batch = reader.read(100)).isEmpty()) {
+            sorted.addAll(batch);
+        }
+        reader.close();
+        return sorted;
+    }
+}
@@ -1,15 +1,25 @@
 package org.opencb.biodata.tools.variant;
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.variant.vcf.VCFCodec;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantFileMetadata;
 import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 
@@ -20,6 +30,9 @@ import static org.junit.Assert.assertEquals;
  */
 public class VariantVcfHtsjdkReaderTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void readFileTest() throws Exception {
         InputStream inputStream = getClass().getResourceAsStream("/ibs.vcf");
@@ -73,4 +86,48 @@ public class VariantVcfHtsjdkReaderTest {
         assertEquals(1, malformated.size());
         assertEquals(malformatedLine, malformated.get(0));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readRegionsTest() throws Exception {
+        String vcf = "##fileformat=VCFv4.1\n"
+                + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts0\n"
+                + "1\t100\t.\tA\tC\t.\tPASS\t.\tGT\t0/1\n"
+                + "1\t200\t.\tAAAAA\tA\t.\tPASS\t.\tGT\t0/1\n"
+                + "1\t300\t.\tA\tC\t.\tPASS\t.\tGT\t0/1\n"
+                + "2\t100\t.\tA\tC\t.\tPASS\t.\tGT\t0/1\n"
+                + "2\t200\t.\tA\tC\t.\tPASS\t.\tGT\t0/1\n";
+        File file = temporaryFolder.newFile("regions.vcf.gz");
+        try (BlockCompressedOutputStream os = new BlockCompressedOutputStream(file)) {
+            os.write(vcf.getBytes());
+        }
+        TabixIndex index = IndexFactory.createTabixIndex(file, new VCFCodec(), TabixFormat.VCF, null);
+        index.writeBasedOnFeatureFile(file);
+
+        VariantStudyMetadata metadata = new VariantFileMetadata("regions.vcf.gz", "2").toVariantStudyMetadata("sid");
+        // The deletion 1:201-204 overlaps both regions of chromosome 1, but must be returned only once
+        VariantVcfHtsjdkReader reader = new VariantVcfHtsjdkReader(file.toPath(), metadata)
+                .setRegions(Arrays.asList(new Region("2", 150, 250), new Region("1", 50, 202), new Region("1", 203, 250)));
+        reader.open();
+        reader.pre();
+        assertEquals(Arrays.asList("s0"), reader.getSampleNames());
+        List<Variant> variants = new ArrayList<>();
+        List<Variant> read;
+        do {
+            read = reader.read(2);
+            variants.addAll(read);
+        } while (!read.isEmpty());
+        reader.post();
+        reader.close();
+
+        assertEquals(Arrays.asList("1", "1", "2"),
+                variants.stream().map(Variant::getChromosome).collect(Collectors.toList()));
+        assertEquals(100, variants.get(0).getStart().intValue());
+        assertEquals(200, variants.get(2).getStart().intValue());
+
+        VcfFileReader vcfFileReader = new VcfFileReader(file.getAbsolutePath(), false)
+                .setRegions(Arrays.asList(new Region("2", 1, 1000)));
+        vcfFileReader.open();
+        assertEquals(2, vcfFileReader.read(10).size());
+        vcfFileReader.close();
+    }
+}
@@ -1,19 +1,30 @@
 package org.opencb.biodata.tools.variant.converters;
 
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.tribble.readers.TabixReader;
 import htsjdk.variant.variantcontext.writer.Options;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
 import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
 import org.opencb.biodata.tools.variant.VariantVcfHtsjdkReader;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class VCFExporterTest {
 
     private Path outPath;
@@ -50,6 +61,138 @@ public class VCFExporterTest {
 
     }
 
+
+    @Test
+    public void exportDirect() throws Exception {
+        VariantStudyMetadata metadata = new VariantFileMetadata("1", "test.vcf").toVariantStudyMetadata("study");
+        List<Variant> variants = readVariants(metadata);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        VCFExporter exporter = new VCFExporter(metadata);
+        exporter.open(expected);
+        exporter.export(variants);
+        exporter.close();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        exporter = new VCFExporter(metadata);
+        exporter.setDirectEncoding(true);
+        exporter.open(actual);
+        exporter.export(variants);
+        exporter.close();
+
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void exportDirectBgzf() throws Exception {
+        VariantStudyMetadata metadata = new VariantFileMetadata("1", "test.vcf").toVariantStudyMetadata("study");
+        List<Variant> variants = readVariants(metadata);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        VCFExporter exporter = new VCFExporter(metadata);
+        exporter.open(expected);
+        exporter.export(variants);
+        exporter.close();
+
+        Path gzPath = outPath.resolveSibling("out.vcf.gz");
+        exporter = new VCFExporter(metadata);
+        exporter.setDirectEncoding(true);
+        exporter.setCompressionThreads(4);
+        exporter.open(gzPath, Options.INDEX_ON_THE_FLY);
+        exporter.export(variants);
+        exporter.close();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (BlockCompressedInputStream is = new BlockCompressedInputStream(gzPath.toFile())) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                actual.write(buffer, 0, n);
+            }
+        }
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        assertTrue(Files.exists(Paths.get(gzPath + ".tbi")));
+        TabixReader tabixReader = new TabixReader(gzPath.toString());
+        TabixReader.Iterator query = tabixReader.query("22:16050100-16050300");
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = query.next()) != null) {
+            lines.add(line);
+        }
+        tabixReader.close();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("22\t16050115\t"));
+        assertTrue(lines.get(1).startsWith("22\t16050213\t"));
+    }
+
+    @Test
+    public void exportDirectBgzfIndexMultipleBlocks() throws Exception {
+        VariantStudyMetadata metadata = new VariantFileMetadata("1", "test.vcf").toVariantStudyMetadata("study");
+        // Shifted copies of the input variants, so the output spans multiple BGZF blocks
+        List<Variant> variants = new ArrayList<>();
+        List<Variant> input = readVariants(metadata);
+        for (int i = 0; i < 2000; i++) {
+            for (Variant variant : input) {
+                Variant copy = new Variant(VariantAvro.newBuilder(variant.getImpl()).build());
+                copy.setStart(variant.getStart() + i * 1000);
+                copy.setEnd(variant.getEnd() + i * 1000);
+                variants.add(copy);
+            }
+        }
+
+        for (int threads : new int[]{1, 4}) {
+            Path gzPath = outPath.resolveSibling("out." + threads + ".vcf.gz");
+            VCFExporter exporter = new VCFExporter(metadata);
+            exporter.setDirectEncoding(true);
+            exporter.setCompressionThreads(threads);
+            exporter.open(gzPath, Options.INDEX_ON_THE_FLY);
+            exporter.export(variants);
+            exporter.close();
+
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new BlockCompressedInputStream(gzPath.toFile())))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("#")) {
+                        lines.add(line);
+                    }
+                }
+            }
+            assertEquals(variants.size(), lines.size());
+            assertTrue(lines.stream().mapToInt(String::length).sum() > 4 * 0x10000);
+
+            // Every record must be found at its own position
+            TabixReader tabixReader = new TabixReader(gzPath.toString());
+            for (String line : lines) {
+                String[] fields = line.split("\t", 3);
+                TabixReader.Iterator query = tabixReader.query(fields[0] + ":" + fields[1] + "-" + fields[1]);
+                List<String> found = new ArrayList<>();
+                String next;
+                while ((next = query.next()) != null) {
+                    found.add(next);
+                }
+                assertTrue(line, found.contains(line));
+            }
+            tabixReader.close();
+        }
+    }
+
+    private List<Variant> readVariants(VariantStudyMetadata metadata) {
+        VariantVcfHtsjdkReader reader = new VariantVcfHtsjdkReader(getClass().getResourceAsStream("/test.vcf"), metadata);
+        reader.open();
+        reader.pre();
+        List<Variant> variants = new ArrayList<>();
+        List<Variant> read = reader.read();
+        while (read != null && !read.isEmpty()) {
+            variants.addAll(read);
+            read = reader.read();
+        }
+        reader.post();
+        reader.close();
+        return variants;
+    }
 }
 
 /*
@@ -0,0 +1,118 @@
+package org.opencb.biodata.tools.variant.converters.avro;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VCFEncoder;
+import htsjdk.variant.vcf.VCFHeader;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+import org.opencb.biodata.tools.variant.VariantVcfHtsjdkReader;
+import org.opencb.biodata.tools.variant.metadata.VariantMetadataUtils;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the {@link VariantToVcfEncoder} with the htsjdk {@link VCFEncoder} over the VCF files from the test resources.
+ *
+ * Created on 19/10/26.
+ */
+public class VariantToVcfEncoderTest {
+
+    @Test
+    public void testEncodeTestVcf() throws Exception {
+        checkEncoders("/test.vcf");
+    }
+
+    @Test
+    public void testEncodeIbsVcf() throws Exception {
+        checkEncoders("/ibs.vcf");
+    }
+
+    @Test
+    public void testEncodeBrca2Vcf() throws Exception {
+        checkEncoders("/brca2-variants.vcf");
+    }
+
+    @Test
+    public void testEncodeCeuVcf() throws Exception {
+        checkEncoders("/CEU-1409-01_5000.vcf.gz");
+    }
+
+    private void checkEncoders(String resource) throws Exception {
+        VariantStudyMetadata metadata = new VariantFileMetadata("1", resource).toVariantStudyMetadata("study");
+        List<Variant> variants = readVariants(resource, metadata);
+        assertTrue(resource, !variants.isEmpty());
+
+        VCFHeader header = new VariantStudyMetadataToVCFHeaderConverter().convert(metadata);
+        List<String> allSampleNames = VariantMetadataUtils.getSampleNames(metadata);
+        // A subset of the samples, in reverse order, plus a sample not in the study, as given to VCFExporter::setSampleNames
+        List<String> subsetSampleNames = new ArrayList<>();
+        for (int i = allSampleNames.size() - 1; i >= 0; i -= 2) {
+            subsetSampleNames.add(allSampleNames.get(i));
+        }
+        subsetSampleNames.add("unknown_sample");
+        for (List<String> sampleNames : Arrays.asList(allSampleNames, subsetSampleNames)) {
+            for (List<String> formats : Arrays.asList(Collections.singletonList("GT"), null)) {
+                checkEncoders(resource, variants, metadata.getId(), header, sampleNames, formats);
+            }
+        }
+    }
+
+    private void checkEncoders(String resource, List<Variant> variants, String study, VCFHeader header,
+                               List<String> sampleNames, List<String> formats) {
+        VariantAvroToVariantContextConverter converter = new VariantAvroToVariantContextConverter(study,
+                sampleNames, formats, Collections.emptyList());
+        VCFEncoder expectedEncoder = new VCFEncoder(header, true, false);
+        VariantToVcfEncoder encoder = new VariantToVcfEncoder(study, sampleNames, formats,
+                Collections.emptyList(), header, true, true);
+
+        StringBuilder sb = new StringBuilder();
+        for (Variant variant : variants) {
+            String expected;
+            try {
+                VariantContext variantContext = converter.convert(variant);
+                expected = expectedEncoder.encode(variantContext) + "\n";
+            } catch (RuntimeException e) {
+                expected = e.getClass().getName();
+            }
+            String actual;
+            sb.setLength(0);
+            try {
+                encoder.encode(variant, sb);
+                actual = sb.toString();
+            } catch (RuntimeException e) {
+                actual = e.getClass().getName();
+            }
+            assertEquals(resource + " " + variant + " " + sampleNames + " " + formats, expected, actual);
+        }
+    }
+
+    private List<Variant> readVariants(String resource, VariantStudyMetadata metadata) throws Exception {
+        InputStream inputStream = getClass().getResourceAsStream(resource);
+        if (resource.endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        VariantVcfHtsjdkReader reader = new VariantVcfHtsjdkReader(inputStream, metadata);
+        reader.open();
+        reader.pre();
+        List<Variant> variants = new ArrayList<>();
+        List<Variant> read = reader.read(100);
+        while (read != null && !read.isEmpty()) {
+            variants.addAll(read);
+            read = reader.read(100);
+        }
+        reader.post();
+        reader.close();
+        inputStream.close();
+        return variants;
+    }
+}
@@ -6,15 +6,22 @@ import org.ga4gh.models.Variant;
 import org.ga4gh.models.VariantSet;
 import org.junit.Before;
 import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.VariantFileMetadata;
 import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
 import org.opencb.biodata.tools.variant.VariantVcfHtsjdkReader;
 import org.opencb.biodata.tools.variant.converters.ga4gh.factories.AvroGa4GhVariantFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.opencb.biodata.models.variant.VariantTestUtils.generateVariantWithFormat;
 
 /**
@@ -82,4 +89,69 @@ public class Ga4ghVariantConverterTest {
         }
 
     }
+
+    @Test
+    public void testCalls() throws Exception {
+        Ga4ghVariantConverter<Variants.Variant> converter = new Ga4ghVariantConverter<>(true, Collections.singletonMap("S2", 2));
+
+        Variants.Variant variant = converter.convert(generateVariantWithFormat("10:1000:A:T,C", "GT:PS:GL:FT",
+                "S1", "0/1", ".", "-0.1,-1,-2.5", "PASS",
+                "S2", "2|.", "ps1", ".", "NO_PASS"));
+
+        Variants.Call s1 = variant.getCalls(0);
+        assertEquals("S1", s1.getCallSetName());
+        assertEquals("", s1.getCallSetId());
+        assertEquals(Arrays.asList(0, 1), s1.getGenotypeList());
+        assertEquals("", s1.getPhaseset());
+        assertEquals(Arrays.asList(-0.1, -1.0, -2.5), s1.getGenotypeLikelihoodList());
+        assertEquals("PASS", s1.getInfoMap().get("FT").getValues(0).getStringValue());
+
+        Variants.Call s2 = variant.getCalls(1);
+        assertEquals("2", s2.getCallSetId());
+        assertEquals(Collections.singletonList(2), s2.getGenotypeList());
+        assertEquals("ps1", s2.getPhaseset());
+        assertEquals(0, s2.getGenotypeLikelihoodCount());
+    }
+
+    @Test
+    public void testRemappedSamples() throws Exception {
+        Ga4ghVariantConverter<Variants.Variant> converter = new Ga4ghVariantConverter<>();
+        org.opencb.biodata.models.variant.Variant variant = generateVariantWithFormat("10:1000:A:T,C", "GT",
+                "S1", "0/1",
+                "S2", "2|2");
+        assertEquals(Arrays.asList(0, 1), converter.convert(variant).getCalls(0).getGenotypeList());
+
+        // New map with the same contents
+        StudyEntry study = variant.getStudies().get(0);
+        study.setSamplesPosition(new LinkedHashMap<>(study.getSamplesPosition()));
+        assertEquals(Arrays.asList(0, 1), converter.convert(variant).getCalls(0).getGenotypeList());
+
+        // New map with the same size, but different positions
+        Map<String, Integer> samplesPosition = new HashMap<>();
+        samplesPosition.put("S1", 1);
+        samplesPosition.put("S2", 0);
+        study.setSamplesPosition(samplesPosition);
+        Variants.Call s1 = converter.convert(variant).getCalls(0);
+        assertEquals("S1", s1.getCallSetName());
+        assertEquals(Arrays.asList(2, 2), s1.getGenotypeList());
+
+        // Sample added to the same map
+        study.addSampleData("S3", Collections.singletonList("0/0"));
+        assertEquals(3, converter.convert(variant).getCallsCount());
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        List<org.opencb.biodata.models.variant.Variant> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.addAll(variants);
+        }
+
+        Ga4ghVariantConverter<Variants.Variant> converter = new Ga4ghVariantConverter<>();
+        Ga4ghVariantConverter<Variants.Variant> parallelConverter = new Ga4ghVariantConverter<Variants.Variant>()
+                .setNumThreads(4);
+
+        assertEquals(converter.apply(batch), parallelConverter.apply(batch));
+        parallelConverter.post();
+    }
 }
@@ -0,0 +1,158 @@
+package org.opencb.biodata.tools.variant.converters.proto;
+
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+import htsjdk.variant.vcf.VCFHeader;
+import org.junit.Test;
+import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.variant.protobuf.VariantProto;
+import org.opencb.biodata.tools.variant.iterators.VcfLineToProtoVariantIterator;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created on 19/10/26.
+ */
+public class VcfLineToVariantProtoConverterTest {
+
+    private final VcfLineToVariantProtoConverter converter =
+            new VcfLineToVariantProtoConverter("s", "f", Arrays.asList("DP", "AF"));
+
+    @Test
+    public void testConvert() {
+        VariantProto.Variant variant = converter.convert(
+                "1\t100\trs1;rs2\tA\tC,T\t50\tPASS\tDP=10;DB;AF=0.5,0.1\tGT:DP:GQ\t0/1:3:99\t./.\t1/1:4");
+
+        assertEquals("1", variant.getChromosome());
+        assertEquals(100, variant.getStart());
+        assertEquals(100, variant.getEnd());
+        assertEquals("A", variant.getReference());
+        assertEquals("C", variant.getAlternate());
+        assertEquals("rs1", variant.getId());
+        assertEquals(Arrays.asList("rs2"), variant.getNamesList());
+        assertEquals(VariantProto.VariantType.SNP, variant.getType());
+
+        VariantProto.StudyEntry study = variant.getStudies(0);
+        assertEquals("s", study.getStudyId());
+        assertEquals("T", study.getSecondaryAlternates(0).getAlternate());
+        // In the order of the htsjdk genotype attributes, with GT first. GQ and DP are -1 if missing
+        assertEquals(Arrays.asList("GT", "DP", "GQ"), study.getFormatList());
+        assertEquals(3, study.getSamplesDataCount());
+        assertEquals(Arrays.asList("0/1", "3", "99"), study.getSamplesData(0).getInfoList());
+        assertEquals(Arrays.asList("./.", "-1", "-1"), study.getSamplesData(1).getInfoList());
+        assertEquals(Arrays.asList("1/1", "4", "-1"), study.getSamplesData(2).getInfoList());
+
+        VariantProto.FileEntry file = study.getFiles(0);
+        assertEquals("f", file.getFileId());
+        assertEquals("100:A*:C,T", file.getCall());
+        assertEquals("10", file.getAttributesMap().get("DP"));
+        assertEquals("true", file.getAttributesMap().get("DB"));
+        assertEquals("[0.5, 0.1]", file.getAttributesMap().get("AF"));
+    }
+
+    @Test
+    public void testReuseBuilders() {
+        VariantProto.Variant first = converter.convert("2\t300\t.\tA\t<DEL>\t.\t.\tEND=400;SVTYPE=DEL\tGT\t0/1");
+        VariantProto.Variant second = converter.convert("2\t400\t.\tAC\tGT,A\t.\t.\t.");
+
+        assertEquals(400, first.getEnd());
+        assertEquals(VariantProto.VariantType.SYMBOLIC, first.getType());
+        // No FORMAT keys with a single sample
+        assertEquals(0, first.getStudies(0).getFormatCount());
+        assertEquals(1, first.getStudies(0).getSamplesDataCount());
+        assertEquals(0, first.getStudies(0).getSamplesData(0).getInfoCount());
+        assertEquals(2, first.getStudies(0).getFiles(0).getAttributesCount());
+
+        assertEquals(401, second.getEnd());
+        assertEquals(VariantProto.VariantType.MIXED, second.getType());
+        assertEquals("", second.getId());
+        assertEquals(0, second.getStudies(0).getSamplesDataCount());
+        assertEquals(0, second.getStudies(0).getFiles(0).getAttributesCount());
+    }
+
+    @Test
+    public void testGenotypes() {
+        VariantProto.Variant variant = converter.convert(
+                "1\t100\t.\tac\tGT,A\t.\t.\t.\tGT:AD:FT\t0|1:1,2:PASS\t1/2|0:.:a;b\t00/.:1,x");
+
+        assertEquals("AC", variant.getReference());
+        assertEquals("100:AC*:GT,A", variant.getStudies(0).getFiles(0).getCall());
+        VariantProto.StudyEntry study = variant.getStudies(0);
+        assertEquals(Arrays.asList("GT", "FT", "AD"), study.getFormatList());
+        assertEquals(Arrays.asList("0|1", "", "1,2"), study.getSamplesData(0).getInfoList());
+        assertEquals(Arrays.asList("1|2|0", "a,b", ""), study.getSamplesData(1).getInfoList());
+        assertEquals(Arrays.asList("0/.", ".", ""), study.getSamplesData(2).getInfoList());
+    }
+
+    @Test
+    public void testSameAsVariantContextConverterTestVcf() throws Exception {
+        checkSameAsVariantContextConverter("/test.vcf");
+    }
+
+    @Test
+    public void testSameAsVariantContextConverterIbsVcf() throws Exception {
+        checkSameAsVariantContextConverter("/ibs.vcf");
+    }
+
+    @Test
+    public void testSameAsVariantContextConverterBrca2Vcf() throws Exception {
+        checkSameAsVariantContextConverter("/brca2-variants.vcf");
+    }
+
+    @Test
+    public void testSameAsVariantContextConverterCeuVcf() throws Exception {
+        checkSameAsVariantContextConverter("/CEU-1409-01_5000.vcf.gz");
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+        List<VariantProto.Variant> expected = new ArrayList<>();
+        try (InputStream inputStream = getClass().getResourceAsStream("/ibs.vcf")) {
+            LineIterator lineIterator = new LineIteratorImpl(new SynchronousLineReader(inputStream));
+            FullVcfCodec codec = new FullVcfCodec();
+            codec.readActualHeader(lineIterator);
+            VariantContextToVariantProtoConverter expectedConverter = new VariantContextToVariantProtoConverter("", "");
+            while (lineIterator.hasNext()) {
+                expected.add(expectedConverter.convert(codec.decode(lineIterator.next())));
+            }
+        }
+
+        List<VariantProto.Variant> variants = new ArrayList<>();
+        LineIterator lineIterator = new LineIteratorImpl(new SynchronousLineReader(getClass().getResourceAsStream("/ibs.vcf")));
+        try (VcfLineToProtoVariantIterator iterator = new VcfLineToProtoVariantIterator(lineIterator)) {
+            iterator.forEachRemaining(variants::add);
+        }
+        assertFalse(variants.isEmpty());
+        assertEquals(expected, variants);
+    }
+
+    private void checkSameAsVariantContextConverter(String resource) throws Exception {
+        InputStream inputStream = getClass().getResourceAsStream(resource);
+        if (resource.endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        LineIterator lineIterator = new LineIteratorImpl(new SynchronousLineReader(inputStream));
+        FullVcfCodec codec = new FullVcfCodec();
+        VCFHeader header = (VCFHeader) codec.readActualHeader(lineIterator);
+
+        VariantContextToVariantProtoConverter expectedConverter = new VariantContextToVariantProtoConverter("s", "f");
+        VcfLineToVariantProtoConverter lineConverter = new VcfLineToVariantProtoConverter(header, "s", "f");
+        int numLines = 0;
+        while (lineIterator.hasNext()) {
+            String line = lineIterator.next();
+            assertEquals(line, expectedConverter.convert(codec.decode(line)), lineConverter.convert(line));
+            numLines++;
+        }
+        inputStream.close();
+        assertTrue(resource, numLines > 0);
+    }
+}
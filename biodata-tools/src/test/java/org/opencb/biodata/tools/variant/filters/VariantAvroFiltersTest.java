@@ -2,10 +2,13 @@ package org.opencb.biodata.tools.variant.filters;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantType;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -73,6 +76,13 @@ public class VariantAvroFiltersTest {
         assertEquals(Arrays.asList("v1"), filter(new VariantAvroFilters().addFilter("FILE:FILTER=PASS,noPass;QUAL>500")));
         assertEquals(Arrays.asList("v2"), filter(new VariantAvroFilters().addFilter("FILE:FILTER=PASS,noPass;QUAL<500")));
 
+        assertEquals(Arrays.asList("v1"), filter(new VariantAvroFilters().addPassFilter()));
+        assertEquals(Arrays.asList("v3"), filter(new VariantAvroFilters().addPassFilter("filter2")));
+        assertEquals(Arrays.asList(), filter(new VariantAvroFilters().addPassFilter("filter")));
+        assertEquals(Arrays.asList("v2", "v3"), filter(new VariantAvroFilters().addFilter("FORMAT:DP>=20")));
+        assertEquals(Arrays.asList("v1", "v2"), filter(new VariantAvroFilters().addFilter("FORMAT:DP<20.5")));
+        assertEquals(Arrays.asList("v3"), filter(new VariantAvroFilters().addFilter("FORMAT:DP>-1;FORMAT:DP2>20")));
+
         // Negated filter
         assertEquals(Arrays.asList("v2", "v3"), filter(new VariantAvroFilters().addFilter("FILTER=!PASS")));
         assertEquals(Arrays.asList("v2"), filter(new VariantAvroFilters().addFilter("FILTER=!PASS,!filter1")));
@@ -84,6 +94,46 @@ public class VariantAvroFiltersTest {
 
     }
 
+    @Test
+    public void testRegionFilter() {
+        assertEquals(Arrays.asList("v1", "v2"), filter(new VariantAvroFilters().addRegionFilter(new Region("1", 5, 25), false)));
+        assertEquals(Arrays.asList("v2", "v3"), filter(new VariantAvroFilters().addRegionFilter(Arrays.asList(
+                new Region("1", 28, 35), new Region("2", 1, 100), new Region("1", 15, 20)), false)));
+        assertEquals(Collections.emptyList(), filter(new VariantAvroFilters().addRegionFilter(new Region("2", 1, 100), false)));
+        assertEquals(Collections.emptyList(), filter(new VariantAvroFilters().addRegionFilter(Collections.emptyList(), false)));
+
+        // Overlapping and nested regions
+        assertEquals(Arrays.asList("v1", "v2", "v3"), filter(new VariantAvroFilters().addRegionFilter(Arrays.asList(
+                new Region("1", 1, 15), new Region("1", 10, 30), new Region("1", 12, 14)), false)));
+
+        // Contained in a single region
+        List<Variant> deletions = Arrays.asList(
+                Variant.newBuilder("1:10:AAAAAAAAAAA:-").setId("d1").build(),
+                Variant.newBuilder("1:40:AA:-").setId("d2").build());
+        List<Region> regions = Arrays.asList(new Region("1", 5, 15), new Region("1", 12, 30), new Region("1", 35, 50),
+                new Region("1", 38, 42));
+        assertEquals(Arrays.asList("d2"), filter(deletions, new VariantAvroFilters().addRegionFilter(regions, true)));
+        assertEquals(Arrays.asList("d1", "d2"), filter(deletions, new VariantAvroFilters().addRegionFilter(regions, false)));
+
+        // Many regions, sorted variants
+        List<Region> panel = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            panel.add(new Region("1", i * 100 + 1, i * 100 + 50));
+        }
+        List<Variant> sortedVariants = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            sortedVariants.add(Variant.newBuilder("1:" + (i * 25 + 1) + ":A:T").setId(String.valueOf(i)).build());
+        }
+        VariantAvroFilters panelFilter = new VariantAvroFilters().addRegionFilter(panel, true);
+        for (Variant variant : sortedVariants) {
+            assertEquals(variant.toString(), (variant.getStart() - 1) % 100 < 50, panelFilter.test(variant));
+        }
+    }
+
+    private List<String> filter(List<Variant> variants, Predicate<Variant> variantAvroFilters) {
+        return variants.stream().filter(variantAvroFilters).map(Variant::getId).collect(Collectors.toList());
+    }
+
     private List<String> filter(Predicate<Variant> variantAvroFilters) {
         return variants.stream().filter(variantAvroFilters).map(Variant::getId).collect(Collectors.toList());
     }
@@ -7,6 +7,7 @@ import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantBuilder;
 import org.opencb.biodata.models.variant.avro.VariantScore;
 import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.biodata.tools.variant.stats.HardyWeinbergExactTest;
 
 import java.util.Collections;
 
@@ -45,4 +46,28 @@ public class HardyWeinbergScoreCalculatorTaskTest {
         // TODO: check that values are correct
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testExactHW() throws Exception {
+        HardyWeinbergScoreCalculatorTask task = new HardyWeinbergScoreCalculatorTask(STUDY, "ALL", true);
+
+        Variant variant = new VariantBuilder("1:100:A:C")
+                .setStudyId(STUDY)
+                .build();
+
+        variant.getStudy(STUDY).setStats(Collections.singletonMap("ALL", new VariantStats()
+                .addGenotype(new Genotype("0/0"), 50)
+                .addGenotype(new Genotype("0|1"), 20)
+                .addGenotype(new Genotype("1/1"), 5)
+        ));
+        task.apply(variant);
+
+        VariantScore score = variant.getStudy(STUDY).getScores().get(0);
+        assertEquals(0.10667718, score.getPValue(), 1e-6);
+
+        HardyWeinbergExactTest exactTest = new HardyWeinbergExactTest(2);
+        assertEquals(0.10667718, exactTest.midP(5, 20, 50), 1e-6);
+        assertEquals(0.5, exactTest.midP(0, 0, 10), 1e-9);
+        assertEquals(1.0 / 6, exactTest.midP(1, 0, 1), 1e-9);
+    }
+}
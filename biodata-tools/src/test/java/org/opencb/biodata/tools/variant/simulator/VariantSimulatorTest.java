@@ -16,8 +16,23 @@
 
 package org.opencb.biodata.tools.variant.simulator;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+import org.opencb.biodata.tools.variant.VariantVcfHtsjdkReader;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -26,6 +41,9 @@ import static org.junit.Assert.*;
  */
 public class VariantSimulatorTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void testSimulate() throws Exception {
         VariantSimulatorConfiguration variantSimulatorConfiguration = new VariantSimulatorConfiguration();
@@ -33,6 +51,15 @@ public class VariantSimulatorTest {
         Variant variant = variantSimulator.simulate();
 //        System.out.println(variant);
         System.out.println(variant.toJson());
+
+        VariantSimulatorConfiguration configuration = new VariantSimulatorConfiguration();
+        configuration.setSeed(42L);
+        List<String> expected = Arrays.asList(new VariantSimulator(configuration).simulate().toJson(),
+                new VariantSimulator(configuration).simulate().toJson());
+        VariantSimulator simulator = new VariantSimulator(configuration);
+        assertEquals(expected.get(0), simulator.simulate().toJson());
+        assertEquals(expected.get(0), expected.get(1));
+        assertNotEquals(expected.get(0), simulator.simulate().toJson());
     }
 
     @Test
@@ -44,4 +71,129 @@ public class VariantSimulatorTest {
     public void testSimulate2() throws Exception {
 
     }
+
+    @Test
+    public void testSimulateSameSeed() throws Exception {
+        List<Region> regions = Arrays.asList(new Region("1", 1, 1000000), new Region("2", 1, 500000));
+        List<Variant> expected = simulate(regions, 1);
+        List<Variant> variants = simulate(regions, 4);
+
+        assertEquals(3000, variants.size());
+        assertEquals(2000, variants.stream().filter(variant -> variant.getChromosome().equals("1")).count());
+        assertEquals(expected.stream().map(Variant::toJson).collect(Collectors.toList()),
+                variants.stream().map(Variant::toJson).collect(Collectors.toList()));
+        for (int i = 1; i < variants.size(); i++) {
+            Variant previous = variants.get(i - 1);
+            Variant variant = variants.get(i);
+            assertTrue(!previous.getChromosome().equals(variant.getChromosome())
+                    || previous.getStart() <= variant.getStart());
+        }
+        assertEquals(20, variants.get(0).getStudies().get(0).getSamplesData().size());
+    }
+
+    @Test
+    public void testSimulateDistinctPositions() throws Exception {
+        VariantSimulatorConfiguration configuration = new VariantSimulatorConfiguration();
+        configuration.setSeed(42L);
+        configuration.setShardSize(25);
+        // Dense shards of 30 positions and 25 variants, and a sparse shard of 2000 positions and 1000 variants
+        List<Variant> dense = new VariantSimulator(configuration).simulate(100, 2,
+                Collections.singletonList(new Region("1", 1, 120)));
+        configuration.setShardSize(1000);
+        List<Variant> sparse = new VariantSimulator(configuration).simulate(1000, 2,
+                Collections.singletonList(new Region("1", 1, 2000)));
+        // Only 50 positions
+        List<Variant> full = new VariantSimulator(configuration).simulate(100, 2,
+                Collections.singletonList(new Region("1", 1, 50)));
+
+        assertEquals(100, dense.size());
+        assertEquals(1000, sparse.size());
+        assertEquals(50, full.size());
+        for (List<Variant> variants : Arrays.asList(dense, sparse, full)) {
+            for (int i = 1; i < variants.size(); i++) {
+                assertTrue(variants.get(i - 1).getStart() < variants.get(i).getStart());
+            }
+        }
+    }
+
+    @Test
+    public void testSimulateSamplesData() throws Exception {
+        VariantSimulatorConfiguration configuration = new VariantSimulatorConfiguration();
+        configuration.setSeed(42L);
+        Variant variant = new VariantSimulator(configuration).simulate(1, 3, null).get(0);
+        StudyEntry studyEntry = variant.getStudies().get(0);
+        List<List<String>> samplesData = studyEntry.getSamplesData();
+
+        assertEquals(3, samplesData.size());
+        assertEquals(VariantSimulator.getSampleNames(3), studyEntry.getOrderedSamplesName());
+        assertEquals(samplesData.get(1).get(0), studyEntry.getSampleData("SAMPLE_2", "GT"));
+        List<String> sampleData = new ArrayList<>(samplesData.get(1));
+        assertEquals(4, sampleData.size());
+        assertEquals(sampleData, samplesData.get(1));
+
+        // Samples data can be modified as any other variant
+        samplesData.get(1).set(0, "1|1");
+        assertEquals("1|1", samplesData.get(1).get(0));
+        assertEquals(sampleData.subList(1, 4), samplesData.get(1).subList(1, 4));
+        samplesData.set(2, new ArrayList<>(Arrays.asList("0/0", "1", "2", "3", "4")));
+        assertEquals(Arrays.asList("0/0", "1", "2", "3", "4"), samplesData.get(2));
+        studyEntry.addFormat("FT");
+        studyEntry.addSampleData("SAMPLE_4", Arrays.asList("0/1", "1", "2", "3", "PASS"));
+        assertEquals(4, samplesData.size());
+        assertEquals("PASS", studyEntry.getSampleData("SAMPLE_4", "FT"));
+    }
+
+    @Test
+    public void testWriteVcf() throws Exception {
+        VariantSimulatorConfiguration configuration = new VariantSimulatorConfiguration();
+        configuration.setSeed(42L);
+        configuration.setShardSize(100);
+        List<Region> regions = Arrays.asList(new Region("1", 1, 1000000), new Region("2", 1, 500000));
+        VariantSimulator simulator = new VariantSimulator(configuration);
+        List<Variant> expected = simulator.simulate(300, 5, regions);
+        Path vcf = temporaryFolder.getRoot().toPath().resolve("simulated.vcf");
+        simulator.writeVcf(300, 5, regions, vcf);
+
+        VariantStudyMetadata metadata = simulator.getVariantStudyMetadata(5);
+        List<Variant> variants = new ArrayList<>();
+        try (InputStream inputStream = Files.newInputStream(vcf)) {
+            VariantVcfHtsjdkReader reader = new VariantVcfHtsjdkReader(inputStream, metadata);
+            reader.open();
+            reader.pre();
+            List<Variant> read = reader.read(100);
+            while (read != null && !read.isEmpty()) {
+                variants.addAll(read);
+                read = reader.read(100);
+            }
+            reader.post();
+            reader.close();
+        }
+
+        assertEquals(VariantSimulator.getSampleNames(5), getHeaderSamples(vcf));
+        assertEquals(expected.size(), variants.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), variants.get(i).toString());
+            List<List<String>> expectedSamplesData = expected.get(i).getStudies().get(0).getSamplesData();
+            List<List<String>> samplesData = variants.get(i).getStudies().get(0).getSamplesData();
+            for (int sample = 0; sample < 5; sample++) {
+                // GT is the first format field
+                assertEquals(expectedSamplesData.get(sample).get(0), samplesData.get(sample).get(0));
+            }
+        }
+    }
+
+    private List<String> getHeaderSamples(Path vcf) throws Exception {
+        String header = Files.readAllLines(vcf).stream().filter(line -> line.startsWith("#CHROM")).findFirst().get();
+        List<String> columns = Arrays.asList(header.split("\t"));
+        return columns.subList(9, columns.size());
+    }
+
+    private List<Variant> simulate(List<Region> regions, int numThreads) {
+        VariantSimulatorConfiguration configuration = new VariantSimulatorConfiguration();
+        configuration.setSeed(42L);
+        configuration.setNumThreads(numThreads);
+        configuration.setShardSize(100);
+        configuration.setGenotypeModel(VariantSimulatorConfiguration.GenotypeModel.HARDY_WEINBERG);
+        return new VariantSimulator(configuration).simulate(3000, 20, regions);
+    }
 }
\ No newline at end of file